@@ -0,0 +1,50 @@
+package com.storage.api.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import com.storage.api.storage.BoxSettings;
+import com.storage.api.storage.BoxUtility;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Signing the JWT assertion exchanged for an access token, with a freshly generated encrypted key.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssertionBenchmark {
+	private static final String PASSPHRASE = "benchmark";
+
+	private BoxSettings boxSettings;
+
+	@Setup
+	public void setup() throws Exception {
+		boxSettings = new BoxSettings();
+		boxSettings.setClientId("client");
+		boxSettings.setAuthurl("https://api.box.com/oauth2/token");
+		boxSettings.setEnterpriseID("enterprise");
+		boxSettings.setPublicKeyID("key");
+		boxSettings.setPassphrase(PASSPHRASE);
+		boxSettings.setPrivateKey(Fixtures.encryptedPrivateKey(PASSPHRASE));
+		if (BoxUtility.getAssertion(boxSettings, "benchmark") == null) {
+			throw new IllegalStateException("The benchmark key could not be used to sign an assertion");
+		}
+	}
+
+	@Benchmark
+	public String getAssertion() {
+		return BoxUtility.getAssertion(boxSettings, "benchmark");
+	}
+}
@@ -0,0 +1,503 @@
+package com.storage.api.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.common.base.Strings;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.storage.api.storage.BandwidthThrottle;
+import com.storage.api.storage.BoxConstants;
+import com.storage.api.storage.ContentHashIndex;
+import com.storage.api.storage.JsonPath;
+import spark.Request;
+import spark.Response;
+import spark.Service;
+
+/**
+ * A local stand-in for the Box API endpoints used by StorageAPI: token, search, folders, folder items, upload, file
+ * info, shared links, copy and content download. Items are kept in memory, uploaded content included.
+ * <p>
+ * Every request first waits for the configured latency, then may be answered with a 429 or a 5xx at the configured
+ * rates. Request and response bodies move at the configured bandwidth, shared by all connections like a single link.
+ * The fault settings can be changed while the server runs.
+ */
+public class FakeBoxServer {
+	private static final String ROOT_FOLDER_ID = "0";
+	private static final String TOKEN_PREFIX = "fake-";
+	private static final int DEFAULT_PAGE_SIZE = 100;
+
+	private final Map<String, FakeItem> items = new ConcurrentHashMap<>();
+	private final AtomicLong nextId = new AtomicLong(1000);
+	private final BandwidthThrottle uploadThrottle = new BandwidthThrottle("fake-box-upload");
+	private final BandwidthThrottle downloadThrottle = new BandwidthThrottle("fake-box-download");
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder throttled = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private volatile long latencyMillis;
+	private volatile double throttleRate;
+	private volatile double errorRate;
+	private volatile int retryAfterSeconds = 1;
+	private Service service;
+
+	public FakeBoxServer() {
+		items.put(ROOT_FOLDER_ID, new FakeItem(ROOT_FOLDER_ID, BoxConstants.FOLDER, "All Files", null));
+	}
+
+	/**
+	 * Start listening on a free port.
+	 */
+	public synchronized void start() {
+		service = Service.ignite();
+		service.port(0);
+		service.before(this::injectFaults);
+		service.post("/oauth2/token", this::token);
+		service.get("/2.0/search", this::search);
+		service.post("/2.0/folders", this::createFolder);
+		service.get("/2.0/folders/:id/items", this::folderItems);
+		service.get("/2.0/files/:id/content", this::download);
+		service.get("/2.0/files/:id", this::fileInfo);
+		service.put("/2.0/files/:id", this::updateFile);
+		service.post("/2.0/files/:id/copy", this::copyFile);
+		service.post("/api/2.0/files/content", this::upload);
+		service.awaitInitialization();
+	}
+
+	public synchronized void stop() {
+		if (service != null) {
+			service.stop();
+			service.awaitStop();
+			service = null;
+		}
+	}
+
+	public String getAuthUrl() {
+		return getRootUrl() + "/oauth2/token";
+	}
+
+	public String getBaseUrl() {
+		return getRootUrl() + "/2.0";
+	}
+
+	public String getUploadUrl() {
+		return getRootUrl() + "/api/2.0";
+	}
+
+	/**
+	 * Fixed delay before every request is handled.
+	 */
+	public void setLatencyMillis(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * Bandwidth shared by all request bodies and, separately, by all response bodies. 0 for unlimited.
+	 */
+	public void setBytesPerSecond(long bytesPerSecond) {
+		uploadThrottle.setBytesPerSecond(bytesPerSecond);
+		downloadThrottle.setBytesPerSecond(bytesPerSecond);
+	}
+
+	/**
+	 * Share of requests answered with 429 Too Many Requests, from 0 to 1.
+	 */
+	public void setThrottleRate(double throttleRate) {
+		this.throttleRate = throttleRate;
+	}
+
+	/**
+	 * Share of requests answered with 503 Service Unavailable, from 0 to 1.
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * Retry-After of the 429 responses.
+	 */
+	public void setRetryAfterSeconds(int retryAfterSeconds) {
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	public long getThrottled() {
+		return throttled.sum();
+	}
+
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	/**
+	 * Number of files stored, copies included.
+	 */
+	public long getFileCount() {
+		return items.values().stream().filter(item -> BoxConstants.FILE.equals(item.type)).count();
+	}
+
+	private String getRootUrl() {
+		return "http://localhost:" + service.port();
+	}
+
+	private void injectFaults(Request req, Response res) throws InterruptedIOException {
+		requests.increment();
+		sleep(latencyMillis);
+		double roll = ThreadLocalRandom.current().nextDouble();
+		if (roll < throttleRate) {
+			throttled.increment();
+			res.header("Retry-After", String.valueOf(retryAfterSeconds));
+			service.halt(429, error(429, "rate_limit_exceeded", "Request rate limit exceeded, please try again later", null).toString());
+		}
+		if (roll < throttleRate + errorRate) {
+			failed.increment();
+			service.halt(HttpURLConnection.HTTP_UNAVAILABLE, error(HttpURLConnection.HTTP_UNAVAILABLE, "unavailable", "Unavailable", null).toString());
+		}
+		if (!req.pathInfo().startsWith("/oauth2/")) {
+			String authorization = req.headers(BoxConstants.AUTHORIZATION);
+			if (authorization == null || !authorization.startsWith(BoxConstants.BEARER + BoxConstants.SPACE + TOKEN_PREFIX)) {
+				service.halt(HttpURLConnection.HTTP_UNAUTHORIZED, "");
+			}
+		}
+	}
+
+	private Object token(Request req, Response res) {
+		JsonObject token = new JsonObject();
+		token.addProperty(BoxConstants.HubConstants.ACCESS_TOKEN, TOKEN_PREFIX + UUID.randomUUID());
+		token.addProperty("expires_in", 3600);
+		token.addProperty("token_type", "bearer");
+		return json(res, HttpURLConnection.HTTP_OK, token);
+	}
+
+	private Object search(Request req, Response res) {
+		String query = Strings.nullToEmpty(req.queryParams(BoxConstants.QUERY));
+		String type = req.queryParams(BoxConstants.TYPE);
+		JsonArray entries = new JsonArray();
+		for (FakeItem item : items.values()) {
+			if (item.name.contains(query) && (type == null || type.equals(item.type)) && !ROOT_FOLDER_ID.equals(item.id)) {
+				entries.add(item.toJson());
+			}
+		}
+		JsonObject response = new JsonObject();
+		response.addProperty("total_count", entries.size());
+		response.add(BoxConstants.ENTRIES, entries);
+		return json(res, HttpURLConnection.HTTP_OK, response);
+	}
+
+	private Object createFolder(Request req, Response res) {
+		JsonElement body = JsonParser.parseString(req.body());
+		String name = JsonPath.getValue(body, "name");
+		String parentId = JsonPath.getValue(body, "parent.id", ROOT_FOLDER_ID);
+		if (Strings.isNullOrEmpty(name) || !items.containsKey(parentId)) {
+			return json(res, HttpURLConnection.HTTP_BAD_REQUEST, error(HttpURLConnection.HTTP_BAD_REQUEST, "bad_request", "Bad Request", null));
+		}
+		FakeItem folder;
+		synchronized (items) {
+			FakeItem existing = findChild(parentId, name);
+			if (existing != null) {
+				return json(res, HttpURLConnection.HTTP_CONFLICT,
+						error(HttpURLConnection.HTTP_CONFLICT, "item_name_in_use", "Item with the same name already exists", existing));
+			}
+			folder = new FakeItem(newId(), BoxConstants.FOLDER, name, parentId);
+			items.put(folder.id, folder);
+		}
+		return json(res, HttpURLConnection.HTTP_CREATED, folder.toJson());
+	}
+
+	private Object folderItems(Request req, Response res) {
+		String folderId = req.params(":id");
+		if (!items.containsKey(folderId)) {
+			return notFound(res);
+		}
+		List<FakeItem> children = new ArrayList<>();
+		for (FakeItem item : items.values()) {
+			if (folderId.equals(item.parentId)) {
+				children.add(item);
+			}
+		}
+		children.sort((a, b) -> Long.compare(Long.parseLong(a.id), Long.parseLong(b.id)));
+
+		int limit = req.queryParams(BoxConstants.LIMIT) != null ? Integer.parseInt(req.queryParams(BoxConstants.LIMIT)) : DEFAULT_PAGE_SIZE;
+		// Markers are opaque to clients, here they are simply the offset of the next page.
+		int offset = Strings.isNullOrEmpty(req.queryParams("marker")) ? 0 : Integer.parseInt(req.queryParams("marker"));
+		int end = Math.min(offset + limit, children.size());
+		JsonArray entries = new JsonArray();
+		for (int i = offset; i < end; i++) {
+			entries.add(children.get(i).toJson());
+		}
+		JsonObject response = new JsonObject();
+		response.addProperty(BoxConstants.LIMIT, limit);
+		response.add(BoxConstants.ENTRIES, entries);
+		response.addProperty("next_marker", end < children.size() ? String.valueOf(end) : "");
+		return json(res, HttpURLConnection.HTTP_OK, response);
+	}
+
+	private Object fileInfo(Request req, Response res) {
+		FakeItem file = items.get(req.params(":id"));
+		if (file == null || !BoxConstants.FILE.equals(file.type)) {
+			return notFound(res);
+		}
+		return json(res, HttpURLConnection.HTTP_OK, file.toJson());
+	}
+
+	private Object updateFile(Request req, Response res) {
+		FakeItem file = items.get(req.params(":id"));
+		if (file == null || !BoxConstants.FILE.equals(file.type)) {
+			return notFound(res);
+		}
+		JsonObject requested = JsonPath.findObject(JsonParser.parseString(req.body()), "shared_link");
+		if (requested != null) {
+			JsonObject sharedLink = new JsonObject();
+			sharedLink.addProperty("url", getRootUrl() + "/s/" + UUID.randomUUID().toString().replace("-", ""));
+			sharedLink.addProperty("access", JsonPath.getValue(requested, "access", "open"));
+			sharedLink.addProperty("is_password_enabled", JsonPath.hasValue(requested, "password"));
+			JsonObject permissions = new JsonObject();
+			permissions.addProperty("can_download", JsonPath.getValue(requested, "permissions.can_download", true));
+			sharedLink.add("permissions", permissions);
+			file.sharedLink = sharedLink;
+		}
+		return json(res, HttpURLConnection.HTTP_OK, file.toJson());
+	}
+
+	private Object copyFile(Request req, Response res) {
+		FakeItem source = items.get(req.params(":id"));
+		if (source == null || !BoxConstants.FILE.equals(source.type)) {
+			return notFound(res);
+		}
+		JsonElement body = JsonParser.parseString(req.body());
+		String parentId = JsonPath.getValue(body, "parent.id", ROOT_FOLDER_ID);
+		FakeItem copy = new FakeItem(newId(), BoxConstants.FILE, JsonPath.getValue(body, "name", source.name), parentId);
+		copy.content = source.content;
+		copy.sha1 = source.sha1;
+		items.put(copy.id, copy);
+		return json(res, HttpURLConnection.HTTP_CREATED, copy.toJson());
+	}
+
+	private Object upload(Request req, Response res) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		copy(uploadThrottle.wrap(req.raw().getInputStream()), body);
+		Multipart multipart = Multipart.parse(body.toByteArray(), BoxConstants.HttpService.BOUNDARY);
+		JsonElement attributes = multipart.fields.get("attributes") != null ? JsonParser.parseString(multipart.fields.get("attributes")) : null;
+		if (attributes == null || multipart.file == null) {
+			return json(res, HttpURLConnection.HTTP_BAD_REQUEST, error(HttpURLConnection.HTTP_BAD_REQUEST, "bad_request", "Missing attributes or file", null));
+		}
+
+		FakeItem file = new FakeItem(newId(), BoxConstants.FILE, JsonPath.getValue(attributes, "name"), JsonPath.getValue(attributes, "parent.id", ROOT_FOLDER_ID));
+		file.content = multipart.file;
+		file.sha1 = ContentHashIndex.sha1(multipart.file);
+		items.put(file.id, file);
+
+		JsonArray entries = new JsonArray();
+		entries.add(file.toJson());
+		JsonObject response = new JsonObject();
+		response.addProperty("total_count", 1);
+		response.add(BoxConstants.ENTRIES, entries);
+		return json(res, HttpURLConnection.HTTP_CREATED, response);
+	}
+
+	private Object download(Request req, Response res) throws IOException {
+		FakeItem file = items.get(req.params(":id"));
+		if (file == null || file.content == null) {
+			return notFound(res);
+		}
+		byte[] content = file.content;
+		int start = 0;
+		int end = content.length - 1;
+		String range = req.headers(BoxConstants.RANGE);
+		if (range != null && range.startsWith("bytes=")) {
+			String[] bounds = range.substring("bytes=".length()).split("-", 2);
+			start = Integer.parseInt(bounds[0]);
+			if (bounds.length > 1 && !bounds[1].isEmpty()) {
+				end = Math.min(Integer.parseInt(bounds[1]), content.length - 1);
+			}
+			if (start >= content.length) {
+				res.status(416);
+				res.header(BoxConstants.CONTENT_RANGE, "bytes */" + content.length);
+				return "";
+			}
+			res.status(HttpURLConnection.HTTP_PARTIAL);
+			res.header(BoxConstants.CONTENT_RANGE, String.format("bytes %d-%d/%d", start, end, content.length));
+		} else {
+			res.status(HttpURLConnection.HTTP_OK);
+		}
+		res.header(BoxConstants.ACCEPT_RANGES, "bytes");
+		res.header(BoxConstants.CONTENT_DISPOSITION, "attachment; filename=\"" + file.name + "\"");
+		res.type(BoxConstants.APPLICATION_OCTET_STREAM);
+		res.raw().setContentLengthLong(end - start + 1L);
+		OutputStream outputStream = downloadThrottle.wrap(res.raw().getOutputStream());
+		outputStream.write(content, start, end - start + 1);
+		outputStream.flush();
+		return "";
+	}
+
+	private FakeItem findChild(String parentId, String name) {
+		for (FakeItem item : items.values()) {
+			if (parentId.equals(item.parentId) && name.equals(item.name)) {
+				return item;
+			}
+		}
+		return null;
+	}
+
+	private String newId() {
+		return String.valueOf(nextId.incrementAndGet());
+	}
+
+	private static Object notFound(Response res) {
+		return json(res, HttpURLConnection.HTTP_NOT_FOUND, error(HttpURLConnection.HTTP_NOT_FOUND, "not_found", "Not Found", null));
+	}
+
+	private static Object json(Response res, int status, JsonObject body) {
+		res.status(status);
+		res.type(BoxConstants.APPLICATION_JSON);
+		return body.toString();
+	}
+
+	/**
+	 * Error body in the format of Box, with the conflicting item in context_info when there is one.
+	 */
+	private static JsonObject error(int status, String code, String message, FakeItem conflict) {
+		JsonObject error = new JsonObject();
+		error.addProperty(BoxConstants.TYPE, "error");
+		error.addProperty("status", status);
+		error.addProperty("code", code);
+		if (conflict != null) {
+			JsonArray conflicts = new JsonArray();
+			conflicts.add(conflict.toJson());
+			JsonObject contextInfo = new JsonObject();
+			contextInfo.add("conflicts", conflicts);
+			error.add("context_info", contextInfo);
+		}
+		error.addProperty("help_url", "http://developers.box.com/docs/#errors");
+		error.addProperty("message", message);
+		error.addProperty("request_id", UUID.randomUUID().toString().replace("-", "").substring(0, 12));
+		return error;
+	}
+
+	private static void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+		byte[] buffer = new byte[BoxConstants.DOWNLOAD_BUFFER_SIZE];
+		int read;
+		while ((read = inputStream.read(buffer)) != -1) {
+			outputStream.write(buffer, 0, read);
+		}
+	}
+
+	private static void sleep(long millis) throws InterruptedIOException {
+		if (millis <= 0) {
+			return;
+		}
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while simulating latency");
+		}
+	}
+
+	private static final class FakeItem {
+		private final String id;
+		private final String type;
+		private final String name;
+		private final String parentId;
+		private volatile byte[] content;
+		private volatile String sha1;
+		private volatile JsonObject sharedLink;
+
+		private FakeItem(String id, String type, String name, String parentId) {
+			this.id = id;
+			this.type = type;
+			this.name = name;
+			this.parentId = parentId;
+		}
+
+		private JsonObject toJson() {
+			JsonObject json = new JsonObject();
+			json.addProperty(BoxConstants.TYPE, type);
+			json.addProperty("id", id);
+			json.addProperty("name", name);
+			if (BoxConstants.FILE.equals(type)) {
+				json.addProperty("sha1", sha1);
+				json.addProperty("size", content != null ? content.length : 0);
+				json.add("shared_link", sharedLink);
+			}
+			return json;
+		}
+	}
+
+	/**
+	 * The parts of a multipart upload body: text fields by name and the content of the file part.
+	 */
+	private static final class Multipart {
+		private final Map<String, String> fields = new ConcurrentHashMap<>();
+		private byte[] file;
+
+		private static Multipart parse(byte[] body, String boundary) {
+			Multipart multipart = new Multipart();
+			byte[] delimiter = (BoxConstants.HttpService.TWO_HYPHENS + boundary).getBytes(StandardCharsets.ISO_8859_1);
+			byte[] headerEnd = "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+			int partStart = indexOf(body, delimiter, 0);
+			while (partStart >= 0) {
+				int headersStart = partStart + delimiter.length;
+				int nextPart = indexOf(body, delimiter, headersStart);
+				int bodyStart = indexOf(body, headerEnd, headersStart);
+				if (nextPart < 0 || bodyStart < 0 || bodyStart > nextPart) {
+					break;
+				}
+				String headers = new String(body, headersStart, bodyStart - headersStart, StandardCharsets.UTF_8);
+				bodyStart += headerEnd.length;
+				// The part ends with the CRLF that precedes the next delimiter.
+				int bodyEnd = nextPart - 2;
+				String name = attribute(headers, "name");
+				if (headers.contains("filename=")) {
+					multipart.file = new byte[bodyEnd - bodyStart];
+					System.arraycopy(body, bodyStart, multipart.file, 0, multipart.file.length);
+				} else if (name != null) {
+					multipart.fields.put(name, new String(body, bodyStart, bodyEnd - bodyStart, StandardCharsets.UTF_8));
+				}
+				partStart = nextPart;
+			}
+			return multipart;
+		}
+
+		private static String attribute(String headers, String attribute) {
+			String prefix = attribute + "=\"";
+			int start = headers.indexOf(prefix);
+			if (start < 0) {
+				return null;
+			}
+			start += prefix.length();
+			int end = headers.indexOf('"', start);
+			return end < 0 ? null : headers.substring(start, end);
+		}
+
+		private static int indexOf(byte[] data, byte[] pattern, int from) {
+			outer:
+			for (int i = from; i <= data.length - pattern.length; i++) {
+				for (int j = 0; j < pattern.length; j++) {
+					if (data[i + j] != pattern[j]) {
+						continue outer;
+					}
+				}
+				return i;
+			}
+			return -1;
+		}
+	}
+}
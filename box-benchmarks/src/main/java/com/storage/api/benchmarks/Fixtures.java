@@ -0,0 +1,92 @@
+package com.storage.api.benchmarks;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openssl.jcajce.JcaPEMWriter;
+import org.bouncycastle.openssl.jcajce.JcaPKCS8Generator;
+import org.bouncycastle.openssl.jcajce.JceOpenSSLPKCS8EncryptorBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Inputs shared by the benchmarks.
+ */
+final class Fixtures {
+	private Fixtures() {
+		throw new IllegalStateException("Fixtures should be used as a utility class");
+	}
+
+	/**
+	 * A folder items response with the given number of file entries.
+	 */
+	static String folderListing(int entries) {
+		JsonArray items = new JsonArray();
+		for (int i = 0; i < entries; i++) {
+			JsonObject item = new JsonObject();
+			item.addProperty("type", "file");
+			item.addProperty("id", String.valueOf(100000 + i));
+			item.addProperty("name", "IMG_" + i + ".jpg");
+			item.addProperty("sha1", "85136c79cbf9fe36bb9d05d0639c70c265c18d37");
+			JsonObject parent = new JsonObject();
+			parent.addProperty("type", "folder");
+			parent.addProperty("id", "11446498");
+			JsonArray parents = new JsonArray();
+			parents.add(parent);
+			JsonObject pathCollection = new JsonObject();
+			pathCollection.addProperty("total_count", 1);
+			pathCollection.add("entries", parents);
+			item.add("path_collection", pathCollection);
+			items.add(item);
+		}
+		JsonObject listing = new JsonObject();
+		listing.addProperty("total_count", entries);
+		listing.add("entries", items);
+		listing.addProperty("next_marker", "");
+		return listing.toString();
+	}
+
+	/**
+	 * Form fields of a file upload, as built by the upload pipeline.
+	 */
+	static String uploadFields() {
+		JsonObject attributes = new JsonObject();
+		attributes.addProperty("name", "IMG_0001.jpg");
+		JsonObject parent = new JsonObject();
+		parent.addProperty("id", "11446498");
+		attributes.add("parent", parent);
+
+		JsonObject formData = new JsonObject();
+		formData.addProperty("name", "attributes");
+		formData.add("value", attributes);
+		formData.addProperty("file_id", "file");
+		formData.addProperty("file_name", "IMG_0001");
+		JsonArray requestArray = new JsonArray();
+		requestArray.add(formData);
+		return requestArray.toString();
+	}
+
+	/**
+	 * A new RSA key as an encrypted PKCS#8 PEM, the format of the key in a Box app configuration.
+	 */
+	static String encryptedPrivateKey(String passphrase) throws NoSuchAlgorithmException, IOException, OperatorCreationException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+		generator.initialize(2048);
+		KeyPair keyPair = generator.generateKeyPair();
+
+		JceOpenSSLPKCS8EncryptorBuilder encryptorBuilder = new JceOpenSSLPKCS8EncryptorBuilder(JcaPKCS8Generator.AES_256_CBC)
+				.setProvider(new BouncyCastleProvider())
+				.setPasssword(passphrase.toCharArray());
+		StringWriter pem = new StringWriter();
+		try (JcaPEMWriter writer = new JcaPEMWriter(pem)) {
+			writer.writeObject(new JcaPKCS8Generator(keyPair.getPrivate(), encryptorBuilder.build()));
+		}
+		return pem.toString();
+	}
+}
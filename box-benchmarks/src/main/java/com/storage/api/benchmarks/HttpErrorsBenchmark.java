@@ -0,0 +1,54 @@
+package com.storage.api.benchmarks;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+
+import com.storage.api.storage.BoxConstants;
+import com.storage.api.storage.BoxRuntimeException;
+import com.storage.api.storage.HttpUtility;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Describing a Box error response, for a json error object, which is a 409 whose conflicting folder is read in the
+ * same pass, and a plain text error.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HttpErrorsBenchmark {
+	private static final String CONFLICT = "{\"type\":\"error\",\"status\":409,\"code\":\"item_name_in_use\","
+			+ "\"context_info\":{\"conflicts\":[{\"type\":\"folder\",\"id\":\"12345\",\"name\":\"uploads\"}]},"
+			+ "\"help_url\":\"http://developers.box.com/docs/#errors\",\"message\":\"Item with the same name already exists\","
+			+ "\"request_id\":\"abcdef123456\"}";
+
+	private final BoxRuntimeException jsonError = new BoxRuntimeException(BoxConstants.LogCodes.BOX_1654, HttpURLConnection.HTTP_CONFLICT, CONFLICT)
+			.withHttpStatus(HttpURLConnection.HTTP_CONFLICT);
+	private final BoxRuntimeException textError = new BoxRuntimeException(BoxConstants.LogCodes.BOX_1654, HttpURLConnection.HTTP_UNAVAILABLE, "\"Service Unavailable\"")
+			.withHttpStatus(HttpURLConnection.HTTP_UNAVAILABLE);
+
+	@Benchmark
+	public String jsonError() throws IOException {
+		StringBuilder apiError = new StringBuilder();
+		HttpUtility.extractHttpErrors(apiError, jsonError);
+		return apiError.toString();
+	}
+
+	@Benchmark
+	public String textError() throws IOException {
+		StringBuilder apiError = new StringBuilder();
+		HttpUtility.extractHttpErrors(apiError, textError);
+		return apiError.toString();
+	}
+}
@@ -0,0 +1,75 @@
+package com.storage.api.benchmarks;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.storage.api.storage.JsonPath;
+import com.storage.api.storage.JsonPathSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JsonPath lookups and updates on a folder listing shaped like a Box response.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonPathBenchmark {
+	private static final JsonPathSet LISTING_PATHS = new JsonPathSet("entries[*].id", "next_marker");
+
+	@Param({"10", "1000"})
+	public int entries;
+
+	private String listing;
+	private JsonElement listingElement;
+
+	@Setup
+	public void setup() {
+		listing = Fixtures.folderListing(entries);
+		listingElement = JsonParser.parseString(listing);
+	}
+
+	@Benchmark
+	public String getValue() {
+		return JsonPath.getValue(listingElement, "entries[0].path_collection.entries[0].id");
+	}
+
+	@Benchmark
+	public JsonObject setValue() {
+		JsonObject object = new JsonObject();
+		JsonPath.setValue(object, "shared_link.permissions.can_download", false);
+		JsonPath.setValue(object, "shared_link.access", "open");
+		return object;
+	}
+
+	@Benchmark
+	public JsonPathSet.Values extractTree() {
+		return LISTING_PATHS.extract(listingElement);
+	}
+
+	@Benchmark
+	public JsonPathSet.Values extractParsed() {
+		return LISTING_PATHS.extract(JsonParser.parseString(listing));
+	}
+
+	@Benchmark
+	public JsonPathSet.Values extractStream() throws Exception {
+		return LISTING_PATHS.read(new JsonReader(new StringReader(listing)));
+	}
+}
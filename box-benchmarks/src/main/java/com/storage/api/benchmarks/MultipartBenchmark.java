@@ -0,0 +1,51 @@
+package com.storage.api.benchmarks;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.storage.api.storage.MultipartBody;
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and writing the multipart body of a file upload. The body is written to a stream that discards it, so
+ * only the encoding is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MultipartBenchmark {
+	@Param({"1024", "4194304"})
+	public int fileSize;
+
+	private String fields;
+	private byte[] file;
+
+	@Setup
+	public void setup() {
+		fields = Fixtures.uploadFields();
+		file = new byte[fileSize];
+		new Random(42).nextBytes(file);
+	}
+
+	@Benchmark
+	public long encode() throws IOException {
+		MultipartBody body = MultipartBody.encode(fields, file, null);
+		body.writeTo(NullOutputStream.INSTANCE);
+		return body.getContentLength();
+	}
+}
@@ -0,0 +1,81 @@
+package com.storage.api.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import com.storage.api.utility.PasswordUtils;
+import com.storage.api.utility.PasswordVerifier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hashing a password with the PBKDF2 settings of PasswordUtils, and verifications per second on one core for each hash
+ * version of PasswordVerifier, on the calling thread and through its pool. A version 1 verification includes rehashing
+ * the password with the current version.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PasswordBenchmark {
+	private static final String PASSWORD = "correct horse battery staple";
+	private static final byte[] SALT = "Y0YSeDuS1ZqqAwRbrwfvAsaBZ8eDwG".getBytes(StandardCharsets.UTF_8);
+
+	@Benchmark
+	public byte[] hash() {
+		// hash clears the password it is given.
+		return PasswordUtils.hash(PASSWORD.toCharArray(), SALT);
+	}
+
+	@State(Scope.Benchmark)
+	public static class StoredHash {
+		@Param({"1", "2"})
+		public int version;
+
+		private PasswordVerifier verifier;
+		private String storedHash;
+
+		@Setup
+		public void setup() {
+			verifier = new PasswordVerifier(1, 16);
+			storedHash = version == 1 ? "1$10000$" + toBase64(SALT) + "$" + toBase64(PasswordUtils.hash(PASSWORD.toCharArray(), SALT))
+					: verifier.hash(PASSWORD).join();
+		}
+
+		@TearDown
+		public void tearDown() {
+			verifier.shutdown();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public boolean verify(StoredHash stored) {
+		return stored.verifier.verifyNow(PASSWORD, stored.storedHash).matches();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public boolean verifyPooled(StoredHash stored) {
+		return stored.verifier.verify(PASSWORD, stored.storedHash).join().matches();
+	}
+
+	private static String toBase64(byte[] bytes) {
+		return Base64.getEncoder().encodeToString(bytes);
+	}
+}
@@ -0,0 +1,128 @@
+package com.storage.api.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.storage.api.storage.BoxSettings;
+import com.storage.api.utility.StorageAPI;
+
+/**
+ * Drives StorageAPI.upload end to end against a {@link FakeBoxServer} over a generated directory tree and reports
+ * files/sec, MB/sec and file latency percentiles. All generated files are uploadable jpg files with random content,
+ * and they are kept in memory by the fake server, so size the tree to fit the heap.
+ * <p>
+ * java -cp box-benchmarks/target/benchmarks.jar com.storage.api.benchmarks.UploadHarness --files 500 --latency-ms 40
+ * <p>
+ * Options, with their defaults: --files 200, --folders 10, --file-size 262144, --latency-ms 0, --bytes-per-second 0
+ * (unlimited), --throttle-rate 0, --error-rate 0, --recompress false, --channel-uploads false.
+ */
+public class UploadHarness {
+	private static final String PASSPHRASE = "harness";
+	private static final double MEGABYTE = 1024d * 1024d;
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = parseOptions(args);
+		int files = Integer.parseInt(options.getOrDefault("files", "200"));
+		int folders = Integer.parseInt(options.getOrDefault("folders", "10"));
+		int fileSize = Integer.parseInt(options.getOrDefault("file-size", "262144"));
+
+		FakeBoxServer server = new FakeBoxServer();
+		server.setLatencyMillis(Long.parseLong(options.getOrDefault("latency-ms", "0")));
+		server.setBytesPerSecond(Long.parseLong(options.getOrDefault("bytes-per-second", "0")));
+		server.setThrottleRate(Double.parseDouble(options.getOrDefault("throttle-rate", "0")));
+		server.setErrorRate(Double.parseDouble(options.getOrDefault("error-rate", "0")));
+
+		Path tree = Files.createTempDirectory("box-harness-");
+		int exitCode = 0;
+		try {
+			generateTree(tree, files, folders, fileSize);
+			server.start();
+
+			BoxSettings boxSettings = new BoxSettings();
+			boxSettings.setAuthurl(server.getAuthUrl());
+			boxSettings.setBaseurl(server.getBaseUrl());
+			boxSettings.setUploadurl(server.getUploadUrl());
+			boxSettings.setClientId("harness");
+			boxSettings.setSecret("harness");
+			boxSettings.setEnterpriseID("harness");
+			boxSettings.setPublicKeyID("harness");
+			boxSettings.setPassphrase(PASSPHRASE);
+			boxSettings.setPrivateKey(Fixtures.encryptedPrivateKey(PASSPHRASE));
+			boxSettings.setParentFolder("0");
+			boxSettings.setFilePath(tree.toString());
+			boxSettings.setMaxFileSize(String.valueOf(fileSize));
+			boxSettings.setDeduplicate(false);
+			boxSettings.setRecompress(Boolean.parseBoolean(options.getOrDefault("recompress", "false")));
+			boxSettings.setChannelUploads(Boolean.parseBoolean(options.getOrDefault("channel-uploads", "false")));
+			StorageAPI.configure(boxSettings);
+
+			StorageAPI.upload();
+
+			JsonObject snapshot = StorageAPI.getUploadMetrics().snapshot();
+			report(snapshot, server);
+			if (snapshot.get("filesDone").getAsLong() == 0) {
+				exitCode = 1;
+			}
+		} finally {
+			server.stop();
+			deleteTree(tree);
+		}
+		// Spark and the upload helpers leave non daemon threads behind.
+		System.exit(exitCode);
+	}
+
+	private static void report(JsonObject snapshot, FakeBoxServer server) {
+		double seconds = snapshot.get("elapsedSeconds").getAsDouble();
+		long done = snapshot.get("filesDone").getAsLong();
+		long bytes = snapshot.get("bytesSent").getAsLong();
+		JsonObject latency = snapshot.getAsJsonObject("fileLatency");
+		System.out.println(String.format("files done=%d failed=%d in %.2fs", done, snapshot.get("filesFailed").getAsLong(), seconds));
+		System.out.println(String.format("throughput: %.1f files/s, %.2f MB/s", done / seconds, bytes / MEGABYTE / seconds));
+		System.out.println(String.format("file latency: p50=%dms p90=%dms p99=%dms max=%dms",
+				millis(latency, "p50"), millis(latency, "p90"), millis(latency, "p99"), millis(latency, "max")));
+		System.out.println(String.format("server: requests=%d throttled=%d failed=%d files=%d",
+				server.getRequests(), server.getThrottled(), server.getFailed(), server.getFileCount()));
+		System.out.println(new GsonBuilder().setPrettyPrinting().create().toJson(snapshot));
+	}
+
+	private static long millis(JsonObject histogram, String percentile) {
+		return TimeUnit.MICROSECONDS.toMillis(histogram.get(percentile).getAsLong());
+	}
+
+	private static void generateTree(Path root, int files, int folders, int fileSize) throws IOException {
+		Random random = new Random(42);
+		byte[] content = new byte[fileSize];
+		for (int i = 0; i < files; i++) {
+			Path folder = root.resolve("folder-" + (i % Math.max(folders, 1)));
+			Files.createDirectories(folder);
+			random.nextBytes(content);
+			Files.write(folder.resolve(String.format("IMG_%05d.jpg", i)), content);
+		}
+	}
+
+	private static void deleteTree(Path root) throws IOException {
+		try (Stream<Path> paths = Files.walk(root)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	private static Map<String, String> parseOptions(String[] args) {
+		Map<String, String> options = new HashMap<>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			if (!args[i].startsWith("--")) {
+				throw new IllegalArgumentException("Expected an option, found " + args[i]);
+			}
+			options.put(args[i].substring(2), args[i + 1]);
+		}
+		return options;
+	}
+}
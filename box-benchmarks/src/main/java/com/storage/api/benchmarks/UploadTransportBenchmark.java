@@ -0,0 +1,104 @@
+package com.storage.api.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import com.storage.api.storage.BandwidthThrottle;
+import com.storage.api.storage.MultipartBody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sending the multipart body of a local file to a loopback socket whose reader discards it: read into the heap first,
+ * streamed from the file through a buffer as over https, and transferred from the file by the kernel as over http.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UploadTransportBenchmark {
+	@Param({"1048576", "16777216"})
+	public int fileSize;
+
+	private final BandwidthThrottle throttle = new BandwidthThrottle("benchmark");
+	private String fields;
+	private Path file;
+	private ServerSocket serverSocket;
+	private SocketChannel channel;
+	private OutputStream outputStream;
+
+	@Setup
+	public void setup() throws IOException {
+		fields = Fixtures.uploadFields();
+		byte[] content = new byte[fileSize];
+		new Random(42).nextBytes(content);
+		file = Files.createTempFile("upload-transport", ".bin");
+		Files.write(file, content);
+
+		serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+		Thread sink = new Thread(() -> {
+			byte[] buffer = new byte[64 * 1024];
+			try (Socket socket = serverSocket.accept(); InputStream inputStream = socket.getInputStream()) {
+				while (inputStream.read(buffer) >= 0) {
+					// Discard.
+				}
+			} catch (IOException e) {
+				// Closed at tear down.
+			}
+		}, "upload-sink");
+		sink.setDaemon(true);
+		sink.start();
+		channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), serverSocket.getLocalPort()));
+		outputStream = channel.socket().getOutputStream();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		channel.close();
+		serverSocket.close();
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public long heap() throws IOException {
+		MultipartBody body = MultipartBody.encode(fields, Files.readAllBytes(file), null);
+		body.writeTo(outputStream);
+		return body.getContentLength();
+	}
+
+	@Benchmark
+	public long stream() throws IOException {
+		MultipartBody body = MultipartBody.encode(fields, file, null);
+		body.writeTo(outputStream);
+		return body.getContentLength();
+	}
+
+	@Benchmark
+	public long transfer() throws IOException {
+		MultipartBody body = MultipartBody.encode(fields, file, null);
+		body.writeTo(channel, throttle);
+		return body.getContentLength();
+	}
+}
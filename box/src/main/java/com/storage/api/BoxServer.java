@@ -0,0 +1,217 @@
+package com.storage.api;
+
+import com.storage.api.storage.BoxSettings;
+import com.storage.api.storage.EndpointMetrics;
+import com.storage.api.storage.HttpUtility;
+import com.storage.api.utility.StorageAPI;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Serves the StorageAPI endpoints over HTTP as servlets of an embedded Jetty. The endpoints calling Box start servlet
+ * async and run on a separate pool, so Jetty threads only parse requests and are never held while Box responds.
+ * <p>
+ * A handler still holds its pool thread while it streams the Box response to the client with blocking I/O, so the
+ * handler pool and its queue bound the requests in flight, ex: handlerThreads concurrent downloads.
+ */
+public class BoxServer {
+	private static final Logger logger = LoggerFactory.getLogger(BoxServer.class);
+	private static final String DEFAULT_CONTENT_TYPE = "text/html; charset=utf-8";
+
+	private static Server server;
+	private static ExecutorService handlerExecutor;
+
+	/**
+	 * Start the server and register the endpoints.
+	 */
+	public static synchronized void start(BoxSettings boxSettings) throws Exception {
+		AtomicInteger threadCount = new AtomicInteger();
+		handlerExecutor = new ThreadPoolExecutor(boxSettings.getHandlerThreads(), boxSettings.getHandlerThreads(), 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(boxSettings.getHandlerQueueSize()), runnable -> {
+			Thread thread = new Thread(runnable, "box-handler-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+		addAsync(context, "/download/*", (id, request, response) -> StorageAPI.download(id, request, response));
+		addAsync(context, "/share/*", (id, request, response) -> StorageAPI.share(id));
+		addAsync(context, "/export/*", (id, request, response) -> StorageAPI.export(id, response));
+		context.addServlet(new ServletHolder(new MetricsServlet()), "/metrics");
+
+		server = new Server(boxSettings.getServerPort());
+		server.setHandler(context);
+		server.start();
+		logger.info(String.format("Box server listening on port %d", ((ServerConnector) server.getConnectors()[0]).getLocalPort()));
+	}
+
+	/**
+	 * @return Port the server listens on, ex: the one picked when the configured port is 0.
+	 */
+	public static synchronized int getPort() {
+		return server != null ? ((ServerConnector) server.getConnectors()[0]).getLocalPort() : -1;
+	}
+
+	/**
+	 * Stop the server and the handler pool.
+	 */
+	public static synchronized void stop() throws Exception {
+		if (server != null) {
+			server.stop();
+			server = null;
+		}
+		if (handlerExecutor != null) {
+			handlerExecutor.shutdownNow();
+			handlerExecutor = null;
+		}
+	}
+
+	private static void addAsync(ServletContextHandler context, String pathSpec, Handler handler) {
+		ServletHolder holder = new ServletHolder(new AsyncServlet(handler));
+		holder.setAsyncSupported(true);
+		context.addServlet(holder, pathSpec);
+	}
+
+	/**
+	 * Endpoint on the id in the last segment of its path, ex: /download/{id}.
+	 */
+	private interface Handler {
+		/**
+		 * @return Body to write, unless the handler already wrote the response itself.
+		 */
+		String handle(String id, HttpServletRequest request, HttpServletResponse response) throws IOException;
+	}
+
+	/**
+	 * Runs its handler on the handler pool and releases the Jetty thread right away.
+	 */
+	private static final class AsyncServlet extends HttpServlet {
+		private static final long serialVersionUID = 1L;
+		private final transient Handler handler;
+
+		private AsyncServlet(Handler handler) {
+			this.handler = handler;
+		}
+
+		@Override
+		protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+			String pathInfo = request.getPathInfo();
+			String id = pathInfo != null && pathInfo.length() > 1 ? pathInfo.substring(1) : null;
+			if (id == null || id.indexOf('/') >= 0) {
+				response.sendError(HttpURLConnection.HTTP_NOT_FOUND);
+				return;
+			}
+
+			AsyncContext asyncContext = request.startAsync();
+			// No limit on the whole exchange, a large download to a slow client may take long. A stalled client is caught
+			// by the idle timeout of the connector, which ends the request with an error.
+			asyncContext.setTimeout(0);
+			AtomicBoolean completed = new AtomicBoolean();
+			Future<?> task;
+			try {
+				task = handlerExecutor.submit(() -> {
+					try {
+						String body = handler.handle(id, request, response);
+						if (body != null && !response.isCommitted()) {
+							if (response.getContentType() == null) {
+								response.setContentType(DEFAULT_CONTENT_TYPE);
+							}
+							response.getOutputStream().write(body.getBytes(StandardCharsets.UTF_8));
+						}
+					} catch (Exception ex) {
+						if (completed.get()) {
+							logger.info(String.format("Request %s was ended before its handler finished: %s", request.getRequestURI(), ex.getMessage()));
+						} else {
+							logger.error(String.format("Exception Handling Request %s", request.getRequestURI()), ex);
+							if (!response.isCommitted()) {
+								response.setStatus(HttpURLConnection.HTTP_INTERNAL_ERROR);
+							}
+						}
+					} finally {
+						if (completed.compareAndSet(false, true)) {
+							asyncContext.complete();
+						}
+					}
+				});
+			} catch (RejectedExecutionException ex) {
+				response.setStatus(HttpURLConnection.HTTP_UNAVAILABLE);
+				asyncContext.complete();
+				return;
+			}
+			asyncContext.addListener(new CancellingListener(task, completed));
+		}
+	}
+
+	/**
+	 * Stops the handler of a request Jetty ended on its own, ex: the client went away or stopped reading, so the handler
+	 * neither keeps its thread nor writes to a response that was already completed.
+	 */
+	private static final class CancellingListener implements AsyncListener {
+		private final Future<?> task;
+		private final AtomicBoolean completed;
+
+		private CancellingListener(Future<?> task, AtomicBoolean completed) {
+			this.task = task;
+			this.completed = completed;
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			cancel(event);
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			cancel(event);
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			// Nothing to release.
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+			// Not restarted.
+		}
+
+		private void cancel(AsyncEvent event) {
+			if (completed.compareAndSet(false, true)) {
+				task.cancel(true);
+				event.getAsyncContext().complete();
+			}
+		}
+	}
+
+	private static final class MetricsServlet extends HttpServlet {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+			response.setContentType(EndpointMetrics.PROMETHEUS_CONTENT_TYPE);
+			response.getOutputStream().write(HttpUtility.getEndpointMetrics().toPrometheus().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+}
@@ -9,6 +9,23 @@ import java.io.IOException;
 public class BoxService {
     private static final Logger logger = LoggerFactory.getLogger(BoxService.class);
     public static void main(String[] args) {
+        if (args.length == 1 && "serve".equals(args[0])) {
+            try {
+                BoxServer.start(StorageAPI.getBoxSettings());
+            } catch (Exception e) {
+                logger.error("Exception Starting Server", e);
+            }
+            return;
+        }
+        if (args.length == 3 && "download".equals(args[0])) {
+            try {
+                long bytes = StorageAPI.downloadToFile(args[1], args[2]);
+                logger.info(String.format("Downloaded file %s to %s (%d bytes)", args[1], args[2], bytes));
+            } catch (IOException e) {
+                logger.error("Exception Downloading File", e);
+            }
+            return;
+        }
         try {
             StorageAPI.upload();
         } catch (IOException e) {
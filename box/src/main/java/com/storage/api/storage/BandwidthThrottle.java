@@ -0,0 +1,206 @@
+package com.storage.api.storage;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket byte-rate limiter shared by every stream of one direction. The bucket is kept as a single virtual
+ * "tokens exhausted at" timestamp updated with compare-and-set, so callers never block each other; a caller that
+ * overdraws the bucket sleeps off its own debt outside of any lock.
+ */
+public class BandwidthThrottle {
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+	private static final int MAX_CHUNK = 16 * 1024;
+	private static final long MAX_EXACT_BYTES = Long.MAX_VALUE / NANOS_PER_SECOND;
+	// Far beyond any sleep yet small enough that adding it to System.nanoTime() can not wrap twice.
+	private static final long MAX_NANOS = Long.MAX_VALUE / 4;
+	// Longest single sleep, so a waiting caller sees a rate change soon after it is made.
+	private static final long MAX_SLEEP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final String name;
+	private final AtomicLong exhaustedAt = new AtomicLong(System.nanoTime());
+	private volatile long bytesPerSecond;
+	private volatile long burstBytes;
+
+	public BandwidthThrottle(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Change the rate at runtime. A non positive rate disables throttling. Bytes already taken but not yet paid for are
+	 * paid at the new rate, ex: a chunk taken at 1 B/s does not keep callers waiting for hours once the rate is raised.
+	 */
+	public synchronized void setBytesPerSecond(long bytesPerSecond) {
+		long previous = this.bytesPerSecond;
+		this.bytesPerSecond = bytesPerSecond;
+		if (previous == bytesPerSecond) {
+			return;
+		}
+		for (; ; ) {
+			long now = System.nanoTime();
+			long current = exhaustedAt.get();
+			long debt = current - now;
+			if (debt <= 0 || exhaustedAt.compareAndSet(current, now + rescale(debt, previous, bytesPerSecond))) {
+				break;
+			}
+		}
+	}
+
+	public long getBurstBytes() {
+		return burstBytes;
+	}
+
+	/**
+	 * Number of bytes that may be sent back to back after the throttle has been idle.
+	 */
+	public void setBurstBytes(long burstBytes) {
+		this.burstBytes = Math.max(burstBytes, 0L);
+	}
+
+	public boolean isEnabled() {
+		return bytesPerSecond > 0;
+	}
+
+	/**
+	 * Take tokens for the given number of bytes, sleeping if the bucket is overdrawn.
+	 *
+	 * @param bytes Number of bytes about to be transferred.
+	 */
+	public void acquire(long bytes) throws InterruptedIOException {
+		long rate = bytesPerSecond;
+		if (rate <= 0 || bytes <= 0) {
+			return;
+		}
+		long cost = toNanos(bytes, rate);
+		long burst = toNanos(burstBytes, rate);
+		long now;
+		long next;
+		for (; ; ) {
+			now = System.nanoTime();
+			long current = exhaustedAt.get();
+			// Compared by difference as nanoTime may wrap.
+			long idleSince = now - burst;
+			next = (current - idleSince > 0 ? current : idleSince) + cost;
+			if (exhaustedAt.compareAndSet(current, next)) {
+				break;
+			}
+		}
+		// The burst is already granted by moving the bucket back to now - burst.
+		long wait = next - now;
+		while (wait > 0) {
+			long currentRate = bytesPerSecond;
+			if (currentRate != rate) {
+				// Pay the rest at the new rate, like the bucket itself does.
+				next = now + rescale(wait, rate, currentRate);
+				rate = currentRate;
+			} else {
+				try {
+					TimeUnit.NANOSECONDS.sleep(Math.min(wait, MAX_SLEEP_NANOS));
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException(String.format("Interrupted while throttling %s bandwidth", name));
+				}
+			}
+			now = System.nanoTime();
+			wait = next - now;
+		}
+	}
+
+	/**
+	 * Time the bytes paid by the given time at one rate take at another, nothing to wait for when throttling is disabled.
+	 */
+	static long rescale(long nanos, long fromRate, long toRate) {
+		if (fromRate <= 0 || toRate <= 0) {
+			return 0L;
+		}
+		double rescaled = (double) nanos * fromRate / toRate;
+		return rescaled < MAX_NANOS ? (long) rescaled : MAX_NANOS;
+	}
+
+	/**
+	 * Time the given number of bytes take at the given rate, saturated at MAX_NANOS instead of overflowing.
+	 */
+	static long toNanos(long bytes, long rate) {
+		if (bytes <= MAX_EXACT_BYTES) {
+			return Math.min(bytes * NANOS_PER_SECOND / rate, MAX_NANOS);
+		}
+		// Beyond about 9 GB the product overflows, the precision of a double is plenty at that size.
+		double nanos = (double) bytes * NANOS_PER_SECOND / rate;
+		return nanos < MAX_NANOS ? (long) nanos : MAX_NANOS;
+	}
+
+	public InputStream wrap(InputStream inputStream) {
+		return inputStream == null ? null : new ThrottledInputStream(inputStream, this);
+	}
+
+	public OutputStream wrap(OutputStream outputStream) {
+		return outputStream == null ? null : new ThrottledOutputStream(outputStream, this);
+	}
+
+	private static class ThrottledInputStream extends FilterInputStream {
+		private final BandwidthThrottle throttle;
+
+		ThrottledInputStream(InputStream in, BandwidthThrottle throttle) {
+			super(in);
+			this.throttle = throttle;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int value = super.read();
+			if (value >= 0) {
+				throttle.acquire(1);
+			}
+			return value;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, throttle.isEnabled() ? Math.min(len, MAX_CHUNK) : len);
+			if (read > 0) {
+				throttle.acquire(read);
+			}
+			return read;
+		}
+	}
+
+	private static class ThrottledOutputStream extends FilterOutputStream {
+		private final BandwidthThrottle throttle;
+
+		ThrottledOutputStream(OutputStream out, BandwidthThrottle throttle) {
+			super(out);
+			this.throttle = throttle;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			throttle.acquire(1);
+			out.write(b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				int chunk = throttle.isEnabled() ? Math.min(len, MAX_CHUNK) : len;
+				throttle.acquire(chunk);
+				out.write(b, off, chunk);
+				off += chunk;
+				len -= chunk;
+			}
+		}
+	}
+}
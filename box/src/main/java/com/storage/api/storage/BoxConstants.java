@@ -12,6 +12,7 @@ public final class BoxConstants {
 	public static final String SEARCH = "search";
 	public static final String CONTENT = "content";
 	public static final String ITEMS = "items";
+	public static final String COPY = "copy";
 	public static final String PARENT_FOLDER = "parentFolder";
 	public static final String MAX_FILE_SIZE = "maxFileSize";
 	public static final String CLAIM_NAME = "box_sub_type";
@@ -32,11 +33,30 @@ public final class BoxConstants {
 	public static final String QUESTIONMARK = "?";
 	public static final String QUERY = "query";
 	public static final String TYPE = "type";
+	public static final String FIELDS = "fields";
+	public static final String LIMIT = "limit";
 
 	public static final String EQUALS = "=";
 	public static final String AMPERSAND = "&";
 
 	public static final String CONTENT_TYPE = "Content-Type";
+	public static final String CONTENT_DISPOSITION = "Content-Disposition";
+	public static final String CONTENT_RANGE = "Content-Range";
+	public static final String ACCEPT_RANGES = "Accept-Ranges";
+	public static final String RANGE = "Range";
+	public static final String IF_RANGE = "If-Range";
+	public static final String RETRY_AFTER = "Retry-After";
+	public static final String HOST = "Host";
+	public static final String CONTENT_LENGTH = "Content-Length";
+	public static final String CONNECTION = "Connection";
+	public static final String CONNECTION_CLOSE = "close";
+	public static final String TRANSFER_ENCODING = "Transfer-Encoding";
+	public static final String CHUNKED = "chunked";
+	public static final String HTTP = "http";
+	public static final int HTTP_TOO_MANY_REQUESTS = 429;
+	public static final String APPLICATION_OCTET_STREAM = "application/octet-stream";
+	public static final String APPLICATION_ZIP = "application/zip";
+	public static final int DOWNLOAD_BUFFER_SIZE = 8192;
 	public static final int MAX_RETRY_SERVICE_REQUEST = 3;
 	public static final int REST_CLIENT_TIMEOUT_MS = 300000;
 	public static final String FILE_ID = "fileId";
@@ -101,6 +121,7 @@ public final class BoxConstants {
 
 	public static final class HubConstants {
 		public static final String ACCESS_TOKEN = "access_token";
+		public static final String EXPIRES_IN = "expires_in";
 		public static final String IGNORE = "ignore";
 		public static final String GRANT_TYPE_PROPERTY = "grant_type";
 		public static final String CLIENT_ID_PROPERTY = "client_id";
@@ -0,0 +1,66 @@
+package com.storage.api.storage;
+
+/**
+ * App credentials of one Box app or service account, in addition to the ones of {@link BoxSettings}. The enterprise
+ * and the urls are taken from the settings.
+ */
+public class BoxCredential {
+
+	protected String clientId;
+	protected String secret;
+	String publicKeyID;
+	String privateKey;
+	String passphrase;
+	int weight = 1;
+
+	public String getClientId() {
+		return clientId;
+	}
+
+	public void setClientId(String clientId) {
+		this.clientId = clientId;
+	}
+
+	public String getSecret() {
+		return secret;
+	}
+
+	public void setSecret(String secret) {
+		this.secret = secret;
+	}
+
+	public String getPublicKeyID() {
+		return publicKeyID;
+	}
+
+	public void setPublicKeyID(String publicKeyID) {
+		this.publicKeyID = publicKeyID;
+	}
+
+	public String getPrivateKey() {
+		return privateKey;
+	}
+
+	public void setPrivateKey(String privateKey) {
+		this.privateKey = privateKey;
+	}
+
+	public String getPassphrase() {
+		return passphrase;
+	}
+
+	public void setPassphrase(String passphrase) {
+		this.passphrase = passphrase;
+	}
+
+	/**
+	 * Share of the requests made with these credentials, relative to the weights of the others.
+	 */
+	public int getWeight() {
+		return weight;
+	}
+
+	public void setWeight(int weight) {
+		this.weight = weight;
+	}
+}
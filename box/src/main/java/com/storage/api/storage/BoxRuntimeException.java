@@ -4,6 +4,8 @@ package com.storage.api.storage;
 public class BoxRuntimeException extends RuntimeException {
 	private final String messageCode;
 	private final transient Object[] args;
+	private int httpStatus = -1;
+	private String conflictId;
 
 	public String getMessageCode() {
 		return this.messageCode;
@@ -60,4 +62,29 @@ public class BoxRuntimeException extends RuntimeException {
 	public Object[] getMessageArguements() {
 		return this.args;
 	}
+
+	/**
+	 * @return Http status this exception answers with, ex: the error status Box sent or 504 when Box timed out, or -1.
+	 */
+	public int getHttpStatus() {
+		return this.httpStatus;
+	}
+
+	public BoxRuntimeException withHttpStatus(int httpStatus) {
+		this.httpStatus = httpStatus;
+		return this;
+	}
+
+	/**
+	 * @return Id of the existing folder a 409 names as the conflict, ex: the folder of the same name a create ran into,
+	 * or null. Set by {@link HttpUtility#extractHttpErrors(StringBuilder, BoxRuntimeException)}.
+	 */
+	public String getConflictId() {
+		return this.conflictId;
+	}
+
+	public BoxRuntimeException withConflictId(String conflictId) {
+		this.conflictId = conflictId;
+		return this;
+	}
 }
@@ -1,5 +1,8 @@
 package com.storage.api.storage;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class BoxSettings {
 
 	protected String baseurl;
@@ -14,6 +17,35 @@ public class BoxSettings {
 	String parentFolder = "201988493202";
 	String maxFileSize = "100000";
 	String filePath = "/Users/ravitejakapalavayi/Downloads/Box";
+	long progressInterval = 30;
+	long uploadBytesPerSecond = 0;
+	long downloadBytesPerSecond = 0;
+	long throttleBurstBytes = 1048576;
+	boolean channelUploads = false;
+	boolean deduplicate = false;
+	String dedupIndexFile;
+	String leaseDirectory;
+	String workerId;
+	int workerCount = 1;
+	int workerIndex = 0;
+	long leaseSeconds = 300;
+	boolean recompress = false;
+	float recompressQuality = 0.85f;
+	int recompressMaxWidth = 0;
+	int recompressMaxHeight = 0;
+	int recompressThreads = Runtime.getRuntime().availableProcessors();
+	int downloadSegments = 4;
+	long minSegmentBytes = 8388608;
+	String cacheDirectory;
+	long cacheMaxBytes = 1073741824;
+	long cacheRevalidateSeconds = 30;
+	long sharedLinkTtlSeconds = 300;
+	int exportConcurrency = 4;
+	int serverPort = 4567;
+	int handlerThreads = 200;
+	int handlerQueueSize = 1000;
+	int credentialWeight = 1;
+	List<BoxCredential> credentials = new ArrayList<>();
 
 	public String getBaseurl() {
 		return baseurl;
@@ -87,6 +119,10 @@ public class BoxSettings {
 		this.enterpriseID = enterpriseID;
 	}
 
+	/**
+	 * Box folder the uploaded folders are created in and the files at the top of the file path are uploaded to. With
+	 * several credentials the service account of every app must be a collaborator of it.
+	 */
 	public String getParentFolder() {
 		return parentFolder;
 	}
@@ -110,4 +146,250 @@ public class BoxSettings {
 	public void setFilePath(String filePath) {
 		this.filePath = filePath;
 	}
-}
\ No newline at end of file
+
+	public long getProgressInterval() {
+		return progressInterval;
+	}
+
+	public void setProgressInterval(long progressInterval) {
+		this.progressInterval = progressInterval;
+	}
+
+	public long getUploadBytesPerSecond() {
+		return uploadBytesPerSecond;
+	}
+
+	public void setUploadBytesPerSecond(long uploadBytesPerSecond) {
+		this.uploadBytesPerSecond = uploadBytesPerSecond;
+	}
+
+	public long getDownloadBytesPerSecond() {
+		return downloadBytesPerSecond;
+	}
+
+	public void setDownloadBytesPerSecond(long downloadBytesPerSecond) {
+		this.downloadBytesPerSecond = downloadBytesPerSecond;
+	}
+
+	public long getThrottleBurstBytes() {
+		return throttleBurstBytes;
+	}
+
+	public void setThrottleBurstBytes(long throttleBurstBytes) {
+		this.throttleBurstBytes = throttleBurstBytes;
+	}
+
+	/**
+	 * Copy content already uploaded instead of uploading it again. Off by default: every file is hashed before it is
+	 * uploaded, and a copy points at whatever Box file the index recorded, which may have been changed since.
+	 */
+	public boolean isDeduplicate() {
+		return deduplicate;
+	}
+
+	public void setDeduplicate(boolean deduplicate) {
+		this.deduplicate = deduplicate;
+	}
+
+	public String getDedupIndexFile() {
+		return dedupIndexFile;
+	}
+
+	public void setDedupIndexFile(String dedupIndexFile) {
+		this.dedupIndexFile = dedupIndexFile;
+	}
+
+	public String getLeaseDirectory() {
+		return leaseDirectory;
+	}
+
+	public void setLeaseDirectory(String leaseDirectory) {
+		this.leaseDirectory = leaseDirectory;
+	}
+
+	public String getWorkerId() {
+		return workerId;
+	}
+
+	public void setWorkerId(String workerId) {
+		this.workerId = workerId;
+	}
+
+	public int getWorkerCount() {
+		return workerCount;
+	}
+
+	public void setWorkerCount(int workerCount) {
+		this.workerCount = workerCount;
+	}
+
+	public int getWorkerIndex() {
+		return workerIndex;
+	}
+
+	public void setWorkerIndex(int workerIndex) {
+		this.workerIndex = workerIndex;
+	}
+
+	public long getLeaseSeconds() {
+		return leaseSeconds;
+	}
+
+	public void setLeaseSeconds(long leaseSeconds) {
+		this.leaseSeconds = leaseSeconds;
+	}
+
+	public boolean isRecompress() {
+		return recompress;
+	}
+
+	public void setRecompress(boolean recompress) {
+		this.recompress = recompress;
+	}
+
+	public float getRecompressQuality() {
+		return recompressQuality;
+	}
+
+	public void setRecompressQuality(float recompressQuality) {
+		this.recompressQuality = recompressQuality;
+	}
+
+	public int getRecompressMaxWidth() {
+		return recompressMaxWidth;
+	}
+
+	public void setRecompressMaxWidth(int recompressMaxWidth) {
+		this.recompressMaxWidth = recompressMaxWidth;
+	}
+
+	public int getRecompressMaxHeight() {
+		return recompressMaxHeight;
+	}
+
+	public void setRecompressMaxHeight(int recompressMaxHeight) {
+		this.recompressMaxHeight = recompressMaxHeight;
+	}
+
+	public int getRecompressThreads() {
+		return recompressThreads;
+	}
+
+	public void setRecompressThreads(int recompressThreads) {
+		this.recompressThreads = recompressThreads;
+	}
+
+	public int getDownloadSegments() {
+		return downloadSegments;
+	}
+
+	public void setDownloadSegments(int downloadSegments) {
+		this.downloadSegments = downloadSegments;
+	}
+
+	public long getMinSegmentBytes() {
+		return minSegmentBytes;
+	}
+
+	public void setMinSegmentBytes(long minSegmentBytes) {
+		this.minSegmentBytes = minSegmentBytes;
+	}
+
+	public String getCacheDirectory() {
+		return cacheDirectory;
+	}
+
+	public void setCacheDirectory(String cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+
+	public long getCacheMaxBytes() {
+		return cacheMaxBytes;
+	}
+
+	public void setCacheMaxBytes(long cacheMaxBytes) {
+		this.cacheMaxBytes = cacheMaxBytes;
+	}
+
+	public long getCacheRevalidateSeconds() {
+		return cacheRevalidateSeconds;
+	}
+
+	public void setCacheRevalidateSeconds(long cacheRevalidateSeconds) {
+		this.cacheRevalidateSeconds = cacheRevalidateSeconds;
+	}
+
+	public long getSharedLinkTtlSeconds() {
+		return sharedLinkTtlSeconds;
+	}
+
+	public void setSharedLinkTtlSeconds(long sharedLinkTtlSeconds) {
+		this.sharedLinkTtlSeconds = sharedLinkTtlSeconds;
+	}
+
+	public int getExportConcurrency() {
+		return exportConcurrency;
+	}
+
+	public void setExportConcurrency(int exportConcurrency) {
+		this.exportConcurrency = exportConcurrency;
+	}
+
+	public int getServerPort() {
+		return serverPort;
+	}
+
+	public void setServerPort(int serverPort) {
+		this.serverPort = serverPort;
+	}
+
+	public int getHandlerThreads() {
+		return handlerThreads;
+	}
+
+	public void setHandlerThreads(int handlerThreads) {
+		this.handlerThreads = handlerThreads;
+	}
+
+	public int getHandlerQueueSize() {
+		return handlerQueueSize;
+	}
+
+	public void setHandlerQueueSize(int handlerQueueSize) {
+		this.handlerQueueSize = handlerQueueSize;
+	}
+
+	/**
+	 * Share of the requests made with the app credentials of these settings when other credentials are configured.
+	 */
+	public int getCredentialWeight() {
+		return credentialWeight;
+	}
+
+	public void setCredentialWeight(int credentialWeight) {
+		this.credentialWeight = credentialWeight;
+	}
+
+	/**
+	 * More app credentials or service accounts of the same enterprise to spread the requests over.
+	 */
+	public List<BoxCredential> getCredentials() {
+		return credentials;
+	}
+
+	public void setCredentials(List<BoxCredential> credentials) {
+		this.credentials = credentials;
+	}
+
+	/**
+	 * Send local files to plain http upload urls with FileChannel.transferTo, ex: sendfile on Linux, instead of copying
+	 * them through the heap. Only applies without a proxy, https uploads, ex: Box itself, always stream.
+	 */
+	public boolean isChannelUploads() {
+		return channelUploads;
+	}
+
+	public void setChannelUploads(boolean channelUploads) {
+		this.channelUploads = channelUploads;
+	}
+}
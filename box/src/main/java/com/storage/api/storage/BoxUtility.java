@@ -1,15 +1,17 @@
 package com.storage.api.storage;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Path;
 import java.security.PrivateKey;
 import java.security.Security;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
-import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.bouncycastle.asn1.pkcs.PrivateKeyInfo;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.openssl.PEMParser;
@@ -24,7 +26,6 @@ import org.jose4j.jws.JsonWebSignature;
 import org.jose4j.jwt.JwtClaims;
 import org.jose4j.lang.JoseException;
 
-import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
@@ -33,17 +34,41 @@ import org.slf4j.LoggerFactory;
 
 public class BoxUtility {
 	private static final Logger logger = LoggerFactory.getLogger(BoxUtility.class);
+	private static final String UPLOADED_ITEM_ID = BoxConstants.ENTRIES + "[0]." + BoxConstants.PropertyNames.ID;
+	private static volatile ThrottleHandler throttleHandler;
+
+	/**
+	 * Told of every request Box throttled with 429, and hands out the token to send it again with.
+	 */
+	public interface ThrottleHandler {
+		/**
+		 * @param accessToken       Token the throttled request was sent with.
+		 * @param retryAfterSeconds Seconds Box asked to wait or -1 if it did not say.
+		 */
+		void throttled(String accessToken, long retryAfterSeconds);
+
+		/**
+		 * @return Token to send a throttled request again with, once it may be sent, or null to fail the request.
+		 */
+		String getRetryToken();
+	}
 
 	private BoxUtility() {
 		throw new IllegalStateException("BoxUtility should be used as a utility class");
 	}
 
+	/**
+	 * Have requests Box throttled with 429 sent again with the tokens of the handler, ex: a CredentialPool. Null to
+	 * fail them.
+	 */
+	public static void setThrottleHandler(ThrottleHandler handler) {
+		throttleHandler = handler;
+	}
+
 	public static String getAccessToken(String url, JsonObject requestBody, String appId) throws IOException {
 		String accessToken = null;
 
-		HttpURLConnection httpURLConnection = HttpUtility.buildHttpURLConnection(url, BoxConstants.POSTREQUESTMETHOD, BoxConstants.APPLICATION_JSON, true, appId);
-		httpURLConnection.setDoInput(true);
-		JsonObject jsonResponse = HttpUtility.sendHttpRequest(requestBody.toString(), httpURLConnection, appId).getAsJsonObject();
+		JsonObject jsonResponse = requestAccessToken(url, requestBody, appId);
 
 		if (jsonResponse.size() > 0 && jsonResponse.has(BoxConstants.HubConstants.ACCESS_TOKEN)) {
 			accessToken = JsonPath.getValue(jsonResponse, BoxConstants.HubConstants.ACCESS_TOKEN);
@@ -52,16 +77,26 @@ public class BoxUtility {
 		return accessToken;
 	}
 
+	/**
+	 * @return The whole token response, with the access token and its lifetime in expires_in.
+	 */
+	public static JsonObject requestAccessToken(String url, JsonObject requestBody, String appId) throws IOException {
+		HttpURLConnection httpURLConnection = HttpUtility.buildHttpURLConnection(url, BoxConstants.POSTREQUESTMETHOD, BoxConstants.APPLICATION_JSON, true, appId);
+		httpURLConnection.setDoInput(true);
+		return HttpUtility.sendHttpRequest(requestBody.toString(), httpURLConnection, appId).getAsJsonObject();
+	}
+
 	public static InputStream sendDownloadRequest(String url, String requestMethod, String accessToken, StringBuilder apiError, String appId) throws IOException {
-		JsonObject jsonResponse = null;
 		try {
-			StringBuilder contentType = new StringBuilder();
-			contentType.append(BoxConstants.APPLICATION_JSON);
+			return send(accessToken, token -> {
+				StringBuilder contentType = new StringBuilder();
+				contentType.append(BoxConstants.APPLICATION_JSON);
 
-			HttpURLConnection httpURLConnection = HttpUtility.buildHttpURLConnection(url, requestMethod, contentType.toString(), true, appId);
-			httpURLConnection.setRequestProperty(BoxConstants.AUTHORIZATION, BoxConstants.BEARER.concat(BoxConstants.SPACE).concat(accessToken));
+				HttpURLConnection httpURLConnection = HttpUtility.buildHttpURLConnection(url, requestMethod, contentType.toString(), true, appId);
+				httpURLConnection.setRequestProperty(BoxConstants.AUTHORIZATION, BoxConstants.BEARER.concat(BoxConstants.SPACE).concat(token));
 
-			return HttpUtility.sendHttpDownloadRequest(httpURLConnection, "api");
+				return HttpUtility.sendHttpDownloadRequest(httpURLConnection, "api");
+			});
 		} catch (BoxRuntimeException ex) {
 			HttpUtility.extractHttpErrors(apiError, ex);
 			logger.error(apiError.toString(), ex);
@@ -74,16 +109,61 @@ public class BoxUtility {
 		return null;
 	}
 
+	/**
+	 * Open a content download and leave the body unread so the caller can stream it.
+	 *
+	 * @param requestHeaders Extra request headers to send, ex: Range.
+	 * @throws BoxRuntimeException When Box answers with an error status, see {@link HttpUtility#getHttpStatus(BoxRuntimeException)}.
+	 */
+	public static DownloadResponse openDownload(String url, String accessToken, Map<String, String> requestHeaders, String appId) throws IOException {
+		return send(accessToken, token -> {
+			HttpURLConnection httpURLConnection = HttpUtility.buildHttpURLConnection(url, BoxConstants.GETREQUESTMETHOD, BoxConstants.APPLICATION_JSON, false, appId);
+			if (httpURLConnection == null) {
+				throw new IOException(String.format("Box connector failed to open a connection to url [%s]", url));
+			}
+			httpURLConnection.setRequestProperty(BoxConstants.AUTHORIZATION, BoxConstants.BEARER.concat(BoxConstants.SPACE).concat(token));
+			if (requestHeaders != null) {
+				requestHeaders.forEach(httpURLConnection::setRequestProperty);
+			}
+			return HttpUtility.sendHttpDownload(httpURLConnection, appId);
+		});
+	}
+
+	/**
+	 * Send a GET request and read only the given paths from the response as it streams in.
+	 *
+	 * @return The values found or null if Box returned an error, which is then described in apiError.
+	 */
+	public static JsonPathSet.Values sendGetRequest(String url, String accessToken, JsonPathSet paths, StringBuilder apiError, String appId) throws IOException {
+		try {
+			return send(accessToken, token -> {
+				HttpURLConnection httpURLConnection = HttpUtility.buildHttpURLConnection(url, BoxConstants.GETREQUESTMETHOD, BoxConstants.APPLICATION_JSON, true, appId);
+				httpURLConnection.setRequestProperty(BoxConstants.AUTHORIZATION, BoxConstants.BEARER.concat(BoxConstants.SPACE).concat(token));
+
+				return HttpUtility.sendHttpRequest(httpURLConnection, paths, "api");
+			});
+		} catch (BoxRuntimeException ex) {
+			HttpUtility.extractHttpErrors(apiError, ex);
+			logger.error(apiError.toString());
+			return null;
+		} catch (Exception ex) {
+			logger.error(ex.getMessage());
+			throw new IOException(String.format("Box connector failed to push the message to url [%s]", url));
+		}
+	}
+
 	public static String sendGetRequest(String url, String requestMethod, String accessToken, StringBuilder apiError, String appId) throws IOException {
 		JsonObject jsonResponse = null;
 		try {
-			StringBuilder contentType = new StringBuilder();
-			contentType.append(BoxConstants.APPLICATION_JSON);
+			jsonResponse = send(accessToken, token -> {
+				StringBuilder contentType = new StringBuilder();
+				contentType.append(BoxConstants.APPLICATION_JSON);
 
-			HttpURLConnection httpURLConnection = HttpUtility.buildHttpURLConnection(url, requestMethod, contentType.toString(), true, appId);
-			httpURLConnection.setRequestProperty(BoxConstants.AUTHORIZATION, BoxConstants.BEARER.concat(BoxConstants.SPACE).concat(accessToken));
+				HttpURLConnection httpURLConnection = HttpUtility.buildHttpURLConnection(url, requestMethod, contentType.toString(), true, appId);
+				httpURLConnection.setRequestProperty(BoxConstants.AUTHORIZATION, BoxConstants.BEARER.concat(BoxConstants.SPACE).concat(token));
 
-			jsonResponse = HttpUtility.sendHttpRequest(httpURLConnection, "api").getAsJsonObject();
+				return HttpUtility.sendHttpRequest(httpURLConnection, "api").getAsJsonObject();
+			});
 		} catch (BoxRuntimeException ex) {
 			HttpUtility.extractHttpErrors(apiError, ex);
 			logger.error(apiError.toString());
@@ -92,6 +172,9 @@ public class BoxUtility {
 			throw new IOException(String.format("Box connector failed to push the message to url [%s]", url));
 		}
 
+		if (jsonResponse == null) {
+			return null;
+		}
 		logger.info(String.format("Box Responded for url: %s response: %s", url, jsonResponse.toString()));
 		return jsonResponse.toString();
 	}
@@ -100,13 +183,15 @@ public class BoxUtility {
 		logger.info(String.format("Payload for sendHubRequest: [%s] ", requestBody.toString()));
 		JsonObject jsonResponse = null;
 		try {
-			StringBuilder contentType = new StringBuilder();
-			contentType.append(BoxConstants.APPLICATION_JSON);
+			jsonResponse = send(accessToken, token -> {
+				StringBuilder contentType = new StringBuilder();
+				contentType.append(BoxConstants.APPLICATION_JSON);
 
-			HttpURLConnection httpURLConnection = HttpUtility.buildHttpURLConnection(url, requestMethod, contentType.toString(), true, appId);
-			httpURLConnection.setRequestProperty(BoxConstants.AUTHORIZATION, BoxConstants.BEARER.concat(BoxConstants.SPACE).concat(accessToken));
+				HttpURLConnection httpURLConnection = HttpUtility.buildHttpURLConnection(url, requestMethod, contentType.toString(), true, appId);
+				httpURLConnection.setRequestProperty(BoxConstants.AUTHORIZATION, BoxConstants.BEARER.concat(BoxConstants.SPACE).concat(token));
 
-			jsonResponse = HttpUtility.sendHttpRequest(requestBody.toString(), false, null, httpURLConnection, null, appId).getAsJsonObject();
+				return HttpUtility.sendHttpRequest(requestBody.toString(), false, null, httpURLConnection, null, appId).getAsJsonObject();
+			});
 
 			if (!jsonResponse.isJsonNull() && jsonResponse.size() > 0) {
 				logger.info("Response for BoxConstants req: " + jsonResponse.toString());
@@ -122,26 +207,76 @@ public class BoxUtility {
 		return jsonResponse;
 	}
 
+	/**
+	 * Send a POST request creating an item, ex: a folder, and read its id. When an item of the same name already exists
+	 * Box answers 409 naming it, and its id is returned instead, so the item costs one request whether it exists or not.
+	 *
+	 * @return Id of the created or existing item or null if Box returned another error, which is then described in apiError.
+	 */
+	public static String sendCreateRequest(String url, JsonElement requestBody, String accessToken, StringBuilder apiError, String appId) throws IOException {
+		logger.info(String.format("Payload for sendHubRequest: [%s] ", requestBody.toString()));
+		try {
+			return send(accessToken, token -> {
+				HttpURLConnection httpURLConnection = HttpUtility.buildHttpURLConnection(url, BoxConstants.POSTREQUESTMETHOD, BoxConstants.APPLICATION_JSON, true, appId);
+				httpURLConnection.setRequestProperty(BoxConstants.AUTHORIZATION, BoxConstants.BEARER.concat(BoxConstants.SPACE).concat(token));
+
+				return JsonPath.getValue(HttpUtility.sendHttpRequest(requestBody.toString(), false, null, httpURLConnection, null, appId).getAsJsonObject(), "id");
+			});
+		} catch (BoxRuntimeException ex) {
+			int errorStart = apiError.length();
+			HttpUtility.extractHttpErrors(apiError, ex);
+			if (ex.getConflictId() != null) {
+				// The item exists already, not an error for the caller.
+				apiError.setLength(errorStart);
+				return ex.getConflictId();
+			}
+			logger.error(apiError.toString());
+			return null;
+		} catch (Exception ex) {
+			logger.error(ex.getMessage());
+			throw new IOException(String.format("Box connector failed to push the message to url [%s]", url));
+		}
+	}
+
 	public static String sendUploadRequest(String url, JsonElement requestBody, byte[] file, String requestMethod, String accessToken, StringBuilder apiError, String appId) throws IOException {
+		return sendUploadRequest(url, requestBody, file, null, requestMethod, accessToken, apiError, appId);
+	}
+
+	/**
+	 * Upload a local file, read as it is sent. With channel uploads enabled and a direct plain http url it goes from the
+	 * file to the socket without being copied through the heap, otherwise it is streamed through a small buffer.
+	 */
+	public static String sendUploadRequest(String url, JsonElement requestBody, Path file, String requestMethod, String accessToken, StringBuilder apiError, String appId) throws IOException {
+		return sendUploadRequest(url, requestBody, null, file, requestMethod, accessToken, apiError, appId);
+	}
+
+	private static String sendUploadRequest(String url, JsonElement requestBody, byte[] content, Path file, String requestMethod, String accessToken, StringBuilder apiError, String appId) throws IOException {
 		logger.info(String.format("Payload for sendHubRequest: [%s] ", requestBody.toString()));
 		String hubId = null;
 		try {
-			StringBuilder contentType = new StringBuilder();
-			contentType.append(BoxConstants.MULTIPART_FORM_DATA);
-			contentType.append(BoxConstants.BOUNDARY_HEADER);
-			contentType.append(BoxConstants.HttpService.BOUNDARY);
-
-			HttpURLConnection httpURLConnection = HttpUtility.buildHttpURLConnection(url, requestMethod, contentType.toString(), true, appId);
-			httpURLConnection.setRequestProperty(BoxConstants.AUTHORIZATION, BoxConstants.BEARER.concat(BoxConstants.SPACE).concat(accessToken));
+			JsonObject jsonResponse = send(accessToken, token -> {
+				StringBuilder contentType = new StringBuilder();
+				contentType.append(BoxConstants.MULTIPART_FORM_DATA);
+				contentType.append(BoxConstants.BOUNDARY_HEADER);
+				contentType.append(BoxConstants.HttpService.BOUNDARY);
+				String authorization = BoxConstants.BEARER.concat(BoxConstants.SPACE).concat(token);
+
+				if (file != null && HttpUtility.canSendOverChannel(url)) {
+					Map<String, String> headers = new LinkedHashMap<>();
+					headers.put(BoxConstants.CONTENT_TYPE, contentType.toString());
+					headers.put(BoxConstants.AUTHORIZATION, authorization);
+					return HttpUtility.sendChannelRequest(url, requestMethod, headers, requestBody.toString(), file, appId).getAsJsonObject();
+				}
+				HttpURLConnection httpURLConnection = HttpUtility.buildHttpURLConnection(url, requestMethod, contentType.toString(), true, appId);
+				httpURLConnection.setRequestProperty(BoxConstants.AUTHORIZATION, authorization);
 
-			JsonObject jsonResponse = HttpUtility.sendHttpRequest(requestBody.toString(), true, file, httpURLConnection, null, appId).getAsJsonObject();
+				return (file != null ? HttpUtility.sendHttpRequest(requestBody.toString(), file, httpURLConnection, appId)
+						: HttpUtility.sendHttpRequest(requestBody.toString(), true, content, httpURLConnection, null, appId)).getAsJsonObject();
+			});
 
 			if (!jsonResponse.isJsonNull() && jsonResponse.size() > 0) {
 				logger.info("Response for BoxConstants req: " + jsonResponse.toString());
-				JsonArray entriesArray = JsonPath.findArray(jsonResponse, BoxConstants.ENTRIES);
-				if (entriesArray != null && entriesArray.size() > 0) {
-					hubId = JsonPath.getValue(entriesArray.get(0), BoxConstants.PropertyNames.ID);
-				}
+				hubId = JsonPath.getValue(jsonResponse, UPLOADED_ITEM_ID);
 				logger.info(String.format("BoxConstants item id is: [%s]", hubId));
 			}
 		} catch (BoxRuntimeException ex) {
@@ -156,33 +291,61 @@ public class BoxUtility {
 		return hubId;
 	}
 
-	public static byte[] downloadBlob(String assetURL, int limit) throws IOException {
-		byte[] byteArray;
-		try (BufferedInputStream inputStream = new BufferedInputStream(new URL(assetURL).openStream())) {
-			try (ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
-				int nRead;
-				int totRead = 0;
-				byte[] data = new byte[1024];
-				while (totRead <= limit && (nRead = inputStream.read(data, 0, data.length)) != -1) {
-					buffer.write(data, 0, nRead);
-					totRead += nRead;
+	/**
+	 * Send a request with the given token. When Box throttles it with 429, the throttle handler is told and the request
+	 * is sent again with the token the handler hands out, ex: of another app, up to MAX_RETRY_SERVICE_REQUEST times.
+	 */
+	private static <T> T send(String accessToken, Request<T> request) throws IOException {
+		String token = accessToken;
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return request.send(token);
+			} catch (BoxRuntimeException ex) {
+				ThrottleHandler handler = throttleHandler;
+				if (handler == null || HttpUtility.getHttpStatus(ex) != BoxConstants.HTTP_TOO_MANY_REQUESTS) {
+					throw ex;
+				}
+				handler.throttled(token, HttpUtility.getRetryAfterSeconds(ex));
+				String retryToken = attempt < BoxConstants.MAX_RETRY_SERVICE_REQUEST ? handler.getRetryToken() : null;
+				if (retryToken == null) {
+					throw ex;
 				}
-				buffer.flush();
-				byteArray = buffer.toByteArray();
+				logger.info(String.format("Box throttled a request, sending it again (%d of %d)", attempt + 1, BoxConstants.MAX_RETRY_SERVICE_REQUEST));
+				token = retryToken;
 			}
 		}
-		return byteArray;
+	}
+
+	/**
+	 * One request sent with an access token, which may be sent again with another one.
+	 */
+	private interface Request<T> {
+		T send(String accessToken) throws IOException;
+	}
+
+	public static byte[] downloadBlob(String assetURL, int limit) throws IOException {
+		URLConnection connection = new URL(assetURL).openConnection();
+		try (InputStream inputStream = connection.getInputStream()) {
+			// The announced length, ex: of a local file, lets the content be read straight into a buffer of the right size.
+			return BufferPool.readAll(inputStream, connection.getContentLengthLong(), limit);
+		}
 	}
 
 	public static String getAssertion(BoxSettings boxSettings, String appId) {
+		FlightEvents.Assertion event = new FlightEvents.Assertion();
+		event.begin();
 		try {
 			PrivateKey key = getPrivateKey(boxSettings);
 
 			JsonWebSignature jws = getJsonWebSignature(boxSettings, key);
 
-			return jws.getCompactSerialization();
+			String assertion = jws.getCompactSerialization();
+			event.signed = true;
+			return assertion;
 		} catch (IOException | JoseException | OperatorCreationException | PKCSException ex) {
 			logger.error(ex.getMessage());
+		} finally {
+			event.commit();
 		}
 		return null;
 	}
@@ -0,0 +1,185 @@
+package com.storage.api.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Shared pool of heap byte buffers in power of two size classes from 1 KB to 256 KB. The pool is split in stripes picked
+ * by thread, each holding a few buffers per class, so threads rarely contend on a slot. The bytes held by the whole
+ * pool are capped at MAX_POOLED_BYTES whatever the number of threads, buffers released beyond it are dropped. Larger
+ * requests are plain allocations and are not pooled.
+ * <p>
+ * A buffer must be released once, by the code that acquired it and only after its last use.
+ */
+public final class BufferPool {
+	private static final int MIN_SIZE_SHIFT = 10;
+	private static final int SIZE_CLASSES = 9;
+	public static final int MAX_POOLED_SIZE = 1 << (MIN_SIZE_SHIFT + SIZE_CLASSES - 1);
+	private static final int DEFAULT_READ_SIZE = 4 * 1024;
+	private static final long MAX_POOLED_BYTES = 8L * 1024 * 1024;
+	private static final int SLOTS_PER_CLASS = 2;
+	private static final int STRIPES = stripeCount();
+	// Slot s of class c in stripe t is at (t * SIZE_CLASSES + c) * SLOTS_PER_CLASS + s.
+	private static final AtomicReferenceArray<byte[]> slots = new AtomicReferenceArray<>(STRIPES * SIZE_CLASSES * SLOTS_PER_CLASS);
+	private static final AtomicLong pooledBytes = new AtomicLong();
+
+	private BufferPool() {
+		throw new IllegalStateException("BufferPool should be used as a utility class");
+	}
+
+	/**
+	 * @return A buffer of at least minSize bytes with unspecified content.
+	 */
+	public static byte[] acquire(int minSize) {
+		int sizeClass = sizeClass(minSize);
+		if (sizeClass < 0) {
+			return new byte[minSize];
+		}
+		int first = firstSlot(sizeClass);
+		for (int slot = first; slot < first + SLOTS_PER_CLASS; slot++) {
+			if (slots.get(slot) != null) {
+				byte[] buffer = slots.getAndSet(slot, null);
+				if (buffer != null) {
+					pooledBytes.addAndGet(-buffer.length);
+					return buffer;
+				}
+			}
+		}
+		return new byte[1 << (MIN_SIZE_SHIFT + sizeClass)];
+	}
+
+	/**
+	 * Give a buffer back to the pool. Buffers that were not pooled, or that would take the pool over its cap, are dropped.
+	 */
+	public static void release(byte[] buffer) {
+		int sizeClass = sizeClass(buffer.length);
+		if (sizeClass < 0 || buffer.length != 1 << (MIN_SIZE_SHIFT + sizeClass)) {
+			return;
+		}
+		// Reserved before the buffer is published, so concurrent releases can not overshoot the cap.
+		if (pooledBytes.addAndGet(buffer.length) > MAX_POOLED_BYTES) {
+			pooledBytes.addAndGet(-buffer.length);
+			return;
+		}
+		int first = firstSlot(sizeClass);
+		for (int slot = first; slot < first + SLOTS_PER_CLASS; slot++) {
+			if (slots.compareAndSet(slot, null, buffer)) {
+				return;
+			}
+		}
+		pooledBytes.addAndGet(-buffer.length);
+	}
+
+	/**
+	 * @return Bytes held by the pool, at most MAX_POOLED_BYTES.
+	 */
+	public static long getPooledBytes() {
+		return pooledBytes.get();
+	}
+
+	/**
+	 * Swap a buffer for one of at least minSize bytes holding the same first length bytes, and release the old one.
+	 */
+	public static byte[] grow(byte[] buffer, int length, int minSize) {
+		// Double at least, so a stream of unknown length is copied a logarithmic number of times.
+		byte[] grown = acquire((int) Math.min(Math.max(minSize, 2L * buffer.length), Integer.MAX_VALUE - 8));
+		System.arraycopy(buffer, 0, grown, 0, length);
+		release(buffer);
+		return grown;
+	}
+
+	/**
+	 * Buffer size to start reading a body with, from its announced length or -1 if unknown. The announced length is
+	 * not trusted beyond MAX_POOLED_SIZE, a longer body grows the buffer as it actually arrives.
+	 */
+	public static int initialSize(long sizeHint) {
+		if (sizeHint < 0) {
+			return DEFAULT_READ_SIZE;
+		}
+		// One byte more than announced, so the end of the stream is seen without growing the buffer.
+		return (int) Math.min(sizeHint, MAX_POOLED_SIZE - 1) + 1;
+	}
+
+	/**
+	 * Read a stream to its end or until more than limit bytes were read.
+	 *
+	 * @param sizeHint Announced length of the stream, ex: its Content-Length, or -1 if unknown.
+	 * @return Exactly the bytes read. When the announced length is right they are read straight into the result.
+	 */
+	public static byte[] readAll(InputStream inputStream, long sizeHint, int limit) throws IOException {
+		if (sizeHint > MAX_POOLED_SIZE && sizeHint <= limit) {
+			byte[] exact = new byte[(int) sizeHint];
+			int length = readFully(inputStream, exact);
+			if (length < exact.length) {
+				return Arrays.copyOf(exact, length);
+			}
+			int next = inputStream.read();
+			if (next < 0) {
+				return exact;
+			}
+			// Longer than announced, carry on with a growing buffer.
+			byte[] buffer = acquire(length + 1);
+			System.arraycopy(exact, 0, buffer, 0, length);
+			buffer[length] = (byte) next;
+			return readRemaining(inputStream, buffer, length + 1, limit);
+		}
+		return readRemaining(inputStream, acquire(initialSize(Math.min(sizeHint, limit))), 0, limit);
+	}
+
+	private static byte[] readRemaining(InputStream inputStream, byte[] buffer, int length, int limit) throws IOException {
+		try {
+			int read;
+			while (length <= limit) {
+				if (length == buffer.length) {
+					buffer = grow(buffer, length, length + 1);
+				}
+				read = inputStream.read(buffer, length, (int) Math.min(buffer.length - length, limit + 1L - length));
+				if (read < 0) {
+					break;
+				}
+				length += read;
+			}
+			return Arrays.copyOf(buffer, length);
+		} finally {
+			release(buffer);
+		}
+	}
+
+	private static int readFully(InputStream inputStream, byte[] buffer) throws IOException {
+		int length = 0;
+		int read;
+		while (length < buffer.length && (read = inputStream.read(buffer, length, buffer.length - length)) >= 0) {
+			length += read;
+		}
+		return length;
+	}
+
+	private static int firstSlot(int sizeClass) {
+		int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+		return (stripe * SIZE_CLASSES + sizeClass) * SLOTS_PER_CLASS;
+	}
+
+	/**
+	 * @return Number of stripes, the power of two at or above the number of processors.
+	 */
+	private static int stripeCount() {
+		int processors = Math.max(Runtime.getRuntime().availableProcessors(), 1);
+		return Integer.highestOneBit(processors - 1 > 0 ? (processors - 1) << 1 : 1);
+	}
+
+	/**
+	 * @return Index of the smallest size class holding size bytes or -1 if it is too large to be pooled.
+	 */
+	private static int sizeClass(int size) {
+		if (size > MAX_POOLED_SIZE) {
+			return -1;
+		}
+		if (size <= 1 << MIN_SIZE_SHIFT) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SIZE_SHIFT;
+	}
+}
@@ -0,0 +1,262 @@
+package com.storage.api.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * One HTTP/1.1 request over a blocking SocketChannel, for plain http urls only. Unlike HttpURLConnection it writes the
+ * body to the channel itself, so a local file can be handed to the kernel with FileChannel.transferTo instead of being
+ * copied through the heap. Over https the bytes have to be encrypted in user space, which is why there is no such path
+ * for TLS.
+ * <p>
+ * The connection is not kept alive, the request asks the server to close it after the response.
+ */
+public class ChannelHttpConnection implements Closeable {
+	private static final String HTTP_VERSION = "HTTP/1.1";
+	private static final int MAX_LINE_LENGTH = 8 * 1024;
+
+	private final URL url;
+	private final SocketChannel channel;
+	private final Map<String, String> responseHeaders = new HashMap<>();
+	private InputStream inputStream;
+	private int responseCode = -1;
+
+	private ChannelHttpConnection(URL url, SocketChannel channel) {
+		this.url = url;
+		this.channel = channel;
+	}
+
+	/**
+	 * Connect to the host of an http url.
+	 *
+	 * @param timeoutMillis Timeout of the connect and of every read of the response.
+	 */
+	public static ChannelHttpConnection open(URL url, int timeoutMillis) throws IOException {
+		if (!BoxConstants.HTTP.equals(url.getProtocol())) {
+			throw new IllegalArgumentException(String.format("Only http urls can be sent over a channel: %s", url));
+		}
+		SocketChannel channel = SocketChannel.open();
+		try {
+			Socket socket = channel.socket();
+			socket.setTcpNoDelay(true);
+			socket.connect(new InetSocketAddress(url.getHost(), url.getPort() >= 0 ? url.getPort() : url.getDefaultPort()), timeoutMillis);
+			// Reads through the socket's stream honor the timeout, reads on the channel itself would not.
+			socket.setSoTimeout(timeoutMillis);
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+		return new ChannelHttpConnection(url, channel);
+	}
+
+	public URL getURL() {
+		return url;
+	}
+
+	/**
+	 * Send the request line, the headers and the body. Content-Length, Host and Connection are set here.
+	 *
+	 * @param throttle Throttle paced by every body byte written.
+	 * @return Number of body bytes sent.
+	 */
+	public long send(String requestMethod, Map<String, String> headers, MultipartBody body, BandwidthThrottle throttle) throws IOException {
+		String path = url.getFile().isEmpty() ? "/" : url.getFile();
+		StringBuilder head = new StringBuilder();
+		head.append(requestMethod).append(' ').append(path).append(' ').append(HTTP_VERSION).append(BoxConstants.HttpService.CRLF);
+		appendHeader(head, BoxConstants.HOST, url.getPort() >= 0 ? url.getHost() + ':' + url.getPort() : url.getHost());
+		headers.forEach((name, value) -> appendHeader(head, name, value));
+		appendHeader(head, BoxConstants.CONTENT_LENGTH, Long.toString(body.getContentLength()));
+		appendHeader(head, BoxConstants.CONNECTION, BoxConstants.CONNECTION_CLOSE);
+		head.append(BoxConstants.HttpService.CRLF);
+
+		ByteBuffer headBuffer = ByteBuffer.wrap(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+		while (headBuffer.hasRemaining()) {
+			channel.write(headBuffer);
+		}
+		body.writeTo(channel, throttle);
+		return body.getContentLength();
+	}
+
+	/**
+	 * Read the status line and the headers of the response, once the request was sent.
+	 */
+	public int getResponseCode() throws IOException {
+		if (responseCode < 0) {
+			inputStream = new BufferedInputStream(channel.socket().getInputStream());
+			int code;
+			do {
+				// Informational responses, ex: 100 Continue, are followed by the actual one.
+				code = parseStatus(readLine(inputStream));
+				responseHeaders.clear();
+				String line;
+				while (!(line = readLine(inputStream)).isEmpty()) {
+					int separator = line.indexOf(':');
+					if (separator > 0) {
+						responseHeaders.put(line.substring(0, separator).trim().toLowerCase(Locale.ROOT), line.substring(separator + 1).trim());
+					}
+				}
+			} while (code >= 100 && code < 200);
+			responseCode = code;
+		}
+		return responseCode;
+	}
+
+	/**
+	 * @return Value of a response header or null, the name is not case sensitive.
+	 */
+	public String getHeaderField(String name) {
+		return responseHeaders.get(name.toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * @return Announced length of the response body or -1 if unknown.
+	 */
+	public long getContentLengthLong() {
+		String contentLength = getHeaderField(BoxConstants.CONTENT_LENGTH);
+		try {
+			return contentLength != null ? Long.parseLong(contentLength) : -1L;
+		} catch (NumberFormatException e) {
+			return -1L;
+		}
+	}
+
+	/**
+	 * @return The body of the response, whatever its status. It ends with the body, not with the connection.
+	 */
+	public InputStream getBody() throws IOException {
+		getResponseCode();
+		String transferEncoding = getHeaderField(BoxConstants.TRANSFER_ENCODING);
+		if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ROOT).contains(BoxConstants.CHUNKED)) {
+			return new ChunkedInputStream(inputStream);
+		}
+		long contentLength = getContentLengthLong();
+		return contentLength >= 0 ? ByteStreams.limit(inputStream, contentLength) : inputStream;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private static void appendHeader(StringBuilder head, String name, String value) {
+		head.append(name).append(": ").append(value).append(BoxConstants.HttpService.CRLF);
+	}
+
+	private static int parseStatus(String statusLine) throws IOException {
+		// Ex: HTTP/1.1 201 Created
+		String[] parts = statusLine.split(" ", 3);
+		try {
+			if (parts.length >= 2 && parts[0].startsWith("HTTP/")) {
+				return Integer.parseInt(parts[1]);
+			}
+		} catch (NumberFormatException e) {
+			// Reported below.
+		}
+		throw new IOException(String.format("Invalid http status line: %s", statusLine));
+	}
+
+	/**
+	 * Read a line ended by CRLF or LF, without the line end.
+	 */
+	private static String readLine(InputStream inputStream) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		int value;
+		while ((value = inputStream.read()) != '\n') {
+			if (value < 0) {
+				throw new EOFException("Connection closed in the middle of the http response head");
+			}
+			if (line.size() >= MAX_LINE_LENGTH) {
+				throw new IOException("Http response line too long");
+			}
+			line.write(value);
+		}
+		int length = line.size();
+		byte[] bytes = line.toByteArray();
+		if (length > 0 && bytes[length - 1] == '\r') {
+			length--;
+		}
+		return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Body sent in chunks, each preceded by its length in hex and the last one empty.
+	 */
+	private static final class ChunkedInputStream extends InputStream {
+		private final InputStream inputStream;
+		private long remaining;
+		private boolean started;
+		private boolean finished;
+
+		private ChunkedInputStream(InputStream inputStream) {
+			this.inputStream = inputStream;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (finished) {
+				return -1;
+			}
+			if (len == 0) {
+				return 0;
+			}
+			if (remaining == 0 && !nextChunk()) {
+				return -1;
+			}
+			int read = inputStream.read(b, off, (int) Math.min(len, remaining));
+			if (read < 0) {
+				throw new EOFException("Connection closed in the middle of an http chunk");
+			}
+			remaining -= read;
+			return read;
+		}
+
+		private boolean nextChunk() throws IOException {
+			if (started) {
+				// The line end of the previous chunk.
+				readLine(inputStream);
+			}
+			started = true;
+			String sizeLine = readLine(inputStream);
+			int extension = sizeLine.indexOf(';');
+			try {
+				remaining = Long.parseLong((extension >= 0 ? sizeLine.substring(0, extension) : sizeLine).trim(), 16);
+			} catch (NumberFormatException e) {
+				throw new IOException(String.format("Invalid http chunk size: %s", sizeLine));
+			}
+			if (remaining < 0) {
+				throw new IOException(String.format("Invalid http chunk size: %s", sizeLine));
+			}
+			if (remaining == 0) {
+				// Skip the trailers up to the empty line ending the body.
+				String trailer;
+				do {
+					trailer = readLine(inputStream);
+				} while (!trailer.isEmpty());
+				finished = true;
+				return false;
+			}
+			return true;
+		}
+	}
+}
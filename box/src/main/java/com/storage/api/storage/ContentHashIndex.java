@@ -0,0 +1,159 @@
+package com.storage.api.storage;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Strings;
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Maps the SHA-1 of uploaded content to the Box file id holding it, so repeated content can be copied server side
+ * instead of uploaded again. When an index file is given, the mapping is appended to it and reloaded on the next run.
+ * Each line is "sha1&lt;TAB&gt;fileId"; a line with an empty file id removes the entry.
+ */
+public class ContentHashIndex {
+	private static final Logger logger = LoggerFactory.getLogger(ContentHashIndex.class);
+	private static final String SEPARATOR = "\t";
+	private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+	private final Map<String, String> fileIds = new ConcurrentHashMap<>();
+	private final File indexFile;
+	private Writer writer;
+
+	public ContentHashIndex(File indexFile) {
+		this.indexFile = indexFile;
+		if (indexFile != null) {
+			load();
+		}
+	}
+
+	public String lookup(String sha1) {
+		return fileIds.get(sha1);
+	}
+
+	public int size() {
+		return fileIds.size();
+	}
+
+	/**
+	 * Remember that the content with the given hash is stored in the given Box file.
+	 */
+	public void record(String sha1, String fileId) {
+		if (!fileId.equals(fileIds.put(sha1, fileId))) {
+			append(sha1, fileId);
+		}
+	}
+
+	/**
+	 * Drop a mapping whose Box file can no longer be used, ex: it was deleted since the last run.
+	 */
+	public void forget(String sha1, String fileId) {
+		if (fileIds.remove(sha1, fileId)) {
+			append(sha1, "");
+		}
+	}
+
+	public static String sha1(byte[] content) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			return BaseEncoding.base16().lowerCase().encode(digest.digest(content));
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError("Error while hashing content: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Hash a file as it is read, without holding it in memory.
+	 */
+	public static String sha1(Path file) throws IOException {
+		byte[] buffer = BufferPool.acquire(HASH_BUFFER_SIZE);
+		try (InputStream inputStream = Files.newInputStream(file)) {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			int read;
+			while ((read = inputStream.read(buffer)) >= 0) {
+				digest.update(buffer, 0, read);
+			}
+			return BaseEncoding.base16().lowerCase().encode(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError("Error while hashing content: " + e.getMessage(), e);
+		} finally {
+			BufferPool.release(buffer);
+		}
+	}
+
+	private void load() {
+		if (!indexFile.isFile()) {
+			return;
+		}
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int separator = line.indexOf(SEPARATOR);
+				if (separator <= 0) {
+					continue;
+				}
+				String sha1 = line.substring(0, separator);
+				String fileId = line.substring(separator + 1);
+				if (Strings.isNullOrEmpty(fileId)) {
+					fileIds.remove(sha1);
+				} else {
+					fileIds.put(sha1, fileId);
+				}
+			}
+			logger.info(String.format("Loaded %d content hashes from %s", fileIds.size(), indexFile));
+		} catch (IOException e) {
+			logger.error("Exception Loading Content Hash Index", e);
+		}
+	}
+
+	private synchronized void append(String sha1, String fileId) {
+		if (indexFile == null) {
+			return;
+		}
+		try {
+			if (writer == null) {
+				writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexFile, true), StandardCharsets.UTF_8));
+			}
+			writer.write(sha1);
+			writer.write(SEPARATOR);
+			writer.write(fileId);
+			writer.write('\n');
+			writer.flush();
+		} catch (IOException e) {
+			logger.error("Exception Writing Content Hash Index", e);
+		}
+	}
+
+	/**
+	 * Close the index file; a later record or forget reopens it.
+	 */
+	public synchronized void close() {
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.close();
+		} catch (IOException e) {
+			logger.error("Exception Closing Content Hash Index", e);
+		}
+		writer = null;
+	}
+}
@@ -0,0 +1,210 @@
+package com.storage.api.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Spreads requests over the app credentials of the settings and of {@link BoxSettings#getCredentials()}, so the rate
+ * limits of every app add up. Credentials take turns by smooth weighted round robin. A credential Box answered 429 to
+ * sits out until its Retry-After has passed, and when all of them sit out the caller waits for the first one back. As
+ * the throttle handler of BoxUtility, the pool has the throttled request sent again with the next credential.
+ * <p>
+ * Every app signs in as its own service account, so a request may reach items another app created only when every
+ * service account is a collaborator of them. Uploads create their folders in {@link BoxSettings#getParentFolder()} with
+ * one credential or several, and with several the service account of every app must be a collaborator (Editor) of it.
+ * <p>
+ * Each credential keeps its access token until shortly before it expires instead of asking for one per request.
+ */
+public class CredentialPool implements BoxUtility.ThrottleHandler {
+	private static final Logger logger = LoggerFactory.getLogger(CredentialPool.class);
+	private static final long DEFAULT_RETRY_AFTER_SECONDS = 1;
+	private static final long TOKEN_REFRESH_MARGIN_SECONDS = 60;
+
+	private final List<Credential> credentials = new ArrayList<>();
+	private final Map<String, Credential> tokens = new ConcurrentHashMap<>();
+
+	public CredentialPool(BoxSettings boxSettings) {
+		credentials.add(new Credential(boxSettings, boxSettings.getCredentialWeight()));
+		if (boxSettings.getCredentials() != null) {
+			for (BoxCredential credential : boxSettings.getCredentials()) {
+				BoxSettings settings = new BoxSettings();
+				settings.setAuthurl(boxSettings.getAuthurl());
+				settings.setEnterpriseID(boxSettings.getEnterpriseID());
+				settings.setClientId(credential.getClientId());
+				settings.setSecret(credential.getSecret());
+				settings.setPublicKeyID(credential.getPublicKeyID());
+				settings.setPrivateKey(credential.getPrivateKey());
+				settings.setPassphrase(credential.getPassphrase());
+				credentials.add(new Credential(settings, credential.getWeight()));
+			}
+		}
+	}
+
+	/**
+	 * @return A valid access token of the credential whose turn it is or null if it could not be obtained.
+	 */
+	public String getAccessToken() {
+		return next().getAccessToken();
+	}
+
+	/**
+	 * @return Number of credentials, 1 without any besides the settings.
+	 */
+	public int size() {
+		return credentials.size();
+	}
+
+	/**
+	 * Take the credential of the token out of the rotation for a while.
+	 *
+	 * @param retryAfterSeconds Seconds Box asked to wait or -1 if it did not say.
+	 */
+	@Override
+	public void throttled(String accessToken, long retryAfterSeconds) {
+		Credential credential = accessToken == null ? null : tokens.get(accessToken);
+		if (credential == null) {
+			return;
+		}
+		throttled(credential, retryAfterSeconds);
+	}
+
+	void throttled(Credential credential, long retryAfterSeconds) {
+		long seconds = retryAfterSeconds >= 0 ? retryAfterSeconds : DEFAULT_RETRY_AFTER_SECONDS;
+		long until = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		synchronized (this) {
+			credential.throttles++;
+			if (until - credential.throttledUntil > 0) {
+				credential.throttledUntil = until;
+			}
+		}
+		logger.info(String.format("Box throttled client %s, retrying with it after %d seconds", credential.getClientId(), seconds));
+	}
+
+	/**
+	 * The token of the next credential not throttled, waiting for one if all of them are.
+	 */
+	@Override
+	public String getRetryToken() {
+		return getAccessToken();
+	}
+
+	/**
+	 * Requests, throttles and remaining throttle time of every credential, by client id.
+	 */
+	public synchronized JsonObject snapshot() {
+		long now = System.nanoTime();
+		JsonObject snapshot = new JsonObject();
+		for (Credential credential : credentials) {
+			JsonObject json = new JsonObject();
+			json.addProperty("weight", credential.weight);
+			json.addProperty("requests", credential.requests);
+			json.addProperty("throttles", credential.throttles);
+			json.addProperty("throttledMillis", Math.max(TimeUnit.NANOSECONDS.toMillis(credential.throttledUntil - now), 0L));
+			snapshot.add(credential.getClientId(), json);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * The next credential not throttled by smooth weighted round robin, waiting for one if all of them are.
+	 */
+	Credential next() {
+		while (true) {
+			long waitNanos = Long.MAX_VALUE;
+			Credential first = null;
+			synchronized (this) {
+				long now = System.nanoTime();
+				Credential selected = null;
+				int totalWeight = 0;
+				for (Credential credential : credentials) {
+					long remaining = credential.throttledUntil - now;
+					if (remaining > 0) {
+						if (remaining < waitNanos) {
+							waitNanos = remaining;
+							first = credential;
+						}
+						continue;
+					}
+					credential.currentWeight += credential.weight;
+					totalWeight += credential.weight;
+					if (selected == null || credential.currentWeight > selected.currentWeight) {
+						selected = credential;
+					}
+				}
+				if (selected != null) {
+					selected.currentWeight -= totalWeight;
+					selected.requests++;
+					return selected;
+				}
+			}
+			try {
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return first;
+			}
+		}
+	}
+
+	/**
+	 * One app credential with its cached token. The scheduling fields are guarded by the pool.
+	 */
+	final class Credential {
+		private final BoxSettings settings;
+		private final int weight;
+		private int currentWeight;
+		private long throttledUntil = System.nanoTime();
+		private long requests;
+		private long throttles;
+		private String accessToken;
+		private long expiresAt;
+
+		private Credential(BoxSettings settings, int weight) {
+			this.settings = settings;
+			this.weight = Math.max(weight, 1);
+		}
+
+		String getClientId() {
+			return settings.getClientId();
+		}
+
+		private synchronized String getAccessToken() {
+			if (accessToken != null && expiresAt - System.nanoTime() > 0) {
+				return accessToken;
+			}
+			try {
+				JsonObject reqBody = new JsonObject();
+				reqBody.addProperty(BoxConstants.HubConstants.GRANT_TYPE_PROPERTY, BoxConstants.GRANT_TYPE_VALUE);
+				reqBody.addProperty(BoxConstants.HubConstants.CLIENT_ID_PROPERTY, settings.getClientId());
+				reqBody.addProperty(BoxConstants.HubConstants.CLIENT_SECRET_PROPERTY, settings.getSecret());
+				reqBody.addProperty(BoxConstants.HubConstants.ASSERTION_PROPERTY, BoxUtility.getAssertion(settings, "api"));
+
+				long requested = System.nanoTime();
+				JsonObject tokenResponse = BoxUtility.requestAccessToken(settings.getAuthurl(), reqBody, "api");
+				String token = JsonPath.getValue(tokenResponse, BoxConstants.HubConstants.ACCESS_TOKEN);
+				if (accessToken != null) {
+					tokens.remove(accessToken);
+				}
+				accessToken = token;
+				// Without a lifetime the token is used for this request only.
+				long expiresIn = tokenResponse.has(BoxConstants.HubConstants.EXPIRES_IN) ? tokenResponse.get(BoxConstants.HubConstants.EXPIRES_IN).getAsLong() : 0;
+				expiresAt = requested + TimeUnit.SECONDS.toNanos(Math.max(expiresIn - TOKEN_REFRESH_MARGIN_SECONDS, 0));
+				if (token != null) {
+					tokens.put(token, this);
+				}
+				return token;
+			} catch (Exception ex) {
+				logger.error(BoxConstants.BOX_SERVICE, BoxConstants.LogCodes.BOX_1652, settings.getAuthurl(), ex);
+				return null;
+			}
+		}
+	}
+}
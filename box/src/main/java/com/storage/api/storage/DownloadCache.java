@@ -0,0 +1,401 @@
+package com.storage.api.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Content addressed disk cache for downloaded files. Entries are named by the SHA-1 Box reports for the file, so a
+ * new file version is a new entry. The cache is bounded by its total size and evicts the least recently used entries
+ * first, so the popular files a service downloads over and over stay while one-off downloads age out.
+ * <p>
+ * The SHA-1 Box reported for a file id is remembered for the revalidation period, ex: 30 seconds, so repeated downloads
+ * of a popular file within it are served without asking Box for the hash again. A file changed on Box within that period
+ * may still be served from the copy of its previous version, with a period of 0 the hash is looked up on every download.
+ * <p>
+ * Entries are written to a temporary file and moved into place atomically once their content hash is verified, so
+ * readers only ever see complete files. A hit is opened under the same lock eviction deletes under, and an entry
+ * evicted while it is being read stays readable through the open file handle. The content type Box sent is kept next
+ * to each entry, ex: 1a2b...9f.type, so a hit is served the same way as the download it was cached from.
+ */
+public class DownloadCache {
+	private static final Logger logger = LoggerFactory.getLogger(DownloadCache.class);
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String TYPE_SUFFIX = ".type";
+	private static final int PURGE_THRESHOLD = 10000;
+
+	private final Path directory;
+	private final long maxBytes;
+	private final long revalidateNanos;
+	private final Map<String, Cached> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final Map<String, Validated> validated = new ConcurrentHashMap<>();
+	private long totalBytes;
+
+	public DownloadCache(Path directory, long maxBytes) throws IOException {
+		this(directory, maxBytes, 0);
+	}
+
+	/**
+	 * @param revalidateSeconds Seconds the SHA-1 of a file id is trusted without asking Box again, 0 to always ask.
+	 */
+	public DownloadCache(Path directory, long maxBytes, long revalidateSeconds) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.maxBytes = maxBytes;
+		this.revalidateNanos = TimeUnit.SECONDS.toNanos(revalidateSeconds);
+		load();
+	}
+
+	public static DownloadCache create(BoxSettings boxSettings) throws IOException {
+		return new DownloadCache(Paths.get(boxSettings.getCacheDirectory()), boxSettings.getCacheMaxBytes(), boxSettings.getCacheRevalidateSeconds());
+	}
+
+	/**
+	 * @return The SHA-1 and name Box reported for the file within the revalidation period, or null if they have to be
+	 * looked up again.
+	 */
+	public Validated getValidated(String fileId) {
+		Validated file = validated.get(fileId);
+		if (file == null) {
+			return null;
+		}
+		if (System.nanoTime() - file.validatedNanos > revalidateNanos) {
+			validated.remove(fileId, file);
+			return null;
+		}
+		return file;
+	}
+
+	/**
+	 * Remember the SHA-1 and name Box just reported for the file.
+	 */
+	public void validated(String fileId, String sha1, String name) {
+		if (revalidateNanos <= 0 || sha1 == null) {
+			return;
+		}
+		if (validated.size() >= PURGE_THRESHOLD) {
+			long now = System.nanoTime();
+			validated.values().removeIf(file -> now - file.validatedNanos > revalidateNanos);
+		}
+		validated.put(fileId, new Validated(sha1, name, System.nanoTime()));
+	}
+
+	/**
+	 * Forget the SHA-1 of the file, ex: after its content did not match it.
+	 */
+	public void invalidate(String fileId) {
+		validated.remove(fileId);
+	}
+
+	/**
+	 * Find the cached content with the given hash and open it, the caller closes the hit once it is served.
+	 *
+	 * @return The open cached file or null on a miss.
+	 */
+	public synchronized Hit lookup(String sha1) throws IOException {
+		Cached cached = entries.get(sha1);
+		if (cached == null) {
+			return null;
+		}
+		try {
+			return new Hit(FileChannel.open(directory.resolve(sha1), StandardOpenOption.READ), cached.contentType);
+		} catch (NoSuchFileException ex) {
+			remove(sha1);
+			return null;
+		}
+	}
+
+	public synchronized long getTotalBytes() {
+		return totalBytes;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Start writing the content with the given hash. Bytes written to the returned stream are only published once
+	 * {@link Entry#commit()} verifies them against the hash.
+	 *
+	 * @param contentType Content type to serve the content with, or null if Box sent none.
+	 */
+	public Entry begin(String sha1, String contentType) throws IOException {
+		return new Entry(sha1, contentType, Files.createTempFile(directory, sha1, TEMP_SUFFIX));
+	}
+
+	private synchronized void admit(String sha1, long size, String contentType) {
+		Cached previous = entries.put(sha1, new Cached(size, contentType));
+		totalBytes += size - (previous != null ? previous.size : 0L);
+		Iterator<Map.Entry<String, Cached>> eldest = entries.entrySet().iterator();
+		while (totalBytes > maxBytes && eldest.hasNext()) {
+			Map.Entry<String, Cached> entry = eldest.next();
+			if (entry.getKey().equals(sha1)) {
+				continue;
+			}
+			eldest.remove();
+			totalBytes -= entry.getValue().size;
+			delete(directory.resolve(entry.getKey()));
+			delete(directory.resolve(entry.getKey() + TYPE_SUFFIX));
+		}
+	}
+
+	private synchronized void remove(String sha1) {
+		Cached cached = entries.remove(sha1);
+		if (cached != null) {
+			totalBytes -= cached.size;
+		}
+		delete(directory.resolve(sha1 + TYPE_SUFFIX));
+	}
+
+	/**
+	 * Rebuild the index from the cache directory, oldest files first so they are evicted first.
+	 */
+	private void load() throws IOException {
+		List<Path> files = new ArrayList<>();
+		List<Path> types = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path path : stream) {
+				String name = path.getFileName().toString();
+				if (name.endsWith(TEMP_SUFFIX)) {
+					// Left over by a download that never finished.
+					delete(path);
+				} else if (name.endsWith(TYPE_SUFFIX)) {
+					types.add(path);
+				} else if (Files.isRegularFile(path)) {
+					files.add(path);
+				}
+			}
+		}
+		files.sort(Comparator.comparing(DownloadCache::lastModified));
+		for (Path path : files) {
+			admit(path.getFileName().toString(), Files.size(path), readContentType(path));
+		}
+		for (Path type : types) {
+			String name = type.getFileName().toString();
+			if (!entries.containsKey(name.substring(0, name.length() - TYPE_SUFFIX.length()))) {
+				delete(type);
+			}
+		}
+		logger.info(String.format("Download cache %s holds %d files, %d bytes", directory, entries.size(), totalBytes));
+	}
+
+	private static String readContentType(Path path) {
+		try {
+			return new String(Files.readAllBytes(path.resolveSibling(path.getFileName() + TYPE_SUFFIX)), StandardCharsets.UTF_8);
+		} catch (IOException ex) {
+			// Cached before content types were kept, or Box sent none.
+			return null;
+		}
+	}
+
+	private static FileTime lastModified(Path path) {
+		try {
+			return Files.getLastModifiedTime(path);
+		} catch (IOException ex) {
+			return FileTime.fromMillis(0);
+		}
+	}
+
+	private static void delete(Path path) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException ex) {
+			logger.warn(String.format("Could not delete cache file %s: %s", path, ex.getMessage()));
+		}
+	}
+
+	private static final class Cached {
+		private final long size;
+		private final String contentType;
+
+		private Cached(long size, String contentType) {
+			this.size = size;
+			this.contentType = contentType;
+		}
+	}
+
+	/**
+	 * SHA-1 and name of a file id as Box reported them.
+	 */
+	public static final class Validated {
+		private final String sha1;
+		private final String name;
+		private final long validatedNanos;
+
+		private Validated(String sha1, String name, long validatedNanos) {
+			this.sha1 = sha1;
+			this.name = name;
+			this.validatedNanos = validatedNanos;
+		}
+
+		public String getSha1() {
+			return sha1;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	/**
+	 * Cached content opened for reading.
+	 */
+	public static final class Hit implements Closeable {
+		private final FileChannel channel;
+		private final String contentType;
+
+		private Hit(FileChannel channel, String contentType) {
+			this.channel = channel;
+			this.contentType = contentType;
+		}
+
+		/**
+		 * @return Content type Box sent with the content or null if it sent none.
+		 */
+		public String getContentType() {
+			return contentType;
+		}
+
+		public long getSize() throws IOException {
+			return channel.size();
+		}
+
+		/**
+		 * Copy the whole content to the stream, the stream is left open.
+		 */
+		public void copyTo(OutputStream outputStream) throws IOException {
+			WritableByteChannel target = Channels.newChannel(outputStream);
+			long size = channel.size();
+			long position = 0;
+			while (position < size) {
+				long transferred = channel.transferTo(position, size - position, target);
+				if (transferred <= 0) {
+					throw new IOException(String.format("Cached file shrank to %d of %d bytes", position, size));
+				}
+				position += transferred;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Content being written into the cache. Content larger than the whole cache is dropped as it is written.
+	 */
+	public class Entry extends OutputStream {
+		private final String sha1;
+		private final String contentType;
+		private final Path tempFile;
+		private final MessageDigest digest;
+		private OutputStream outputStream;
+		private long size;
+
+		private Entry(String sha1, String contentType, Path tempFile) throws IOException {
+			this.sha1 = sha1;
+			this.contentType = contentType;
+			this.tempFile = tempFile;
+			this.outputStream = Files.newOutputStream(tempFile);
+			try {
+				this.digest = MessageDigest.getInstance("SHA-1");
+			} catch (NoSuchAlgorithmException e) {
+				throw new AssertionError("Error while hashing cache content: " + e.getMessage(), e);
+			}
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (outputStream == null) {
+				return;
+			}
+			size += len;
+			if (size > maxBytes) {
+				abort();
+				return;
+			}
+			digest.update(b, off, len);
+			outputStream.write(b, off, len);
+		}
+
+		/**
+		 * Publish the content if it matches the expected hash.
+		 *
+		 * @return True if the content is now in the cache.
+		 */
+		public boolean commit() throws IOException {
+			if (outputStream == null) {
+				return false;
+			}
+			outputStream.close();
+			outputStream = null;
+			String actual = BaseEncoding.base16().lowerCase().encode(digest.digest());
+			if (!actual.equalsIgnoreCase(sha1)) {
+				logger.warn(String.format("Not caching content with sha1 %s, expected %s", actual, sha1));
+				delete(tempFile);
+				return false;
+			}
+			if (contentType != null) {
+				// Written first, so a published entry always finds its type.
+				Files.write(directory.resolve(sha1 + TYPE_SUFFIX), contentType.getBytes(StandardCharsets.UTF_8));
+			}
+			Files.move(tempFile, directory.resolve(sha1), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			admit(sha1, size, contentType);
+			return true;
+		}
+
+		/**
+		 * Drop the partial content.
+		 */
+		public void abort() {
+			if (outputStream != null) {
+				try {
+					outputStream.close();
+				} catch (IOException ex) {
+					// The file is deleted anyway.
+				}
+				outputStream = null;
+			}
+			delete(tempFile);
+		}
+
+		@Override
+		public void close() {
+			if (outputStream != null) {
+				abort();
+			}
+		}
+	}
+}
@@ -0,0 +1,410 @@
+package com.storage.api.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces concurrent downloads of the same file into one request to Box. The first caller starts a fetch that
+ * copies the Box response into a spill file on its own thread, every caller then reads the spill file at its own pace.
+ * A slow client therefore never holds back the fetch or the other clients. The spill file is deleted once the fetch
+ * and all its readers are done. When a download cache is given, the fetched content is also published to it.
+ */
+public class DownloadCoalescer {
+	private static final Logger logger = LoggerFactory.getLogger(DownloadCoalescer.class);
+	private static final int SPILL_BUFFER_SIZE = 64 * 1024;
+	private static final String[] FORWARDED_HEADERS = {BoxConstants.CONTENT_DISPOSITION, BoxConstants.CONTENT_RANGE, BoxConstants.ACCEPT_RANGES};
+
+	/**
+	 * Opens the Box response of a download.
+	 */
+	public interface Upstream {
+		DownloadResponse open() throws IOException;
+	}
+
+	private final Map<String, Flight> flights = new ConcurrentHashMap<>();
+	private final DownloadCache downloadCache;
+	private final ExecutorService executor;
+
+	/**
+	 * @param downloadCache Cache receiving the fetched content, or null.
+	 */
+	public DownloadCoalescer(DownloadCache downloadCache) {
+		this.downloadCache = downloadCache;
+
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "download-fetch-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Join the download of the given file, starting it if nobody else is downloading it. Waits until Box answered.
+	 *
+	 * @param key      File id.
+	 * @param sha1     SHA-1 of the content to publish it to the download cache, or null.
+	 * @param upstream Opens the Box response if a new fetch is started.
+	 * @return The response to read, or null if Box did not answer.
+	 */
+	public DownloadResponse join(String key, String sha1, Upstream upstream) throws IOException {
+		Flight flight;
+		while (true) {
+			flight = flights.get(key);
+			if (flight != null) {
+				if (flight.retain()) {
+					break;
+				}
+				continue;
+			}
+			Flight created = new Flight(key, sha1, upstream);
+			if (flights.putIfAbsent(key, created) == null) {
+				flight = created;
+				executor.execute(flight);
+				break;
+			}
+		}
+
+		Subscription subscription = new Subscription(flight);
+		try {
+			return flight.awaitResponse() ? subscription : null;
+		} catch (IOException | RuntimeException ex) {
+			subscription.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Number of files being fetched right now.
+	 */
+	public int inFlight() {
+		return flights.size();
+	}
+
+	/**
+	 * Stop the fetch threads.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * One fetch from Box shared by all its readers. The fetch thread holds a reference of its own, so the spill file
+	 * lives until both the fetch and the last reader are done.
+	 */
+	private final class Flight implements Runnable {
+		private final String key;
+		private final String sha1;
+		private final Upstream upstream;
+		private FileChannel channel;
+		private Path spillFile;
+		private int references = 2;
+		private boolean opened;
+		private boolean complete;
+		private boolean empty;
+		private Exception failure;
+		private long written;
+		private int status;
+		private long contentLength = -1;
+		private String contentType;
+		private final Map<String, String> headers = new HashMap<>();
+
+		private Flight(String key, String sha1, Upstream upstream) {
+			this.key = key;
+			this.sha1 = sha1;
+			this.upstream = upstream;
+		}
+
+		@Override
+		public void run() {
+			DownloadResponse response = null;
+			DownloadCache.Entry cacheEntry = null;
+			try {
+				response = upstream.open();
+				if (response == null) {
+					synchronized (this) {
+						empty = true;
+					}
+					return;
+				}
+				spillFile = Files.createTempFile("box-download-", ".tmp");
+				channel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				if (downloadCache != null && sha1 != null && response.getStatus() == HttpURLConnection.HTTP_OK) {
+					cacheEntry = beginCache(response.getContentType());
+				}
+				synchronized (this) {
+					status = response.getStatus();
+					contentLength = response.getContentLength();
+					contentType = response.getContentType();
+					for (String header : FORWARDED_HEADERS) {
+						String value = response.getHeader(header);
+						if (value != null) {
+							headers.put(header, value);
+						}
+					}
+					opened = true;
+					notifyAll();
+				}
+
+				InputStream inputStream = response.getInputStream();
+				byte[] buffer = new byte[SPILL_BUFFER_SIZE];
+				long position = 0;
+				int read;
+				while ((read = inputStream.read(buffer)) != -1) {
+					ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+					while (byteBuffer.hasRemaining()) {
+						position += channel.write(byteBuffer, position);
+					}
+					cacheEntry = writeCache(cacheEntry, buffer, read);
+					synchronized (this) {
+						written = position;
+						notifyAll();
+						// Everybody left and nothing is being cached, the rest of the body is of no use.
+						if (references == 1 && cacheEntry == null) {
+							response.abort();
+							throw new IOException(String.format("All readers of file %s left", key));
+						}
+					}
+				}
+				if (contentLength >= 0 && position != contentLength) {
+					throw new IOException(String.format("Download of file %s ended at byte %d of %d", key, position, contentLength));
+				}
+				commitCache(cacheEntry);
+				cacheEntry = null;
+				response.close();
+			} catch (Exception ex) {
+				if (response != null) {
+					response.abort();
+				}
+				synchronized (this) {
+					failure = ex;
+				}
+			} finally {
+				if (cacheEntry != null) {
+					cacheEntry.abort();
+				}
+				flights.remove(key, this);
+				synchronized (this) {
+					complete = true;
+					notifyAll();
+				}
+				release();
+			}
+		}
+
+		private synchronized boolean retain() {
+			if (complete || references == 0) {
+				return false;
+			}
+			references++;
+			return true;
+		}
+
+		private void release() {
+			synchronized (this) {
+				if (--references > 0) {
+					return;
+				}
+			}
+			try {
+				if (channel != null) {
+					channel.close();
+				}
+				if (spillFile != null) {
+					Files.deleteIfExists(spillFile);
+				}
+			} catch (IOException ex) {
+				logger.warn(String.format("Could not delete download spill file %s: %s", spillFile, ex.getMessage()));
+			}
+		}
+
+		/**
+		 * @return False if Box did not answer.
+		 */
+		private synchronized boolean awaitResponse() throws IOException {
+			while (!opened && !complete) {
+				await();
+			}
+			if (opened) {
+				return true;
+			}
+			if (failure instanceof RuntimeException) {
+				throw (RuntimeException) failure;
+			}
+			if (failure != null) {
+				throw new IOException(failure.getMessage(), failure);
+			}
+			return !empty;
+		}
+
+		/**
+		 * Wait until bytes past the given position are available.
+		 *
+		 * @return Number of bytes available from the position, or -1 at the end of the content.
+		 */
+		private synchronized long awaitBytes(long position) throws IOException {
+			while (written <= position && !complete) {
+				await();
+			}
+			if (written > position) {
+				return written - position;
+			}
+			if (failure != null) {
+				throw new IOException(String.format("Download of file %s failed: %s", key, failure.getMessage()), failure);
+			}
+			return -1;
+		}
+
+		private void await() throws InterruptedIOException {
+			try {
+				wait();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(String.format("Interrupted while waiting for file %s", key));
+			}
+		}
+
+		private DownloadCache.Entry beginCache(String contentType) {
+			try {
+				return downloadCache.begin(sha1, contentType);
+			} catch (IOException ex) {
+				logger.warn(String.format("Download of file %s will not be cached: %s", key, ex.getMessage()));
+				return null;
+			}
+		}
+
+		private DownloadCache.Entry writeCache(DownloadCache.Entry cacheEntry, byte[] buffer, int length) {
+			if (cacheEntry == null) {
+				return null;
+			}
+			try {
+				cacheEntry.write(buffer, 0, length);
+				return cacheEntry;
+			} catch (IOException ex) {
+				logger.warn(String.format("Stopped caching file %s: %s", key, ex.getMessage()));
+				cacheEntry.abort();
+				return null;
+			}
+		}
+
+		private void commitCache(DownloadCache.Entry cacheEntry) {
+			if (cacheEntry == null) {
+				return;
+			}
+			try {
+				if (!cacheEntry.commit()) {
+					// Not published, ex: the file changed on Box since its hash was looked up.
+					downloadCache.invalidate(key);
+				}
+			} catch (IOException ex) {
+				logger.warn(String.format("Could not publish file %s to the cache: %s", key, ex.getMessage()));
+				cacheEntry.abort();
+			}
+		}
+	}
+
+	/**
+	 * A reader of a shared fetch, reading the spill file from the start at its own pace.
+	 */
+	private static final class Subscription extends DownloadResponse {
+		private final Flight flight;
+		private boolean closed;
+
+		private Subscription(Flight flight) {
+			this(flight, new SpillInputStream(flight));
+		}
+
+		private Subscription(Flight flight, InputStream inputStream) {
+			super(null, inputStream);
+			this.flight = flight;
+		}
+
+		@Override
+		public int getStatus() {
+			synchronized (flight) {
+				return flight.status;
+			}
+		}
+
+		@Override
+		public long getContentLength() {
+			synchronized (flight) {
+				return flight.contentLength;
+			}
+		}
+
+		@Override
+		public String getContentType() {
+			synchronized (flight) {
+				return flight.contentType;
+			}
+		}
+
+		@Override
+		public String getHeader(String name) {
+			synchronized (flight) {
+				return flight.headers.get(name);
+			}
+		}
+
+		@Override
+		public synchronized void close() {
+			if (!closed) {
+				closed = true;
+				flight.release();
+			}
+		}
+
+		@Override
+		public void abort() {
+			close();
+		}
+	}
+
+	private static final class SpillInputStream extends InputStream {
+		private final Flight flight;
+		private long position;
+
+		private SpillInputStream(Flight flight) {
+			this.flight = flight;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			long available = flight.awaitBytes(position);
+			if (available < 0) {
+				return -1;
+			}
+			int read = flight.channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, available)), position);
+			if (read > 0) {
+				position += read;
+			}
+			return read;
+		}
+	}
+}
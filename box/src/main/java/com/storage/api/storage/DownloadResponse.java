@@ -0,0 +1,57 @@
+package com.storage.api.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * Successful response of a content download whose body has not been read yet.
+ */
+public class DownloadResponse implements Closeable {
+	private final HttpURLConnection httpURLConnection;
+	private final InputStream inputStream;
+
+	public DownloadResponse(HttpURLConnection httpURLConnection, InputStream inputStream) {
+		this.httpURLConnection = httpURLConnection;
+		this.inputStream = inputStream;
+	}
+
+	public InputStream getInputStream() {
+		return inputStream;
+	}
+
+	public int getStatus() throws IOException {
+		return httpURLConnection.getResponseCode();
+	}
+
+	/**
+	 * @return Content length of the body or -1 if the server did not send one.
+	 */
+	public long getContentLength() {
+		return httpURLConnection.getContentLengthLong();
+	}
+
+	public String getContentType() {
+		return httpURLConnection.getContentType();
+	}
+
+	public String getHeader(String name) {
+		return httpURLConnection.getHeaderField(name);
+	}
+
+	/**
+	 * Close the body. A fully read body leaves the connection open for reuse.
+	 */
+	@Override
+	public void close() throws IOException {
+		inputStream.close();
+	}
+
+	/**
+	 * Drop the underlying connection, ex: when the body is abandoned half way and should not be drained.
+	 */
+	public void abort() {
+		httpURLConnection.disconnect();
+	}
+}
@@ -0,0 +1,436 @@
+package com.storage.api.storage;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Latency, status codes, retries, bytes and in flight requests of the Box API calls, per logical endpoint. Recording
+ * is lock free and every endpoint holds a fixed amount of memory, so it is always on. The metrics are exposed as JMX
+ * beans and in the Prometheus text format.
+ */
+public class EndpointMetrics {
+	private static final Logger logger = LoggerFactory.getLogger(EndpointMetrics.class);
+	private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(30);
+	private static final int SIGNIFICANT_DIGITS = 2;
+	private static final int MAX_STATUS = 600;
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+	public static final String PROMETHEUS_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	/**
+	 * Logical Box endpoints, ex: every folder url is counted as folders.
+	 */
+	public enum Endpoint {
+		TOKEN,
+		SEARCH,
+		FOLDERS,
+		UPLOAD,
+		CONTENT,
+		SHARE,
+		OTHER;
+
+		/**
+		 * Map the url and method of a request to its endpoint.
+		 */
+		public static Endpoint of(URL url, String requestMethod) {
+			String path = url.getPath();
+			if (path.contains("/oauth2/")) {
+				return TOKEN;
+			} else if (path.endsWith("/search")) {
+				return SEARCH;
+			} else if (path.contains("/folders")) {
+				return FOLDERS;
+			} else if (path.endsWith("/content")) {
+				return BoxConstants.POSTREQUESTMETHOD.equals(requestMethod) ? UPLOAD : CONTENT;
+			} else if (path.contains("/files/") && BoxConstants.PUTREQUESTMETHOD.equals(requestMethod)) {
+				return SHARE;
+			}
+			return OTHER;
+		}
+
+		public String label() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+
+	/**
+	 * JMX view of one endpoint. Latencies are in microseconds.
+	 */
+	public interface StatsMBean {
+		long getRequests();
+
+		long getErrors();
+
+		long getRetries();
+
+		long getInFlight();
+
+		long getBytesIn();
+
+		long getBytesOut();
+
+		double getMeanMicros();
+
+		long getP50Micros();
+
+		long getP99Micros();
+
+		long getMaxMicros();
+
+		String getStatusCounts();
+	}
+
+	private final Stats[] stats = new Stats[Endpoint.values().length];
+
+	public EndpointMetrics() {
+		for (Endpoint endpoint : Endpoint.values()) {
+			stats[endpoint.ordinal()] = new Stats();
+		}
+	}
+
+	/**
+	 * Start timing a request. The connection must have its url and method set.
+	 */
+	public Call begin(HttpURLConnection httpURLConnection) {
+		Endpoint endpoint = Endpoint.of(httpURLConnection.getURL(), httpURLConnection.getRequestMethod());
+		return new Call(endpoint, get(endpoint));
+	}
+
+	/**
+	 * Start timing a request sent without an HttpURLConnection.
+	 */
+	public Call begin(URL url, String requestMethod) {
+		Endpoint endpoint = Endpoint.of(url, requestMethod);
+		return new Call(endpoint, get(endpoint));
+	}
+
+	public Stats get(Endpoint endpoint) {
+		return stats[endpoint.ordinal()];
+	}
+
+	/**
+	 * Register one bean per endpoint under the domain, ex: com.storage.api:type=Endpoint,name=upload. Failures are
+	 * logged and otherwise ignored.
+	 */
+	public void register(String domain) {
+		MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+		for (Endpoint endpoint : Endpoint.values()) {
+			try {
+				ObjectName name = new ObjectName(String.format("%s:type=Endpoint,name=%s", domain, endpoint.label()));
+				mBeanServer.registerMBean(new StandardMBean(get(endpoint), StatsMBean.class), name);
+			} catch (InstanceAlreadyExistsException ex) {
+				logger.debug(String.format("Endpoint metrics bean %s is already registered", endpoint.label()));
+			} catch (Exception ex) {
+				logger.warn(String.format("Could not register the endpoint metrics bean %s: %s", endpoint.label(), ex.getMessage()));
+			}
+		}
+	}
+
+	/**
+	 * All endpoints in the Prometheus text exposition format. A status of 0 counts requests that ended without a
+	 * response, ex: on a timeout.
+	 */
+	public String toPrometheus() {
+		StringBuilder text = new StringBuilder();
+		Histogram[] histograms = new Histogram[stats.length];
+		for (int i = 0; i < stats.length; i++) {
+			histograms[i] = stats[i].histogram();
+		}
+
+		header(text, "box_http_request_duration_seconds", "summary", "Time from sending a request to its response status.");
+		for (Endpoint endpoint : Endpoint.values()) {
+			Histogram histogram = histograms[endpoint.ordinal()];
+			for (double quantile : QUANTILES) {
+				sample(text, "box_http_request_duration_seconds", endpoint, "quantile", String.valueOf(quantile), seconds(histogram.getValueAtPercentile(quantile * 100)));
+			}
+			sample(text, "box_http_request_duration_seconds_sum", endpoint, null, null, seconds(get(endpoint).totalMicros.sum()));
+			sample(text, "box_http_request_duration_seconds_count", endpoint, null, null, String.valueOf(histogram.getTotalCount()));
+		}
+
+		header(text, "box_http_responses_total", "counter", "Responses by status code.");
+		for (Endpoint endpoint : Endpoint.values()) {
+			AtomicLongArray statusCounts = get(endpoint).statusCounts;
+			for (int status = 0; status < MAX_STATUS; status++) {
+				long count = statusCounts.get(status);
+				if (count > 0) {
+					sample(text, "box_http_responses_total", endpoint, "code", String.valueOf(status), String.valueOf(count));
+				}
+			}
+		}
+
+		header(text, "box_http_retries_total", "counter", "Requests sent again after a timeout.");
+		for (Endpoint endpoint : Endpoint.values()) {
+			sample(text, "box_http_retries_total", endpoint, null, null, String.valueOf(get(endpoint).getRetries()));
+		}
+		header(text, "box_http_received_bytes_total", "counter", "Response body bytes read.");
+		for (Endpoint endpoint : Endpoint.values()) {
+			sample(text, "box_http_received_bytes_total", endpoint, null, null, String.valueOf(get(endpoint).getBytesIn()));
+		}
+		header(text, "box_http_sent_bytes_total", "counter", "Request body bytes written.");
+		for (Endpoint endpoint : Endpoint.values()) {
+			sample(text, "box_http_sent_bytes_total", endpoint, null, null, String.valueOf(get(endpoint).getBytesOut()));
+		}
+		header(text, "box_http_in_flight_requests", "gauge", "Requests sent whose response is not fully read yet.");
+		for (Endpoint endpoint : Endpoint.values()) {
+			sample(text, "box_http_in_flight_requests", endpoint, null, null, String.valueOf(get(endpoint).getInFlight()));
+		}
+		return text.toString();
+	}
+
+	private static void header(StringBuilder text, String name, String type, String help) {
+		text.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		text.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder text, String name, Endpoint endpoint, String label, String labelValue, String value) {
+		text.append(name).append("{endpoint=\"").append(endpoint.label()).append('"');
+		if (label != null) {
+			text.append(',').append(label).append("=\"").append(labelValue).append('"');
+		}
+		text.append("} ").append(value).append('\n');
+	}
+
+	private static String seconds(long micros) {
+		return String.valueOf(micros / 1e6d);
+	}
+
+	/**
+	 * Counters of one endpoint. Writers only touch the recorder and the adders; the recorded intervals are folded into
+	 * the total histogram when read.
+	 */
+	public static final class Stats implements StatsMBean {
+		private final Recorder recorder = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+		private final Histogram total = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+		private Histogram interval;
+		private final AtomicLongArray statusCounts = new AtomicLongArray(MAX_STATUS);
+		private final LongAdder totalMicros = new LongAdder();
+		private final LongAdder retries = new LongAdder();
+		private final LongAdder bytesIn = new LongAdder();
+		private final LongAdder bytesOut = new LongAdder();
+		private final LongAdder inFlight = new LongAdder();
+
+		private Stats() {
+		}
+
+		private void record(int status, long elapsedNanos) {
+			long micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(elapsedNanos), 0L), HIGHEST_TRACKABLE_MICROS);
+			recorder.recordValue(micros);
+			totalMicros.add(micros);
+			statusCounts.incrementAndGet(status > 0 && status < MAX_STATUS ? status : 0);
+		}
+
+		/**
+		 * @return Copy of every latency recorded so far.
+		 */
+		private synchronized Histogram histogram() {
+			interval = recorder.getIntervalHistogram(interval);
+			total.add(interval);
+			return total.copy();
+		}
+
+		@Override
+		public long getRequests() {
+			long requests = 0;
+			for (int status = 0; status < MAX_STATUS; status++) {
+				requests += statusCounts.get(status);
+			}
+			return requests;
+		}
+
+		@Override
+		public long getErrors() {
+			long errors = statusCounts.get(0);
+			for (int status = HttpURLConnection.HTTP_BAD_REQUEST; status < MAX_STATUS; status++) {
+				errors += statusCounts.get(status);
+			}
+			return errors;
+		}
+
+		@Override
+		public long getRetries() {
+			return retries.sum();
+		}
+
+		@Override
+		public long getInFlight() {
+			return inFlight.sum();
+		}
+
+		@Override
+		public long getBytesIn() {
+			return bytesIn.sum();
+		}
+
+		@Override
+		public long getBytesOut() {
+			return bytesOut.sum();
+		}
+
+		@Override
+		public double getMeanMicros() {
+			return histogram().getMean();
+		}
+
+		@Override
+		public long getP50Micros() {
+			return histogram().getValueAtPercentile(50);
+		}
+
+		@Override
+		public long getP99Micros() {
+			return histogram().getValueAtPercentile(99);
+		}
+
+		@Override
+		public long getMaxMicros() {
+			return histogram().getMaxValue();
+		}
+
+		@Override
+		public String getStatusCounts() {
+			StringBuilder counts = new StringBuilder();
+			for (int status = 0; status < MAX_STATUS; status++) {
+				long count = statusCounts.get(status);
+				if (count > 0) {
+					counts.append(counts.length() > 0 ? ", " : "").append(status).append('=').append(count);
+				}
+			}
+			return counts.toString();
+		}
+	}
+
+	/**
+	 * One request, from sending it to closing its response. The latency is taken when the response status is known,
+	 * the request stays in flight until {@link #close()}, which for a download is when its body is closed.
+	 */
+	public static final class Call {
+		private final Endpoint endpoint;
+		private final Stats stats;
+		private final long startNanos = System.nanoTime();
+		private long receivedBytes;
+		private volatile boolean responded;
+		private volatile boolean closed;
+
+		private Call(Endpoint endpoint, Stats stats) {
+			this.endpoint = endpoint;
+			this.stats = stats;
+			stats.inFlight.increment();
+		}
+
+		public Endpoint getEndpoint() {
+			return endpoint;
+		}
+
+		/**
+		 * @return Body bytes read so far for this request.
+		 */
+		public long getReceivedBytes() {
+			return receivedBytes;
+		}
+
+		public void response(int status) {
+			if (!responded) {
+				responded = true;
+				stats.record(status, System.nanoTime() - startNanos);
+			}
+		}
+
+		public void retry() {
+			stats.retries.increment();
+		}
+
+		public void sent(long bytes) {
+			stats.bytesOut.add(bytes);
+		}
+
+		/**
+		 * Count the bytes read from a response body.
+		 */
+		public InputStream received(InputStream inputStream) {
+			return inputStream == null ? null : new CountingInputStream(inputStream, false);
+		}
+
+		/**
+		 * Count the bytes read from a response body and close the call with the body.
+		 */
+		public InputStream receivedUntilClose(InputStream inputStream) {
+			return new CountingInputStream(inputStream, true);
+		}
+
+		/**
+		 * End the request. A request that never got a status is recorded with status 0.
+		 */
+		public void close() {
+			if (!closed) {
+				closed = true;
+				response(0);
+				stats.inFlight.decrement();
+			}
+		}
+
+		private final class CountingInputStream extends FilterInputStream {
+			private final boolean closesCall;
+
+			private CountingInputStream(InputStream in, boolean closesCall) {
+				super(in);
+				this.closesCall = closesCall;
+			}
+
+			@Override
+			public int read() throws IOException {
+				int value = super.read();
+				if (value >= 0) {
+					receivedBytes++;
+					stats.bytesIn.increment();
+				}
+				return value;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int read = super.read(b, off, len);
+				if (read > 0) {
+					receivedBytes += read;
+					stats.bytesIn.add(read);
+				}
+				return read;
+			}
+
+			@Override
+			public long skip(long n) throws IOException {
+				long skipped = super.skip(n);
+				receivedBytes += skipped;
+				stats.bytesIn.add(skipped);
+				return skipped;
+			}
+
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					if (closesCall) {
+						Call.this.close();
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package com.storage.api.storage;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events of the Box calls and of the upload steps, so a recording shows where the time of a slow
+ * run went. They cost next to nothing unless a recording enables them, ex:
+ * java -XX:StartFlightRecording:filename=box.jfr,settings=profile -jar box-1.0.0.jar
+ * <p>
+ * Usage: begin() before the step, end() after it and set the fields and commit() only if shouldCommit() is true.
+ */
+public final class FlightEvents {
+	private static final String CATEGORY = "Box";
+	private static final String HTTP = "HTTP";
+	private static final String UPLOAD = "Upload";
+
+	private FlightEvents() {
+		throw new IllegalStateException("FlightEvents should be used as a utility class");
+	}
+
+	@Name("com.storage.api.HttpConnect")
+	@Label("Box Connect")
+	@Description("Opening the connection to Box, including the TLS handshake")
+	@Category({CATEGORY, HTTP})
+	@StackTrace(false)
+	public static final class HttpConnect extends Event {
+		@Label("Endpoint")
+		public String endpoint;
+
+		@Label("Host")
+		public String host;
+	}
+
+	@Name("com.storage.api.HttpSend")
+	@Label("Box Send")
+	@Description("Writing the request body")
+	@Category({CATEGORY, HTTP})
+	@StackTrace(false)
+	public static final class HttpSend extends Event {
+		@Label("Endpoint")
+		public String endpoint;
+
+		@Label("Bytes")
+		@DataAmount
+		public long bytes;
+	}
+
+	@Name("com.storage.api.HttpFirstByte")
+	@Label("Box First Byte")
+	@Description("Waiting for the response status once the request is sent, mostly time spent by Box")
+	@Category({CATEGORY, HTTP})
+	@StackTrace(false)
+	public static final class HttpFirstByte extends Event {
+		@Label("Endpoint")
+		public String endpoint;
+
+		@Label("Status")
+		public int status;
+	}
+
+	@Name("com.storage.api.HttpBodyRead")
+	@Label("Box Body Read")
+	@Description("Reading and parsing the response body")
+	@Category({CATEGORY, HTTP})
+	@StackTrace(false)
+	public static final class HttpBodyRead extends Event {
+		@Label("Endpoint")
+		public String endpoint;
+
+		@Label("Bytes")
+		@DataAmount
+		public long bytes;
+	}
+
+	@Name("com.storage.api.Assertion")
+	@Label("Box Assertion")
+	@Description("Decrypting the private key and signing the JWT assertion")
+	@Category(CATEGORY)
+	public static final class Assertion extends Event {
+		@Label("Signed")
+		public boolean signed;
+	}
+
+	@Name("com.storage.api.FileRead")
+	@Label("File Read")
+	@Description("Reading a file to upload from disk")
+	@Category({CATEGORY, UPLOAD})
+	@StackTrace(false)
+	public static final class FileRead extends Event {
+		@Label("Path")
+		public String path;
+
+		@Label("Bytes")
+		@DataAmount
+		public long bytes;
+	}
+
+	@Name("com.storage.api.FileUpload")
+	@Label("File Upload")
+	@Description("Uploading a file, or copying it when Box already has its content")
+	@Category({CATEGORY, UPLOAD})
+	@StackTrace(false)
+	public static final class FileUpload extends Event {
+		@Label("Path")
+		public String path;
+
+		@Label("Bytes")
+		@DataAmount
+		public long bytes;
+
+		@Label("Deduplicated")
+		public boolean deduplicated;
+
+		@Label("Succeeded")
+		public boolean succeeded;
+	}
+}
@@ -0,0 +1,415 @@
+package com.storage.api.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+
+/**
+ * Writes the files of a folder and of its sub-folders into a ZIP stream. Several files are fetched concurrently and
+ * each one is written to the archive as soon as it has arrived, in completion order. Files that are deflated are
+ * streamed from Box straight into their entry, only already compressed formats, which are stored as they are, are
+ * spilled to a temporary file first because a stored entry needs its size and CRC before its data. At most a few files
+ * are open or spilled at a time and the archive itself is never staged.
+ */
+public class FolderExporter {
+	private static final Logger logger = LoggerFactory.getLogger(FolderExporter.class);
+	private static final JsonPath.CompiledPath TYPE_PATH = JsonPath.compile(BoxConstants.TYPE);
+	private static final JsonPath.CompiledPath ID_PATH = JsonPath.compile("id");
+	private static final JsonPath.CompiledPath NAME_PATH = JsonPath.compile("name");
+	private static final String SEPARATOR = "/";
+	private static final Set<String> COMPRESSED_TYPES = new HashSet<>(Arrays.asList(
+			"jpg", "jpeg", "png", "gif", "webp", "heic", "zip", "gz", "7z", "rar", "mp3", "mp4", "mov", "pdf"));
+
+	/**
+	 * Opens the content of a Box file.
+	 */
+	public interface ContentSource {
+		DownloadResponse open(String fileId) throws IOException;
+	}
+
+	/**
+	 * Lists the items of a Box folder with type, id and name. A listing that is {@link Closeable} is closed once it
+	 * has been worked through.
+	 */
+	public interface FolderSource {
+		Iterator<? extends JsonElement> list(String folderId) throws IOException;
+	}
+
+	private final int concurrency;
+	private final ExecutorService executor;
+
+	public FolderExporter(int concurrency) {
+		this.concurrency = Math.max(concurrency, 1);
+
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "folder-export-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public static FolderExporter create(BoxSettings boxSettings) {
+		return new FolderExporter(boxSettings.getExportConcurrency());
+	}
+
+	/**
+	 * Write the file entries into a ZIP archive on the output stream, without descending into sub-folders.
+	 *
+	 * @see #export(Iterator, FolderSource, ContentSource, OutputStream)
+	 */
+	public int export(Iterator<? extends JsonElement> entries, ContentSource source, OutputStream outputStream) throws IOException {
+		return export(entries, null, source, outputStream);
+	}
+
+	/**
+	 * Write the file entries into a ZIP archive on the output stream. Sub-folders become directories of the archive,
+	 * ex: docs/a.txt. Files and sub-folders that fail to download or to list before their entry starts are logged and
+	 * left out of the archive, a file that fails while it streams into its entry ends the export.
+	 *
+	 * @param entries      Folder item entries with type, id and name.
+	 * @param folders      Lists the sub-folders, or null to skip them.
+	 * @param source       Opens the content of each file.
+	 * @param outputStream Stream receiving the archive, left open.
+	 * @return Number of files written.
+	 */
+	public int export(Iterator<? extends JsonElement> entries, FolderSource folders, ContentSource source, OutputStream outputStream) throws IOException {
+		ZipOutputStream zipOutputStream = new ZipOutputStream(outputStream);
+		CompletionService<ExportedFile> completionService = new ExecutorCompletionService<>(executor);
+		List<Future<ExportedFile>> pending = new ArrayList<>();
+		AtomicBoolean aborted = new AtomicBoolean();
+		Set<String> names = new HashSet<>();
+		Deque<Listing> listings = new ArrayDeque<>();
+		listings.push(new Listing("", entries));
+		int written = 0;
+		boolean finished = false;
+		try {
+			while (true) {
+				while (pending.size() < concurrency && !listings.isEmpty()) {
+					Listing listing = listings.peek();
+					JsonElement entry = listing.next(listings.size() > 1);
+					if (entry == null) {
+						listings.pop();
+						if (!listings.isEmpty()) {
+							listing.close();
+						}
+						continue;
+					}
+					String type = TYPE_PATH.getValue(entry);
+					String id = ID_PATH.getValue(entry);
+					String itemName = NAME_PATH.getValue(entry);
+					if (BoxConstants.FILE.equals(type)) {
+						String name = entryName(listing.prefix, itemName != null ? itemName : id, names);
+						pending.add(completionService.submit(() -> fetch(id, name, source, aborted)));
+					} else if (BoxConstants.FOLDER.equals(type) && folders != null) {
+						String name = entryName(listing.prefix, itemName != null ? itemName : id, names) + SEPARATOR;
+						Listing folder = list(id, name, folders);
+						if (folder != null) {
+							zipOutputStream.putNextEntry(new ZipEntry(name));
+							zipOutputStream.closeEntry();
+							listings.push(folder);
+						}
+					}
+				}
+				if (pending.isEmpty()) {
+					break;
+				}
+
+				Future<ExportedFile> done = completionService.take();
+				pending.remove(done);
+				ExportedFile file;
+				try {
+					file = done.get();
+				} catch (ExecutionException ex) {
+					logger.error("Exception Exporting File", ex.getCause());
+					continue;
+				}
+				if (file == null) {
+					continue;
+				}
+				try {
+					file.write(zipOutputStream);
+					written++;
+				} finally {
+					file.discard();
+				}
+			}
+			zipOutputStream.finish();
+			zipOutputStream.flush();
+			finished = true;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while exporting a folder", ex);
+		} finally {
+			if (!finished) {
+				cancel(pending, aborted);
+			}
+			// The root listing belongs to the caller.
+			while (listings.size() > 1) {
+				listings.pop().close();
+			}
+		}
+		return written;
+	}
+
+	/**
+	 * Stop the export threads.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Open the file, and spill it if it is stored.
+	 *
+	 * @return The file to write or null if the export was abandoned meanwhile.
+	 */
+	private static ExportedFile fetch(String fileId, String name, ContentSource source, AtomicBoolean aborted) throws IOException {
+		DownloadResponse response = source.open(fileId);
+		if (response == null) {
+			throw new IOException(String.format("Box connector failed to download file %s", fileId));
+		}
+		if (!isCompressed(name)) {
+			// Nobody will collect the file of an export that was abandoned while it was opened.
+			if (aborted.get()) {
+				response.abort();
+				return null;
+			}
+			return new StreamedFile(name, response);
+		}
+		Path tempFile = Files.createTempFile("box-export-", ".tmp");
+		try (CheckedInputStream inputStream = new CheckedInputStream(response.getInputStream(), new CRC32())) {
+			long size = Files.copy(inputStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+			SpilledFile file = new SpilledFile(name, tempFile, size, inputStream.getChecksum().getValue());
+			if (aborted.get()) {
+				file.discard();
+				return null;
+			}
+			return file;
+		} catch (IOException | RuntimeException ex) {
+			response.abort();
+			Files.deleteIfExists(tempFile);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Start listing a sub-folder.
+	 *
+	 * @return The listing or null if the folder could not be listed.
+	 */
+	private static Listing list(String folderId, String prefix, FolderSource folders) {
+		try {
+			return new Listing(prefix, folders.list(folderId));
+		} catch (IOException | UncheckedIOException ex) {
+			logger.error(String.format("Could not list folder %s for export: %s", folderId, ex.getMessage()));
+			return null;
+		}
+	}
+
+	private static void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
+		byte[] buffer = new byte[BoxConstants.DOWNLOAD_BUFFER_SIZE];
+		int read;
+		while ((read = inputStream.read(buffer)) != -1) {
+			outputStream.write(buffer, 0, read);
+		}
+	}
+
+	private static void cancel(List<Future<ExportedFile>> pending, AtomicBoolean aborted) {
+		aborted.set(true);
+		for (Future<ExportedFile> future : pending) {
+			if (future.cancel(true) || !future.isDone()) {
+				continue;
+			}
+			try {
+				ExportedFile file = future.get();
+				if (file != null) {
+					file.discard();
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException ex) {
+				// Nothing was opened.
+			}
+		}
+	}
+
+	/**
+	 * Archive entry name of a file or folder in the directory with the given prefix, without path separators in its
+	 * own name and unique within the archive.
+	 */
+	private static String entryName(String prefix, String name, Set<String> names) {
+		String base = prefix + name.replace('/', '_').replace('\\', '_');
+		String entryName = base;
+		for (int i = 1; !names.add(entryName); i++) {
+			int dot = base.lastIndexOf('.');
+			entryName = dot > prefix.length() ? String.format("%s (%d)%s", base.substring(0, dot), i, base.substring(dot)) : String.format("%s (%d)", base, i);
+		}
+		return entryName;
+	}
+
+	private static boolean isCompressed(String name) {
+		int dot = name.lastIndexOf('.');
+		return dot >= 0 && COMPRESSED_TYPES.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+	}
+
+	/**
+	 * The items of one folder being worked through, with the directory of the archive they go to.
+	 */
+	private static final class Listing {
+		private final String prefix;
+		private final Iterator<? extends JsonElement> items;
+
+		private Listing(String prefix, Iterator<? extends JsonElement> items) {
+			this.prefix = prefix;
+			this.items = items;
+		}
+
+		/**
+		 * @param skipFailure Log and end the listing if the next page fails instead of throwing.
+		 * @return The next item or null at the end of the listing.
+		 */
+		private JsonElement next(boolean skipFailure) {
+			try {
+				return items.hasNext() ? items.next() : null;
+			} catch (UncheckedIOException ex) {
+				if (!skipFailure) {
+					throw ex;
+				}
+				logger.error(String.format("Could not list %s for export: %s", prefix, ex.getMessage()));
+				return null;
+			}
+		}
+
+		private void close() {
+			if (items instanceof Closeable) {
+				try {
+					((Closeable) items).close();
+				} catch (IOException ex) {
+					logger.warn(String.format("Could not close the listing of %s: %s", prefix, ex.getMessage()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * A fetched file waiting for its turn in the archive.
+	 */
+	private abstract static class ExportedFile {
+		protected final String name;
+
+		private ExportedFile(String name) {
+			this.name = name;
+		}
+
+		abstract void write(ZipOutputStream zipOutputStream) throws IOException;
+
+		/**
+		 * Release what the file holds, written or not.
+		 */
+		abstract void discard();
+	}
+
+	/**
+	 * A deflated file, copied from the open Box response into its entry.
+	 */
+	private static final class StreamedFile extends ExportedFile {
+		private final DownloadResponse response;
+
+		private StreamedFile(String name, DownloadResponse response) {
+			super(name);
+			this.response = response;
+		}
+
+		@Override
+		void write(ZipOutputStream zipOutputStream) throws IOException {
+			zipOutputStream.putNextEntry(new ZipEntry(name));
+			try {
+				copy(response.getInputStream(), zipOutputStream);
+			} catch (IOException | RuntimeException ex) {
+				response.abort();
+				throw ex;
+			}
+			zipOutputStream.closeEntry();
+		}
+
+		@Override
+		void discard() {
+			try {
+				response.close();
+			} catch (IOException ex) {
+				logger.warn(String.format("Could not close the download of %s: %s", name, ex.getMessage()));
+			}
+		}
+	}
+
+	/**
+	 * A stored file, spilled with its size and CRC.
+	 */
+	private static final class SpilledFile extends ExportedFile {
+		private final Path path;
+		private final long size;
+		private final long crc;
+
+		private SpilledFile(String name, Path path, long size, long crc) {
+			super(name);
+			this.path = path;
+			this.size = size;
+			this.crc = crc;
+		}
+
+		@Override
+		void write(ZipOutputStream zipOutputStream) throws IOException {
+			ZipEntry zipEntry = new ZipEntry(name);
+			zipEntry.setMethod(ZipEntry.STORED);
+			zipEntry.setSize(size);
+			zipEntry.setCompressedSize(size);
+			zipEntry.setCrc(crc);
+			zipOutputStream.putNextEntry(zipEntry);
+			try (InputStream inputStream = Files.newInputStream(path)) {
+				copy(inputStream, zipOutputStream);
+			}
+			zipOutputStream.closeEntry();
+		}
+
+		@Override
+		void discard() {
+			try {
+				Files.deleteIfExists(path);
+			} catch (IOException ex) {
+				logger.warn(String.format("Could not delete export spill file %s: %s", path, ex.getMessage()));
+			}
+		}
+	}
+}
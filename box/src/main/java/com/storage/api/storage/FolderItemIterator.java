@@ -0,0 +1,169 @@
+package com.storage.api.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.google.common.base.Strings;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Lazily pages through the items of a Box folder with marker based pagination. Only the requested fields are fetched,
+ * and the next page is requested in the background while the caller works through the current one. Each page is read
+ * from the response stream for its entries and marker only, and at most two pages are held at a time, whatever the
+ * size of the folder.
+ */
+public class FolderItemIterator implements Iterator<JsonObject>, Closeable {
+	public static final int MAX_PAGE_SIZE = 1000;
+	private static final String USE_MARKER = "usemarker";
+	private static final String MARKER = "marker";
+	private static final String NEXT_MARKER = "next_marker";
+	private static final JsonPathSet PAGE_PATHS = new JsonPathSet(NEXT_MARKER, BoxConstants.ENTRIES);
+	private static final ExecutorService prefetchExecutor;
+
+	static {
+		AtomicInteger threadCount = new AtomicInteger();
+		prefetchExecutor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "folder-listing-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private final String itemsUrl;
+	private final String fields;
+	private final int pageSize;
+	private final Supplier<String> accessToken;
+	private Iterator<JsonElement> page = Collections.emptyIterator();
+	private CompletableFuture<JsonPathSet.Values> nextPage;
+	private boolean started;
+
+	/**
+	 * @param itemsUrl    Items url of the folder, ex: folders/{id}/items.
+	 * @param fields      Comma separated fields to return for each item, ex: type,id,name.
+	 * @param pageSize    Items per page, at most 1000.
+	 * @param accessToken Supplies a valid access token for every page.
+	 */
+	public FolderItemIterator(String itemsUrl, String fields, int pageSize, Supplier<String> accessToken) {
+		this.itemsUrl = itemsUrl;
+		this.fields = fields;
+		this.pageSize = Math.min(Math.max(pageSize, 1), MAX_PAGE_SIZE);
+		this.accessToken = accessToken;
+	}
+
+	/**
+	 * @throws UncheckedIOException If a page could not be listed.
+	 */
+	@Override
+	public boolean hasNext() {
+		while (!page.hasNext()) {
+			if (!started) {
+				started = true;
+				nextPage = fetch(null);
+			}
+			if (nextPage == null) {
+				return false;
+			}
+			JsonPathSet.Values response = await(nextPage);
+			String marker = response.getValue(NEXT_MARKER);
+			nextPage = Strings.isNullOrEmpty(marker) ? null : fetch(marker);
+			JsonElement entries = response.getElement(BoxConstants.ENTRIES);
+			page = entries != null && entries.isJsonArray() ? entries.getAsJsonArray().iterator() : Collections.emptyIterator();
+		}
+		return true;
+	}
+
+	@Override
+	public JsonObject next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return page.next().getAsJsonObject();
+	}
+
+	/**
+	 * The remaining items as a sequential stream.
+	 */
+	public Stream<JsonObject> stream() {
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	/**
+	 * Drop the page being prefetched, ex: when the caller stops early.
+	 */
+	@Override
+	public void close() {
+		if (nextPage != null) {
+			nextPage.cancel(true);
+			nextPage = null;
+		}
+		page = Collections.emptyIterator();
+		started = true;
+	}
+
+	private CompletableFuture<JsonPathSet.Values> fetch(String marker) {
+		StringBuilder requestURL = new StringBuilder(itemsUrl);
+		requestURL.append(BoxConstants.QUESTIONMARK);
+		requestURL.append(USE_MARKER).append(BoxConstants.EQUALS).append(true);
+		requestURL.append(BoxConstants.AMPERSAND);
+		requestURL.append(BoxConstants.LIMIT).append(BoxConstants.EQUALS).append(pageSize);
+		if (!Strings.isNullOrEmpty(fields)) {
+			requestURL.append(BoxConstants.AMPERSAND);
+			requestURL.append(BoxConstants.FIELDS).append(BoxConstants.EQUALS).append(fields);
+		}
+		if (marker != null) {
+			requestURL.append(BoxConstants.AMPERSAND);
+			requestURL.append(MARKER).append(BoxConstants.EQUALS).append(encode(marker));
+		}
+		String url = requestURL.toString();
+
+		return CompletableFuture.supplyAsync(() -> {
+			StringBuilder apiError = new StringBuilder();
+			try {
+				JsonPathSet.Values response = BoxUtility.sendGetRequest(url, accessToken.get(), PAGE_PATHS, apiError, "api");
+				if (response == null) {
+					throw new IOException(String.format("Box connector failed to list url [%s]: %s", url, apiError));
+				}
+				return response;
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}, prefetchExecutor);
+	}
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, StandardCharsets.UTF_8.name());
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError("Error while encoding a marker: " + e.getMessage(), e);
+		}
+	}
+
+	private static JsonPathSet.Values await(CompletableFuture<JsonPathSet.Values> future) {
+		try {
+			return future.join();
+		} catch (CompletionException ex) {
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new UncheckedIOException(new IOException(ex.getCause()));
+		}
+	}
+}
@@ -2,12 +2,20 @@ package com.storage.api.storage;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.io.StringReader;
 import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.ProxySelector;
 import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.google.common.base.Strings;
@@ -19,6 +27,19 @@ import org.slf4j.LoggerFactory;
 
 public class HttpUtility {
 	private static Logger logger = LoggerFactory.getLogger(HttpUtility.class);
+	private static final BandwidthThrottle uploadThrottle = new BandwidthThrottle("upload");
+	private static final BandwidthThrottle downloadThrottle = new BandwidthThrottle("download");
+	private static final EndpointMetrics endpointMetrics = new EndpointMetrics();
+	private static volatile boolean channelUploads;
+	private static final String CONFLICT_ID = "context_info.conflicts.id";
+	private static final String CONFLICT_TYPE = "context_info.conflicts.type";
+	private static final String CONFLICTS_FIRST_ID = "context_info.conflicts[0].id";
+	private static final String CONFLICTS_FIRST_TYPE = "context_info.conflicts[0].type";
+	private static final JsonPathSet CONFLICT_PATHS = new JsonPathSet(CONFLICT_ID, CONFLICT_TYPE, CONFLICTS_FIRST_ID, CONFLICTS_FIRST_TYPE);
+
+	static {
+		endpointMetrics.register(EndpointMetrics.class.getPackage().getName());
+	}
 
 	private HttpUtility() {
 		throw new IllegalStateException("HttpUtility should be used as a utility class");
@@ -48,32 +69,113 @@ public class HttpUtility {
 	 * Send HTTP POST request (supports, application/json and form fields with file)
 	 */
 	public static JsonElement sendHttpRequest(String requestQuery, boolean isFormData, byte[] file, HttpURLConnection httpURLConnection, String boundary, String tenantId) throws IOException {
+		// Encode the small multipart parts up front so the body can be streamed with a fixed length instead of being buffered by the connection.
+		MultipartBody multipartBody = requestQuery == null || isFormData ? MultipartBody.encode(requestQuery, file, boundary) : null;
+		return sendHttpRequest(requestQuery, multipartBody, httpURLConnection, tenantId);
+	}
+
+	/**
+	 * Send HTTP POST request of form fields with a local file, which is read as the body is sent instead of up front.
+	 */
+	public static JsonElement sendHttpRequest(String requestQuery, Path file, HttpURLConnection httpURLConnection, String tenantId) throws IOException {
+		return sendHttpRequest(requestQuery, MultipartBody.encode(requestQuery, file, null), httpURLConnection, tenantId);
+	}
+
+	/**
+	 * Send a multipart POST request of form fields with a local file over plain http. The file part goes from the file
+	 * to the socket with FileChannel.transferTo, ex: sendfile on Linux, so only the small encoded parts pass through
+	 * the heap.
+	 *
+	 * @param headers Request headers, ex: Content-Type and Authorization.
+	 */
+	public static JsonElement sendChannelRequest(String url, String requestMethod, Map<String, String> headers, String requestQuery, Path file, String tenantId) throws IOException {
+		URL requestUrl = new URL(url);
+		MultipartBody multipartBody = MultipartBody.encode(requestQuery, file, null);
 		JsonElement jsonResponse = new JsonObject();
 		int connectionTimeout = BoxConstants.REST_CLIENT_TIMEOUT_MS;
 		// Implement retry for request timeout.
 		int count = 0;
-		if (httpURLConnection != null) {
+		EndpointMetrics.Call call = endpointMetrics.begin(requestUrl, requestMethod);
+		try {
 			while (count < BoxConstants.MAX_RETRY_SERVICE_REQUEST) {
 				count++;
-				try (OutputStream outputStream = httpURLConnection.getOutputStream()) {
-					if (requestQuery != null && !isFormData) {
-						outputStream.write(requestQuery.getBytes());
-					} else {
-						sendField(requestQuery, outputStream, boundary);
-						if (file != null) {
-							sendFile(requestQuery, file, outputStream);
-						}
-						finish(outputStream, boundary);
+				try (ChannelHttpConnection connection = connect(requestUrl, connectionTimeout, call)) {
+					FlightEvents.HttpSend sendEvent = new FlightEvents.HttpSend();
+					sendEvent.begin();
+					long sent = connection.send(requestMethod, headers, multipartBody, uploadThrottle);
+					call.sent(sent);
+					sendEvent.end();
+					if (sendEvent.shouldCommit()) {
+						sendEvent.endpoint = call.getEndpoint().label();
+						sendEvent.bytes = sent;
+						sendEvent.commit();
 					}
-					return processHttpResponse(httpURLConnection, tenantId);
+					return processChannelResponse(connection, call);
 				} catch (SocketTimeoutException ex) {
 					if (count >= BoxConstants.MAX_RETRY_SERVICE_REQUEST) {
-						throw new BoxRuntimeException(BoxConstants.LogCodes.BOX_1654, ex, count, connectionTimeout, ex.getMessage());
+						throw timeoutError(ex, count, connectionTimeout);
 					} else {
+						call.retry();
 						logger.warn(tenantId, BoxConstants.BOX_SERVICE, BoxConstants.LogCodes.BOX_1652, count, BoxConstants.MAX_RETRY_SERVICE_REQUEST, connectionTimeout);
 					}
 				}
 			}
+		} finally {
+			call.close();
+		}
+		return jsonResponse;
+	}
+
+	private static JsonElement sendHttpRequest(String requestQuery, MultipartBody multipartBody, HttpURLConnection httpURLConnection, String tenantId) throws IOException {
+		JsonElement jsonResponse = new JsonObject();
+		int connectionTimeout = BoxConstants.REST_CLIENT_TIMEOUT_MS;
+		// Implement retry for request timeout.
+		int count = 0;
+		if (httpURLConnection != null) {
+			EndpointMetrics.Call call = endpointMetrics.begin(httpURLConnection);
+			if (multipartBody != null) {
+				httpURLConnection.setFixedLengthStreamingMode(multipartBody.getContentLength());
+			}
+			try {
+				while (count < BoxConstants.MAX_RETRY_SERVICE_REQUEST) {
+					count++;
+					try {
+						connect(httpURLConnection, call);
+						FlightEvents.HttpSend sendEvent = new FlightEvents.HttpSend();
+						sendEvent.begin();
+						try (OutputStream outputStream = httpURLConnection.getOutputStream()) {
+							long sent;
+							if (multipartBody == null) {
+								byte[] body = requestQuery.getBytes();
+								outputStream.write(body);
+								sent = body.length;
+							} else {
+								OutputStream bodyStream = uploadThrottle.wrap(outputStream);
+								multipartBody.writeTo(bodyStream);
+								bodyStream.flush();
+								sent = multipartBody.getContentLength();
+							}
+							call.sent(sent);
+							sendEvent.end();
+							if (sendEvent.shouldCommit()) {
+								sendEvent.endpoint = call.getEndpoint().label();
+								sendEvent.bytes = sent;
+								sendEvent.commit();
+							}
+						}
+						return processHttpResponse(httpURLConnection, call, tenantId);
+					} catch (SocketTimeoutException ex) {
+						if (count >= BoxConstants.MAX_RETRY_SERVICE_REQUEST) {
+							throw timeoutError(ex, count, connectionTimeout);
+						} else {
+							call.retry();
+							logger.warn(tenantId, BoxConstants.BOX_SERVICE, BoxConstants.LogCodes.BOX_1652, count, BoxConstants.MAX_RETRY_SERVICE_REQUEST, connectionTimeout);
+						}
+					}
+				}
+			} finally {
+				call.close();
+			}
 		} else {
 			logger.warn(tenantId, BoxConstants.BOX_SERVICE, BoxConstants.LogCodes.BOX_1652, "HTTPURLConnection not a valid value in sendHttpRequest()");
 		}
@@ -84,51 +186,44 @@ public class HttpUtility {
 		return sendHttpRequest(requestQuery, false, null, httpURLConnection, null, appId);
 	}
 
-	private static void sendField(String requestQuery, OutputStream outputStream, String boundary) throws IOException {
-		GsonBuilder gsonBuilder = new GsonBuilder();
-		Gson gson = gsonBuilder.create();
-
-		JsonArray requestArray = gson.fromJson(requestQuery, JsonArray.class);
-
-		for (JsonElement requestElement : requestArray) {
-			String name = JsonPath.getValue(requestElement, BoxConstants.PropertyNames.NAME);
-			String value = null;
-			if (!Strings.isNullOrEmpty(boundary)) {
-				value = JsonPath.getValue(requestElement, BoxConstants.VALUE);
-			} else {
-				value = JsonPath.findObject(requestElement, BoxConstants.VALUE).toString();
-			}
-
-			outputStream.write((String.format("%s%s%s", BoxConstants.HttpService.TWO_HYPHENS, Strings.isNullOrEmpty(boundary) ? BoxConstants.HttpService.BOUNDARY : boundary, BoxConstants.HttpService.CRLF)).getBytes());
-			outputStream.write((String.format("%s%s\"%s", BoxConstants.HttpService.CONTENT_DISPOSITION_FORM_DATA, name, BoxConstants.HttpService.CRLF)).getBytes());
-			outputStream.write((String.format("%s%s", BoxConstants.HttpService.PLAIN_TEXT_CONTENT_TYPE, BoxConstants.HttpService.CRLF)).getBytes());
-			outputStream.write(BoxConstants.HttpService.CRLF.getBytes());
-			outputStream.write((String.format("%s%s", value, BoxConstants.HttpService.CRLF)).getBytes());
-			outputStream.flush();
-		}
+	public static BandwidthThrottle getUploadThrottle() {
+		return uploadThrottle;
 	}
 
-	private static void sendFile(String requestQuery, byte[] file, OutputStream outputStream) throws IOException {
-		GsonBuilder gsonBuilder = new GsonBuilder();
-		Gson gson = gsonBuilder.create();
-
-		JsonArray requestArray = gson.fromJson(requestQuery, JsonArray.class);
+	public static BandwidthThrottle getDownloadThrottle() {
+		return downloadThrottle;
+	}
 
-		for (JsonElement requestElement : requestArray) {
-			String fileID = JsonPath.getValue(requestElement, BoxConstants.FILE_ID);
-			String fileName = JsonPath.getValue(requestElement, BoxConstants.FILE_NAME);
+	public static EndpointMetrics getEndpointMetrics() {
+		return endpointMetrics;
+	}
 
-			outputStream.write((String.format("%s%s%s", BoxConstants.HttpService.TWO_HYPHENS, BoxConstants.HttpService.BOUNDARY, BoxConstants.HttpService.CRLF)).getBytes());
-			outputStream.write((String.format("%s%s\";filename=\"%s\"%s", BoxConstants.HttpService.CONTENT_DISPOSITION_FORM_DATA, fileID, fileName, BoxConstants.HttpService.CRLF)).getBytes());
-			outputStream.write(BoxConstants.HttpService.CRLF.getBytes());
-			outputStream.write(file);
-			outputStream.write(BoxConstants.HttpService.CRLF.getBytes());
-		}
+	public static void setChannelUploads(boolean enabled) {
+		channelUploads = enabled;
 	}
 
-	private static void finish(OutputStream outputStream, String boundary) throws IOException {
-		outputStream.write(String.format("%s%s%s%s", BoxConstants.HttpService.TWO_HYPHENS, Strings.isNullOrEmpty(boundary) ? BoxConstants.HttpService.BOUNDARY : boundary, BoxConstants.HttpService.TWO_HYPHENS, BoxConstants.HttpService.CRLF).getBytes());
-		outputStream.flush();
+	/**
+	 * @return True if a local file can go to the url with {@link #sendChannelRequest}: channel uploads are enabled, the
+	 * url is plain http and the JVM proxy settings connect to it directly.
+	 */
+	public static boolean canSendOverChannel(String url) throws IOException {
+		if (!channelUploads) {
+			return false;
+		}
+		URL requestUrl = new URL(url);
+		if (!BoxConstants.HTTP.equals(requestUrl.getProtocol())) {
+			return false;
+		}
+		ProxySelector proxySelector = ProxySelector.getDefault();
+		if (proxySelector == null) {
+			return true;
+		}
+		try {
+			List<Proxy> proxies = proxySelector.select(requestUrl.toURI());
+			return proxies.isEmpty() || proxies.get(0).type() == Proxy.Type.DIRECT;
+		} catch (URISyntaxException e) {
+			return false;
+		}
 	}
 
 	public static void addFormField(JsonArray requestArray, String name, String value) {
@@ -144,39 +239,108 @@ public class HttpUtility {
 	 * Send HTTP GET request
 	 */
 	public static InputStream sendHttpDownloadRequest(HttpURLConnection httpURLConnection, String appId) throws IOException {
-		JsonElement jsonResponse = new JsonObject();
+		DownloadResponse downloadResponse = sendHttpDownload(httpURLConnection, appId);
+		return downloadResponse != null ? downloadResponse.getInputStream() : null;
+	}
+
+	/**
+	 * Send HTTP GET request for content and return the response with its body still unread, so it can be streamed.
+	 */
+	public static DownloadResponse sendHttpDownload(HttpURLConnection httpURLConnection, String appId) throws IOException {
 		int connectionTimeout = BoxConstants.REST_CLIENT_TIMEOUT_MS;
+		EndpointMetrics.Call call = endpointMetrics.begin(httpURLConnection);
 		// Implement retry for request timeout.
 		int count = 0;
-		while (count < BoxConstants.MAX_RETRY_SERVICE_REQUEST) {
-			count++;
-			try (InputStream ignored = httpURLConnection.getInputStream()) {
-				return processHttpDownloadResponse(httpURLConnection, appId);
-			} catch (SocketTimeoutException ex) {
-				if (count >= BoxConstants.MAX_RETRY_SERVICE_REQUEST) {
-					throw new BoxRuntimeException(BoxConstants.LogCodes.BOX_1654, ex, count, connectionTimeout, ex.getMessage());
-				} else {
-					logger.warn(appId, BoxConstants.BOX_SERVICE, BoxConstants.LogCodes.BOX_1652, count, BoxConstants.MAX_RETRY_SERVICE_REQUEST, connectionTimeout);
+		try {
+			while (count < BoxConstants.MAX_RETRY_SERVICE_REQUEST) {
+				count++;
+				try {
+					connect(httpURLConnection, call);
+					DownloadResponse downloadResponse = processHttpDownloadResponse(httpURLConnection, call, appId);
+					// The call stays in flight until the caller closes the body.
+					call = null;
+					return downloadResponse;
+				} catch (SocketTimeoutException ex) {
+					if (count >= BoxConstants.MAX_RETRY_SERVICE_REQUEST) {
+						throw timeoutError(ex, count, connectionTimeout);
+					} else {
+						call.retry();
+						logger.warn(appId, BoxConstants.BOX_SERVICE, BoxConstants.LogCodes.BOX_1652, count, BoxConstants.MAX_RETRY_SERVICE_REQUEST, connectionTimeout);
+					}
 				}
 			}
+			return null;
+		} finally {
+			if (call != null) {
+				call.close();
+			}
 		}
-		return null;
 	}
 
 	/**
 	 * Process HTTP Response
-	 * @return
 	 */
-	private static InputStream processHttpDownloadResponse(HttpURLConnection httpURLConnection, String tenantId) throws IOException {
-		JsonElement jsonResponse = new JsonObject();
-		int httpResponseCode = httpURLConnection.getResponseCode();
+	private static DownloadResponse processHttpDownloadResponse(HttpURLConnection httpURLConnection, EndpointMetrics.Call call, String tenantId) throws IOException {
+		int httpResponseCode = awaitResponse(httpURLConnection, call);
 
 		if (httpResponseCode >= HttpURLConnection.HTTP_MULT_CHOICE) {
-			String errorStream = StringUtils.toString(httpURLConnection.getErrorStream());
+			String errorStream = StringUtils.toString(call.received(httpURLConnection.getErrorStream()), httpURLConnection.getContentLengthLong());
 			logger.info(String.format("Server returned error response: %s with code %s: ", errorStream, httpResponseCode));
-			throw new BoxRuntimeException(BoxConstants.LogCodes.BOX_1654, httpResponseCode, errorStream);
+			throw httpError(httpResponseCode, errorStream, getRetryAfterSeconds(httpURLConnection));
+		}
+		return new DownloadResponse(httpURLConnection, downloadThrottle.wrap(call.receivedUntilClose(httpURLConnection.getInputStream())));
+	}
+
+	/**
+	 * Helper method to return the HTTP status carried by an exception from this class or -1 if there is none.
+	 */
+	public static int getHttpStatus(BoxRuntimeException ex) {
+		return ex.getHttpStatus();
+	}
+
+	/**
+	 * Helper method to return the Retry-After seconds of a throttled response from this class or -1 if Box sent none.
+	 */
+	public static long getRetryAfterSeconds(BoxRuntimeException ex) {
+		Object[] args = ex.getMessageArguements();
+		if (isHttpError(ex) && args.length > 2 && args[2] instanceof Long) {
+			return (Long) args[2];
+		}
+		return -1;
+	}
+
+	/**
+	 * Exception of an error status Box answered with, its arguments are the status, the error body and Retry-After.
+	 */
+	private static BoxRuntimeException httpError(int httpResponseCode, String errorBody, long retryAfterSeconds) {
+		return new BoxRuntimeException(BoxConstants.LogCodes.BOX_1654, httpResponseCode, errorBody, retryAfterSeconds).withHttpStatus(httpResponseCode);
+	}
+
+	/**
+	 * Exception of a request that kept timing out, answered with 504 as Box never responded.
+	 */
+	private static BoxRuntimeException timeoutError(SocketTimeoutException ex, int count, int connectionTimeout) {
+		return new BoxRuntimeException(BoxConstants.LogCodes.BOX_1654, ex, count, connectionTimeout, ex.getMessage()).withHttpStatus(HttpURLConnection.HTTP_GATEWAY_TIMEOUT);
+	}
+
+	private static boolean isHttpError(BoxRuntimeException ex) {
+		return ex.getHttpStatus() >= HttpURLConnection.HTTP_MULT_CHOICE && ex.getMessageArguements() != null;
+	}
+
+	private static long getRetryAfterSeconds(HttpURLConnection httpURLConnection) {
+		return getRetryAfterSeconds(httpURLConnection.getHeaderField(BoxConstants.RETRY_AFTER));
+	}
+
+	private static long getRetryAfterSeconds(String retryAfter) {
+		if (Strings.isNullOrEmpty(retryAfter)) {
+			return -1L;
+		}
+		try {
+			return Long.parseLong(retryAfter.trim());
+		} catch (NumberFormatException e) {
+			// An http date instead of seconds, Box does not send those.
+			return -1L;
 		}
-		return httpURLConnection.getInputStream();
 	}
 
 	/**
@@ -185,47 +349,205 @@ public class HttpUtility {
 	public static JsonElement sendHttpRequest(HttpURLConnection httpURLConnection, String appId) throws IOException {
 		JsonElement jsonResponse = new JsonObject();
 		int connectionTimeout = BoxConstants.REST_CLIENT_TIMEOUT_MS;
+		EndpointMetrics.Call call = endpointMetrics.begin(httpURLConnection);
 		// Implement retry for request timeout.
 		int count = 0;
-		while (count < BoxConstants.MAX_RETRY_SERVICE_REQUEST) {
-			count++;
-			try (InputStream ignored = httpURLConnection.getInputStream()) {
-				return processHttpResponse(httpURLConnection, appId);
-			} catch (SocketTimeoutException ex) {
-				if (count >= BoxConstants.MAX_RETRY_SERVICE_REQUEST) {
-					throw new BoxRuntimeException(BoxConstants.LogCodes.BOX_1654, ex, count, connectionTimeout, ex.getMessage());
-				} else {
-					logger.warn(appId, BoxConstants.BOX_SERVICE, BoxConstants.LogCodes.BOX_1652, count, BoxConstants.MAX_RETRY_SERVICE_REQUEST, connectionTimeout);
+		try {
+			while (count < BoxConstants.MAX_RETRY_SERVICE_REQUEST) {
+				count++;
+				try {
+					connect(httpURLConnection, call);
+					return processHttpResponse(httpURLConnection, call, appId);
+				} catch (SocketTimeoutException ex) {
+					if (count >= BoxConstants.MAX_RETRY_SERVICE_REQUEST) {
+						throw timeoutError(ex, count, connectionTimeout);
+					} else {
+						call.retry();
+						logger.warn(appId, BoxConstants.BOX_SERVICE, BoxConstants.LogCodes.BOX_1652, count, BoxConstants.MAX_RETRY_SERVICE_REQUEST, connectionTimeout);
+					}
 				}
 			}
+			return jsonResponse;
+		} finally {
+			call.close();
+		}
+	}
+
+	/**
+	 * Send the request and evaluate the paths directly on the response stream. The body is never held in full and is
+	 * only read as far as the paths need.
+	 */
+	public static JsonPathSet.Values sendHttpRequest(HttpURLConnection httpURLConnection, JsonPathSet paths, String appId) throws IOException {
+		int connectionTimeout = BoxConstants.REST_CLIENT_TIMEOUT_MS;
+		EndpointMetrics.Call call = endpointMetrics.begin(httpURLConnection);
+		// Implement retry for request timeout.
+		int count = 0;
+		try {
+			while (true) {
+				count++;
+				try {
+					connect(httpURLConnection, call);
+					return processHttpResponse(httpURLConnection, paths, call, appId);
+				} catch (SocketTimeoutException ex) {
+					if (count >= BoxConstants.MAX_RETRY_SERVICE_REQUEST) {
+						throw timeoutError(ex, count, connectionTimeout);
+					} else {
+						call.retry();
+						logger.warn(appId, BoxConstants.BOX_SERVICE, BoxConstants.LogCodes.BOX_1652, count, BoxConstants.MAX_RETRY_SERVICE_REQUEST, connectionTimeout);
+					}
+				}
+			}
+		} finally {
+			call.close();
+		}
+	}
+
+	private static JsonPathSet.Values processHttpResponse(HttpURLConnection httpURLConnection, JsonPathSet paths, EndpointMetrics.Call call, String tenantId) throws IOException {
+		int httpResponseCode = awaitResponse(httpURLConnection, call);
+
+		if (httpResponseCode >= HttpURLConnection.HTTP_MULT_CHOICE) {
+			String errorStream = StringUtils.toString(call.received(httpURLConnection.getErrorStream()), httpURLConnection.getContentLengthLong());
+			logger.info(String.format("Server returned error response: %s with code %s: ", errorStream, httpResponseCode));
+			throw httpError(httpResponseCode, errorStream, getRetryAfterSeconds(httpURLConnection));
+		}
+		FlightEvents.HttpBodyRead bodyEvent = new FlightEvents.HttpBodyRead();
+		bodyEvent.begin();
+		try (PushbackInputStream inputStream = new PushbackInputStream(call.received(httpURLConnection.getInputStream()))) {
+			// An empty body, ex: 204, has no json value and the reader would fail on it.
+			int first = inputStream.read();
+			if (first < 0) {
+				return paths.extract(new JsonObject());
+			}
+			inputStream.unread(first);
+			return paths.read(new JsonReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8)));
+		} finally {
+			commit(bodyEvent, call);
 		}
-		return jsonResponse;
 	}
 
 	/**
 	 * Process HTTP Response
 	 */
-	private static JsonElement processHttpResponse(HttpURLConnection httpURLConnection, String tenantId) throws IOException {
+	private static JsonElement processHttpResponse(HttpURLConnection httpURLConnection, EndpointMetrics.Call call, String tenantId) throws IOException {
 		JsonElement jsonResponse = new JsonObject();
-		int httpResponseCode = httpURLConnection.getResponseCode();
+		int httpResponseCode = awaitResponse(httpURLConnection, call);
 
 		if (httpResponseCode >= HttpURLConnection.HTTP_MULT_CHOICE) {
-			String errorStream = StringUtils.toString(httpURLConnection.getErrorStream());
+			String errorStream = StringUtils.toString(call.received(httpURLConnection.getErrorStream()), httpURLConnection.getContentLengthLong());
 			logger.info(String.format("Server returned error response: %s with code %s: ", errorStream, httpResponseCode));
-			throw new BoxRuntimeException(BoxConstants.LogCodes.BOX_1654, httpResponseCode, errorStream);
+			throw httpError(httpResponseCode, errorStream, getRetryAfterSeconds(httpURLConnection));
 		}
-		String response = StringUtils.toString(httpURLConnection.getInputStream());
-		if (!Strings.isNullOrEmpty(response)) {
-			GsonBuilder gsonBuilder = new GsonBuilder();
-			Gson gson = gsonBuilder.create();
+		FlightEvents.HttpBodyRead bodyEvent = new FlightEvents.HttpBodyRead();
+		bodyEvent.begin();
+		try (InputStream inputStream = call.received(httpURLConnection.getInputStream())) {
+			String response = StringUtils.toString(inputStream, httpURLConnection.getContentLengthLong());
+			if (!Strings.isNullOrEmpty(response)) {
+				GsonBuilder gsonBuilder = new GsonBuilder();
+				Gson gson = gsonBuilder.create();
 
-			return gson.fromJson(response, JsonElement.class);
+				return gson.fromJson(response, JsonElement.class);
+			}
+			return jsonResponse;
+		} finally {
+			commit(bodyEvent, call);
 		}
-		return jsonResponse;
 	}
 
+	private static JsonElement processChannelResponse(ChannelHttpConnection connection, EndpointMetrics.Call call) throws IOException {
+		int httpResponseCode = awaitResponse(connection, call);
+
+		if (httpResponseCode >= HttpURLConnection.HTTP_MULT_CHOICE) {
+			String errorStream = StringUtils.toString(call.received(connection.getBody()), connection.getContentLengthLong());
+			logger.info(String.format("Server returned error response: %s with code %s: ", errorStream, httpResponseCode));
+			throw httpError(httpResponseCode, errorStream, getRetryAfterSeconds(connection.getHeaderField(BoxConstants.RETRY_AFTER)));
+		}
+		FlightEvents.HttpBodyRead bodyEvent = new FlightEvents.HttpBodyRead();
+		bodyEvent.begin();
+		try {
+			String response = StringUtils.toString(call.received(connection.getBody()), connection.getContentLengthLong());
+			if (!Strings.isNullOrEmpty(response)) {
+				return JsonParser.parseString(response);
+			}
+			return new JsonObject();
+		} finally {
+			commit(bodyEvent, call);
+		}
+	}
+
+	/**
+	 * Open the connection ahead of sending, so the connect and TLS handshake time is told apart from the send time.
+	 */
+	private static void connect(HttpURLConnection httpURLConnection, EndpointMetrics.Call call) throws IOException {
+		FlightEvents.HttpConnect event = new FlightEvents.HttpConnect();
+		event.begin();
+		httpURLConnection.connect();
+		event.end();
+		if (event.shouldCommit()) {
+			event.endpoint = call.getEndpoint().label();
+			event.host = httpURLConnection.getURL().getHost();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Wait for the response status, once the request was sent in full.
+	 */
+	private static int awaitResponse(HttpURLConnection httpURLConnection, EndpointMetrics.Call call) throws IOException {
+		FlightEvents.HttpFirstByte event = new FlightEvents.HttpFirstByte();
+		event.begin();
+		int httpResponseCode = httpURLConnection.getResponseCode();
+		call.response(httpResponseCode);
+		event.end();
+		if (event.shouldCommit()) {
+			event.endpoint = call.getEndpoint().label();
+			event.status = httpResponseCode;
+			event.commit();
+		}
+		return httpResponseCode;
+	}
+
+	private static ChannelHttpConnection connect(URL url, int timeoutMillis, EndpointMetrics.Call call) throws IOException {
+		FlightEvents.HttpConnect event = new FlightEvents.HttpConnect();
+		event.begin();
+		ChannelHttpConnection connection = ChannelHttpConnection.open(url, timeoutMillis);
+		event.end();
+		if (event.shouldCommit()) {
+			event.endpoint = call.getEndpoint().label();
+			event.host = url.getHost();
+			event.commit();
+		}
+		return connection;
+	}
+
+	private static int awaitResponse(ChannelHttpConnection connection, EndpointMetrics.Call call) throws IOException {
+		FlightEvents.HttpFirstByte event = new FlightEvents.HttpFirstByte();
+		event.begin();
+		int httpResponseCode = connection.getResponseCode();
+		call.response(httpResponseCode);
+		event.end();
+		if (event.shouldCommit()) {
+			event.endpoint = call.getEndpoint().label();
+			event.status = httpResponseCode;
+			event.commit();
+		}
+		return httpResponseCode;
+	}
+
+	private static void commit(FlightEvents.HttpBodyRead event, EndpointMetrics.Call call) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.endpoint = call.getEndpoint().label();
+			event.bytes = call.getReceivedBytes();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Describe the error body of an http error in apiError. For a 409 the same pass also reads the existing folder the
+	 * body names as the conflict into {@link BoxRuntimeException#getConflictId()}.
+	 */
 	public static void extractHttpErrors(StringBuilder apiError, BoxRuntimeException ex) throws IOException {
-		if (ex.getMessageArguements() != null && ex.getMessageArguements().length > 1) {
+		if (isHttpError(ex) && ex.getMessageArguements().length > 1 && ex.getMessageArguements()[1] != null) {
 			String errorResponse = ex.getMessageArguements()[1].toString();
 			if (!Strings.isNullOrEmpty(errorResponse)) {
 				JsonReader jsonErrorReader = new JsonReader(new StringReader(errorResponse));
@@ -235,7 +557,7 @@ public class HttpUtility {
 					if (JsonToken.STRING.equals(nextToken)) {
 						apiError.append(jsonErrorReader.nextString()).append(" ");
 					} else if (JsonToken.BEGIN_OBJECT.equals(nextToken) || JsonToken.BEGIN_ARRAY.equals(nextToken)) {
-						processErrorJson(apiError, errorResponse);
+						processErrorJson(apiError, errorResponse, ex);
 						return;
 					} else if (JsonToken.END_DOCUMENT.equals(nextToken)) {
 						break;
@@ -245,7 +567,7 @@ public class HttpUtility {
 		}
 	}
 
-	private static void processErrorJson(StringBuilder apiError, String errorResponse) {
+	private static void processErrorJson(StringBuilder apiError, String errorResponse, BoxRuntimeException error) {
 		try {
 			GsonBuilder gsonBuilder = new GsonBuilder();
 			Gson gson = gsonBuilder.create();
@@ -253,6 +575,9 @@ public class HttpUtility {
 			JsonElement jsonElement = gson.fromJson(errorResponse, JsonElement.class);
 			JsonObject jsonObject;
 			if (jsonElement != null) {
+				if (error.getHttpStatus() == HttpURLConnection.HTTP_CONFLICT) {
+					error.withConflictId(extractConflictId(jsonElement));
+				}
 				if (jsonElement.isJsonArray()) {
 					jsonObject = jsonElement.getAsJsonArray().get(0).getAsJsonObject();
 					Map<String, Object> errorMap = gson.fromJson(jsonObject.toString(), HashMap.class);
@@ -268,6 +593,22 @@ public class HttpUtility {
 		}
 	}
 
+	/**
+	 * Return the id of the existing folder a 409 error body names in its context_info, or null if there is none or the
+	 * conflicting item is not a folder.
+	 */
+	private static String extractConflictId(JsonElement errorJson) {
+		// Box names a single conflicting file with an object and conflicting folders with an array.
+		JsonPathSet.Values conflict = CONFLICT_PATHS.extract(errorJson);
+		String id = conflict.getValue(CONFLICTS_FIRST_ID);
+		String type = conflict.getValue(CONFLICTS_FIRST_TYPE);
+		if (id == null) {
+			id = conflict.getValue(CONFLICT_ID);
+			type = conflict.getValue(CONFLICT_TYPE);
+		}
+		return BoxConstants.FOLDER.equals(type) ? id : null;
+	}
+
 	private static HttpURLConnection createHttpUrlConnection(String url) throws IOException {
 		URL requestUrl = new URL(url);
 		return (HttpURLConnection) requestUrl.openConnection();
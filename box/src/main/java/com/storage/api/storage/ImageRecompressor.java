@@ -0,0 +1,248 @@
+package com.storage.api.storage;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Re-encodes and downsizes images before upload. JPEG images are written with the configured quality, PNG images are
+ * only rewritten when they need to be downsized. The EXIF orientation of a JPEG is applied to the pixels, as the
+ * metadata is not carried over. The original bytes are kept whenever the result is not smaller.
+ * Work runs on a dedicated pool sized for CPU bound work so it overlaps with network I/O of the uploads.
+ */
+public class ImageRecompressor {
+	private static final String JPEG = "jpeg";
+	private static final String PNG = "png";
+	private static final int EXIF_ORIENTATION_TAG = 0x0112;
+
+	private final float quality;
+	private final int maxWidth;
+	private final int maxHeight;
+	private final int threads;
+	private final ExecutorService executor;
+
+	public ImageRecompressor(float quality, int maxWidth, int maxHeight, int threads) {
+		if (quality <= 0 || quality > 1) {
+			throw new IllegalArgumentException(String.format("Recompress quality must be in (0, 1], found = %s", quality));
+		}
+		this.quality = quality;
+		this.maxWidth = maxWidth;
+		this.maxHeight = maxHeight;
+		this.threads = Math.max(threads, 1);
+
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(this.threads, runnable -> {
+			Thread thread = new Thread(runnable, "image-recompress-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public static ImageRecompressor create(BoxSettings boxSettings) {
+		return new ImageRecompressor(boxSettings.getRecompressQuality(), boxSettings.getRecompressMaxWidth(),
+				boxSettings.getRecompressMaxHeight(), boxSettings.getRecompressThreads());
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Recompress an image.
+	 *
+	 * @param content  Original image bytes.
+	 * @param fileType File extension, one of jpg, jpeg or png.
+	 * @return The recompressed bytes, or the original bytes if they could not be made smaller.
+	 */
+	public byte[] recompress(byte[] content, String fileType) throws IOException {
+		String format = "png".equalsIgnoreCase(fileType) ? PNG : JPEG;
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(content));
+		if (image == null) {
+			return content;
+		}
+
+		boolean jpeg = JPEG.equals(format);
+		int orientation = jpeg ? exifOrientation(content) : 1;
+		// Orientations 5 to 8 turn the image by a quarter, swapping its sides.
+		boolean turned = orientation >= 5;
+		int orientedWidth = turned ? image.getHeight() : image.getWidth();
+		int orientedHeight = turned ? image.getWidth() : image.getHeight();
+
+		double scale = 1d;
+		if (maxWidth > 0 && orientedWidth > maxWidth) {
+			scale = Math.min(scale, (double) maxWidth / orientedWidth);
+		}
+		if (maxHeight > 0 && orientedHeight > maxHeight) {
+			scale = Math.min(scale, (double) maxHeight / orientedHeight);
+		}
+		if (scale == 1d && PNG.equals(format)) {
+			return content;
+		}
+
+		int width = Math.max((int) Math.round(orientedWidth * scale), 1);
+		int height = Math.max((int) Math.round(orientedHeight * scale), 1);
+		BufferedImage target = image;
+		// JPEG has no alpha channel, so images with one are drawn onto an RGB image.
+		if (scale != 1d || orientation != 1 || jpeg && image.getColorModel().hasAlpha()) {
+			target = new BufferedImage(width, height, jpeg ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+			Graphics2D graphics = target.createGraphics();
+			try {
+				if (jpeg) {
+					// Transparent pixels would otherwise turn black.
+					graphics.setColor(Color.WHITE);
+					graphics.fillRect(0, 0, width, height);
+				}
+				graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+				graphics.scale((double) width / orientedWidth, (double) height / orientedHeight);
+				graphics.transform(orientationTransform(orientation, image.getWidth(), image.getHeight()));
+				graphics.drawImage(image, 0, 0, null);
+			} finally {
+				graphics.dispose();
+			}
+		}
+
+		byte[] recompressed = write(target, format);
+		return recompressed.length < content.length ? recompressed : content;
+	}
+
+	/**
+	 * Stop the recompress pool.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Transform drawing an image of the given size the way its EXIF orientation says it is to be shown.
+	 */
+	private static AffineTransform orientationTransform(int orientation, int width, int height) {
+		switch (orientation) {
+			case 2:
+				// Mirrored horizontally.
+				return new AffineTransform(-1, 0, 0, 1, width, 0);
+			case 3:
+				// Turned by half.
+				return new AffineTransform(-1, 0, 0, -1, width, height);
+			case 4:
+				// Mirrored vertically.
+				return new AffineTransform(1, 0, 0, -1, 0, height);
+			case 5:
+				// Mirrored along the top left to bottom right diagonal.
+				return new AffineTransform(0, 1, 1, 0, 0, 0);
+			case 6:
+				// Turned a quarter clockwise.
+				return new AffineTransform(0, 1, -1, 0, height, 0);
+			case 7:
+				// Mirrored along the top right to bottom left diagonal.
+				return new AffineTransform(0, -1, -1, 0, height, width);
+			case 8:
+				// Turned a quarter counter clockwise.
+				return new AffineTransform(0, -1, 1, 0, 0, width);
+			default:
+				return new AffineTransform();
+		}
+	}
+
+	/**
+	 * Read the orientation tag of the EXIF segment of a JPEG, ex: 6 for a photo taken with the camera turned.
+	 *
+	 * @return The orientation from 1 to 8, or 1 if there is none.
+	 */
+	static int exifOrientation(byte[] jpeg) {
+		int offset = 2;
+		if (jpeg.length < 4 || (jpeg[0] & 0xff) != 0xff || (jpeg[1] & 0xff) != 0xd8) {
+			return 1;
+		}
+		while (offset + 4 <= jpeg.length && (jpeg[offset] & 0xff) == 0xff) {
+			int marker = jpeg[offset + 1] & 0xff;
+			int length = readShort(jpeg, offset + 2, false);
+			// Start of scan, the image data follows and there are no more metadata segments.
+			if (marker == 0xda || length < 2) {
+				return 1;
+			}
+			int segment = offset + 4;
+			if (marker == 0xe1 && segment + 14 <= jpeg.length && jpeg[segment] == 'E' && jpeg[segment + 1] == 'x'
+					&& jpeg[segment + 2] == 'i' && jpeg[segment + 3] == 'f') {
+				return tiffOrientation(jpeg, segment + 6, Math.min(offset + 2 + length, jpeg.length));
+			}
+			offset += 2 + length;
+		}
+		return 1;
+	}
+
+	private static int tiffOrientation(byte[] bytes, int tiff, int end) {
+		if (tiff + 8 > end) {
+			return 1;
+		}
+		boolean littleEndian = bytes[tiff] == 'I' && bytes[tiff + 1] == 'I';
+		long ifd = tiff + readInt(bytes, tiff + 4, littleEndian);
+		if (ifd + 2 > end) {
+			return 1;
+		}
+		int entries = readShort(bytes, (int) ifd, littleEndian);
+		for (int i = 0; i < entries; i++) {
+			int entry = (int) ifd + 2 + i * 12;
+			if (entry + 12 > end) {
+				break;
+			}
+			if (readShort(bytes, entry, littleEndian) == EXIF_ORIENTATION_TAG) {
+				int orientation = readShort(bytes, entry + 8, littleEndian);
+				return orientation >= 1 && orientation <= 8 ? orientation : 1;
+			}
+		}
+		return 1;
+	}
+
+	private static int readShort(byte[] bytes, int offset, boolean littleEndian) {
+		int first = bytes[offset] & 0xff;
+		int second = bytes[offset + 1] & 0xff;
+		return littleEndian ? second << 8 | first : first << 8 | second;
+	}
+
+	private static long readInt(byte[] bytes, int offset, boolean littleEndian) {
+		long first = readShort(bytes, offset, littleEndian);
+		long second = readShort(bytes, offset + 2, littleEndian);
+		return littleEndian ? second << 16 | first : first << 16 | second;
+	}
+
+	private byte[] write(BufferedImage image, String format) throws IOException {
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+		if (!writers.hasNext()) {
+			throw new IOException(String.format("No image writer for format %s", format));
+		}
+		ImageWriter writer = writers.next();
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		try (ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(outputStream)) {
+			writer.setOutput(imageOutputStream);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if (JPEG.equals(format)) {
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionQuality(quality);
+			}
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+		}
+		return outputStream.toByteArray();
+	}
+}
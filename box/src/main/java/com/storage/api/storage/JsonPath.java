@@ -2,9 +2,10 @@ package com.storage.api.storage;
 
 import java.util.AbstractMap;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import com.google.common.base.Strings;
@@ -17,6 +18,52 @@ import com.google.gson.JsonObject;
  */
 public class JsonPath {
 	public static final String FIELD_SEPARATOR = ".";
+	public static final String WILDCARD = "*";
+	static final int ANY_INDEX = -2;
+	private static final int MAX_CACHED_PATHS = 1024;
+	private static final CompiledPath EMPTY_PATH = new CompiledPath("", new Segment[0]);
+	private static final Map<String, CompiledPath> compiledPaths = new ConcurrentHashMap<>();
+	private static final Map<List<String>, JsonPathSet> compiledPathSets = new ConcurrentHashMap<>();
+
+	/**
+	 * Parse a path once so it can be evaluated many times. Compiled paths are cached, so the static helpers only parse
+	 * a path the first time they see it. The cache is bounded, paths seen after it is full are compiled every time.
+	 *
+	 * @param path Field path. Ex: obj1.obj2.obj3 or obj1.array[1].obj2, or obj1.array[*].obj2 for a {@link JsonPathSet}
+	 */
+	public static CompiledPath compile(String path) {
+		if (Strings.isNullOrEmpty(path)) {
+			return EMPTY_PATH;
+		}
+		CompiledPath compiledPath = compiledPaths.get(path);
+		if (compiledPath == null) {
+			compiledPath = parse(path);
+			if (compiledPaths.size() < MAX_CACHED_PATHS) {
+				compiledPaths.putIfAbsent(path, compiledPath);
+			}
+		}
+		return compiledPath;
+	}
+
+	/**
+	 * Get the values of several paths in one walk of the element. Paths sharing a prefix walk it once, and a path can
+	 * project every item of an array with [*]. Ex: name, id and entries[*].id. Path sets are cached like compiled paths,
+	 * code evaluating the same paths often can also keep its own {@link JsonPathSet}.
+	 *
+	 * @param parentElement Json parent element to begin search for child objects.
+	 * @param paths         Child paths to search.
+	 */
+	public static JsonPathSet.Values getValues(JsonElement parentElement, String... paths) {
+		List<String> key = Arrays.asList(paths);
+		JsonPathSet pathSet = compiledPathSets.get(key);
+		if (pathSet == null) {
+			pathSet = new JsonPathSet(paths);
+			if (compiledPathSets.size() < MAX_CACHED_PATHS) {
+				compiledPathSets.putIfAbsent(new ArrayList<>(key), pathSet);
+			}
+		}
+		return pathSet.extract(parentElement);
+	}
 
 	/**
 	 * Helper method to return true if path is found.
@@ -277,13 +324,11 @@ public class JsonPath {
 	 */
 	private static Map.Entry<JsonElement, String> createParentPath(JsonElement parentElement, String path) {
 		JsonElement currentElement = parentElement;
-		JsonFieldIterator iterator = new JsonFieldIterator(path);
+		CompiledPath compiledPath = compile(path);
 		final String JSON_RECORD_SET_VALUE_FAILED_INVALID_PATH = "JsonPath set value failed because of invalid field path: %s";
 		final String JSON_RECORD_SET_VALUE_FAILED_UNEXPECTED_TYPE = "JsonPath set value failed, expected = %s,found = %s, field = %s";
 
-		while (iterator.hasNext()) {
-			FieldToken fieldToken = iterator.next();
-
+		for (Segment segment : compiledPath.segments) {
 			if (currentElement == null) {
 				throw new IllegalArgumentException(String.format(JSON_RECORD_SET_VALUE_FAILED_INVALID_PATH, path));
 			}
@@ -292,20 +337,20 @@ public class JsonPath {
 						JsonObject.class.getSimpleName(), currentElement.getClass().getSimpleName(), path));
 			}
 
-			switch (fieldToken.type) {
+			switch (segment.type) {
 				case Object: {
 					JsonObject parent = (JsonObject) currentElement;
-					currentElement = parent.get(fieldToken.name);
+					currentElement = parent.get(segment.name);
 					if (currentElement == null) {
 						currentElement = new JsonObject();
-						parent.add(fieldToken.name, currentElement);
+						parent.add(segment.name, currentElement);
 					}
 					break;
 				}
 				case Array: {
 					// Make sure the array exists.
 					JsonObject parent = (JsonObject) currentElement;
-					String arrayName = getArrayName(fieldToken.name);
+					String arrayName = segment.name;
 					JsonElement arrayElement = parent.get(arrayName);
 					if (arrayElement == null) {
 						arrayElement = new JsonArray();
@@ -318,7 +363,7 @@ public class JsonPath {
 
 					// Make sure the array child object exists. Ex: if index=1 is referenced, then make sure index=0 and index=1 exist.
 					JsonArray array = (JsonArray) arrayElement;
-					int index = getArrayIndex(array, fieldToken.name);
+					int index = segment.index;
 
 					// If index is less than zero.
 					if (index < 0) {
@@ -334,7 +379,7 @@ public class JsonPath {
 					break;
 				}
 				case Primitive: {
-					return new AbstractMap.SimpleEntry<>(currentElement, fieldToken.name);
+					return new AbstractMap.SimpleEntry<>(currentElement, segment.name);
 				}
 			}
 		}
@@ -345,69 +390,7 @@ public class JsonPath {
 	 * Helper method to find the element or return null if not found.
 	 */
 	private static JsonElement findElement(JsonElement parentElement, String field) {
-		JsonElement currentElement = parentElement;
-		JsonFieldIterator iterator = new JsonFieldIterator(field);
-
-		while (iterator.hasNext()) {
-			FieldToken fieldToken = iterator.next();
-
-			if (currentElement == null || !currentElement.isJsonObject()) {
-				return null;
-			}
-
-			switch (fieldToken.type) {
-				case Object:
-					JsonObject parent = (JsonObject) currentElement;
-					currentElement = parent.get(fieldToken.name);
-					break;
-				case Array:
-					JsonObject parentObject = (JsonObject) currentElement;
-					String arrayName = getArrayName(fieldToken.name);
-					JsonElement arrayElement = parentObject.get(arrayName);
-					if (arrayElement == null || !arrayElement.isJsonArray()) {
-						return null;
-					}
-					JsonArray array = (JsonArray) arrayElement;
-					int index = getArrayIndex(array, fieldToken.name);
-					if (index < 0 || index >= array.size()) {
-						return null;
-					}
-					currentElement = array.get(index);
-					break;
-				case Primitive:
-					JsonObject value = (JsonObject) currentElement;
-					currentElement = value.get(fieldToken.name);
-					break;
-			}
-		}
-
-		return currentElement;
-	}
-
-	/**
-	 * Helper method to return field name with array index stripped off. Ex: "field[0]" => field.
-	 *
-	 * @param field The field name to parse.
-	 * @return Index parsed from field name.
-	 */
-	private static String getArrayName(String field) {
-		int pos = field.lastIndexOf('[');
-		if (pos >= 0) {
-			return field.substring(0, pos);
-		}
-		return field;
-	}
-
-	/**
-	 * Helper method to return index from field name. Ex: "field[0]" => 0.
-	 *
-	 * @param array The array to search.
-	 * @param field The field name to parse.
-	 * @return Index parsed from field name.
-	 */
-	private static int getArrayIndex(JsonArray array, String field) {
-		String indexString = parseArrayIndex(field);
-		return Integer.parseInt(indexString);
+		return compile(field).find(parentElement);
 	}
 
 	/**
@@ -433,61 +416,100 @@ public class JsonPath {
 	}
 
 	/**
-	 * Helper class to iterate a field hierarchy. Ex: obj1.obj1.arr[0].obj
+	 * A path parsed once into its field segments. Compiled paths are immutable and safe to share between threads, and
+	 * evaluating one does not allocate.
 	 */
-	private static class JsonFieldIterator implements Iterator<FieldToken> {
-		private Iterator<String> fieldIterator;
+	public static final class CompiledPath {
+		private final String path;
+		final Segment[] segments;
 
-		public JsonFieldIterator(String field) {
-			if (!Strings.isNullOrEmpty(field)) {
-				fieldIterator = splitFields(field, FIELD_SEPARATOR).iterator();
-			}
+		private CompiledPath(String path, Segment[] segments) {
+			this.path = path;
+			this.segments = segments;
 		}
 
-		/**
-		 * @return True if there are more field tokens in the message.
-		 */
-		@Override
-		public boolean hasNext() {
-			return fieldIterator != null && fieldIterator.hasNext();
+		public String getPath() {
+			return path;
 		}
 
 		/**
-		 * @return The next field token.
+		 * Find the element at this path or return null if not found.
+		 *
+		 * @param parentElement Json parent element to begin search for child objects.
 		 */
-		@Override
-		public FieldToken next() {
-			String name = fieldIterator.next();
-			FieldType type = name.contains("[") ? FieldType.Array : fieldIterator.hasNext() ? FieldType.Object : FieldType.Primitive;
+		public JsonElement find(JsonElement parentElement) {
+			JsonElement currentElement = parentElement;
 
-			return new FieldToken(name, type);
-		}
-	}
+			for (Segment segment : segments) {
+				if (currentElement == null || !currentElement.isJsonObject()) {
+					return null;
+				}
 
-	private static class FieldToken {
-		private String name;
-		private FieldType type;
+				JsonObject parent = (JsonObject) currentElement;
+				if (segment.type == FieldType.Array) {
+					JsonElement arrayElement = parent.get(segment.name);
+					if (arrayElement == null || !arrayElement.isJsonArray()) {
+						return null;
+					}
+					JsonArray array = (JsonArray) arrayElement;
+					if (segment.index < 0 || segment.index >= array.size()) {
+						return null;
+					}
+					currentElement = array.get(segment.index);
+				} else {
+					currentElement = parent.get(segment.name);
+				}
+			}
 
-		public FieldToken(String name, FieldType type) {
-			this.name = name;
-			this.type = type;
+			return currentElement;
 		}
 
-		public String getName() {
-			return name;
+		/**
+		 * Get the string value at this path or return null if not found.
+		 */
+		public String getValue(JsonElement parentElement) {
+			JsonElement element = find(parentElement);
+			if (element != null && element.isJsonPrimitive()) {
+				return element.getAsString();
+			}
+			return null;
 		}
 
-		public void setName(String name) {
-			this.name = name;
+		@Override
+		public String toString() {
+			return path;
 		}
+	}
 
-		public FieldType getType() {
-			return type;
-		}
+	/**
+	 * One field of a compiled path. Array fields hold the array name and the parsed index, or ANY_INDEX for [*].
+	 */
+	static final class Segment {
+		final String name;
+		final FieldType type;
+		final int index;
 
-		public void setType(FieldType type) {
+		private Segment(String name, FieldType type, int index) {
+			this.name = name;
 			this.type = type;
+			this.index = index;
+		}
+	}
+
+	private static CompiledPath parse(String path) {
+		List<String> fields = splitFields(path, FIELD_SEPARATOR);
+		Segment[] segments = new Segment[fields.size()];
+		for (int i = 0; i < segments.length; i++) {
+			String field = fields.get(i);
+			if (field.contains("[")) {
+				String arrayName = field.substring(0, field.lastIndexOf('['));
+				String index = parseArrayIndex(field);
+				segments[i] = new Segment(arrayName, FieldType.Array, WILDCARD.equals(index) ? ANY_INDEX : Integer.parseInt(index));
+			} else {
+				segments[i] = new Segment(field, i < segments.length - 1 ? FieldType.Object : FieldType.Primitive, -1);
+			}
 		}
+		return new CompiledPath(path, segments);
 	}
 
 	//todo: Not required until contextkey is supported. Simple numeric array index does not require this complexity.
@@ -515,6 +537,10 @@ public class JsonPath {
 				tokens.add(token);
 			}
 		}
+		if (partialToken != null) {
+			// An unclosed bracket, ex: array[0, is left to fail when its index is parsed.
+			tokens.add(partialToken);
+		}
 
 		return tokens;
 	}
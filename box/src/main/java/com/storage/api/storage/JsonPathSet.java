@@ -0,0 +1,331 @@
+package com.storage.api.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+/**
+ * A set of json paths compiled into a trie of their fields, so paths sharing a prefix walk it only once. The set is
+ * evaluated in a single pass, either directly on a json stream or on a parsed element. Paths may project every item of
+ * an array with [*], ex: entries[*].id.
+ * <p>
+ * On a stream, fields no path asks for are skipped without being parsed and reading stops as soon as every path is
+ * resolved. Only the values found are kept, so a large response is read in constant memory apart from the results.
+ * <p>
+ * A set is immutable and can be shared between threads, build it once and keep it in a constant.
+ */
+public class JsonPathSet {
+	private final String[] paths;
+	private final Map<String, Integer> pathIds = new HashMap<>();
+	private final Node root = new Node();
+
+	/**
+	 * @param paths Field paths. Ex: name, entries[0].id or entries[*].id
+	 */
+	public JsonPathSet(String... paths) {
+		List<String> distinctPaths = new ArrayList<>();
+		for (String path : paths) {
+			if (pathIds.containsKey(path)) {
+				continue;
+			}
+			int id = distinctPaths.size();
+			pathIds.put(path, id);
+			distinctPaths.add(path);
+
+			Node node = root;
+			node.pathIds.add(id);
+			for (JsonPath.Segment segment : JsonPath.compile(path).segments) {
+				node = node.field(segment.name);
+				node.pathIds.add(id);
+				if (segment.type == JsonPath.FieldType.Array) {
+					node = node.item(segment.index);
+					node.pathIds.add(id);
+				}
+			}
+			node.terminalIds.add(id);
+		}
+		this.paths = distinctPaths.toArray(new String[0]);
+	}
+
+	/**
+	 * Evaluate the paths on the json value at the reader's position. The reader is left where reading stopped, which is
+	 * not necessarily the end of the value.
+	 *
+	 * @param reader Reader positioned before the value.
+	 */
+	public Values read(JsonReader reader) throws IOException {
+		Values values = new Values();
+		readValue(reader, root, values, true);
+		return values;
+	}
+
+	/**
+	 * Evaluate the paths on a parsed element.
+	 *
+	 * @param element Json element the paths are relative to.
+	 */
+	public Values extract(JsonElement element) {
+		Values values = new Values();
+		extract(element, root, values);
+		return values;
+	}
+
+	/**
+	 * @return True once every path is resolved and reading can stop.
+	 */
+	private boolean readValue(JsonReader reader, Node node, Values values, boolean completes) throws IOException {
+		if (!node.terminalIds.isEmpty()) {
+			// A path ends here, the value itself is needed.
+			extract(JsonParser.parseReader(reader), node, values);
+			return completes && values.complete(node);
+		}
+
+		switch (reader.peek()) {
+			case BEGIN_OBJECT:
+				if (node.fields.isEmpty()) {
+					reader.skipValue();
+					break;
+				}
+				reader.beginObject();
+				while (reader.hasNext()) {
+					Node child = node.fields.get(reader.nextName());
+					if (child == null) {
+						reader.skipValue();
+					} else if (readValue(reader, child, values, completes)) {
+						return true;
+					}
+				}
+				reader.endObject();
+				break;
+			case BEGIN_ARRAY:
+				if (node.items.isEmpty() && node.anyItem == null) {
+					reader.skipValue();
+					break;
+				}
+				reader.beginArray();
+				int[] marks = node.anyItem != null ? new int[paths.length] : null;
+				for (int index = 0; reader.hasNext(); index++) {
+					Node item = node.items.get(index);
+					if (item == null && node.anyItem == null) {
+						reader.skipValue();
+						continue;
+					}
+					if (node.anyItem != null) {
+						values.mark(node.anyItem, marks);
+					}
+					if (item != null && node.anyItem != null) {
+						JsonElement element = JsonParser.parseReader(reader);
+						extract(element, item, values);
+						extract(element, node.anyItem, values);
+						if (completes && values.complete(item)) {
+							return true;
+						}
+					} else if (item != null) {
+						if (readValue(reader, item, values, completes)) {
+							return true;
+						}
+					} else {
+						// Values below a wildcard are only complete at the end of the array.
+						readValue(reader, node.anyItem, values, false);
+					}
+					if (node.anyItem != null) {
+						values.pad(node.anyItem, marks);
+					}
+				}
+				reader.endArray();
+				break;
+			default:
+				reader.skipValue();
+				break;
+		}
+		return completes && values.complete(node);
+	}
+
+	private void extract(JsonElement element, Node node, Values values) {
+		if (element == null || element.isJsonNull()) {
+			return;
+		}
+		for (int id : node.terminalIds) {
+			values.add(id, element);
+		}
+
+		if (element.isJsonObject() && !node.fields.isEmpty()) {
+			for (Map.Entry<String, Node> field : node.fields.entrySet()) {
+				extract(element.getAsJsonObject().get(field.getKey()), field.getValue(), values);
+			}
+		} else if (element.isJsonArray()) {
+			JsonArray array = element.getAsJsonArray();
+			for (Map.Entry<Integer, Node> item : node.items.entrySet()) {
+				if (item.getKey() >= 0 && item.getKey() < array.size()) {
+					extract(array.get(item.getKey()), item.getValue(), values);
+				}
+			}
+			if (node.anyItem != null) {
+				int[] marks = new int[paths.length];
+				for (JsonElement item : array) {
+					values.mark(node.anyItem, marks);
+					extract(item, node.anyItem, values);
+					values.pad(node.anyItem, marks);
+				}
+			}
+		}
+	}
+
+	/**
+	 * One field or array item of the trie, with the ids of the paths going through it and of the paths ending at it.
+	 */
+	private static final class Node {
+		private final Map<String, Node> fields = new HashMap<>();
+		private final Map<Integer, Node> items = new HashMap<>();
+		private Node anyItem;
+		private final List<Integer> pathIds = new ArrayList<>();
+		private final List<Integer> terminalIds = new ArrayList<>();
+
+		private Node field(String name) {
+			return fields.computeIfAbsent(name, key -> new Node());
+		}
+
+		private Node item(int index) {
+			if (index == JsonPath.ANY_INDEX) {
+				if (anyItem == null) {
+					anyItem = new Node();
+				}
+				return anyItem;
+			}
+			return items.computeIfAbsent(index, key -> new Node());
+		}
+	}
+
+	/**
+	 * The values found for each path of the set. A path without [*] has at most one value. A wildcard path has one
+	 * value per array item, JsonNull for items without a value at the path, so the values of wildcard paths over the
+	 * same array line up by position.
+	 */
+	public final class Values {
+		private final List<List<JsonElement>> values = new ArrayList<>(paths.length);
+		private final boolean[] resolved = new boolean[paths.length];
+		private int unresolved = paths.length;
+
+		private Values() {
+			for (int i = 0; i < paths.length; i++) {
+				values.add(new ArrayList<>(1));
+			}
+		}
+
+		/**
+		 * @return The first element found for the path or null.
+		 */
+		public JsonElement getElement(String path) {
+			List<JsonElement> elements = getElements(path);
+			return elements.isEmpty() || elements.get(0).isJsonNull() ? null : elements.get(0);
+		}
+
+		/**
+		 * @return The string value of the first element found for the path or null.
+		 */
+		public String getValue(String path) {
+			JsonElement element = getElement(path);
+			return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+		}
+
+		/**
+		 * @return The string value of the first element found for the path or the default value.
+		 */
+		public String getValue(String path, String defaultValue) {
+			String value = getValue(path);
+			return value != null ? value : defaultValue;
+		}
+
+		/**
+		 * @return The boolean value of the first element found for the path or the default value.
+		 */
+		public boolean getValue(String path, boolean defaultValue) {
+			JsonElement element = getElement(path);
+			return element != null && element.isJsonPrimitive() ? element.getAsBoolean() : defaultValue;
+		}
+
+		/**
+		 * @return True if a value was found for the path.
+		 */
+		public boolean hasValue(String path) {
+			return getElement(path) != null;
+		}
+
+		/**
+		 * @return Every element found for the path, in document order.
+		 */
+		public List<JsonElement> getElements(String path) {
+			Integer id = pathIds.get(path);
+			if (id == null) {
+				throw new IllegalArgumentException(String.format("Path %s is not part of the path set", path));
+			}
+			return Collections.unmodifiableList(values.get(id));
+		}
+
+		/**
+		 * @return The string value of every element found for the path, null for elements that are not primitives.
+		 */
+		public List<String> getValues(String path) {
+			List<JsonElement> elements = getElements(path);
+			List<String> strings = new ArrayList<>(elements.size());
+			for (JsonElement element : elements) {
+				strings.add(element.isJsonPrimitive() ? element.getAsString() : null);
+			}
+			return strings;
+		}
+
+		/**
+		 * @return Every path with its elements, in the order the paths were given.
+		 */
+		public Map<String, List<JsonElement>> asMap() {
+			Map<String, List<JsonElement>> map = new LinkedHashMap<>();
+			for (String path : paths) {
+				map.put(path, getElements(path));
+			}
+			return map;
+		}
+
+		private void add(int id, JsonElement element) {
+			values.get(id).add(element);
+		}
+
+		private void mark(Node anyItem, int[] marks) {
+			for (int id : anyItem.pathIds) {
+				marks[id] = values.get(id).size();
+			}
+		}
+
+		private void pad(Node anyItem, int[] marks) {
+			for (int id : anyItem.pathIds) {
+				if (values.get(id).size() == marks[id]) {
+					values.get(id).add(JsonNull.INSTANCE);
+				}
+			}
+		}
+
+		/**
+		 * Mark the paths going through a node as resolved once its value was read in full.
+		 *
+		 * @return True if every path is resolved.
+		 */
+		private boolean complete(Node node) {
+			for (int id : node.pathIds) {
+				if (!resolved[id]) {
+					resolved[id] = true;
+					unresolved--;
+				}
+			}
+			return unresolved == 0;
+		}
+	}
+}
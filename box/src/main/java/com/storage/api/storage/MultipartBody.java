@@ -0,0 +1,212 @@
+package com.storage.api.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Strings;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+/**
+ * Multipart form body of a request: the form fields, one part per file field carrying the file, and the closing
+ * boundary. The small parts are encoded up front so the length of the body is known before it is written.
+ * <p>
+ * The file is either in memory or a local file read as the body is written. Written to a channel, a local file goes
+ * to it with FileChannel.transferTo, ex: sendfile to a socket on Linux, without passing through the heap.
+ */
+public class MultipartBody {
+	private static final byte[] CRLF = BoxConstants.HttpService.CRLF.getBytes(StandardCharsets.UTF_8);
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+	// Small enough for a throttled transfer to be paced smoothly, large enough to keep the system calls few.
+	private static final long THROTTLED_TRANSFER_SIZE = 64 * 1024;
+	private static final JsonPath.CompiledPath NAME_PATH = JsonPath.compile(BoxConstants.PropertyNames.NAME);
+	private static final JsonPath.CompiledPath VALUE_PATH = JsonPath.compile(BoxConstants.VALUE);
+	private static final JsonPath.CompiledPath FILE_ID_PATH = JsonPath.compile(BoxConstants.FILE_ID);
+	private static final JsonPath.CompiledPath FILE_NAME_PATH = JsonPath.compile(BoxConstants.FILE_NAME);
+
+	private final byte[] fields;
+	private final List<byte[]> fileHeaders;
+	private final byte[] file;
+	private final Path filePath;
+	private final long fileLength;
+	private final byte[] finish;
+
+	private MultipartBody(byte[] fields, List<byte[]> fileHeaders, byte[] file, Path filePath, long fileLength, byte[] finish) {
+		this.fields = fields;
+		this.fileHeaders = fileHeaders;
+		this.file = file;
+		this.filePath = filePath;
+		this.fileLength = fileLength;
+		this.finish = finish;
+	}
+
+	/**
+	 * @param requestQuery Json array of the form fields with name and value, and file_id and file_name for file parts.
+	 * @param file         Content of the file parts or null.
+	 * @param boundary     Multipart boundary, the default boundary if empty.
+	 */
+	public static MultipartBody encode(String requestQuery, byte[] file, String boundary) throws IOException {
+		byte[] fields = encodeFields(requestQuery, boundary);
+		List<byte[]> fileHeaders = file != null ? encodeFileHeaders(requestQuery) : Collections.emptyList();
+		return new MultipartBody(fields, fileHeaders, file, null, file != null ? file.length : 0, encodeFinish(boundary));
+	}
+
+	/**
+	 * @param file Local file of the file parts, read each time the body is written. It must not change in between.
+	 * @see #encode(String, byte[], String)
+	 */
+	public static MultipartBody encode(String requestQuery, Path file, String boundary) throws IOException {
+		byte[] fields = encodeFields(requestQuery, boundary);
+		return new MultipartBody(fields, encodeFileHeaders(requestQuery), null, file, Files.size(file), encodeFinish(boundary));
+	}
+
+	public long getContentLength() {
+		long contentLength = fields.length + finish.length;
+		for (byte[] fileHeader : fileHeaders) {
+			contentLength += fileHeader.length + fileLength + CRLF.length;
+		}
+		return contentLength;
+	}
+
+	/**
+	 * Write the whole body, the stream is left open.
+	 */
+	public void writeTo(OutputStream outputStream) throws IOException {
+		outputStream.write(fields);
+		for (byte[] fileHeader : fileHeaders) {
+			outputStream.write(fileHeader);
+			if (filePath != null) {
+				copyFile(outputStream);
+			} else {
+				outputStream.write(file);
+			}
+			outputStream.write(CRLF);
+		}
+		outputStream.write(finish);
+	}
+
+	/**
+	 * Write the whole body to a blocking channel, the channel is left open. A local file is transferred by the kernel.
+	 *
+	 * @param throttle Throttle paced by every byte written.
+	 */
+	public void writeTo(WritableByteChannel channel, BandwidthThrottle throttle) throws IOException {
+		write(channel, fields, throttle);
+		for (byte[] fileHeader : fileHeaders) {
+			write(channel, fileHeader, throttle);
+			if (filePath != null) {
+				transferFile(channel, throttle);
+			} else {
+				write(channel, file, throttle);
+			}
+			write(channel, CRLF, throttle);
+		}
+		write(channel, finish, throttle);
+	}
+
+	private void copyFile(OutputStream outputStream) throws IOException {
+		byte[] buffer = BufferPool.acquire(COPY_BUFFER_SIZE);
+		try (InputStream inputStream = Files.newInputStream(filePath)) {
+			long remaining = fileLength;
+			int read;
+			while (remaining > 0 && (read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) >= 0) {
+				outputStream.write(buffer, 0, read);
+				remaining -= read;
+			}
+			if (remaining > 0) {
+				throw new IOException(String.format("File %s shrank while it was uploaded", filePath));
+			}
+		} finally {
+			BufferPool.release(buffer);
+		}
+	}
+
+	private void transferFile(WritableByteChannel channel, BandwidthThrottle throttle) throws IOException {
+		try (FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+			long position = 0;
+			while (position < fileLength) {
+				long count = fileLength - position;
+				if (throttle.isEnabled()) {
+					count = Math.min(count, THROTTLED_TRANSFER_SIZE);
+					throttle.acquire(count);
+				}
+				long transferred = fileChannel.transferTo(position, count, channel);
+				if (transferred <= 0 && position >= fileChannel.size()) {
+					throw new IOException(String.format("File %s shrank while it was uploaded", filePath));
+				}
+				position += transferred;
+			}
+		}
+	}
+
+	private static void write(WritableByteChannel channel, byte[] bytes, BandwidthThrottle throttle) throws IOException {
+		throttle.acquire(bytes.length);
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static byte[] encodeFields(String requestQuery, String boundary) {
+		GsonBuilder gsonBuilder = new GsonBuilder();
+		Gson gson = gsonBuilder.create();
+
+		JsonArray requestArray = gson.fromJson(requestQuery, JsonArray.class);
+
+		// Every line goes to one builder and is encoded once, instead of a byte array per line.
+		String fieldBoundary = Strings.isNullOrEmpty(boundary) ? BoxConstants.HttpService.BOUNDARY : boundary;
+		StringBuilder fields = new StringBuilder();
+		for (JsonElement requestElement : requestArray) {
+			String name = NAME_PATH.getValue(requestElement);
+			String value = null;
+			if (!Strings.isNullOrEmpty(boundary)) {
+				value = VALUE_PATH.getValue(requestElement);
+			} else {
+				value = VALUE_PATH.find(requestElement).getAsJsonObject().toString();
+			}
+
+			fields.append(BoxConstants.HttpService.TWO_HYPHENS).append(fieldBoundary).append(BoxConstants.HttpService.CRLF);
+			fields.append(BoxConstants.HttpService.CONTENT_DISPOSITION_FORM_DATA).append(name).append('"').append(BoxConstants.HttpService.CRLF);
+			fields.append(BoxConstants.HttpService.PLAIN_TEXT_CONTENT_TYPE).append(BoxConstants.HttpService.CRLF);
+			fields.append(BoxConstants.HttpService.CRLF);
+			fields.append(value).append(BoxConstants.HttpService.CRLF);
+		}
+		return fields.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static List<byte[]> encodeFileHeaders(String requestQuery) {
+		GsonBuilder gsonBuilder = new GsonBuilder();
+		Gson gson = gsonBuilder.create();
+
+		JsonArray requestArray = gson.fromJson(requestQuery, JsonArray.class);
+
+		List<byte[]> fileHeaders = new ArrayList<>(requestArray.size());
+		for (JsonElement requestElement : requestArray) {
+			String fileID = FILE_ID_PATH.getValue(requestElement);
+			String fileName = FILE_NAME_PATH.getValue(requestElement);
+
+			fileHeaders.add(String.format("%s%s%s%s%s\";filename=\"%s\"%s%s",
+					BoxConstants.HttpService.TWO_HYPHENS, BoxConstants.HttpService.BOUNDARY, BoxConstants.HttpService.CRLF,
+					BoxConstants.HttpService.CONTENT_DISPOSITION_FORM_DATA, fileID, fileName, BoxConstants.HttpService.CRLF,
+					BoxConstants.HttpService.CRLF).getBytes(StandardCharsets.UTF_8));
+		}
+		return fileHeaders;
+	}
+
+	private static byte[] encodeFinish(String boundary) {
+		return String.format("%s%s%s%s", BoxConstants.HttpService.TWO_HYPHENS, Strings.isNullOrEmpty(boundary) ? BoxConstants.HttpService.BOUNDARY : boundary, BoxConstants.HttpService.TWO_HYPHENS, BoxConstants.HttpService.CRLF).getBytes(StandardCharsets.UTF_8);
+	}
+}
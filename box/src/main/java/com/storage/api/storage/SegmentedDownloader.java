@@ -0,0 +1,284 @@
+package com.storage.api.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Downloads a file as parallel byte range segments written straight into a preallocated local file with positional
+ * writes. Every segment retries on its own and resumes from the last byte it wrote. Progress is kept in a small
+ * "&lt;target&gt;.part" file so an interrupted download continues where it stopped on the next attempt.
+ */
+public class SegmentedDownloader {
+	private static final Logger logger = LoggerFactory.getLogger(SegmentedDownloader.class);
+	private static final String PART_SUFFIX = ".part";
+	private static final int PART_HEADER_BYTES = Long.BYTES + Integer.BYTES;
+	private static final long PROGRESS_INTERVAL_BYTES = 1024 * 1024;
+	private static final long RETRY_BACKOFF_MS = 500;
+	private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+	private final int segments;
+	private final long minSegmentBytes;
+	private final ExecutorService executor;
+
+	public SegmentedDownloader(int segments, long minSegmentBytes) {
+		this.segments = Math.max(segments, 1);
+		this.minSegmentBytes = Math.max(minSegmentBytes, 1L);
+
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "segmented-download-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public static SegmentedDownloader create(BoxSettings boxSettings) {
+		return new SegmentedDownloader(boxSettings.getDownloadSegments(), boxSettings.getMinSegmentBytes());
+	}
+
+	/**
+	 * Download the content at the url into the target file.
+	 *
+	 * @param url         Content url, ex: files/{id}/content.
+	 * @param accessToken Supplies a valid access token for every request, segments may outlive a single token.
+	 * @param target      Local file to write.
+	 * @return Number of bytes in the downloaded file.
+	 */
+	public long download(String url, Supplier<String> accessToken, Path target, String appId) throws IOException {
+		long total = probeSize(url, accessToken.get(), appId);
+		if (total < 0) {
+			logger.info(String.format("Server does not support ranges for url [%s], downloading as one stream", url));
+		}
+
+		int segmentCount = total <= 0 ? 1 : (int) Math.max(Math.min(segments, total / minSegmentBytes), 1);
+		long segmentSize = total <= 0 ? 0 : (total + segmentCount - 1) / segmentCount;
+		long[] ends = new long[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			ends[i] = total <= 0 ? -1 : Math.min((i + 1) * segmentSize, total) - 1;
+		}
+		Path partFile = Paths.get(target.toString() + PART_SUFFIX);
+		long[] positions = Files.exists(target) ? loadProgress(partFile, total, segmentCount) : null;
+		if (positions == null) {
+			positions = new long[segmentCount];
+			for (int i = 0; i < segmentCount; i++) {
+				positions[i] = i * segmentSize;
+			}
+		}
+
+		try (RandomAccessFile file = new RandomAccessFile(target.toFile(), "rw");
+		     FileChannel progressChannel = total > 0 ? FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING) : null) {
+			if (total >= 0) {
+				file.setLength(total);
+			}
+			if (progressChannel != null) {
+				writeProgress(progressChannel, total, positions);
+			}
+			FileChannel channel = file.getChannel();
+
+			List<Future<Long>> futures = new ArrayList<>(segmentCount);
+			for (int i = 0; i < segmentCount; i++) {
+				final int segment = i;
+				final long start = positions[i];
+				futures.add(executor.submit(() -> downloadSegment(url, accessToken, channel, progressChannel, segment, start, ends[segment], appId)));
+			}
+
+			long written = 0;
+			IOException failure = null;
+			for (Future<Long> future : futures) {
+				try {
+					written = Math.max(written, future.get());
+				} catch (InterruptedException ex) {
+					futures.forEach(pending -> pending.cancel(true));
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException(String.format("Interrupted while downloading url [%s]", url));
+				} catch (ExecutionException ex) {
+					failure = ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException(ex.getCause());
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+			if (total < 0) {
+				file.setLength(written);
+				total = written;
+			}
+		}
+		Files.deleteIfExists(partFile);
+		return total;
+	}
+
+	/**
+	 * Stop the download threads.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * Ask for the first byte only to learn the total size.
+	 *
+	 * @return Total size or -1 if the server ignores the range request.
+	 */
+	private long probeSize(String url, String accessToken, String appId) throws IOException {
+		DownloadResponse probe;
+		try {
+			probe = BoxUtility.openDownload(url, accessToken, Collections.singletonMap(BoxConstants.RANGE, "bytes=0-0"), appId);
+		} catch (BoxRuntimeException ex) {
+			// An empty file has no first byte to return.
+			if (HttpUtility.getHttpStatus(ex) == HTTP_RANGE_NOT_SATISFIABLE) {
+				return -1;
+			}
+			throw ex;
+		}
+		if (probe == null) {
+			throw new IOException(String.format("Box connector failed to probe url [%s]", url));
+		}
+		String contentRange = probe.getHeader(BoxConstants.CONTENT_RANGE);
+		if (probe.getStatus() != HttpURLConnection.HTTP_PARTIAL || contentRange == null || contentRange.indexOf('/') < 0) {
+			// The whole body is coming, do not read it just to learn its size.
+			probe.abort();
+			return -1;
+		}
+		probe.close();
+		String total = contentRange.substring(contentRange.lastIndexOf('/') + 1).trim();
+		return "*".equals(total) ? -1 : Long.parseLong(total);
+	}
+
+	/**
+	 * Download one segment, retrying from the last written byte.
+	 *
+	 * @return Position after the last byte written.
+	 */
+	private long downloadSegment(String url, Supplier<String> accessToken, FileChannel channel, FileChannel progressChannel, int segment, long position, long end, String appId) throws IOException {
+		int attempt = 0;
+		long lastRecorded = position;
+		byte[] buffer = new byte[64 * 1024];
+		while (end < 0 || position <= end) {
+			// Only failures without any progress in between count towards the retry limit.
+			long attemptStart = position;
+			attempt++;
+			DownloadResponse response = null;
+			try {
+				response = BoxUtility.openDownload(url, accessToken.get(), end < 0 ? null : Collections.singletonMap(BoxConstants.RANGE, String.format("bytes=%d-%d", position, end)), appId);
+				if (response == null) {
+					throw new IOException(String.format("Box connector failed to download url [%s]", url));
+				}
+				if (end >= 0 && response.getStatus() != HttpURLConnection.HTTP_PARTIAL) {
+					throw new IOException(String.format("Expected partial content for segment %d of url [%s], found = %d", segment, url, response.getStatus()));
+				}
+				InputStream inputStream = response.getInputStream();
+				int read;
+				while ((end < 0 || position <= end) && (read = inputStream.read(buffer, 0, end < 0 ? buffer.length : (int) Math.min(buffer.length, end - position + 1))) != -1) {
+					ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+					while (byteBuffer.hasRemaining()) {
+						position += channel.write(byteBuffer, position);
+					}
+					if (progressChannel != null && position - lastRecorded >= PROGRESS_INTERVAL_BYTES) {
+						recordProgress(progressChannel, segment, position);
+						lastRecorded = position;
+					}
+				}
+				if (end < 0) {
+					return position;
+				}
+				if (position <= end) {
+					throw new IOException(String.format("Segment %d of url [%s] ended early at byte %d", segment, url, position));
+				}
+			} catch (IOException | BoxRuntimeException ex) {
+				if (response != null) {
+					response.abort();
+				}
+				if (progressChannel != null) {
+					recordProgress(progressChannel, segment, position);
+				}
+				if (position > attemptStart) {
+					attempt = 1;
+				}
+				if (end < 0 || attempt >= BoxConstants.MAX_RETRY_SERVICE_REQUEST) {
+					throw ex instanceof IOException ? (IOException) ex : new IOException(ex.getMessage(), ex);
+				}
+				logger.warn(String.format("Segment %d of url [%s] failed at byte %d (attempt %d), retrying: %s", segment, url, position, attempt, ex.getMessage()));
+				sleep(RETRY_BACKOFF_MS * attempt);
+				continue;
+			}
+			response.close();
+		}
+		if (progressChannel != null) {
+			recordProgress(progressChannel, segment, position);
+		}
+		return position;
+	}
+
+	private static long[] loadProgress(Path partFile, long total, int segmentCount) {
+		if (total <= 0 || !Files.isRegularFile(partFile)) {
+			return null;
+		}
+		try {
+			ByteBuffer progress = ByteBuffer.wrap(Files.readAllBytes(partFile));
+			if (progress.remaining() < PART_HEADER_BYTES + segmentCount * Long.BYTES || progress.getLong() != total || progress.getInt() != segmentCount) {
+				return null;
+			}
+			long[] positions = new long[segmentCount];
+			for (int i = 0; i < segmentCount; i++) {
+				positions[i] = progress.getLong();
+			}
+			logger.info(String.format("Resuming download from %s", partFile));
+			return positions;
+		} catch (IOException ex) {
+			logger.warn("Exception Reading Download Progress", ex);
+			return null;
+		}
+	}
+
+	private static void writeProgress(FileChannel progressChannel, long total, long[] positions) throws IOException {
+		// Absolute puts keep the position at zero, ready to be written.
+		ByteBuffer progress = ByteBuffer.allocate(PART_HEADER_BYTES + positions.length * Long.BYTES);
+		progress.putLong(0, total).putInt(Long.BYTES, positions.length);
+		for (int i = 0; i < positions.length; i++) {
+			progress.putLong(PART_HEADER_BYTES + i * Long.BYTES, positions[i]);
+		}
+		while (progress.hasRemaining()) {
+			progressChannel.write(progress, progress.position());
+		}
+	}
+
+	private static void recordProgress(FileChannel progressChannel, int segment, long position) throws IOException {
+		ByteBuffer value = ByteBuffer.allocate(Long.BYTES);
+		value.putLong(0, position);
+		long offset = PART_HEADER_BYTES + (long) segment * Long.BYTES;
+		while (value.hasRemaining()) {
+			progressChannel.write(value, offset + value.position());
+		}
+	}
+
+	private static void sleep(long millis) throws InterruptedIOException {
+		try {
+			TimeUnit.MILLISECONDS.sleep(millis);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to retry a download segment");
+		}
+	}
+}
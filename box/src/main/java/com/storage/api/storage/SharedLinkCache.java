@@ -0,0 +1,85 @@
+package com.storage.api.storage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Remembers shared link urls by file id and link settings for a limited time, so repeated share requests for the same
+ * file do not go to Box at all. Entries of a file are dropped explicitly when its link changes.
+ */
+public class SharedLinkCache {
+	private static final String SEPARATOR = "\n";
+	private static final int PURGE_THRESHOLD = 10000;
+
+	private final long ttlNanos;
+	private final Map<String, CachedLink> links = new ConcurrentHashMap<>();
+
+	public SharedLinkCache(long ttlSeconds) {
+		this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+	}
+
+	/**
+	 * Cache key of a file's link with the given settings.
+	 *
+	 * @param fileId   Box file id.
+	 * @param settings The shared_link object sent to Box.
+	 */
+	public static String key(String fileId, JsonObject settings) {
+		return fileId + SEPARATOR + settings.toString();
+	}
+
+	/**
+	 * @return The cached url or null if it is missing or expired.
+	 */
+	public String get(String key) {
+		CachedLink link = links.get(key);
+		if (link == null) {
+			return null;
+		}
+		if (System.nanoTime() - link.createdNanos > ttlNanos) {
+			links.remove(key, link);
+			return null;
+		}
+		return link.url;
+	}
+
+	public void put(String key, String url) {
+		if (ttlNanos <= 0 || url == null) {
+			return;
+		}
+		if (links.size() >= PURGE_THRESHOLD) {
+			long now = System.nanoTime();
+			links.values().removeIf(link -> now - link.createdNanos > ttlNanos);
+		}
+		links.put(key, new CachedLink(url, System.nanoTime()));
+	}
+
+	/**
+	 * Drop every cached link of the file, ex: after its shared link was changed or removed.
+	 */
+	public void invalidate(String fileId) {
+		String prefix = fileId + SEPARATOR;
+		links.keySet().removeIf(key -> key.startsWith(prefix));
+	}
+
+	public void clear() {
+		links.clear();
+	}
+
+	public int size() {
+		return links.size();
+	}
+
+	private static final class CachedLink {
+		private final String url;
+		private final long createdNanos;
+
+		private CachedLink(String url, long createdNanos) {
+			this.url = url;
+			this.createdNanos = createdNanos;
+		}
+	}
+}
@@ -2,8 +2,6 @@ package com.storage.api.storage;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 
 public class StringUtils {
@@ -12,20 +10,36 @@ public class StringUtils {
 	}
 
 	public static String toString(InputStream inputStream) throws IOException {
-		final int bufferSize = 1024;
-		final char[] buffer = new char[bufferSize];
-		final StringBuilder out = new StringBuilder();
-		if (inputStream != null) {
-			Reader in = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+		return toString(inputStream, -1);
+	}
+
+	/**
+	 * Read a UTF-8 stream to its end into a pooled buffer. The size hint only sizes the first buffer, up to
+	 * {@link BufferPool#MAX_POOLED_SIZE}, so a wrong or hostile Content-Length can not allocate more than what is read.
+	 *
+	 * @param sizeHint Announced length of the stream in bytes, ex: its Content-Length, or -1 if unknown.
+	 */
+	public static String toString(InputStream inputStream, long sizeHint) throws IOException {
+		if (inputStream == null) {
+			return "";
+		}
+		byte[] buffer = BufferPool.acquire(BufferPool.initialSize(sizeHint));
+		int length = 0;
+		try {
 			for (; ; ) {
-				int rsz = in.read(buffer, 0, buffer.length);
+				if (length == buffer.length) {
+					buffer = BufferPool.grow(buffer, length, length + 1);
+				}
+				int rsz = inputStream.read(buffer, length, buffer.length - length);
 				if (rsz < 0) {
 					break;
 				}
-				out.append(buffer, 0, rsz);
+				length += rsz;
 			}
+			return new String(buffer, 0, length, StandardCharsets.UTF_8);
+		} finally {
+			BufferPool.release(buffer);
 		}
-		return out.toString();
 	}
 
 	public static String trimDoubleQuotes(String text) {
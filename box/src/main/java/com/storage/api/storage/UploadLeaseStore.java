@@ -0,0 +1,309 @@
+package com.storage.api.storage;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Strings;
+import com.google.common.io.BaseEncoding;
+
+/**
+ * Coordinates several upload processes working through the same file tree. Every file key is hashed to a shard and
+ * to a lease file in a shared directory:
+ * <ul>
+ * <li>&lt;hash&gt;.lease is created atomically by the worker uploading the file and touched periodically while it
+ * works. A lease not touched within the lease duration belongs to a crashed worker and may be taken over.</li>
+ * <li>&lt;hash&gt;.done marks a file as uploaded so no other worker picks it up again.</li>
+ * </ul>
+ * Every change of a lease is serialised through an OS lock on one byte of a shared lock file, chosen by the lease hash,
+ * so two workers can never claim the same file while changes of other leases go on in parallel. Only the owner of a
+ * lease completes or releases it.
+ */
+public class UploadLeaseStore {
+	private static final Logger logger = LoggerFactory.getLogger(UploadLeaseStore.class);
+	private static final String LEASE_SUFFIX = ".lease";
+	private static final String DONE_SUFFIX = ".done";
+	private static final String RECLAIM_LOCK = "reclaim.lock";
+	private static final int LOCK_STRIPES = 1024;
+	private static final Map<Path, LockFile> LOCK_FILES = new ConcurrentHashMap<>();
+
+	/**
+	 * Outcome of a claim attempt.
+	 */
+	public enum Claim {
+		CLAIMED,
+		HELD,
+		DONE
+	}
+
+	private final Path directory;
+	private final String workerId;
+	private final int workerCount;
+	private final int workerIndex;
+	private final long leaseMillis;
+	private final Set<Path> heldLeases = ConcurrentHashMap.newKeySet();
+	private ScheduledExecutorService renewer;
+
+	public UploadLeaseStore(Path directory, String workerId, int workerCount, int workerIndex, long leaseMillis) throws IOException {
+		if (workerCount < 1 || workerIndex < 0 || workerIndex >= workerCount) {
+			throw new IllegalArgumentException(String.format("Invalid worker index %d for %d workers", workerIndex, workerCount));
+		}
+		this.directory = Files.createDirectories(directory);
+		this.workerId = Strings.isNullOrEmpty(workerId) ? ManagementFactory.getRuntimeMXBean().getName() : workerId;
+		this.workerCount = workerCount;
+		this.workerIndex = workerIndex;
+		this.leaseMillis = leaseMillis;
+	}
+
+	public static UploadLeaseStore create(BoxSettings boxSettings) throws IOException {
+		return new UploadLeaseStore(Paths.get(boxSettings.getLeaseDirectory()), boxSettings.getWorkerId(),
+				boxSettings.getWorkerCount(), boxSettings.getWorkerIndex(), TimeUnit.SECONDS.toMillis(boxSettings.getLeaseSeconds()));
+	}
+
+	public String getWorkerId() {
+		return workerId;
+	}
+
+	public long getLeaseMillis() {
+		return leaseMillis;
+	}
+
+	/**
+	 * Shard of the given key, between 0 and the worker count.
+	 */
+	public int shardOf(String key) {
+		byte[] hash = digest(key);
+		int value = ((hash[0] & 0xff) << 24) | ((hash[1] & 0xff) << 16) | ((hash[2] & 0xff) << 8) | (hash[3] & 0xff);
+		return (value & Integer.MAX_VALUE) % workerCount;
+	}
+
+	/**
+	 * How far the key's shard is from this worker's own shard. Working in this order makes each worker start on its
+	 * own shard and only then help with the others.
+	 */
+	public int shardDistance(String key) {
+		return (shardOf(key) - workerIndex + workerCount) % workerCount;
+	}
+
+	/**
+	 * Try to take the lease of the given key.
+	 */
+	public Claim claim(String key) throws IOException {
+		String name = BaseEncoding.base16().lowerCase().encode(digest(key));
+		Path doneFile = directory.resolve(name + DONE_SUFFIX);
+		Path leaseFile = directory.resolve(name + LEASE_SUFFIX);
+		Claim claim = locked(name, () -> {
+			if (Files.exists(doneFile)) {
+				return Claim.DONE;
+			}
+			try {
+				Files.write(leaseFile, workerId.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+				return Claim.CLAIMED;
+			} catch (FileAlreadyExistsException ex) {
+				return reclaim(key, leaseFile);
+			}
+		});
+		if (claim == Claim.CLAIMED) {
+			hold(leaseFile);
+		}
+		return claim;
+	}
+
+	/**
+	 * Mark the key as uploaded and give up its lease, if this worker still owns it.
+	 *
+	 * @return False if the lease was taken over by another worker meanwhile, which then uploads the file again.
+	 */
+	public boolean complete(String key) throws IOException {
+		String name = BaseEncoding.base16().lowerCase().encode(digest(key));
+		Path leaseFile = directory.resolve(name + LEASE_SUFFIX);
+		heldLeases.remove(leaseFile);
+		return locked(name, () -> {
+			if (!workerId.equals(readOwner(leaseFile))) {
+				return false;
+			}
+			Files.write(directory.resolve(name + DONE_SUFFIX), key.getBytes(StandardCharsets.UTF_8));
+			Files.deleteIfExists(leaseFile);
+			return true;
+		});
+	}
+
+	/**
+	 * Give up the lease of a key that failed so another worker may retry it, if this worker still owns it.
+	 */
+	public void release(String key) throws IOException {
+		String name = BaseEncoding.base16().lowerCase().encode(digest(key));
+		Path leaseFile = directory.resolve(name + LEASE_SUFFIX);
+		heldLeases.remove(leaseFile);
+		locked(name, () -> {
+			if (workerId.equals(readOwner(leaseFile))) {
+				Files.deleteIfExists(leaseFile);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Stop renewing leases. Leases still held expire and are reclaimed by other workers.
+	 */
+	public synchronized void close() {
+		if (renewer != null) {
+			// Not interrupted, an interrupt would close the shared lock file channel.
+			renewer.shutdown();
+			renewer = null;
+		}
+	}
+
+	/**
+	 * Take over a lease that exists or existed a moment ago. Runs under the lock of the lease.
+	 */
+	private Claim reclaim(String key, Path leaseFile) throws IOException {
+		try {
+			if (Files.getLastModifiedTime(leaseFile).toMillis() + leaseMillis > System.currentTimeMillis()) {
+				return Claim.HELD;
+			}
+		} catch (NoSuchFileException ex) {
+			// Released by its owner since the create failed, create it like a new lease.
+			try {
+				Files.write(leaseFile, workerId.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+				return Claim.CLAIMED;
+			} catch (FileAlreadyExistsException e) {
+				return Claim.HELD;
+			}
+		}
+		String previousOwner = readOwner(leaseFile);
+		Files.write(leaseFile, workerId.getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(leaseFile, FileTime.fromMillis(System.currentTimeMillis()));
+		if (previousOwner != null) {
+			logger.info(String.format("Reclaimed expired lease of %s from worker %s", key, previousOwner));
+		}
+		return Claim.CLAIMED;
+	}
+
+	/**
+	 * Run an action holding the lock of the lease with the given hash, so creating, taking over, renewing and removing
+	 * a lease never interleave between workers. Leases share 1024 lock regions of the lock file, ex: byte 0x2af of the
+	 * lease 2af9.... An OS lock is held per process, so threads and stores of one process on the same directory also wait
+	 * for each other on a monitor of the region.
+	 */
+	private <T> T locked(String name, LockedAction<T> action) throws IOException {
+		int stripe = Integer.parseInt(name.substring(0, 3), 16) % LOCK_STRIPES;
+		LockFile lockFile = LOCK_FILES.computeIfAbsent(directory.resolve(RECLAIM_LOCK).toAbsolutePath().normalize(), LockFile::new);
+		synchronized (lockFile.monitors[stripe]) {
+			FileLock lock = lockFile.channel().lock(stripe, 1, false);
+			try {
+				return action.run();
+			} finally {
+				lock.release();
+			}
+		}
+	}
+
+
+
+	private void hold(Path leaseFile) {
+		heldLeases.add(leaseFile);
+		startRenewer();
+	}
+
+	private synchronized void startRenewer() {
+		if (renewer != null) {
+			return;
+		}
+		renewer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "upload-lease-renewer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		long period = Math.max(leaseMillis / 3, 1L);
+		renewer.scheduleAtFixedRate(this::renew, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	private void renew() {
+		for (Path leaseFile : heldLeases) {
+			String fileName = leaseFile.getFileName().toString();
+			try {
+				locked(fileName, () -> {
+					String owner = readOwner(leaseFile);
+					if (owner == null) {
+						heldLeases.remove(leaseFile);
+					} else if (workerId.equals(owner)) {
+						Files.setLastModifiedTime(leaseFile, FileTime.fromMillis(System.currentTimeMillis()));
+					} else {
+						// Completing or releasing it is left to the new owner.
+						logger.warn(String.format("Lease %s was taken over by worker %s", fileName, owner));
+						heldLeases.remove(leaseFile);
+					}
+					return null;
+				});
+			} catch (IOException ex) {
+				logger.error("Exception Renewing Upload Lease", ex);
+			}
+		}
+	}
+
+	private static String readOwner(Path leaseFile) {
+		try {
+			return new String(Files.readAllBytes(leaseFile), StandardCharsets.UTF_8);
+		} catch (IOException ex) {
+			return null;
+		}
+	}
+
+	private static byte[] digest(String key) {
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(key.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError("Error while hashing a lease key: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * The lock file of a lease directory with the monitors of its regions, one per process. Closing a channel may
+	 * release every lock the process holds on the file, so all stores share one channel that stays open. It is opened
+	 * again only after an interrupt closed it.
+	 */
+	private static final class LockFile {
+		private final Path path;
+		private final Object[] monitors = new Object[LOCK_STRIPES];
+		private FileChannel channel;
+
+		private LockFile(Path path) {
+			this.path = path;
+			for (int i = 0; i < monitors.length; i++) {
+				monitors[i] = new Object();
+			}
+		}
+
+		private synchronized FileChannel channel() throws IOException {
+			if (channel == null || !channel.isOpen()) {
+				channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			}
+			return channel;
+		}
+	}
+
+	private interface LockedAction<T> {
+		T run() throws IOException;
+	}
+}
@@ -0,0 +1,223 @@
+package com.storage.api.storage;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Live counters and latency histograms for a bulk upload run. All recording methods are safe to call from any thread.
+ */
+public class UploadMetrics {
+	private static final Logger logger = LoggerFactory.getLogger(UploadMetrics.class);
+	private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(30);
+	private static final int SIGNIFICANT_DIGITS = 2;
+	private static final double MEGABYTE = 1024d * 1024d;
+
+	/**
+	 * Timed steps of a single file upload.
+	 */
+	public enum Stage {
+		FOLDER,
+		READ,
+		RECOMPRESS,
+		HASH,
+		UPLOAD
+	}
+
+	private final LongAdder filesDone = new LongAdder();
+	private final LongAdder filesFailed = new LongAdder();
+	private final LongAdder filesSkipped = new LongAdder();
+	private final LongAdder bytesSent = new LongAdder();
+	private final LongAdder filesDeduplicated = new LongAdder();
+	private final LongAdder bytesDeduplicated = new LongAdder();
+	private final LongAdder bytesSaved = new LongAdder();
+	private final Histogram fileLatency = newHistogram();
+	private final Map<Stage, Histogram> stageLatency = new EnumMap<>(Stage.class);
+	private volatile long startNanos = System.nanoTime();
+	private ScheduledExecutorService reporter;
+
+	public UploadMetrics() {
+		for (Stage stage : Stage.values()) {
+			stageLatency.put(stage, newHistogram());
+		}
+	}
+
+	/**
+	 * Clear all counters and restart the throughput clock.
+	 */
+	public void reset() {
+		filesDone.reset();
+		filesFailed.reset();
+		filesSkipped.reset();
+		bytesSent.reset();
+		filesDeduplicated.reset();
+		bytesDeduplicated.reset();
+		bytesSaved.reset();
+		fileLatency.reset();
+		stageLatency.values().forEach(Histogram::reset);
+		startNanos = System.nanoTime();
+	}
+
+	public void fileDone(long bytes, long elapsedNanos) {
+		filesDone.increment();
+		bytesSent.add(bytes);
+		record(fileLatency, elapsedNanos);
+	}
+
+	/**
+	 * A file whose content was already in Box and was copied server side instead of uploaded.
+	 */
+	public void fileDeduplicated(long bytes, long elapsedNanos) {
+		filesDone.increment();
+		filesDeduplicated.increment();
+		bytesDeduplicated.add(bytes);
+		record(fileLatency, elapsedNanos);
+	}
+
+	/**
+	 * Bytes removed from a file by recompressing it before upload.
+	 */
+	public void bytesSaved(long bytes) {
+		bytesSaved.add(bytes);
+	}
+
+	public void fileFailed(long elapsedNanos) {
+		filesFailed.increment();
+		record(fileLatency, elapsedNanos);
+	}
+
+	public void fileSkipped() {
+		filesSkipped.increment();
+	}
+
+	public void stage(Stage stage, long elapsedNanos) {
+		record(stageLatency.get(stage), elapsedNanos);
+	}
+
+	public long getFilesDone() {
+		return filesDone.sum();
+	}
+
+	public long getFilesFailed() {
+		return filesFailed.sum();
+	}
+
+	public long getFilesSkipped() {
+		return filesSkipped.sum();
+	}
+
+	public long getBytesSent() {
+		return bytesSent.sum();
+	}
+
+	public long getFilesDeduplicated() {
+		return filesDeduplicated.sum();
+	}
+
+	public long getBytesDeduplicated() {
+		return bytesDeduplicated.sum();
+	}
+
+	public long getBytesSaved() {
+		return bytesSaved.sum();
+	}
+
+	/**
+	 * Start logging a progress line every interval. A non positive interval disables the reporter.
+	 *
+	 * @param intervalSeconds Seconds between two progress lines.
+	 */
+	public synchronized void startReporter(long intervalSeconds) {
+		if (reporter != null || intervalSeconds <= 0) {
+			return;
+		}
+		reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "upload-progress");
+			thread.setDaemon(true);
+			return thread;
+		});
+		reporter.scheduleAtFixedRate(() -> logger.info(progressLine()), intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stop the progress reporter and log a final line.
+	 */
+	public synchronized void stopReporter() {
+		if (reporter != null) {
+			reporter.shutdownNow();
+			reporter = null;
+		}
+		logger.info(progressLine());
+	}
+
+	/**
+	 * Human readable one line summary. Ex: files done=120 failed=0 skipped=3 deduplicated=7 bytes=52428800 saved=1048576 (4.10 MB/s, 9.4 files/s) p50=210ms p99=870ms
+	 */
+	public String progressLine() {
+		double seconds = elapsedSeconds();
+		long done = filesDone.sum();
+		long bytes = bytesSent.sum();
+		return String.format("Upload progress: files done=%d failed=%d skipped=%d deduplicated=%d bytes=%d saved=%d (%.2f MB/s, %.1f files/s) p50=%dms p99=%dms",
+				done, filesFailed.sum(), filesSkipped.sum(), filesDeduplicated.sum(), bytes, bytesSaved.sum(), bytes / MEGABYTE / seconds, done / seconds,
+				TimeUnit.MICROSECONDS.toMillis(fileLatency.getValueAtPercentile(50)),
+				TimeUnit.MICROSECONDS.toMillis(fileLatency.getValueAtPercentile(99)));
+	}
+
+	/**
+	 * Machine readable snapshot of all counters and histograms. Latencies are in microseconds.
+	 */
+	public JsonObject snapshot() {
+		double seconds = elapsedSeconds();
+		JsonObject snapshot = new JsonObject();
+		snapshot.addProperty("elapsedSeconds", seconds);
+		snapshot.addProperty("filesDone", filesDone.sum());
+		snapshot.addProperty("filesFailed", filesFailed.sum());
+		snapshot.addProperty("filesSkipped", filesSkipped.sum());
+		snapshot.addProperty("bytesSent", bytesSent.sum());
+		snapshot.addProperty("filesDeduplicated", filesDeduplicated.sum());
+		snapshot.addProperty("bytesDeduplicated", bytesDeduplicated.sum());
+		snapshot.addProperty("bytesSaved", bytesSaved.sum());
+		snapshot.addProperty("bytesPerSecond", bytesSent.sum() / seconds);
+		snapshot.addProperty("filesPerSecond", filesDone.sum() / seconds);
+		snapshot.add("fileLatency", toJson(fileLatency));
+
+		JsonObject stages = new JsonObject();
+		stageLatency.forEach((stage, histogram) -> stages.add(stage.name().toLowerCase(), toJson(histogram)));
+		snapshot.add("stages", stages);
+		return snapshot;
+	}
+
+	private double elapsedSeconds() {
+		return Math.max(System.nanoTime() - startNanos, 1L) / 1e9d;
+	}
+
+	private static JsonObject toJson(Histogram histogram) {
+		JsonObject json = new JsonObject();
+		json.addProperty("count", histogram.getTotalCount());
+		json.addProperty("mean", histogram.getMean());
+		json.addProperty("p50", histogram.getValueAtPercentile(50));
+		json.addProperty("p90", histogram.getValueAtPercentile(90));
+		json.addProperty("p99", histogram.getValueAtPercentile(99));
+		json.addProperty("max", histogram.getMaxValue());
+		return json;
+	}
+
+	private static void record(Histogram histogram, long elapsedNanos) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+		histogram.recordValue(Math.min(Math.max(micros, 0L), HIGHEST_TRACKABLE_MICROS));
+	}
+
+	private static Histogram newHistogram() {
+		return new ConcurrentHistogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+	}
+}
@@ -1,10 +1,13 @@
 package com.storage.api.utility;
 
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.security.spec.InvalidKeySpecException;
 import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.PBEKeySpec;
@@ -13,8 +16,11 @@ public class PasswordUtils {
 
 	private static final Random RANDOM = new SecureRandom();
 	private static final String ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
-	private static final int ITERATIONS = 10000;
-	private static final int KEY_LENGTH = 256;
+	public static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+	public static final int ITERATIONS = 10000;
+	public static final int KEY_LENGTH = 256;
+	// Looking a factory up walks the security providers, so every thread keeps the ones it used.
+	private static final ThreadLocal<Map<String, SecretKeyFactory>> keyFactories = ThreadLocal.withInitial(HashMap::new);
 
 	public static String getSalt(int length) {
 		StringBuilder returnValue = new StringBuilder(length);
@@ -24,11 +30,20 @@ public class PasswordUtils {
 		return new String(returnValue);
 	}
 	public static byte[] hash(char[] password, byte[] salt) {
-		PBEKeySpec spec = new PBEKeySpec(password, salt, ITERATIONS, KEY_LENGTH);
+		return hash(password, salt, ALGORITHM, ITERATIONS, KEY_LENGTH);
+	}
+
+	/**
+	 * Derive a key from the password, which is cleared.
+	 *
+	 * @param algorithm  SecretKeyFactory algorithm, ex: PBKDF2WithHmacSHA256.
+	 * @param keyLength  Length of the derived key in bits.
+	 */
+	public static byte[] hash(char[] password, byte[] salt, String algorithm, int iterations, int keyLength) {
+		PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, keyLength);
 		Arrays.fill(password, Character.MIN_VALUE);
 		try {
-			SecretKeyFactory skf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-			return skf.generateSecret(spec).getEncoded();
+			return keyFactory(algorithm).generateSecret(spec).getEncoded();
 		} catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
 			throw new AssertionError("Error while hashing a password: " + e.getMessage(), e);
 		} finally {
@@ -47,14 +62,27 @@ public class PasswordUtils {
 	public static boolean verifyUserPassword(String providedPassword,
 	                                         String securedPassword, String salt)
 	{
-		boolean returnValue = false;
+		byte[] expected;
+		try {
+			expected = Base64.getDecoder().decode(securedPassword);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
 
 		// Generate New secure password with the same salt
-		String newSecurePassword = generateSecurePassword(providedPassword, salt);
+		byte[] newSecurePassword = hash(providedPassword.toCharArray(), salt.getBytes());
 
-		// Check if two passwords are equal
-		returnValue = newSecurePassword.equalsIgnoreCase(securedPassword);
+		// Compare in constant time, so the time taken does not tell how many leading bytes match.
+		return MessageDigest.isEqual(newSecurePassword, expected);
+	}
 
-		return returnValue;
+	private static SecretKeyFactory keyFactory(String algorithm) throws NoSuchAlgorithmException {
+		Map<String, SecretKeyFactory> factories = keyFactories.get();
+		SecretKeyFactory factory = factories.get(algorithm);
+		if (factory == null) {
+			factory = SecretKeyFactory.getInstance(algorithm);
+			factories.put(algorithm, factory);
+		}
+		return factory;
 	}
 }
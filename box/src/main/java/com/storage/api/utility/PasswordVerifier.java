@@ -0,0 +1,190 @@
+package com.storage.api.utility;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import com.google.common.base.Strings;
+
+/**
+ * Hashes and verifies passwords on a dedicated bounded pool, so a burst of logins queues up there instead of holding
+ * request threads for the length of a key derivation. When the pool is full the future fails right away with a
+ * RejectedExecutionException, ex: to answer 503.
+ * <p>
+ * Hashes are stored as version$iterations$salt$hash with a Base64 salt and hash, ex: 2$310000$q1...$Zx.... A hash of
+ * an older version or with fewer iterations still verifies, and the result then carries a rehash with the current
+ * parameters to be stored in its place. Hashes made by {@link PasswordUtils#generateSecurePassword(String, String)}
+ * are version 1 and are verified with {@link #verify(String, String, String)}.
+ */
+public class PasswordVerifier {
+	private static final String SEPARATOR = "$";
+	private static final int SALT_BYTES = 16;
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	/**
+	 * Versions of the hash parameters. The last one is used for new hashes.
+	 */
+	public enum Version {
+		V1(1, PasswordUtils.ALGORITHM, PasswordUtils.ITERATIONS, PasswordUtils.KEY_LENGTH),
+		V2(2, "PBKDF2WithHmacSHA256", 310000, 256);
+
+		public static final Version CURRENT = V2;
+
+		private final int id;
+		private final String algorithm;
+		private final int iterations;
+		private final int keyLength;
+
+		Version(int id, String algorithm, int iterations, int keyLength) {
+			this.id = id;
+			this.algorithm = algorithm;
+			this.iterations = iterations;
+			this.keyLength = keyLength;
+		}
+
+		private static Version of(int id) {
+			for (Version version : values()) {
+				if (version.id == id) {
+					return version;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Outcome of a verification.
+	 */
+	public static final class Result {
+		private static final Result MISMATCH = new Result(false, null);
+
+		private final boolean matches;
+		private final String rehash;
+
+		private Result(boolean matches, String rehash) {
+			this.matches = matches;
+			this.rehash = rehash;
+		}
+
+		public boolean matches() {
+			return matches;
+		}
+
+		/**
+		 * @return The password hashed with the current parameters if it matched a hash of older ones, else null.
+		 */
+		public String getRehash() {
+			return rehash;
+		}
+	}
+
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * @param threads   Hashing threads, at most one per core is useful.
+	 * @param queueSize Hashes waiting for a thread before new ones are rejected.
+	 */
+	public PasswordVerifier(int threads, int queueSize) {
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueSize), runnable -> {
+			Thread thread = new Thread(runnable, "password-hash-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Hash a password with the current parameters and a new random salt.
+	 */
+	public CompletableFuture<String> hash(String password) {
+		return submit(() -> encode(Version.CURRENT, Version.CURRENT.iterations, password));
+	}
+
+	/**
+	 * Verify a password against a hash in the versioned format.
+	 */
+	public CompletableFuture<Result> verify(String password, String storedHash) {
+		return submit(() -> verifyNow(password, storedHash));
+	}
+
+	/**
+	 * Verify a password against a version 1 hash stored in the PasswordUtils format, with its salt apart.
+	 */
+	public CompletableFuture<Result> verify(String password, String securedPassword, String salt) {
+		return submit(() -> {
+			byte[] expected = decode(securedPassword);
+			if (expected == null || !matches(Version.V1, Version.V1.iterations, password, salt.getBytes(), expected)) {
+				return Result.MISMATCH;
+			}
+			return new Result(true, encode(Version.CURRENT, Version.CURRENT.iterations, password));
+		});
+	}
+
+	/**
+	 * Verify on the calling thread.
+	 */
+	public Result verifyNow(String password, String storedHash) {
+		String[] parts = Strings.nullToEmpty(storedHash).split("\\" + SEPARATOR);
+		if (parts.length != 4) {
+			return Result.MISMATCH;
+		}
+		Version version;
+		int iterations;
+		try {
+			version = Version.of(Integer.parseInt(parts[0]));
+			iterations = Integer.parseInt(parts[1]);
+		} catch (NumberFormatException e) {
+			return Result.MISMATCH;
+		}
+		byte[] salt = decode(parts[2]);
+		byte[] expected = decode(parts[3]);
+		if (version == null || iterations <= 0 || salt == null || expected == null || !matches(version, iterations, password, salt, expected)) {
+			return Result.MISMATCH;
+		}
+		boolean outdated = version != Version.CURRENT || iterations < Version.CURRENT.iterations;
+		return new Result(true, outdated ? encode(Version.CURRENT, Version.CURRENT.iterations, password) : null);
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	private <T> CompletableFuture<T> submit(Supplier<T> task) {
+		try {
+			return CompletableFuture.supplyAsync(task, executor);
+		} catch (RejectedExecutionException ex) {
+			CompletableFuture<T> rejected = new CompletableFuture<>();
+			rejected.completeExceptionally(ex);
+			return rejected;
+		}
+	}
+
+	private static boolean matches(Version version, int iterations, String password, byte[] salt, byte[] expected) {
+		byte[] actual = PasswordUtils.hash(password.toCharArray(), salt, version.algorithm, iterations, version.keyLength);
+		return MessageDigest.isEqual(actual, expected);
+	}
+
+	private static String encode(Version version, int iterations, String password) {
+		byte[] salt = new byte[SALT_BYTES];
+		RANDOM.nextBytes(salt);
+		byte[] hash = PasswordUtils.hash(password.toCharArray(), salt, version.algorithm, iterations, version.keyLength);
+		Base64.Encoder encoder = Base64.getEncoder();
+		return version.id + SEPARATOR + iterations + SEPARATOR + encoder.encodeToString(salt) + SEPARATOR + encoder.encodeToString(hash);
+	}
+
+	private static byte[] decode(String value) {
+		try {
+			return Base64.getDecoder().decode(Strings.nullToEmpty(value).getBytes(StandardCharsets.US_ASCII));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+}
@@ -2,22 +2,53 @@ package com.storage.api.utility;
 
 import com.google.common.base.Strings;
 import com.google.gson.*;
+import com.storage.api.storage.BandwidthThrottle;
 import com.storage.api.storage.BoxConstants;
+import com.storage.api.storage.BoxRuntimeException;
 import com.storage.api.storage.BoxSettings;
 import com.storage.api.storage.BoxUtility;
+import com.storage.api.storage.ContentHashIndex;
+import com.storage.api.storage.CredentialPool;
+import com.storage.api.storage.DownloadCache;
+import com.storage.api.storage.DownloadCoalescer;
+import com.storage.api.storage.DownloadResponse;
+import com.storage.api.storage.FolderExporter;
+import com.storage.api.storage.FlightEvents;
+import com.storage.api.storage.FolderItemIterator;
+import com.storage.api.storage.HttpUtility;
+import com.storage.api.storage.ImageRecompressor;
 import com.storage.api.storage.JsonPath;
+import com.storage.api.storage.JsonPathSet;
+import com.storage.api.storage.SegmentedDownloader;
+import com.storage.api.storage.SharedLinkCache;
+import com.storage.api.storage.UploadLeaseStore;
+import com.storage.api.storage.UploadMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import spark.Request;
 import spark.Response;
 import spark.utils.IOUtils;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 import static com.storage.api.storage.BoxConstants.*;
 import static com.storage.api.storage.BoxConstants.HubConstants.*;
@@ -27,7 +58,25 @@ import static com.storage.api.storage.BoxConstants.PropertyNames.NAME;
 
 public class StorageAPI {
 	private static final Logger logger = LoggerFactory.getLogger(StorageAPI.class);
+	private static final UploadMetrics uploadMetrics = new UploadMetrics();
+	private static final String ENTRY_NAMES = "entries[*].name";
+	private static final String ENTRY_IDS = "entries[*].id";
+	private static final JsonPathSet FOLDER_SEARCH_PATHS = new JsonPathSet(ENTRY_NAMES, ENTRY_IDS);
+	private static final String LINK_URL = "shared_link.url";
+	private static final String LINK_ACCESS = "shared_link.access";
+	private static final String LINK_CAN_DOWNLOAD = "shared_link.permissions.can_download";
+	private static final String LINK_PASSWORD_ENABLED = "shared_link.is_password_enabled";
+	private static final JsonPathSet SHARED_LINK_PATHS = new JsonPathSet(LINK_URL, LINK_ACCESS, LINK_CAN_DOWNLOAD, LINK_PASSWORD_ENABLED);
 	private static BoxSettings boxSettings;
+	private static ContentHashIndex contentHashIndex;
+	private static UploadLeaseStore uploadLeaseStore;
+	private static ImageRecompressor imageRecompressor;
+	private static SegmentedDownloader segmentedDownloader;
+	private static DownloadCache downloadCache;
+	private static DownloadCoalescer downloadCoalescer;
+	private static SharedLinkCache sharedLinkCache;
+	private static FolderExporter folderExporter;
+	private static CredentialPool credentialPool;
 
 	static {
 		GsonBuilder gsonBuilder = new GsonBuilder();
@@ -36,12 +85,74 @@ public class StorageAPI {
 		InputStream inputStream = StorageAPI.class.getResourceAsStream("boxsettings.json");
 		try {
 			String settingInput = IOUtils.toString(inputStream);
-			boxSettings = gson.fromJson(settingInput, BoxSettings.class);
+			configure(gson.fromJson(settingInput, BoxSettings.class));
 		} catch (IOException e) {
 			logger.error("Exception Initializing Box Settings", e);
 		}
 	}
 
+	/**
+	 * Replace the settings read from boxsettings.json, ex: to point the API at another Box endpoint. The helpers
+	 * created from the settings are rebuilt and the previous ones are stopped, so call it before any request is made.
+	 */
+	public static synchronized void configure(BoxSettings settings) throws IOException {
+		if (segmentedDownloader != null) {
+			segmentedDownloader.shutdown();
+		}
+		if (folderExporter != null) {
+			folderExporter.shutdown();
+		}
+		if (imageRecompressor != null) {
+			imageRecompressor.shutdown();
+		}
+		if (downloadCoalescer != null) {
+			downloadCoalescer.shutdown();
+		}
+		if (contentHashIndex != null) {
+			contentHashIndex.close();
+		}
+		contentHashIndex = null;
+		imageRecompressor = null;
+		uploadLeaseStore = null;
+		downloadCache = null;
+
+		boxSettings = settings;
+		configureThrottles(boxSettings);
+		HttpUtility.setChannelUploads(boxSettings.isChannelUploads());
+		credentialPool = new CredentialPool(boxSettings);
+		BoxUtility.setThrottleHandler(credentialPool);
+		segmentedDownloader = SegmentedDownloader.create(boxSettings);
+		sharedLinkCache = new SharedLinkCache(boxSettings.getSharedLinkTtlSeconds());
+		folderExporter = FolderExporter.create(boxSettings);
+		if (boxSettings.isDeduplicate()) {
+			String indexFile = boxSettings.getDedupIndexFile();
+			contentHashIndex = new ContentHashIndex(Strings.isNullOrEmpty(indexFile) ? null : new File(indexFile));
+		}
+		if (boxSettings.isRecompress()) {
+			imageRecompressor = ImageRecompressor.create(boxSettings);
+		}
+		if (!Strings.isNullOrEmpty(boxSettings.getLeaseDirectory())) {
+			uploadLeaseStore = UploadLeaseStore.create(boxSettings);
+		}
+		if (!Strings.isNullOrEmpty(boxSettings.getCacheDirectory())) {
+			downloadCache = DownloadCache.create(boxSettings);
+		}
+		downloadCoalescer = new DownloadCoalescer(downloadCache);
+	}
+
+	/**
+	 * Apply the bandwidth limits from the settings. Can be called again at runtime to adjust the rates.
+	 */
+	public static void configureThrottles(BoxSettings settings) {
+		BandwidthThrottle uploadThrottle = HttpUtility.getUploadThrottle();
+		uploadThrottle.setBurstBytes(settings.getThrottleBurstBytes());
+		uploadThrottle.setBytesPerSecond(settings.getUploadBytesPerSecond());
+
+		BandwidthThrottle downloadThrottle = HttpUtility.getDownloadThrottle();
+		downloadThrottle.setBurstBytes(settings.getThrottleBurstBytes());
+		downloadThrottle.setBytesPerSecond(settings.getDownloadBytesPerSecond());
+	}
+
 	private static String constructFilesUrl(String folderId) {
 		StringBuilder requestURL = new StringBuilder();
 
@@ -115,6 +226,22 @@ public class StorageAPI {
 		return requestURL.toString();
 	}
 
+	private static String constructFileInfoUrl(String fileId, String fields) {
+		StringBuilder requestURL = new StringBuilder();
+
+		requestURL.append(boxSettings.getBaseurl());
+		requestURL.append(BACKSLASH);
+		requestURL.append(FILES);
+		requestURL.append(BACKSLASH);
+		requestURL.append(fileId);
+		requestURL.append(QUESTIONMARK);
+		requestURL.append(BoxConstants.FIELDS);
+		requestURL.append(EQUALS);
+		requestURL.append(fields);
+
+		return requestURL.toString();
+	}
+
 	private static String constructUploadUrl(String hubId) {
 		StringBuilder requestURL = new StringBuilder();
 
@@ -133,6 +260,20 @@ public class StorageAPI {
 		return requestURL.toString();
 	}
 
+	private static String constructCopyUrl(String fileId) {
+		StringBuilder requestURL = new StringBuilder();
+
+		requestURL.append(boxSettings.getBaseurl());
+		requestURL.append(BACKSLASH);
+		requestURL.append(FILES);
+		requestURL.append(BACKSLASH);
+		requestURL.append(fileId);
+		requestURL.append(BACKSLASH);
+		requestURL.append(COPY);
+
+		return requestURL.toString();
+	}
+
 	private static String constructFolderUrl() {
 		StringBuilder requestURL = new StringBuilder();
 
@@ -143,23 +284,205 @@ public class StorageAPI {
 		return requestURL.toString();
 	}
 
+	/**
+	 * Stream a file from Box to the client. The body is copied through a fixed buffer, so memory use does not depend
+	 * on the file size and the first bytes reach the client as soon as Box sends them. Range and If-Range headers are
+	 * forwarded to Box so clients can resume or fetch parts of a file.
+	 * <p>
+	 * With a download cache configured, whole file requests look up the current SHA-1 of the file, unless Box reported
+	 * it within the revalidation period of the cache. A file whose content is cached is served from local disk, otherwise
+	 * the Box response is copied into the cache as it streams.
+	 * <p>
+	 * Concurrent whole file requests for the same file share a single request to Box.
+	 */
 	public static String download(Request req, Response res) throws IOException {
-		StringBuilder apiError = new StringBuilder();
+		return download(req.params(":id"), req.raw(), res.raw());
+	}
 
-		String fileId = req.params(":id");
+	/**
+	 * @see #download(Request, Response)
+	 */
+	public static String download(String fileId, HttpServletRequest request, HttpServletResponse response) throws IOException {
 		String requestUrl = constructDownloadUrl(fileId);
-		return BoxUtility.sendGetRequest(requestUrl, GETREQUESTMETHOD, getAccessToken(), apiError, "api");
+
+		Map<String, String> requestHeaders = new HashMap<>();
+		for (String header : new String[]{RANGE, IF_RANGE}) {
+			String value = request.getHeader(header);
+			if (!Strings.isNullOrEmpty(value)) {
+				requestHeaders.put(header, value);
+			}
+		}
+
+		String sha1 = null;
+		if (downloadCache != null && requestHeaders.isEmpty()) {
+			DownloadCache.Validated validated = downloadCache.getValidated(fileId);
+			String fileName;
+			if (validated != null) {
+				sha1 = validated.getSha1();
+				fileName = validated.getName();
+			} else {
+				JsonObject fileInfo = getFileInfo(fileId, "sha1,name", getAccessToken());
+				sha1 = Strings.emptyToNull(JsonPath.getValue(fileInfo, "sha1"));
+				fileName = JsonPath.getValue(fileInfo, "name");
+				downloadCache.validated(fileId, sha1, fileName);
+			}
+			try (DownloadCache.Hit cached = sha1 == null ? null : downloadCache.lookup(sha1)) {
+				if (cached != null) {
+					serveCached(cached, fileName, response);
+					return "";
+				}
+			}
+		}
+
+		DownloadResponse downloadResponse;
+		try {
+			if (requestHeaders.isEmpty()) {
+				downloadResponse = downloadCoalescer.join(fileId, sha1, () -> BoxUtility.openDownload(requestUrl, getAccessToken(), null, "api"));
+			} else {
+				downloadResponse = BoxUtility.openDownload(requestUrl, getAccessToken(), requestHeaders, "api");
+			}
+		} catch (BoxRuntimeException ex) {
+			StringBuilder apiError = new StringBuilder();
+			HttpUtility.extractHttpErrors(apiError, ex);
+			logger.error(String.format("Download of file %s failed: %s", fileId, apiError));
+			int status = HttpUtility.getHttpStatus(ex);
+			response.setStatus(status > 0 ? status : HttpURLConnection.HTTP_BAD_GATEWAY);
+			return apiError.toString();
+		}
+		if (downloadResponse == null) {
+			response.setStatus(HttpURLConnection.HTTP_GATEWAY_TIMEOUT);
+			return "";
+		}
+
+		streamDownload(downloadResponse, response);
+		return "";
 	}
 
-	public static String share(Request req, Response res) throws IOException {
-		GsonBuilder gsonBuilder = new GsonBuilder();
-		Gson gson = gsonBuilder.create();
+	private static JsonObject getFileInfo(String fileId, String fields, String accessToken) throws IOException {
 		StringBuilder apiError = new StringBuilder();
+		String fileResponse = BoxUtility.sendGetRequest(constructFileInfoUrl(fileId, fields), GETREQUESTMETHOD, accessToken, apiError, "api");
+		return fileResponse == null ? null : new Gson().fromJson(fileResponse, JsonObject.class);
+	}
+
+	private static void serveCached(DownloadCache.Hit cached, String fileName, HttpServletResponse response) throws IOException {
+		response.setContentType(cached.getContentType() != null ? cached.getContentType() : APPLICATION_OCTET_STREAM);
+		response.setContentLengthLong(cached.getSize());
+		if (!Strings.isNullOrEmpty(fileName)) {
+			response.setHeader(CONTENT_DISPOSITION, String.format("attachment; filename=\"%s\"", fileName.replace("\"", "")));
+		}
+		cached.copyTo(response.getOutputStream());
+		response.getOutputStream().flush();
+	}
+
+	private static void streamDownload(DownloadResponse downloadResponse, HttpServletResponse response) throws IOException {
+		response.setStatus(downloadResponse.getStatus());
+		for (String header : new String[]{CONTENT_DISPOSITION, CONTENT_RANGE, ACCEPT_RANGES}) {
+			String value = downloadResponse.getHeader(header);
+			if (value != null) {
+				response.setHeader(header, value);
+			}
+		}
+		String contentType = downloadResponse.getContentType();
+		response.setContentType(contentType != null ? contentType : APPLICATION_OCTET_STREAM);
+		long contentLength = downloadResponse.getContentLength();
+		if (contentLength >= 0) {
+			response.setContentLengthLong(contentLength);
+		}
 
-		String fileId = req.params(":id");
+		try {
+			InputStream inputStream = downloadResponse.getInputStream();
+			OutputStream outputStream = response.getOutputStream();
+			byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+			boolean flushed = false;
+			int read;
+			while ((read = inputStream.read(buffer)) != -1) {
+				outputStream.write(buffer, 0, read);
+				if (!flushed) {
+					// Commit the headers and first bytes right away instead of waiting for the servlet buffer to fill.
+					outputStream.flush();
+					flushed = true;
+				}
+			}
+			outputStream.flush();
+		} catch (IOException ex) {
+			// Do not drain the rest of the upstream body when the client went away.
+			downloadResponse.abort();
+			throw ex;
+		} finally {
+			downloadResponse.close();
+		}
+	}
+
+	/**
+	 * Stream the files of a folder and of its sub-folders to the client as one ZIP archive. Files are fetched
+	 * concurrently and added as they arrive, so the first entries reach the client while the rest are still downloading.
+	 */
+	public static String export(Request req, Response res) throws IOException {
+		return export(req.params(":id"), res.raw());
+	}
+
+	/**
+	 * @see #export(Request, Response)
+	 */
+	public static String export(String folderId, HttpServletResponse response) throws IOException {
+		FolderItemIterator entries = listFolder(folderId, "type,id,name");
+		try {
+			// Fetches the first page, so a folder that cannot be listed is reported before the archive starts.
+			entries.hasNext();
+		} catch (UncheckedIOException ex) {
+			logger.error(String.format("Export of folder %s failed: %s", folderId, ex.getMessage()));
+			response.setStatus(HttpURLConnection.HTTP_BAD_GATEWAY);
+			return ex.getMessage();
+		}
+
+		response.setContentType(APPLICATION_ZIP);
+		response.setHeader(CONTENT_DISPOSITION, String.format("attachment; filename=\"%s.zip\"", folderId));
+		try {
+			int files = folderExporter.export(entries, subFolderId -> listFolder(subFolderId, "type,id,name"),
+					fileId -> BoxUtility.openDownload(constructDownloadUrl(fileId), getAccessToken(), null, "api"), response.getOutputStream());
+			logger.info(String.format("Exported %d files of folder %s", files, folderId));
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		} finally {
+			entries.close();
+		}
+		return "";
+	}
+
+	/**
+	 * Lazily list the items of a folder page by page, prefetching the next page in the background.
+	 *
+	 * @param folderId Box folder id.
+	 * @param fields   Comma separated item fields to return, ex: type,id,name.
+	 */
+	public static FolderItemIterator listFolder(String folderId, String fields) {
+		return new FolderItemIterator(constructFilesUrl(folderId), fields, FolderItemIterator.MAX_PAGE_SIZE, StorageAPI::getAccessToken);
+	}
+
+	public static String share(Request req, Response res) throws IOException {
+		return share(req.params(":id"));
+	}
+
+	/**
+	 * @see #share(Request, Response)
+	 */
+	public static String share(String fileId) throws IOException {
+		StringBuilder apiError = new StringBuilder();
 		return getSharedUrl(apiError, fileId, getAccessToken());
 	}
 
+	/**
+	 * Drop the cached shared links of a file, ex: after its link was changed outside this service.
+	 */
+	public static void invalidateSharedLink(String fileId) {
+		sharedLinkCache.invalidate(fileId);
+	}
+
+	/**
+	 * Return the shared link of the file, creating it only when needed. Links are cached per file and settings, and
+	 * an existing link with the same settings is reused instead of written again. Box does not return the password of
+	 * a link, so a password protected link is taken to carry the password this service set on it.
+	 */
 	private static String getSharedUrl(StringBuilder apiError, String fileId, String accessToken) throws IOException {
 		String requestUrl = constructShareUrl(fileId);
 
@@ -172,8 +495,49 @@ public class StorageAPI {
 		sharedLink.add("permissions", permissions);
 		requestQuery.add("shared_link", sharedLink);
 
-		JsonObject shareResponse = BoxUtility.sendPostRequest(requestUrl, requestQuery, PUTREQUESTMETHOD, accessToken, apiError, "api");
-		return JsonPath.getValue(JsonPath.findObject(shareResponse, "shared_link"), "url");
+		String cacheKey = SharedLinkCache.key(fileId, sharedLink);
+		String url = sharedLinkCache.get(cacheKey);
+		if (url != null) {
+			return url;
+		}
+
+		JsonPathSet.Values existingLink = SHARED_LINK_PATHS.extract(getFileInfo(fileId, "shared_link", accessToken));
+		if (existingLink.hasValue(LINK_URL) && isSameLink(existingLink, sharedLink)) {
+			url = existingLink.getValue(LINK_URL);
+		} else {
+			JsonObject shareResponse = BoxUtility.sendPostRequest(requestUrl, requestQuery, PUTREQUESTMETHOD, accessToken, apiError, "api");
+			url = JsonPath.getValue(JsonPath.findObject(shareResponse, "shared_link"), "url");
+		}
+		sharedLinkCache.put(cacheKey, url);
+		return url;
+	}
+
+	private static boolean isSameLink(JsonPathSet.Values existingLink, JsonObject sharedLink) {
+		return JsonPath.getValue(sharedLink, "access", "").equals(existingLink.getValue(LINK_ACCESS))
+				&& JsonPath.getValue(sharedLink, "permissions.can_download", true) == existingLink.getValue(LINK_CAN_DOWNLOAD, true)
+				&& JsonPath.hasValue(sharedLink, "password") == existingLink.getValue(LINK_PASSWORD_ENABLED, false);
+	}
+
+	public static BoxSettings getBoxSettings() {
+		return boxSettings;
+	}
+
+	public static UploadMetrics getUploadMetrics() {
+		return uploadMetrics;
+	}
+
+	public static CredentialPool getCredentialPool() {
+		return credentialPool;
+	}
+
+	/**
+	 * Download a file from Box to a local path as parallel range segments. An interrupted download resumes from its
+	 * progress file when called again with the same target.
+	 *
+	 * @return Number of bytes written.
+	 */
+	public static long downloadToFile(String fileId, String targetPath) throws IOException {
+		return segmentedDownloader.download(constructDownloadUrl(fileId), StorageAPI::getAccessToken, Paths.get(targetPath), "api");
 	}
 
 	public static void upload() throws IOException {
@@ -184,114 +548,416 @@ public class StorageAPI {
 		Map<String, List<String>> folderMap = new HashMap<>();
 		scanFolder(directory, null, folderMap);
 
-		folderMap.forEach((folderName, files) -> {
+		uploadMetrics.reset();
+		uploadMetrics.startReporter(boxSettings.getProgressInterval());
+		try {
+			if (uploadLeaseStore != null) {
+				uploadShared(requestURL, directory, folderMap);
+			} else {
+				Deque<PendingUpload> window = new ArrayDeque<>();
+				folderMap.forEach((folderName, files) -> {
+					String folderId = resolveFolderIdTimed(folderName);
+
+					for (String assetURL : files) {
+						String fileType = getFileType(assetURL);
+						if (!isUploadable(fileType)) {
+							uploadMetrics.fileSkipped();
+							continue;
+						}
+						if (folderId == null) {
+							uploadMetrics.fileFailed(0L);
+							continue;
+						}
+						enqueueUpload(requestURL, window, new PendingUpload(folderId, null, prepareFileAsync(assetURL, fileType)));
+					}
+				});
+				drainUploads(requestURL, window);
+			}
+		} finally {
+			uploadMetrics.stopReporter();
+			logger.info("Upload metrics: " + uploadMetrics.snapshot());
+		}
+	}
 
-			StringBuilder apiError = new StringBuilder();
-			String folderId = boxSettings.getParentFolder();
-			if(folderName != null) {
-				try {
-					folderId = findFolderId(folderName);
-					if(folderId == null) {
-						folderId = createFolder(folderName, apiError);
-						if(apiError.length() != 0) {
-							logger.error("Error Creating Folder: " + apiError.toString());
-							folderId = apiError.toString().split("id=")[1].split(",")[0];
+	/**
+	 * Upload the files together with other processes sharing the lease directory. Files of this worker's own shard are
+	 * tried first, then the other shards. Files leased by another worker are revisited until they are done or their
+	 * lease expires, which is how files of a crashed worker get picked up.
+	 */
+	private static void uploadShared(String requestURL, File directory, Map<String, List<String>> folderMap) throws IOException {
+		Map<String, String> folderIds = new HashMap<>();
+		List<Map.Entry<String, String>> pending = new ArrayList<>();
+		folderMap.forEach((folderName, files) -> files.forEach(assetURL -> pending.add(new AbstractMap.SimpleEntry<>(assetURL, folderName))));
+
+		String baseURL = directory.toURI().toString();
+		Function<String, String> leaseKey = assetURL -> assetURL.startsWith(baseURL) ? assetURL.substring(baseURL.length()) : assetURL;
+		pending.sort(Comparator.comparingInt(entry -> uploadLeaseStore.shardDistance(leaseKey.apply(entry.getKey()))));
+
+		Deque<PendingUpload> window = new ArrayDeque<>();
+		try {
+			while (!pending.isEmpty()) {
+				Iterator<Map.Entry<String, String>> iterator = pending.iterator();
+				while (iterator.hasNext()) {
+					Map.Entry<String, String> entry = iterator.next();
+					String assetURL = entry.getKey();
+					String key = leaseKey.apply(assetURL);
+					String fileType = getFileType(assetURL);
+					if (!isUploadable(fileType)) {
+						iterator.remove();
+						if (uploadLeaseStore.shardDistance(key) == 0) {
+							uploadMetrics.fileSkipped();
+						}
+						continue;
+					}
+
+					UploadLeaseStore.Claim claim = uploadLeaseStore.claim(key);
+					if (claim == UploadLeaseStore.Claim.HELD) {
+						continue;
+					}
+					iterator.remove();
+					if (claim == UploadLeaseStore.Claim.CLAIMED) {
+						// A folder that could not be created is remembered as empty, so it is not tried again for every file.
+						String folderId = folderIds.computeIfAbsent(entry.getValue(), folderName -> Strings.nullToEmpty(resolveFolderIdTimed(folderName)));
+						if (folderId.isEmpty()) {
+							uploadLeaseStore.release(key);
+							uploadMetrics.fileFailed(0L);
+							continue;
 						}
+						enqueueUpload(requestURL, window, new PendingUpload(folderId, key, prepareFileAsync(assetURL, fileType)));
+					}
+				}
+				drainUploads(requestURL, window);
+				if (!pending.isEmpty()) {
+					logger.info(String.format("Waiting for %d files leased by other workers", pending.size()));
+					try {
+						Thread.sleep(Math.max(uploadLeaseStore.getLeaseMillis() / 3, 1L));
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted while waiting for leased files");
 					}
-				} catch (IOException e) {
-					logger.error("Exception Creating Folder", e);
 				}
 			}
+		} finally {
+			uploadLeaseStore.close();
+		}
+	}
 
-			for(String assetURL : files) {
-				byte[] file = new byte[0];
-				try {
-					file = BoxUtility.downloadBlob(assetURL, Integer.parseInt(boxSettings.getMaxFileSize()));
-				} catch (IOException e) {
-					logger.error("Exception Downloading File", e);
+	/**
+	 * Queue a file whose preparation may still be running and upload the oldest queued files once the window is full.
+	 * With a recompress pool the window keeps that pool busy while this thread waits on the network.
+	 */
+	private static void enqueueUpload(String requestURL, Deque<PendingUpload> window, PendingUpload upload) {
+		window.add(upload);
+		int lookahead = imageRecompressor == null ? 0 : imageRecompressor.getThreads() * 2;
+		while (window.size() > lookahead) {
+			finishUpload(requestURL, window.poll());
+		}
+	}
+
+	private static void drainUploads(String requestURL, Deque<PendingUpload> window) {
+		while (!window.isEmpty()) {
+			finishUpload(requestURL, window.poll());
+		}
+	}
+
+	private static void finishUpload(String requestURL, PendingUpload upload) {
+		boolean uploaded = uploadFile(requestURL, upload.folderId, upload.prepared.join());
+		if (upload.leaseKey != null) {
+			try {
+				if (uploaded) {
+					if (!uploadLeaseStore.complete(upload.leaseKey)) {
+						logger.warn(String.format("Lease of %s was taken over during its upload, the new owner uploads it again", upload.leaseKey));
+					}
+				} else {
+					uploadLeaseStore.release(upload.leaseKey);
 				}
+			} catch (IOException e) {
+				logger.error("Exception Updating Upload Lease", e);
+			}
+		}
+	}
 
-				JsonArray requestQuery = new JsonArray();
+	private static String getFileType(String assetURL) {
+		String[] extension = assetURL.split("\\.");
 
-				JsonObject formData = new JsonObject();
+		return extension[extension.length - 1];
+	}
 
-				JsonObject parent = new JsonObject();
-				JsonPath.setValue(parent, ID, folderId);
+	private static boolean isUploadable(String fileType) {
+		return fileType.equals("jpg") || fileType.equals("png") || fileType.equals("jpeg");
+	}
 
-				String fileId = UUID.randomUUID().toString();
+	private static String resolveFolderIdTimed(String folderName) {
+		long folderStart = System.nanoTime();
+		String folderId = resolveFolderId(folderName);
+		uploadMetrics.stage(UploadMetrics.Stage.FOLDER, System.nanoTime() - folderStart);
+		return folderId;
+	}
 
-				JsonObject attributeObject = new JsonObject();
+	/**
+	 * @return Id of the folder to upload the files of the given local folder to, the parent folder for files at the top,
+	 * or null if the folder could not be created, in which case its files are counted as failed and not uploaded.
+	 */
+	private static String resolveFolderId(String folderName) {
+		StringBuilder apiError = new StringBuilder();
+		String folderId = boxSettings.getParentFolder();
+		if(folderName != null) {
+			try {
+				// Create first, an existing folder comes back as the conflict of the create.
+				folderId = createFolder(folderName, apiError);
+				if(folderId == null) {
+					logger.error(String.format("Error Creating Folder %s, its files are not uploaded: %s", folderName, apiError));
+				}
+			} catch (IOException e) {
+				logger.error(String.format("Exception Creating Folder %s, its files are not uploaded", folderName), e);
+				folderId = null;
+			}
+		}
+		return folderId;
+	}
 
-				StringBuilder fileName = new StringBuilder();
+	/**
+	 * Read a file and, when enabled, recompress it. Runs on the recompress pool when one is configured. Without
+	 * recompression a local file is not read here but sent straight from the disk by the upload.
+	 *
+	 * @return The file ready for upload or null if it could not be read.
+	 */
+	private static PreparedFile prepareFile(String assetURL, String fileType) {
+		long fileStart = System.nanoTime();
+		FlightEvents.FileRead readEvent = new FlightEvents.FileRead();
+		readEvent.begin();
+		int limit = Integer.parseInt(boxSettings.getMaxFileSize());
+		Path localFile = imageRecompressor == null ? toLocalPath(assetURL) : null;
+		byte[] file = null;
+		long length;
+		try {
+			length = localFile != null ? Files.size(localFile) : -1;
+			if (length < 0 || length > limit) {
+				localFile = null;
+				file = BoxUtility.downloadBlob(assetURL, limit);
+				length = file.length;
+			}
+		} catch (IOException e) {
+			logger.error("Exception Downloading File", e);
+			uploadMetrics.fileFailed(System.nanoTime() - fileStart);
+			return null;
+		}
+		readEvent.end();
+		if (readEvent.shouldCommit()) {
+			readEvent.path = assetURL;
+			readEvent.bytes = length;
+			readEvent.commit();
+		}
+		long stageStart = System.nanoTime();
+		uploadMetrics.stage(UploadMetrics.Stage.READ, stageStart - fileStart);
+
+		if (imageRecompressor != null) {
+			try {
+				byte[] recompressed = imageRecompressor.recompress(file, fileType);
+				uploadMetrics.bytesSaved(file.length - recompressed.length);
+				file = recompressed;
+				length = file.length;
+			} catch (IOException | RuntimeException e) {
+				logger.warn("Exception Recompressing File " + assetURL, e);
+			}
+			uploadMetrics.stage(UploadMetrics.Stage.RECOMPRESS, System.nanoTime() - stageStart);
+		}
+		return new PreparedFile(assetURL, fileType, file, localFile, length, fileStart);
+	}
 
-				fileName.append(fileId);
+	/**
+	 * @return The path of a file url or null for any other url.
+	 */
+	private static Path toLocalPath(String assetURL) {
+		try {
+			URI uri = new URI(assetURL);
+			return "file".equals(uri.getScheme()) ? Paths.get(uri) : null;
+		} catch (URISyntaxException | IllegalArgumentException e) {
+			return null;
+		}
+	}
 
-				String[] extension = assetURL.split("\\.");
+	private static CompletableFuture<PreparedFile> prepareFileAsync(String assetURL, String fileType) {
+		if (imageRecompressor == null) {
+			return CompletableFuture.completedFuture(prepareFile(assetURL, fileType));
+		}
+		return CompletableFuture.supplyAsync(() -> prepareFile(assetURL, fileType), imageRecompressor.getExecutor());
+	}
 
-				String fileType = extension[extension.length - 1];
+	/**
+	 * Upload a single prepared file.
+	 *
+	 * @return False if the file failed and should be retried, true if it was uploaded or copied.
+	 */
+	private static boolean uploadFile(String requestURL, String folderId, PreparedFile prepared) {
+		if (prepared == null) {
+			return false;
+		}
+		String assetURL = prepared.assetURL;
+		String fileType = prepared.fileType;
+		long fileLength = prepared.length;
+		long fileStart = prepared.fileStart;
+		long stageStart = System.nanoTime();
+		FlightEvents.FileUpload uploadEvent = new FlightEvents.FileUpload();
+		uploadEvent.begin();
+		uploadEvent.path = assetURL;
+		uploadEvent.bytes = fileLength;
 
-				if (!Strings.isNullOrEmpty(fileType)) {
-					fileName.append(".");
-					fileName.append(fileType);
-				}
+		JsonArray requestQuery = new JsonArray();
 
-				JsonPath.setValue(attributeObject, NAME, fileName.toString());
+		JsonObject formData = new JsonObject();
 
-				attributeObject.add(BoxConstants.PARENT, parent);
+		JsonObject parent = new JsonObject();
+		JsonPath.setValue(parent, ID, folderId);
 
-				JsonPath.setValue(formData, NAME, ATTRIBUTES);
-				JsonPath.setValue(formData, VALUE, attributeObject);
-				JsonPath.setValue(formData, FILE_ID, BoxConstants.FILE);
-				JsonPath.setValue(formData, FILE_NAME, fileId);
+		String fileId = UUID.randomUUID().toString();
 
-				requestQuery.add(formData);
+		JsonObject attributeObject = new JsonObject();
 
-				if ((fileType.equals("jpg") || fileType.equals("png") || fileType.equals("jpeg"))) {
-					try {
-						BoxUtility.sendUploadRequest(requestURL, requestQuery, file, POSTREQUESTMETHOD, getAccessToken(), apiError, "api");
-					} catch (IOException ex) {
-						logger.error("Exception Uploading File", ex);
-					}
+		StringBuilder fileName = new StringBuilder();
+
+		fileName.append(fileId);
+
+		if (!Strings.isNullOrEmpty(fileType)) {
+			fileName.append(".");
+			fileName.append(fileType);
+		}
+
+		JsonPath.setValue(attributeObject, NAME, fileName.toString());
+
+		attributeObject.add(BoxConstants.PARENT, parent);
+
+		JsonPath.setValue(formData, NAME, ATTRIBUTES);
+		JsonPath.setValue(formData, VALUE, attributeObject);
+		JsonPath.setValue(formData, FILE_ID, BoxConstants.FILE);
+		JsonPath.setValue(formData, FILE_NAME, fileId);
+
+		requestQuery.add(formData);
+
+		String sha1 = null;
+		StringBuilder apiError = new StringBuilder();
+		if (contentHashIndex != null) {
+			try {
+				sha1 = prepared.path != null ? ContentHashIndex.sha1(prepared.path) : ContentHashIndex.sha1(prepared.content);
+			} catch (IOException ex) {
+				logger.error("Exception Hashing File " + assetURL, ex);
+			}
+			long hashEnd = System.nanoTime();
+			uploadMetrics.stage(UploadMetrics.Stage.HASH, hashEnd - stageStart);
+			stageStart = hashEnd;
+
+			String existingId = sha1 != null ? contentHashIndex.lookup(sha1) : null;
+			if (existingId != null) {
+				String copyId = null;
+				try {
+					copyId = copyFile(existingId, folderId, fileName.toString(), apiError);
+				} catch (IOException ex) {
+					logger.error("Exception Copying File", ex);
+				}
+				if (copyId != null) {
+					uploadMetrics.fileDeduplicated(fileLength, System.nanoTime() - fileStart);
+					uploadEvent.deduplicated = true;
+					uploadEvent.succeeded = true;
+					uploadEvent.commit();
+					return true;
 				}
+				logger.info(String.format("Copy of file %s failed, uploading %s instead: %s", existingId, assetURL, apiError));
+				contentHashIndex.forget(sha1, existingId);
+				apiError.setLength(0);
+			}
+		}
+
+		String hubId = null;
+		try {
+			if (prepared.path != null) {
+				hubId = BoxUtility.sendUploadRequest(requestURL, requestQuery, prepared.path, POSTREQUESTMETHOD, getAccessToken(), apiError, "api");
+			} else {
+				hubId = BoxUtility.sendUploadRequest(requestURL, requestQuery, prepared.content, POSTREQUESTMETHOD, getAccessToken(), apiError, "api");
 			}
-		});
+		} catch (IOException ex) {
+			logger.error("Exception Uploading File", ex);
+		}
+
+		long uploadEnd = System.nanoTime();
+		uploadMetrics.stage(UploadMetrics.Stage.UPLOAD, uploadEnd - stageStart);
+		if (hubId != null) {
+			if (sha1 != null) {
+				contentHashIndex.record(sha1, hubId);
+			}
+			uploadMetrics.fileDone(fileLength, uploadEnd - fileStart);
+			uploadEvent.succeeded = true;
+			uploadEvent.commit();
+			return true;
+		}
+		uploadMetrics.fileFailed(uploadEnd - fileStart);
+		uploadEvent.commit();
+		return false;
 	}
 
+	/**
+	 * Search for a folder by name.
+	 *
+	 * @return Id of the first search result with exactly that name or null.
+	 * @deprecated The search index lags behind new folders, so a folder created moments ago may not be found. Create the
+	 * folder with {@link #createFolder(String, StringBuilder)} instead, which returns the id of an existing folder of the
+	 * same name.
+	 */
+	@Deprecated
 	public static String findFolderId(String folderName) throws IOException {
 		String requestURL = constructGetFolderIdUrl(folderName);
-		GsonBuilder gsonBuilder = new GsonBuilder();
-		Gson gson = gsonBuilder.create();
 		StringBuilder apiError = new StringBuilder();
 
-		String folderResponse = BoxUtility.sendGetRequest(requestURL, GETREQUESTMETHOD, getAccessToken(), apiError, "api");
-
-		JsonObject folderResponseObject = gson.fromJson(folderResponse, JsonObject.class);
-
-		JsonArray entriesArray =  JsonPath.findArray(folderResponseObject, "entries");
-
-		if(entriesArray == null || entriesArray.size() == 0) {
+		// Only the names and ids of the search results are read, the rest of each entry is skipped as it streams in.
+		JsonPathSet.Values folderResponse = BoxUtility.sendGetRequest(requestURL, getAccessToken(), FOLDER_SEARCH_PATHS, apiError, "api");
+		if(folderResponse == null) {
 			return null;
 		}
-		for(JsonElement entry : entriesArray) {
-			JsonObject entryObject = entry.getAsJsonObject();
-			if(JsonPath.getValue(entryObject, "name").equals(folderName)) {
-				return JsonPath.getValue(entryObject, "id");
+
+		List<String> names = folderResponse.getValues(ENTRY_NAMES);
+		List<String> ids = folderResponse.getValues(ENTRY_IDS);
+		for(int i = 0; i < names.size(); i++) {
+			if(folderName.equals(names.get(i))) {
+				return ids.get(i);
 			}
 		}
 		return null;
 	}
 
+	/**
+	 * Create a folder in the parent folder of the settings, whatever the number of app credentials. Each app signs in as
+	 * its own service account with a root of its own, so with several apps every service account must be a collaborator
+	 * of the parent folder, see {@link CredentialPool}.
+	 *
+	 * @return Id of the new folder, or of the existing one of the same name, or null if Box returned another error.
+	 */
 	public static String createFolder(String folderName, StringBuilder apiError) throws IOException {
 		String requestURL = constructFolderUrl();
 
 		JsonObject requestQuery = new JsonObject();
 		requestQuery.addProperty("name", folderName);
 		JsonObject parent = new JsonObject();
-		parent.addProperty("id", "0");
+		parent.addProperty("id", boxSettings.getParentFolder());
 		requestQuery.add("parent", parent);
 
-		JsonObject folderResponse = BoxUtility.sendPostRequest(requestURL, requestQuery, POSTREQUESTMETHOD, getAccessToken(), apiError, "api");
-		return JsonPath.getValue(folderResponse, "id");
+		return BoxUtility.sendCreateRequest(requestURL, requestQuery, getAccessToken(), apiError, "api");
+	}
+
+	/**
+	 * Copy an existing Box file into a folder server side.
+	 *
+	 * @return Id of the new file or null if the copy failed.
+	 */
+	public static String copyFile(String sourceFileId, String folderId, String fileName, StringBuilder apiError) throws IOException {
+		String requestURL = constructCopyUrl(sourceFileId);
+
+		JsonObject requestQuery = new JsonObject();
+		requestQuery.addProperty("name", fileName);
+		JsonObject parent = new JsonObject();
+		parent.addProperty("id", folderId);
+		requestQuery.add("parent", parent);
+
+		JsonObject copyResponse = BoxUtility.sendPostRequest(requestURL, requestQuery, POSTREQUESTMETHOD, getAccessToken(), apiError, "api");
+		return JsonPath.getValue(copyResponse, "id");
 	}
 
 	public static void scanFolder(File folder, String parentFolderName, Map<String, List<String>> folderMap) {
@@ -326,18 +992,37 @@ public class StorageAPI {
 
 
 	protected static String getAccessToken() {
-		String token = null;
-		try {
-			JsonObject reqBody = new JsonObject();
-			reqBody.addProperty(GRANT_TYPE_PROPERTY, BoxConstants.GRANT_TYPE_VALUE);
-			reqBody.addProperty(CLIENT_ID_PROPERTY, boxSettings.getClientId());
-			reqBody.addProperty(CLIENT_SECRET_PROPERTY, boxSettings.getSecret());
-			reqBody.addProperty(ASSERTION_PROPERTY, BoxUtility.getAssertion(boxSettings, "api"));
+		return credentialPool.getAccessToken();
+	}
+
+	private static final class PreparedFile {
+		private final String assetURL;
+		private final String fileType;
+		// Either the content in memory or the local file it is sent from.
+		private final byte[] content;
+		private final Path path;
+		private final long length;
+		private final long fileStart;
+
+		private PreparedFile(String assetURL, String fileType, byte[] content, Path path, long length, long fileStart) {
+			this.assetURL = assetURL;
+			this.fileType = fileType;
+			this.content = content;
+			this.path = path;
+			this.length = length;
+			this.fileStart = fileStart;
+		}
+	}
+
+	private static final class PendingUpload {
+		private final String folderId;
+		private final String leaseKey;
+		private final CompletableFuture<PreparedFile> prepared;
 
-			token = BoxUtility.getAccessToken(boxSettings.getAuthurl(), reqBody, "api");
-		} catch (Exception ex) {
-			logger.error(BOX_SERVICE, BOX_1652, boxSettings.getAuthurl(), ex);
+		private PendingUpload(String folderId, String leaseKey, CompletableFuture<PreparedFile> prepared) {
+			this.folderId = folderId;
+			this.leaseKey = leaseKey;
+			this.prepared = prepared;
 		}
-		return token;
 	}
 }
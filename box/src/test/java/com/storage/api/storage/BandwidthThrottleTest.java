@@ -0,0 +1,154 @@
+package com.storage.api.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BandwidthThrottleTest {
+	private static final long MAX_NANOS = Long.MAX_VALUE / 4;
+
+	@Test
+	public void toNanosIsExactForSmallSizes() {
+		assertEquals(TimeUnit.SECONDS.toNanos(1), BandwidthThrottle.toNanos(1000, 1000));
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(500), BandwidthThrottle.toNanos(500, 1000));
+		assertEquals(3, BandwidthThrottle.toNanos(3, TimeUnit.SECONDS.toNanos(1)));
+		assertEquals(0, BandwidthThrottle.toNanos(0, 1000));
+	}
+
+	@Test
+	public void toNanosDoesNotOverflow() {
+		// 10 GB and more overflow bytes * 1e9.
+		long tenGigabytes = 10L * 1024 * 1024 * 1024;
+		assertEquals(TimeUnit.SECONDS.toNanos(10), BandwidthThrottle.toNanos(tenGigabytes, 1024 * 1024 * 1024));
+		assertEquals(MAX_NANOS, BandwidthThrottle.toNanos(Long.MAX_VALUE, 1));
+		assertEquals(MAX_NANOS, BandwidthThrottle.toNanos(Long.MAX_VALUE / TimeUnit.SECONDS.toNanos(1), 1));
+		assertTrue(BandwidthThrottle.toNanos(Long.MAX_VALUE, Long.MAX_VALUE) > 0);
+	}
+
+	@Test
+	public void disabledThrottleDoesNotWait() throws IOException {
+		BandwidthThrottle throttle = new BandwidthThrottle("test");
+		assertFalse(throttle.isEnabled());
+		long start = System.nanoTime();
+		throttle.acquire(Long.MAX_VALUE);
+		assertTrue(elapsedMillis(start) < 100);
+	}
+
+	@Test
+	public void burstIsGrantedOnce() throws Exception {
+		BandwidthThrottle throttle = new BandwidthThrottle("test");
+		throttle.setBytesPerSecond(1000);
+		throttle.setBurstBytes(1000);
+		// Idle long enough to earn the full burst.
+		Thread.sleep(1100);
+
+		long start = System.nanoTime();
+		throttle.acquire(1000);
+		assertTrue("burst should not wait", elapsedMillis(start) < 300);
+
+		start = System.nanoTime();
+		throttle.acquire(500);
+		long elapsed = elapsedMillis(start);
+		assertTrue("after the burst bytes flow at the rate, waited " + elapsed + " ms", elapsed >= 400);
+	}
+
+	@Test
+	public void hugeAcquireSaturatesInsteadOfGrantingEverything() throws Exception {
+		BandwidthThrottle throttle = new BandwidthThrottle("test");
+		throttle.setBytesPerSecond(1);
+		Thread waiter = new Thread(() -> {
+			try {
+				throttle.acquire(Long.MAX_VALUE);
+			} catch (IOException ex) {
+				// Interrupted below.
+			}
+		}, "throttle-waiter");
+		waiter.start();
+		waiter.join(300);
+		assertTrue("an overflowing cost must not turn into no wait", waiter.isAlive());
+		waiter.interrupt();
+		waiter.join(1000);
+		assertFalse(waiter.isAlive());
+	}
+
+	@Test
+	public void raisingTheRateCutsTheDebtOfASlowRate() throws Exception {
+		BandwidthThrottle throttle = new BandwidthThrottle("test");
+		throttle.setBytesPerSecond(1);
+		Thread waiter = new Thread(() -> {
+			try {
+				// About 4.5 hours at 1 B/s.
+				throttle.acquire(16 * 1024);
+			} catch (IOException ex) {
+				// Fails the join below.
+			}
+		}, "throttle-waiter");
+		waiter.start();
+		Thread.sleep(200);
+		assertTrue(waiter.isAlive());
+
+		throttle.setBytesPerSecond(1024 * 1024);
+		waiter.join(2000);
+		assertFalse("a sleeping caller must pick up the new rate", waiter.isAlive());
+
+		long start = System.nanoTime();
+		throttle.acquire(64 * 1024);
+		assertTrue("the debt is paid at the new rate", elapsedMillis(start) < 1000);
+	}
+
+	@Test
+	public void loweringTheRateStretchesTheDebt() throws Exception {
+		BandwidthThrottle throttle = new BandwidthThrottle("test");
+		throttle.setBytesPerSecond(1000);
+		throttle.acquire(100);
+		long start = System.nanoTime();
+		throttle.acquire(100);
+		throttle.setBytesPerSecond(100);
+		throttle.acquire(10);
+		// 200 bytes at 1000 B/s, then 10 at 100 B/s.
+		assertTrue(elapsedMillis(start) >= 150);
+	}
+
+	@Test
+	public void disablingTheRateDropsTheDebt() throws Exception {
+		BandwidthThrottle throttle = new BandwidthThrottle("test");
+		throttle.setBytesPerSecond(1);
+		throttle.setBytesPerSecond(0);
+		long start = System.nanoTime();
+		throttle.acquire(1000);
+		throttle.setBytesPerSecond(1000);
+		throttle.acquire(10);
+		assertTrue(elapsedMillis(start) < 300);
+	}
+
+	@Test
+	public void rescaleKeepsTheBytesOwed() {
+		assertEquals(TimeUnit.MICROSECONDS.toNanos(15625), BandwidthThrottle.rescale(TimeUnit.SECONDS.toNanos(16 * 1024), 1, 1024 * 1024));
+		assertEquals(TimeUnit.SECONDS.toNanos(10), BandwidthThrottle.rescale(TimeUnit.SECONDS.toNanos(1), 1000, 100));
+		assertEquals(0, BandwidthThrottle.rescale(TimeUnit.SECONDS.toNanos(1), 1000, 0));
+		assertEquals(MAX_NANOS, BandwidthThrottle.rescale(MAX_NANOS, Long.MAX_VALUE, 1));
+	}
+
+	@Test
+	public void wrappedStreamPassesBytesThrough() throws IOException {
+		BandwidthThrottle throttle = new BandwidthThrottle("test");
+		throttle.setBytesPerSecond(1024 * 1024);
+		ByteArrayOutputStream target = new ByteArrayOutputStream();
+		try (OutputStream outputStream = throttle.wrap(target)) {
+			outputStream.write(new byte[40000]);
+			outputStream.write(7);
+		}
+		assertEquals(40001, target.size());
+	}
+
+	private static long elapsedMillis(long start) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+}
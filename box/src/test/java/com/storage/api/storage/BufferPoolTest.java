@@ -0,0 +1,79 @@
+package com.storage.api.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BufferPoolTest {
+	@Test
+	public void initialSizeTrustsTheHintOnlyUpToThePooledSize() {
+		assertEquals(4 * 1024, BufferPool.initialSize(-1));
+		assertEquals(1, BufferPool.initialSize(0));
+		assertEquals(101, BufferPool.initialSize(100));
+		assertEquals(BufferPool.MAX_POOLED_SIZE, BufferPool.initialSize(BufferPool.MAX_POOLED_SIZE));
+		assertEquals(BufferPool.MAX_POOLED_SIZE, BufferPool.initialSize(Integer.MAX_VALUE));
+		assertEquals(BufferPool.MAX_POOLED_SIZE, BufferPool.initialSize(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void overstatedLengthReadsWhatArrives() throws IOException {
+		String body = "{\"type\":\"error\",\"status\":409}";
+		assertEquals(body, StringUtils.toString(stream(body.getBytes(StandardCharsets.UTF_8)), Integer.MAX_VALUE));
+		assertEquals(body, StringUtils.toString(stream(body.getBytes(StandardCharsets.UTF_8)), Long.MAX_VALUE));
+		assertEquals(body, StringUtils.toString(stream(body.getBytes(StandardCharsets.UTF_8)), 3));
+		assertEquals("", StringUtils.toString(null, 10));
+	}
+
+	@Test
+	public void bodyLongerThanThePooledSizeGrows() throws IOException {
+		byte[] content = new byte[3 * BufferPool.MAX_POOLED_SIZE + 17];
+		Arrays.fill(content, (byte) 'a');
+		assertEquals(content.length, StringUtils.toString(stream(content), content.length).length());
+		assertEquals(content.length, StringUtils.toString(stream(content), -1).length());
+	}
+
+	@Test
+	public void readAllStopsPastTheLimit() throws IOException {
+		byte[] content = new byte[BufferPool.MAX_POOLED_SIZE * 2];
+		new Random(3).nextBytes(content);
+		assertArrayEquals(content, BufferPool.readAll(stream(content), content.length, content.length));
+		assertArrayEquals(content, BufferPool.readAll(stream(content), 10, content.length));
+		assertArrayEquals(Arrays.copyOf(content, 100), BufferPool.readAll(stream(Arrays.copyOf(content, 100)), content.length, content.length));
+		assertEquals(1001, BufferPool.readAll(stream(content), -1, 1000).length);
+	}
+
+	@Test
+	public void releasedBufferIsReused() {
+		byte[] buffer = BufferPool.acquire(3000);
+		assertEquals(4096, buffer.length);
+		BufferPool.release(buffer);
+		assertTrue(BufferPool.getPooledBytes() <= 8L * 1024 * 1024);
+		// Same thread, same stripe and size class.
+		assertTrue(buffer == BufferPool.acquire(4096));
+		byte[] large = BufferPool.acquire(BufferPool.MAX_POOLED_SIZE + 1);
+		assertEquals(BufferPool.MAX_POOLED_SIZE + 1, large.length);
+	}
+
+	@Test
+	public void growKeepsTheContent() {
+		byte[] buffer = BufferPool.acquire(1024);
+		byte[] content = "pooled".getBytes(StandardCharsets.UTF_8);
+		System.arraycopy(content, 0, buffer, 0, content.length);
+		byte[] grown = BufferPool.grow(buffer, content.length, 1025);
+		assertEquals(2048, grown.length);
+		assertArrayEquals(content, Arrays.copyOf(grown, content.length));
+		BufferPool.release(grown);
+	}
+
+	private static ByteArrayInputStream stream(byte[] content) {
+		return new ByteArrayInputStream(content);
+	}
+}
@@ -0,0 +1,163 @@
+package com.storage.api.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelHttpConnectionTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private ServerSocket serverSocket;
+
+	@Before
+	public void setUp() throws IOException {
+		serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		serverSocket.close();
+		HttpUtility.setChannelUploads(false);
+	}
+
+	@Test
+	public void sendsTheSameBodyAsTheStreamedPath() throws Exception {
+		byte[] content = new byte[300 * 1024];
+		new Random(7).nextBytes(content);
+		Path file = temporaryFolder.newFile("upload.bin").toPath();
+		Files.write(file, content);
+		MultipartBody body = MultipartBody.encode(uploadFields(), file, null);
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		body.writeTo(expected);
+
+		CompletableFuture<byte[]> received = serve("HTTP/1.1 201 Created\r\nContent-Length: 2\r\n\r\n{}");
+		try (ChannelHttpConnection connection = ChannelHttpConnection.open(url(), 5000)) {
+			long sent = connection.send("POST", Collections.singletonMap("Authorization", "Bearer token"), body, new BandwidthThrottle("test"));
+			assertEquals(expected.size(), sent);
+			assertEquals(201, connection.getResponseCode());
+			assertEquals("{}", read(connection.getBody()));
+		}
+
+		String request = new String(received.get(10, TimeUnit.SECONDS), StandardCharsets.ISO_8859_1);
+		int headEnd = request.indexOf("\r\n\r\n") + 4;
+		assertTrue(request.startsWith("POST /upload HTTP/1.1\r\n"));
+		assertTrue(request.contains("\r\nContent-Length: " + expected.size() + "\r\n"));
+		assertTrue(request.contains("\r\nAuthorization: Bearer token\r\n"));
+		assertArrayEquals(expected.toByteArray(), request.substring(headEnd).getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+	@Test
+	public void readsChunkedBodyAfterInformationalResponse() throws Exception {
+		serve("HTTP/1.1 100 Continue\r\n\r\n"
+				+ "HTTP/1.1 409 Conflict\r\ntransfer-encoding: Chunked\r\nRetry-After: 3\r\n\r\n"
+				+ "5;ext=1\r\nhello\r\n6\r\n world\r\n0\r\nTrailer: x\r\n\r\n");
+		try (ChannelHttpConnection connection = ChannelHttpConnection.open(url(), 5000)) {
+			connection.send("POST", Collections.emptyMap(), MultipartBody.encode("[]", new byte[0], null), new BandwidthThrottle("test"));
+			assertEquals(409, connection.getResponseCode());
+			assertEquals("3", connection.getHeaderField("retry-after"));
+			assertEquals("hello world", read(connection.getBody()));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsInvalidChunkSize() throws Exception {
+		serve("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n\r\n-1\r\nx\r\n0\r\n\r\n");
+		try (ChannelHttpConnection connection = ChannelHttpConnection.open(url(), 5000)) {
+			connection.send("POST", Collections.emptyMap(), MultipartBody.encode("[]", new byte[0], null), new BandwidthThrottle("test"));
+			read(connection.getBody());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsInvalidStatusLine() throws Exception {
+		serve("SMTP ready\r\n\r\n");
+		try (ChannelHttpConnection connection = ChannelHttpConnection.open(url(), 5000)) {
+			connection.send("POST", Collections.emptyMap(), MultipartBody.encode("[]", new byte[0], null), new BandwidthThrottle("test"));
+			connection.getResponseCode();
+		}
+	}
+
+	@Test
+	public void channelUploadsAreOptIn() throws IOException {
+		assertFalse(HttpUtility.canSendOverChannel(url().toString()));
+		HttpUtility.setChannelUploads(true);
+		assertTrue(HttpUtility.canSendOverChannel(url().toString()));
+		assertFalse(HttpUtility.canSendOverChannel("https://upload.box.com/api/2.0/files/content"));
+	}
+
+	private URL url() throws IOException {
+		return new URL("http://127.0.0.1:" + serverSocket.getLocalPort() + "/upload");
+	}
+
+	/**
+	 * Accept one connection, read the request up to its announced length and answer with the given response.
+	 */
+	private CompletableFuture<byte[]> serve(String response) {
+		return CompletableFuture.supplyAsync(() -> {
+			try (Socket socket = serverSocket.accept()) {
+				InputStream inputStream = socket.getInputStream();
+				ByteArrayOutputStream request = new ByteArrayOutputStream();
+				int contentLength = -1;
+				while (contentLength < 0) {
+					request.write(inputStream.read());
+					String head = new String(request.toByteArray(), StandardCharsets.ISO_8859_1);
+					if (head.endsWith("\r\n\r\n")) {
+						int start = head.indexOf("Content-Length: ") + "Content-Length: ".length();
+						contentLength = Integer.parseInt(head.substring(start, head.indexOf("\r\n", start)));
+					}
+				}
+				request.write(ByteStreams.toByteArray(ByteStreams.limit(inputStream, contentLength)));
+				OutputStream outputStream = socket.getOutputStream();
+				outputStream.write(response.getBytes(StandardCharsets.ISO_8859_1));
+				outputStream.flush();
+				return request.toByteArray();
+			} catch (IOException ex) {
+				throw new IllegalStateException(ex);
+			}
+		});
+	}
+
+	private static String read(InputStream inputStream) throws IOException {
+		return new String(ByteStreams.toByteArray(inputStream), StandardCharsets.UTF_8);
+	}
+
+	private static String uploadFields() {
+		JsonObject attributes = new JsonObject();
+		attributes.addProperty("name", "upload.bin");
+		JsonObject formData = new JsonObject();
+		formData.addProperty("name", "attributes");
+		formData.add("value", attributes);
+		formData.addProperty("file_id", "file");
+		formData.addProperty("file_name", "upload.bin");
+		JsonArray requestArray = new JsonArray();
+		requestArray.add(formData);
+		return requestArray.toString();
+	}
+}
@@ -0,0 +1,144 @@
+package com.storage.api.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ContentHashIndexTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void recordsAreAppendedAndReloaded() throws IOException {
+		File indexFile = new File(temporaryFolder.getRoot(), "hashes.tsv");
+		ContentHashIndex index = new ContentHashIndex(indexFile);
+		index.record("aa", "1");
+		index.record("bb", "2");
+		// Recording the same mapping again does not grow the file.
+		index.record("aa", "1");
+		index.record("bb", "3");
+		index.close();
+		assertEquals(3, Files.readAllLines(indexFile.toPath(), StandardCharsets.UTF_8).size());
+
+		ContentHashIndex reloaded = new ContentHashIndex(indexFile);
+		assertEquals(2, reloaded.size());
+		assertEquals("1", reloaded.lookup("aa"));
+		assertEquals("3", reloaded.lookup("bb"));
+	}
+
+	@Test
+	public void forgottenMappingsStayForgotten() throws IOException {
+		File indexFile = new File(temporaryFolder.getRoot(), "hashes.tsv");
+		ContentHashIndex index = new ContentHashIndex(indexFile);
+		index.record("aa", "1");
+		index.record("bb", "2");
+		// Only the recorded file id is forgotten.
+		index.forget("bb", "9");
+		index.forget("aa", "1");
+		index.close();
+		// A closed index reopens its file on the next change.
+		index.record("cc", "3");
+		index.close();
+
+		ContentHashIndex reloaded = new ContentHashIndex(indexFile);
+		assertNull(reloaded.lookup("aa"));
+		assertEquals("2", reloaded.lookup("bb"));
+		assertEquals("3", reloaded.lookup("cc"));
+	}
+
+	@Test
+	public void malformedLinesAreSkipped() throws IOException {
+		File indexFile = temporaryFolder.newFile("hashes.tsv");
+		Files.write(indexFile.toPath(), "aa\t1\nnot a line\n\tlost\n\nbb\t2\n".getBytes(StandardCharsets.UTF_8));
+		ContentHashIndex index = new ContentHashIndex(indexFile);
+		assertEquals(2, index.size());
+		assertEquals("1", index.lookup("aa"));
+		assertEquals("2", index.lookup("bb"));
+	}
+
+	@Test
+	public void indexWithoutFileStaysInMemory() {
+		ContentHashIndex index = new ContentHashIndex(null);
+		index.record("aa", "1");
+		assertEquals("1", index.lookup("aa"));
+		index.close();
+		assertEquals(0, temporaryFolder.getRoot().list().length);
+	}
+
+	@Test
+	public void concurrentRecordsAndLookups() throws Exception {
+		File indexFile = new File(temporaryFolder.getRoot(), "hashes.tsv");
+		ContentHashIndex index = new ContentHashIndex(indexFile);
+		int threads = 8;
+		int hashes = 500;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<Integer>> results = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				int thread = t;
+				Callable<Integer> work = () -> {
+					start.await();
+					int found = 0;
+					for (int i = 0; i < hashes; i++) {
+						if (i % threads == thread) {
+							index.record("hash-" + i, "file-" + i);
+						}
+						String fileId = index.lookup("hash-" + i);
+						if (fileId != null) {
+							assertEquals("file-" + i, fileId);
+							found++;
+						}
+					}
+					return found;
+				};
+				results.add(executor.submit(work));
+			}
+			start.countDown();
+			for (Future<Integer> result : results) {
+				result.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		index.close();
+
+		assertEquals(hashes, index.size());
+		// Every line was written whole, so the reloaded index matches.
+		ContentHashIndex reloaded = new ContentHashIndex(indexFile);
+		assertEquals(hashes, reloaded.size());
+		for (int i = 0; i < hashes; i++) {
+			assertEquals("file-" + i, reloaded.lookup("hash-" + i));
+		}
+		assertEquals(hashes, Files.readAllLines(indexFile.toPath(), StandardCharsets.UTF_8).size());
+	}
+
+	@Test
+	public void fileAndContentHashesAgree() throws IOException {
+		byte[] content = new byte[200 * 1024 + 3];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+		Path file = temporaryFolder.newFile("content.bin").toPath();
+		Files.write(file, content);
+		assertEquals(ContentHashIndex.sha1(content), ContentHashIndex.sha1(file));
+		assertEquals("da39a3ee5e6b4b0d3255bfef95601890afd80709", ContentHashIndex.sha1(new byte[0]));
+	}
+}
@@ -0,0 +1,105 @@
+package com.storage.api.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CredentialPoolTest {
+	@Test
+	public void singleCredentialTakesEveryTurn() {
+		CredentialPool pool = pool(1);
+		assertEquals(1, pool.size());
+		for (int i = 0; i < 5; i++) {
+			assertEquals("app-0", pool.next().getClientId());
+		}
+	}
+
+	@Test
+	public void turnsFollowTheWeightsSmoothly() {
+		CredentialPool pool = pool(3, 2, 1);
+		assertEquals(3, pool.size());
+		// Smooth weighted round robin interleaves the turns instead of giving app-0 three in a row.
+		assertEquals(Arrays.asList("app-0", "app-1", "app-0", "app-2", "app-1", "app-0"), turns(pool, 6));
+		assertEquals(turns(pool, 6), turns(pool, 6));
+	}
+
+	@Test
+	public void turnsAddUpToTheWeights() {
+		CredentialPool pool = pool(5, 1, 2);
+		Map<String, Integer> counts = new HashMap<>();
+		for (String clientId : turns(pool, 800)) {
+			counts.merge(clientId, 1, Integer::sum);
+		}
+		assertEquals(500, (int) counts.get("app-0"));
+		assertEquals(100, (int) counts.get("app-1"));
+		assertEquals(200, (int) counts.get("app-2"));
+		assertEquals(800L, pool.snapshot().getAsJsonObject("app-0").get("requests").getAsLong()
+				+ pool.snapshot().getAsJsonObject("app-1").get("requests").getAsLong()
+				+ pool.snapshot().getAsJsonObject("app-2").get("requests").getAsLong());
+	}
+
+	@Test
+	public void throttledCredentialIsSkipped() {
+		CredentialPool pool = pool(1, 1);
+		CredentialPool.Credential throttled = pool.next();
+		pool.throttled(throttled, 60);
+		for (String clientId : turns(pool, 10)) {
+			assertNotEquals(throttled.getClientId(), clientId);
+		}
+		assertEquals(1, pool.snapshot().getAsJsonObject(throttled.getClientId()).get("throttles").getAsInt());
+		assertTrue(pool.snapshot().getAsJsonObject(throttled.getClientId()).get("throttledMillis").getAsLong() > 0);
+	}
+
+	@Test
+	public void allThrottledWaitsForTheFirstBack() {
+		CredentialPool pool = pool(1, 1);
+		CredentialPool.Credential first = pool.next();
+		CredentialPool.Credential second = pool.next();
+		pool.throttled(first, 60);
+		pool.throttled(second, 1);
+		long start = System.nanoTime();
+		assertEquals(second.getClientId(), pool.next().getClientId());
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("waited " + elapsed + " ms", elapsed >= 900 && elapsed < 5000);
+	}
+
+	@Test
+	public void unknownTokenIsIgnored() {
+		CredentialPool pool = pool(1, 1);
+		pool.throttled("unknown", 60);
+		pool.throttled((String) null, 60);
+		assertEquals(Arrays.asList("app-0", "app-1", "app-0", "app-1"), turns(pool, 4));
+	}
+
+	private static CredentialPool pool(int... weights) {
+		BoxSettings settings = new BoxSettings();
+		settings.setClientId("app-0");
+		settings.setCredentialWeight(weights[0]);
+		List<BoxCredential> credentials = new ArrayList<>();
+		for (int i = 1; i < weights.length; i++) {
+			BoxCredential credential = new BoxCredential();
+			credential.setClientId("app-" + i);
+			credential.setWeight(weights[i]);
+			credentials.add(credential);
+		}
+		settings.setCredentials(credentials);
+		return new CredentialPool(settings);
+	}
+
+	private static List<String> turns(CredentialPool pool, int count) {
+		List<String> turns = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			turns.add(pool.next().getClientId());
+		}
+		return turns;
+	}
+}
@@ -0,0 +1,152 @@
+package com.storage.api.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import com.google.common.hash.Hashing;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DownloadCacheTest {
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private Path directory;
+
+	@Before
+	public void setUp() {
+		directory = temporaryFolder.getRoot().toPath();
+	}
+
+	@Test
+	public void missThenHit() throws IOException {
+		DownloadCache cache = new DownloadCache(directory, 1000);
+		String sha1 = sha1("first");
+		assertNull(cache.lookup(sha1));
+
+		assertTrue(put(cache, "first", "image/png"));
+		try (DownloadCache.Hit hit = cache.lookup(sha1)) {
+			assertNotNull(hit);
+			assertEquals("image/png", hit.getContentType());
+			assertEquals(5, hit.getSize());
+			assertEquals("first", read(hit));
+		}
+		assertEquals(1, cache.size());
+		assertEquals(5, cache.getTotalBytes());
+	}
+
+	@Test
+	public void leastRecentlyUsedIsEvicted() throws IOException {
+		DownloadCache cache = new DownloadCache(directory, 30);
+		put(cache, "aaaaaaaaaa", null);
+		put(cache, "bbbbbbbbbb", null);
+		put(cache, "cccccccccc", null);
+		// Using the first entry makes the second the least recently used one.
+		cache.lookup(sha1("aaaaaaaaaa")).close();
+
+		put(cache, "dddddddddd", null);
+		assertEquals(3, cache.size());
+		assertEquals(30, cache.getTotalBytes());
+		assertNull(cache.lookup(sha1("bbbbbbbbbb")));
+		assertFalse(directory.resolve(sha1("bbbbbbbbbb")).toFile().exists());
+		for (String content : new String[]{"aaaaaaaaaa", "cccccccccc", "dddddddddd"}) {
+			try (DownloadCache.Hit hit = cache.lookup(sha1(content))) {
+				assertEquals(content, read(hit));
+			}
+		}
+	}
+
+	@Test
+	public void evictedEntryStaysReadableWhileOpen() throws IOException {
+		DownloadCache cache = new DownloadCache(directory, 10);
+		put(cache, "aaaaaaaaaa", null);
+		try (DownloadCache.Hit hit = cache.lookup(sha1("aaaaaaaaaa"))) {
+			put(cache, "bbbbbbbbbb", null);
+			assertNull(cache.lookup(sha1("aaaaaaaaaa")));
+			assertEquals("aaaaaaaaaa", read(hit));
+		}
+	}
+
+	@Test
+	public void mismatchedOrOversizedContentIsNotPublished() throws IOException {
+		DownloadCache cache = new DownloadCache(directory, 10);
+		try (DownloadCache.Entry entry = cache.begin(sha1("expected"), null)) {
+			entry.write("actual".getBytes(StandardCharsets.UTF_8));
+			assertFalse(entry.commit());
+		}
+		try (DownloadCache.Entry entry = cache.begin(sha1("more than ten bytes"), null)) {
+			entry.write("more than ten bytes".getBytes(StandardCharsets.UTF_8));
+			assertFalse(entry.commit());
+		}
+		assertEquals(0, cache.size());
+		assertEquals(0, directory.toFile().list().length);
+	}
+
+	@Test
+	public void reloadKeepsEntriesAndTheirOrder() throws IOException {
+		DownloadCache cache = new DownloadCache(directory, 20);
+		put(cache, "aaaaaaaaaa", "text/plain");
+		put(cache, "bbbbbbbbbb", null);
+		directory.resolve(sha1("aaaaaaaaaa")).toFile().setLastModified(System.currentTimeMillis() - 60000);
+		directory.resolve("left-over.tmp").toFile().createNewFile();
+
+		DownloadCache reloaded = new DownloadCache(directory, 20);
+		assertEquals(2, reloaded.size());
+		assertFalse(directory.resolve("left-over.tmp").toFile().exists());
+		try (DownloadCache.Hit hit = reloaded.lookup(sha1("bbbbbbbbbb"))) {
+			assertNull(hit.getContentType());
+		}
+		// The oldest file goes first.
+		put(reloaded, "cccccccccc", null);
+		assertNull(reloaded.lookup(sha1("aaaaaaaaaa")));
+		assertNotNull(reloaded.lookup(sha1("bbbbbbbbbb")));
+	}
+
+	@Test
+	public void validatedHashesExpire() throws Exception {
+		DownloadCache cache = new DownloadCache(directory, 100, 1);
+		assertNull(cache.getValidated("10"));
+		cache.validated("10", sha1("first"), "a.png");
+		assertEquals(sha1("first"), cache.getValidated("10").getSha1());
+		assertEquals("a.png", cache.getValidated("10").getName());
+
+		cache.invalidate("10");
+		assertNull(cache.getValidated("10"));
+
+		cache.validated("10", sha1("first"), "a.png");
+		Thread.sleep(1100);
+		assertNull(cache.getValidated("10"));
+
+		DownloadCache alwaysAsk = new DownloadCache(directory, 100);
+		alwaysAsk.validated("10", sha1("first"), "a.png");
+		assertNull(alwaysAsk.getValidated("10"));
+	}
+
+	private static boolean put(DownloadCache cache, String content, String contentType) throws IOException {
+		try (DownloadCache.Entry entry = cache.begin(sha1(content), contentType)) {
+			entry.write(content.getBytes(StandardCharsets.UTF_8));
+			return entry.commit();
+		}
+	}
+
+	private static String read(DownloadCache.Hit hit) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		hit.copyTo(outputStream);
+		return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@SuppressWarnings("deprecation")
+	private static String sha1(String content) {
+		return Hashing.sha1().hashString(content, StandardCharsets.UTF_8).toString();
+	}
+}
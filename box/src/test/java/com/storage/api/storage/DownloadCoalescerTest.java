@@ -0,0 +1,334 @@
+package com.storage.api.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DownloadCoalescerTest {
+	private static final long TIMEOUT_MILLIS = 10000;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private DownloadCoalescer coalescer = new DownloadCoalescer(null);
+
+	@After
+	public void tearDown() {
+		coalescer.shutdown();
+	}
+
+	@Test
+	public void concurrentReadersShareOneFetch() throws Exception {
+		FakeUpstream upstream = new FakeUpstream();
+		DownloadResponse first = coalescer.join("1", null, upstream);
+		DownloadResponse second = coalescer.join("1", null, upstream);
+		assertEquals(200, first.getStatus());
+		assertEquals("text/plain", second.getContentType());
+		assertEquals("attachment", second.getHeader(BoxConstants.CONTENT_DISPOSITION));
+		assertEquals(1, coalescer.inFlight());
+
+		CompletableFuture<String> firstBody = readAsync(first);
+		CompletableFuture<String> secondBody = readAsync(second);
+		upstream.send("hello ");
+		upstream.send("world");
+		upstream.end();
+		assertEquals("hello world", firstBody.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		assertEquals("hello world", secondBody.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		assertEquals(1, upstream.opened.get());
+		first.close();
+		second.close();
+	}
+
+	@Test
+	public void lateReaderStartsFromTheBeginning() throws Exception {
+		FakeUpstream upstream = new FakeUpstream();
+		DownloadResponse first = coalescer.join("1", null, upstream);
+		upstream.send("early ");
+		assertEquals("early ", read(first.getInputStream(), 6));
+
+		DownloadResponse late = coalescer.join("1", null, upstream);
+		upstream.send("late");
+		upstream.end();
+		assertEquals("early late", read(late));
+		assertEquals("late", read(first));
+		assertEquals(1, upstream.opened.get());
+		first.close();
+		late.close();
+	}
+
+	@Test
+	public void readerAfterTheFetchStartsANewOne() throws Exception {
+		FakeUpstream upstream = new FakeUpstream();
+		DownloadResponse first = coalescer.join("1", null, upstream);
+		upstream.send("one");
+		upstream.end();
+		assertEquals("one", read(first));
+		first.close();
+		awaitInFlight(0);
+
+		DownloadResponse second = coalescer.join("1", null, upstream);
+		upstream.send("two");
+		upstream.end();
+		assertEquals("two", read(second));
+		second.close();
+		assertEquals(2, upstream.opened.get());
+	}
+
+	@Test
+	public void spillFileLivesUntilTheLastReaderCloses() throws Exception {
+		Set<Path> before = spillFiles();
+		FakeUpstream upstream = new FakeUpstream();
+		DownloadResponse first = coalescer.join("1", null, upstream);
+		DownloadResponse second = coalescer.join("1", null, upstream);
+		upstream.send("content");
+		upstream.end();
+		assertEquals("content", read(first));
+		awaitInFlight(0);
+
+		Set<Path> spilled = spillFiles();
+		spilled.removeAll(before);
+		assertEquals(1, spilled.size());
+		first.close();
+		// Closing twice must not drop the reference of the other reader.
+		first.close();
+		assertTrue(Files.exists(spilled.iterator().next()));
+		assertEquals("content", read(second));
+
+		second.close();
+		assertTrue(Files.notExists(spilled.iterator().next()));
+	}
+
+	@Test
+	public void upstreamErrorsReachEveryReader() throws Exception {
+		try {
+			coalescer.join("1", null, () -> {
+				throw new BoxRuntimeException("Not Found").withHttpStatus(404);
+			});
+			fail("the error of Box must reach the caller");
+		} catch (BoxRuntimeException ex) {
+			assertEquals(404, HttpUtility.getHttpStatus(ex));
+		}
+		try {
+			coalescer.join("2", null, () -> {
+				throw new IOException("Connection refused");
+			});
+			fail("the error of Box must reach the caller");
+		} catch (IOException ex) {
+			assertEquals("Connection refused", ex.getMessage());
+		}
+		assertNull(coalescer.join("3", null, () -> null));
+		awaitInFlight(0);
+	}
+
+	@Test
+	public void failureHalfWayReachesEveryReader() throws Exception {
+		FakeUpstream upstream = new FakeUpstream();
+		DownloadResponse first = coalescer.join("1", null, upstream);
+		DownloadResponse second = coalescer.join("1", null, upstream);
+		upstream.send("partial");
+		upstream.fail();
+		for (DownloadResponse response : new DownloadResponse[]{first, second}) {
+			try {
+				read(response);
+				fail("a broken download must not look complete");
+			} catch (IOException ex) {
+				assertTrue(ex.getMessage(), ex.getMessage().startsWith("Download of file 1 failed"));
+			}
+			response.close();
+		}
+	}
+
+	@Test
+	public void fetchStopsWhenEveryReaderLeft() throws Exception {
+		FakeUpstream upstream = new FakeUpstream();
+		DownloadResponse only = coalescer.join("1", null, upstream);
+		upstream.send("unread");
+		only.close();
+		upstream.send("more");
+		upstream.send("and more");
+		awaitInFlight(0);
+		assertTrue(upstream.aborted.get());
+	}
+
+	@Test
+	public void fetchKeepsCachingWhenEveryReaderLeft() throws Exception {
+		DownloadCache cache = new DownloadCache(temporaryFolder.getRoot().toPath(), 1000);
+		coalescer.shutdown();
+		coalescer = new DownloadCoalescer(cache);
+		String sha1 = sha1("cached content");
+		FakeUpstream upstream = new FakeUpstream();
+		DownloadResponse only = coalescer.join("1", sha1, upstream);
+		upstream.send("cached ");
+		only.close();
+		upstream.send("content");
+		upstream.end();
+		awaitInFlight(0);
+
+		try (DownloadCache.Hit hit = cache.lookup(sha1)) {
+			assertNotNull(hit);
+			assertEquals("text/plain", hit.getContentType());
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			hit.copyTo(outputStream);
+			assertArrayEquals("cached content".getBytes(StandardCharsets.UTF_8), outputStream.toByteArray());
+		}
+	}
+
+	private void awaitInFlight(int count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+		while (coalescer.inFlight() != count && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, coalescer.inFlight());
+		// The fetch thread releases its reference right after it leaves the flights.
+		Thread.sleep(50);
+	}
+
+	private static Set<Path> spillFiles() throws IOException {
+		Set<Path> files = new HashSet<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(Paths.get(System.getProperty("java.io.tmpdir")), "box-download-*.tmp")) {
+			stream.forEach(files::add);
+		}
+		return files;
+	}
+
+	private static CompletableFuture<String> readAsync(DownloadResponse response) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return read(response);
+			} catch (IOException ex) {
+				throw new IllegalStateException(ex);
+			}
+		});
+	}
+
+	private static String read(DownloadResponse response) throws IOException {
+		return new String(ByteStreams.toByteArray(response.getInputStream()), StandardCharsets.UTF_8);
+	}
+
+	private static String read(InputStream inputStream, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		ByteStreams.readFully(inputStream, bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	@SuppressWarnings("deprecation")
+	private static String sha1(String content) {
+		return Hashing.sha1().hashString(content, StandardCharsets.UTF_8).toString();
+	}
+
+	/**
+	 * Box response whose body arrives as the test sends it.
+	 */
+	private static final class FakeUpstream implements DownloadCoalescer.Upstream {
+		private static final byte[] END = new byte[0];
+		private static final byte[] FAILURE = new byte[0];
+
+		private final AtomicInteger opened = new AtomicInteger();
+		private final AtomicBoolean aborted = new AtomicBoolean();
+		private volatile BlockingQueue<byte[]> chunks;
+
+		@Override
+		public DownloadResponse open() {
+			opened.incrementAndGet();
+			chunks = new LinkedBlockingQueue<>();
+			BlockingQueue<byte[]> body = chunks;
+			InputStream inputStream = new InputStream() {
+				private byte[] chunk = new byte[0];
+				private int position;
+
+				@Override
+				public int read() throws IOException {
+					byte[] single = new byte[1];
+					return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					while (position == chunk.length) {
+						if (chunk == END) {
+							return -1;
+						}
+						try {
+							chunk = body.take();
+						} catch (InterruptedException ex) {
+							throw new IOException(ex);
+						}
+						if (chunk == FAILURE) {
+							throw new IOException("Connection reset");
+						}
+						position = 0;
+					}
+					int read = Math.min(len, chunk.length - position);
+					System.arraycopy(chunk, position, b, off, read);
+					position += read;
+					return read;
+				}
+			};
+			return new DownloadResponse(null, inputStream) {
+				@Override
+				public int getStatus() {
+					return 200;
+				}
+
+				@Override
+				public long getContentLength() {
+					return -1;
+				}
+
+				@Override
+				public String getContentType() {
+					return "text/plain";
+				}
+
+				@Override
+				public String getHeader(String name) {
+					return BoxConstants.CONTENT_DISPOSITION.equals(name) ? "attachment" : null;
+				}
+
+				@Override
+				public void abort() {
+					aborted.set(true);
+				}
+			};
+		}
+
+		private void send(String content) {
+			chunks.add(content.getBytes(StandardCharsets.UTF_8));
+		}
+
+		private void end() {
+			chunks.add(END);
+		}
+
+		private void fail() {
+			chunks.add(FAILURE);
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package com.storage.api.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EndpointMetricsTest {
+	@Test
+	public void urlsMapToTheirEndpoint() throws IOException {
+		assertEquals(EndpointMetrics.Endpoint.TOKEN, endpoint("https://api.box.com/oauth2/token", "POST"));
+		assertEquals(EndpointMetrics.Endpoint.SEARCH, endpoint("https://api.box.com/2.0/search", "GET"));
+		assertEquals(EndpointMetrics.Endpoint.FOLDERS, endpoint("https://api.box.com/2.0/folders/0/items", "GET"));
+		assertEquals(EndpointMetrics.Endpoint.FOLDERS, endpoint("https://api.box.com/2.0/folders", "POST"));
+		assertEquals(EndpointMetrics.Endpoint.UPLOAD, endpoint("https://upload.box.com/api/2.0/files/content", "POST"));
+		assertEquals(EndpointMetrics.Endpoint.CONTENT, endpoint("https://api.box.com/2.0/files/12/content", "GET"));
+		assertEquals(EndpointMetrics.Endpoint.SHARE, endpoint("https://api.box.com/2.0/files/12", "PUT"));
+		assertEquals(EndpointMetrics.Endpoint.OTHER, endpoint("https://api.box.com/2.0/files/12", "GET"));
+		assertEquals(EndpointMetrics.Endpoint.OTHER, endpoint("https://api.box.com/2.0/files/12/copy", "POST"));
+		assertEquals("upload", EndpointMetrics.Endpoint.UPLOAD.label());
+	}
+
+	@Test
+	public void callsAreCountedByStatus() throws IOException {
+		EndpointMetrics metrics = new EndpointMetrics();
+		EndpointMetrics.Call ok = metrics.begin(new URL("https://api.box.com/2.0/search"), "GET");
+		EndpointMetrics.Stats stats = metrics.get(EndpointMetrics.Endpoint.SEARCH);
+		assertEquals(1, stats.getInFlight());
+		ok.response(200);
+		// Only the first status counts.
+		ok.response(500);
+		ok.close();
+		ok.close();
+
+		EndpointMetrics.Call throttled = metrics.begin(new URL("https://api.box.com/2.0/search"), "GET");
+		throttled.response(429);
+		throttled.retry();
+		throttled.close();
+
+		EndpointMetrics.Call timedOut = metrics.begin(new URL("https://api.box.com/2.0/search"), "GET");
+		timedOut.close();
+
+		assertEquals(0, stats.getInFlight());
+		assertEquals(3, stats.getRequests());
+		assertEquals(2, stats.getErrors());
+		assertEquals(1, stats.getRetries());
+		assertEquals("0=1, 200=1, 429=1", stats.getStatusCounts());
+		assertEquals(0, metrics.get(EndpointMetrics.Endpoint.OTHER).getRequests());
+	}
+
+	@Test
+	public void bodyBytesAreCounted() throws IOException {
+		EndpointMetrics metrics = new EndpointMetrics();
+		EndpointMetrics.Call call = metrics.begin(new URL("https://api.box.com/2.0/files/12/content"), "GET");
+		call.sent(10);
+		call.response(200);
+		InputStream inputStream = call.receivedUntilClose(new ByteArrayInputStream(new byte[1000]));
+		assertEquals(1, metrics.get(EndpointMetrics.Endpoint.CONTENT).getInFlight());
+		ByteStreams.exhaust(inputStream);
+		inputStream.close();
+
+		EndpointMetrics.Stats stats = metrics.get(EndpointMetrics.Endpoint.CONTENT);
+		assertEquals(1000, call.getReceivedBytes());
+		assertEquals(1000, stats.getBytesIn());
+		assertEquals(10, stats.getBytesOut());
+		// Closing the body ends the call.
+		assertEquals(0, stats.getInFlight());
+	}
+
+	@Test
+	public void prometheusTextHasEveryEndpoint() throws IOException {
+		EndpointMetrics metrics = new EndpointMetrics();
+		EndpointMetrics.Call call = metrics.begin(new URL("https://upload.box.com/api/2.0/files/content"), "POST");
+		call.sent(2048);
+		call.response(201);
+		call.close();
+
+		String text = metrics.toPrometheus();
+		assertTrue(text.contains("# TYPE box_http_request_duration_seconds summary\n"));
+		assertTrue(text.contains("# TYPE box_http_responses_total counter\n"));
+		assertTrue(text.contains("# TYPE box_http_in_flight_requests gauge\n"));
+		assertTrue(text.contains("box_http_request_duration_seconds_count{endpoint=\"upload\"} 1\n"));
+		assertTrue(text.contains("box_http_request_duration_seconds{endpoint=\"upload\",quantile=\"0.99\"} "));
+		assertTrue(text.contains("box_http_responses_total{endpoint=\"upload\",code=\"201\"} 1\n"));
+		assertTrue(text.contains("box_http_sent_bytes_total{endpoint=\"upload\"} 2048\n"));
+		for (EndpointMetrics.Endpoint endpoint : EndpointMetrics.Endpoint.values()) {
+			assertTrue(text.contains("box_http_in_flight_requests{endpoint=\"" + endpoint.label() + "\"} 0\n"));
+		}
+		// Status codes without responses are left out.
+		assertFalse(text.contains("code=\"200\""));
+		for (String line : text.split("\n")) {
+			assertTrue(line, line.startsWith("# ") || line.matches("[a-z_]+\\{endpoint=\"[a-z]+\"(,[a-z]+=\"[0-9.]+\")?} [0-9.E-]+"));
+		}
+	}
+
+	@Test
+	public void unauthorizedGetIsRecordedWithItsStatus() throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.createContext("/2.0/files/12", exchange -> {
+			byte[] body = "{\"type\":\"error\",\"status\":401}".getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(HttpURLConnection.HTTP_UNAUTHORIZED, body.length);
+			try (OutputStream outputStream = exchange.getResponseBody()) {
+				outputStream.write(body);
+			}
+		});
+		server.start();
+		try {
+			EndpointMetrics.Stats stats = HttpUtility.getEndpointMetrics().get(EndpointMetrics.Endpoint.OTHER);
+			long unauthorized = count(stats.getStatusCounts(), 401);
+			long bytesIn = stats.getBytesIn();
+			String url = String.format("http://127.0.0.1:%d/2.0/files/12", server.getAddress().getPort());
+			try {
+				HttpUtility.sendHttpRequest(HttpUtility.buildHttpURLConnection(url, BoxConstants.GETREQUESTMETHOD, "application/json", false, "test"), "test");
+				fail("a 401 must be reported as an error");
+			} catch (BoxRuntimeException ex) {
+				assertEquals(401, HttpUtility.getHttpStatus(ex));
+			}
+			assertEquals(unauthorized + 1, count(stats.getStatusCounts(), 401));
+			assertTrue(stats.getBytesIn() > bytesIn);
+		} finally {
+			server.stop(0);
+		}
+	}
+
+	private static EndpointMetrics.Endpoint endpoint(String url, String requestMethod) throws IOException {
+		return EndpointMetrics.Endpoint.of(new URL(url), requestMethod);
+	}
+
+	/**
+	 * Count of the status in a list like 200=3, 401=1.
+	 */
+	private static long count(String statusCounts, int status) {
+		for (String statusCount : statusCounts.split(", ")) {
+			if (statusCount.startsWith(status + "=")) {
+				return Long.parseLong(statusCount.substring(statusCount.indexOf('=') + 1));
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,162 @@
+package com.storage.api.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import com.google.common.io.ByteStreams;
+import com.google.gson.JsonObject;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class FolderExporterTest {
+	private final FolderExporter exporter = new FolderExporter(3);
+	private final Map<String, List<JsonObject>> folders = new HashMap<>();
+	private final Map<String, String> contents = new HashMap<>();
+
+	@After
+	public void tearDown() {
+		exporter.shutdown();
+	}
+
+	@Test
+	public void exportsFilesAndSubFolders() throws IOException {
+		folder("0", file("1", "a.txt", "alpha"), file("2", "b.png", "png bytes"), folder("10", "docs"), file("3", "a.txt", "again"));
+		folder("10", file("11", "c.txt", "gamma"), folder("20", "empty"));
+		folder("20");
+
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		int written = exporter.export(folders.get("0").iterator(), this::list, this::open, archive);
+
+		assertEquals(4, written);
+		Map<String, ZipEntry> entries = new HashMap<>();
+		Map<String, String> archived = read(archive.toByteArray(), entries);
+		assertEquals("alpha", archived.get("a.txt"));
+		assertEquals("again", archived.get("a (1).txt"));
+		assertEquals("png bytes", archived.get("b.png"));
+		assertEquals("gamma", archived.get("docs/c.txt"));
+		assertEquals("", archived.get("docs/empty/"));
+		assertTrue(archived.containsKey("docs/"));
+		assertEquals(ZipEntry.DEFLATED, entries.get("a.txt").getMethod());
+		assertEquals(ZipEntry.STORED, entries.get("b.png").getMethod());
+	}
+
+	@Test
+	public void subFoldersAreSkippedWithoutAFolderSource() throws IOException {
+		folder("0", file("1", "a.txt", "alpha"), folder("10", "docs"));
+		folder("10", file("11", "c.txt", "gamma"));
+
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		assertEquals(1, exporter.export(folders.get("0").iterator(), this::open, archive));
+		assertEquals(Arrays.asList("a.txt"), new ArrayList<>(read(archive.toByteArray(), new HashMap<>()).keySet()));
+	}
+
+	@Test
+	public void filesAndFoldersThatFailToOpenAreLeftOut() throws IOException {
+		folder("0", file("1", "a.txt", "alpha"), file("2", "missing.txt", null), folder("30", "gone"), file("3", "b.jpg", "jpeg"));
+
+		ByteArrayOutputStream archive = new ByteArrayOutputStream();
+		assertEquals(2, exporter.export(folders.get("0").iterator(), this::list, this::open, archive));
+		Map<String, String> archived = read(archive.toByteArray(), new HashMap<>());
+		assertEquals(2, archived.size());
+		assertEquals("alpha", archived.get("a.txt"));
+		assertEquals("jpeg", archived.get("b.jpg"));
+	}
+
+	@Test
+	public void streamedFileFailingHalfWayEndsTheExport() {
+		folder("0", file("1", "a.txt", null));
+		AtomicBoolean aborted = new AtomicBoolean();
+		InputStream failing = new InputStream() {
+			private int read;
+
+			@Override
+			public int read() throws IOException {
+				if (read++ < 100) {
+					return 'x';
+				}
+				throw new IOException("Connection reset");
+			}
+		};
+		FolderExporter.ContentSource source = fileId -> new DownloadResponse(null, failing) {
+			@Override
+			public void abort() {
+				aborted.set(true);
+			}
+		};
+		try {
+			exporter.export(folders.get("0").iterator(), this::list, source, new ByteArrayOutputStream());
+			fail("a broken entry must not be finished as if it were complete");
+		} catch (IOException ex) {
+			assertEquals("Connection reset", ex.getMessage());
+		}
+		assertTrue(aborted.get());
+	}
+
+	private void folder(String folderId, JsonObject... items) {
+		folders.put(folderId, Arrays.asList(items));
+	}
+
+	private JsonObject file(String fileId, String name, String content) {
+		if (content != null) {
+			contents.put(fileId, content);
+		}
+		return item(BoxConstants.FILE, fileId, name);
+	}
+
+	private static JsonObject folder(String folderId, String name) {
+		return item(BoxConstants.FOLDER, folderId, name);
+	}
+
+	private static JsonObject item(String type, String id, String name) {
+		JsonObject item = new JsonObject();
+		item.addProperty("type", type);
+		item.addProperty("id", id);
+		item.addProperty("name", name);
+		return item;
+	}
+
+	private Iterator<JsonObject> list(String folderId) throws IOException {
+		List<JsonObject> items = folders.get(folderId);
+		if (items == null) {
+			throw new IOException("Not found: " + folderId);
+		}
+		return items.iterator();
+	}
+
+	private DownloadResponse open(String fileId) throws IOException {
+		String content = contents.get(fileId);
+		if (content == null) {
+			throw new IOException("Not found: " + fileId);
+		}
+		return new DownloadResponse(null, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static Map<String, String> read(byte[] archive, Map<String, ZipEntry> entries) throws IOException {
+		Map<String, String> archived = new LinkedHashMap<>();
+		try (ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(archive))) {
+			ZipEntry entry;
+			while ((entry = zipInputStream.getNextEntry()) != null) {
+				entries.put(entry.getName(), entry);
+				archived.put(entry.getName(), new String(ByteStreams.toByteArray(zipInputStream), StandardCharsets.UTF_8));
+			}
+		}
+		return archived;
+	}
+}
@@ -0,0 +1,64 @@
+package com.storage.api.storage;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class HttpUtilityTest {
+	@Test
+	public void conflictOfAFolderArrayIsRead() throws IOException {
+		BoxRuntimeException ex = conflict("{\"type\":\"error\",\"status\":409,\"code\":\"item_name_in_use\","
+				+ "\"context_info\":{\"conflicts\":[{\"type\":\"folder\",\"id\":\"11\",\"name\":\"docs\"}]}}");
+		StringBuilder apiError = new StringBuilder();
+		HttpUtility.extractHttpErrors(apiError, ex);
+		assertEquals("11", ex.getConflictId());
+		assertTrue(apiError.toString().contains("item_name_in_use"));
+	}
+
+	@Test
+	public void conflictOfASingleFolderIsRead() throws IOException {
+		BoxRuntimeException ex = conflict("{\"status\":409,\"context_info\":{\"conflicts\":{\"id\":\"12\",\"type\":\"folder\"}}}");
+		HttpUtility.extractHttpErrors(new StringBuilder(), ex);
+		assertEquals("12", ex.getConflictId());
+	}
+
+	@Test
+	public void conflictOfAFileIsIgnored() throws IOException {
+		BoxRuntimeException array = conflict("{\"status\":409,\"context_info\":{\"conflicts\":[{\"type\":\"file\",\"id\":\"13\"}]}}");
+		HttpUtility.extractHttpErrors(new StringBuilder(), array);
+		assertNull(array.getConflictId());
+
+		BoxRuntimeException single = conflict("{\"status\":409,\"context_info\":{\"conflicts\":{\"type\":\"file\",\"id\":\"14\"}}}");
+		HttpUtility.extractHttpErrors(new StringBuilder(), single);
+		assertNull(single.getConflictId());
+	}
+
+	@Test
+	public void otherErrorsHaveNoConflict() throws IOException {
+		BoxRuntimeException missing = conflict("{\"status\":409,\"code\":\"conflict\"}");
+		HttpUtility.extractHttpErrors(new StringBuilder(), missing);
+		assertNull(missing.getConflictId());
+
+		String body = "{\"status\":400,\"context_info\":{\"conflicts\":[{\"type\":\"folder\",\"id\":\"15\"}]}}";
+		BoxRuntimeException badRequest = new BoxRuntimeException(BoxConstants.LogCodes.BOX_1654, HttpURLConnection.HTTP_BAD_REQUEST, body)
+				.withHttpStatus(HttpURLConnection.HTTP_BAD_REQUEST);
+		HttpUtility.extractHttpErrors(new StringBuilder(), badRequest);
+		assertNull(badRequest.getConflictId());
+
+		BoxRuntimeException text = conflict("\"Conflict\"");
+		StringBuilder apiError = new StringBuilder();
+		HttpUtility.extractHttpErrors(apiError, text);
+		assertNull(text.getConflictId());
+		assertEquals("Conflict ", apiError.toString());
+	}
+
+	private static BoxRuntimeException conflict(String body) {
+		return new BoxRuntimeException(BoxConstants.LogCodes.BOX_1654, HttpURLConnection.HTTP_CONFLICT, body)
+				.withHttpStatus(HttpURLConnection.HTTP_CONFLICT);
+	}
+}
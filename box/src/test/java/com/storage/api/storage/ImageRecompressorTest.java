@@ -0,0 +1,186 @@
+package com.storage.api.storage;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ImageRecompressorTest {
+	private static final boolean INTEL = true;
+	private static final boolean MOTOROLA = false;
+
+	private final ImageRecompressor recompressor = new ImageRecompressor(0.5f, 0, 0, 1);
+
+	@After
+	public void tearDown() {
+		recompressor.shutdown();
+	}
+
+	@Test
+	public void orientationIsReadInBothByteOrders() throws IOException {
+		byte[] jpeg = jpeg();
+		for (int orientation = 1; orientation <= 8; orientation++) {
+			assertEquals(orientation, ImageRecompressor.exifOrientation(withExif(jpeg, tiff(INTEL, orientation, false))));
+			assertEquals(orientation, ImageRecompressor.exifOrientation(withExif(jpeg, tiff(MOTOROLA, orientation, false))));
+			assertEquals(orientation, ImageRecompressor.exifOrientation(withExif(jpeg, tiff(INTEL, orientation, true))));
+			assertEquals(orientation, ImageRecompressor.exifOrientation(withExif(jpeg, tiff(MOTOROLA, orientation, true))));
+		}
+	}
+
+	@Test
+	public void missingOrBrokenExifMeansUpright() throws IOException {
+		byte[] jpeg = jpeg();
+		assertEquals(1, ImageRecompressor.exifOrientation(jpeg));
+		assertEquals(1, ImageRecompressor.exifOrientation(new byte[]{'P', 'N', 'G'}));
+		assertEquals(1, ImageRecompressor.exifOrientation(withExif(jpeg, tiff(INTEL, 9, false))));
+		assertEquals(1, ImageRecompressor.exifOrientation(withExif(jpeg, tiff(MOTOROLA, 0, false))));
+
+		byte[] exif = withExif(jpeg, tiff(MOTOROLA, 6, false));
+		byte[] truncated = new byte[20];
+		System.arraycopy(exif, 0, truncated, 0, truncated.length);
+		assertEquals(1, ImageRecompressor.exifOrientation(truncated));
+	}
+
+	@Test
+	public void uprightImageKeepsItsLayout() throws IOException {
+		// Red top left, green bottom left, blue right half.
+		assertCorners(1, INTEL, 400, 200, "RBGB");
+		assertCorners(1, MOTOROLA, 400, 200, "RBGB");
+	}
+
+	@Test
+	public void orientation3IsTurnedUpsideDown() throws IOException {
+		assertCorners(3, INTEL, 400, 200, "BGBR");
+		assertCorners(3, MOTOROLA, 400, 200, "BGBR");
+	}
+
+	@Test
+	public void orientation6IsTurnedClockwise() throws IOException {
+		assertCorners(6, INTEL, 200, 400, "GRBB");
+		assertCorners(6, MOTOROLA, 200, 400, "GRBB");
+	}
+
+	@Test
+	public void orientation8IsTurnedCounterClockwise() throws IOException {
+		assertCorners(8, INTEL, 200, 400, "BBRG");
+		assertCorners(8, MOTOROLA, 200, 400, "BBRG");
+	}
+
+	/**
+	 * Recompress the test image tagged with the orientation and check the colors of its corners, in the order top left,
+	 * top right, bottom left and bottom right.
+	 */
+	private void assertCorners(int orientation, boolean littleEndian, int width, int height, String corners) throws IOException {
+		byte[] recompressed = recompressor.recompress(withExif(jpeg(), tiff(littleEndian, orientation, false)), "jpg");
+		BufferedImage image = ImageIO.read(new ByteArrayInputStream(recompressed));
+		String order = littleEndian ? "II" : "MM";
+		assertEquals(order + " " + orientation, width, image.getWidth());
+		assertEquals(order + " " + orientation, height, image.getHeight());
+		String actual = color(image.getRGB(5, 5)) + color(image.getRGB(width - 6, 5))
+				+ color(image.getRGB(5, height - 6)) + color(image.getRGB(width - 6, height - 6));
+		assertEquals(order + " " + orientation, corners, actual);
+	}
+
+	private static byte[] jpeg() throws IOException {
+		BufferedImage image = new BufferedImage(400, 200, BufferedImage.TYPE_INT_RGB);
+		Graphics2D graphics = image.createGraphics();
+		graphics.setColor(Color.RED);
+		graphics.fillRect(0, 0, 200, 100);
+		graphics.setColor(Color.GREEN);
+		graphics.fillRect(0, 100, 200, 100);
+		graphics.setColor(Color.BLUE);
+		graphics.fillRect(200, 0, 200, 200);
+		graphics.dispose();
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		ImageIO.write(image, "jpeg", outputStream);
+		return outputStream.toByteArray();
+	}
+
+	/**
+	 * A TIFF header with one IFD holding the orientation, after an unrelated tag if asked to.
+	 */
+	private static byte[] tiff(boolean littleEndian, int orientation, boolean otherTagFirst) {
+		ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+		tiff.write(littleEndian ? 'I' : 'M');
+		tiff.write(littleEndian ? 'I' : 'M');
+		writeShort(tiff, 42, littleEndian);
+		writeInt(tiff, 8, littleEndian);
+		writeShort(tiff, otherTagFirst ? 2 : 1, littleEndian);
+		if (otherTagFirst) {
+			// ImageWidth, LONG, 1 value.
+			writeShort(tiff, 0x0100, littleEndian);
+			writeShort(tiff, 4, littleEndian);
+			writeInt(tiff, 1, littleEndian);
+			writeInt(tiff, 400, littleEndian);
+		}
+		// Orientation, SHORT, 1 value, left aligned in the value field.
+		writeShort(tiff, 0x0112, littleEndian);
+		writeShort(tiff, 3, littleEndian);
+		writeInt(tiff, 1, littleEndian);
+		writeShort(tiff, orientation, littleEndian);
+		writeShort(tiff, 0, littleEndian);
+		writeInt(tiff, 0, littleEndian);
+		return tiff.toByteArray();
+	}
+
+	/**
+	 * Insert an APP1 EXIF segment with the TIFF data right after the start of image marker.
+	 */
+	private static byte[] withExif(byte[] jpeg, byte[] tiff) throws IOException {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		byte[] header = "Exif\0\0".getBytes(StandardCharsets.ISO_8859_1);
+		int length = 2 + header.length + tiff.length;
+		outputStream.write(jpeg, 0, 2);
+		outputStream.write(0xff);
+		outputStream.write(0xe1);
+		outputStream.write(length >> 8);
+		outputStream.write(length & 0xff);
+		outputStream.write(header);
+		outputStream.write(tiff);
+		outputStream.write(jpeg, 2, jpeg.length - 2);
+		return outputStream.toByteArray();
+	}
+
+	private static void writeShort(ByteArrayOutputStream outputStream, int value, boolean littleEndian) {
+		if (littleEndian) {
+			outputStream.write(value & 0xff);
+			outputStream.write(value >> 8 & 0xff);
+		} else {
+			outputStream.write(value >> 8 & 0xff);
+			outputStream.write(value & 0xff);
+		}
+	}
+
+	private static void writeInt(ByteArrayOutputStream outputStream, int value, boolean littleEndian) {
+		if (littleEndian) {
+			writeShort(outputStream, value & 0xffff, true);
+			writeShort(outputStream, value >>> 16, true);
+		} else {
+			writeShort(outputStream, value >>> 16, false);
+			writeShort(outputStream, value & 0xffff, false);
+		}
+	}
+
+	private static String color(int rgb) {
+		int red = rgb >> 16 & 0xff;
+		int green = rgb >> 8 & 0xff;
+		int blue = rgb & 0xff;
+		if (red > 200 && green < 60 && blue < 60) {
+			return "R";
+		}
+		if (green > 200 && red < 60 && blue < 60) {
+			return "G";
+		}
+		return blue > 200 && red < 60 && green < 60 ? "B" : "?";
+	}
+}
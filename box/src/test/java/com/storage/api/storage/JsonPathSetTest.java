@@ -0,0 +1,132 @@
+package com.storage.api.storage;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class JsonPathSetTest {
+	private static final String LISTING = "{\"total_count\":3,\"entries\":["
+			+ "{\"type\":\"file\",\"id\":\"10\",\"name\":\"a.txt\",\"sha1\":\"aa\"},"
+			+ "{\"type\":\"folder\",\"id\":\"11\",\"name\":\"docs\"},"
+			+ "{\"type\":\"file\",\"id\":\"12\",\"sha1\":\"cc\",\"extra\":{\"deep\":[1,2,3]}}],"
+			+ "\"offset\":0,\"limit\":100}";
+
+	@Test
+	public void wildcardPathsArePaddedToLineUp() throws IOException {
+		JsonPathSet pathSet = new JsonPathSet("entries[*].id", "entries[*].name", "entries[*].sha1");
+		for (JsonPathSet.Values values : Arrays.asList(read(pathSet, LISTING), pathSet.extract(JsonParser.parseString(LISTING)))) {
+			assertEquals(Arrays.asList("10", "11", "12"), values.getValues("entries[*].id"));
+			assertEquals(Arrays.asList("a.txt", "docs", null), values.getValues("entries[*].name"));
+			assertEquals(Arrays.asList("aa", null, "cc"), values.getValues("entries[*].sha1"));
+			assertEquals(JsonNull.INSTANCE, values.getElements("entries[*].name").get(2));
+		}
+	}
+
+	@Test
+	public void wildcardOverEmptyOrMissingArray() throws IOException {
+		JsonPathSet pathSet = new JsonPathSet("entries[*].id", "total_count");
+		JsonPathSet.Values empty = read(pathSet, "{\"total_count\":0,\"entries\":[]}");
+		assertEquals(Collections.emptyList(), empty.getValues("entries[*].id"));
+		assertEquals("0", empty.getValue("total_count"));
+
+		JsonPathSet.Values missing = read(pathSet, "{\"total_count\":0}");
+		assertEquals(Collections.emptyList(), missing.getValues("entries[*].id"));
+		assertNull(missing.getValue("entries[*].id"));
+	}
+
+	@Test
+	public void readAndExtractAgree() throws IOException {
+		JsonPathSet pathSet = new JsonPathSet("total_count", "entries[1].id", "entries[*].type", "entries[2].extra.deep[1]",
+				"entries[5].id", "entries.id", "offset.value", "limit");
+		JsonPathSet.Values read = read(pathSet, LISTING);
+		JsonPathSet.Values extracted = pathSet.extract(JsonParser.parseString(LISTING));
+		assertEquals(extracted.asMap(), read.asMap());
+
+		assertEquals("3", read.getValue("total_count"));
+		assertEquals("11", read.getValue("entries[1].id"));
+		assertEquals(Arrays.asList("file", "folder", "file"), read.getValues("entries[*].type"));
+		assertEquals("2", read.getValue("entries[2].extra.deep[1]"));
+		assertEquals("100", read.getValue("limit"));
+	}
+
+	@Test
+	public void outOfRangeAndMismatchedPathsHaveNoValue() throws IOException {
+		JsonPathSet pathSet = new JsonPathSet("entries[5].id", "entries.id", "total_count.value", "entries[0].name[0]", "entries[1]");
+		JsonPathSet.Values values = read(pathSet, LISTING);
+		assertNull(values.getElement("entries[5].id"));
+		assertNull(values.getElement("entries.id"));
+		assertNull(values.getElement("total_count.value"));
+		assertNull(values.getElement("entries[0].name[0]"));
+
+		// A container is a value but not a string one.
+		assertNull(values.getValue("entries[1]"));
+		assertEquals("docs", values.getElement("entries[1]").getAsJsonObject().get("name").getAsString());
+	}
+
+	@Test
+	public void readingStopsOnceEveryPathIsResolved() throws IOException {
+		JsonPathSet pathSet = new JsonPathSet("total_count", "entries[0].id");
+		JsonReader reader = new JsonReader(new StringReader(LISTING));
+		JsonPathSet.Values values = pathSet.read(reader);
+		assertEquals("3", values.getValue("total_count"));
+		assertEquals("10", values.getValue("entries[0].id"));
+		// The rest of the first entry and the other entries were never read.
+		assertEquals(JsonToken.NAME, reader.peek());
+		assertEquals("name", reader.nextName());
+	}
+
+	@Test
+	public void duplicatePathsShareValues() throws IOException {
+		JsonPathSet pathSet = new JsonPathSet("limit", "limit");
+		JsonPathSet.Values values = read(pathSet, LISTING);
+		assertEquals(1, values.asMap().size());
+		assertEquals("100", values.getValue("limit"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownPathIsRejected() throws IOException {
+		read(new JsonPathSet("limit"), LISTING).getValue("offset");
+	}
+
+	@Test
+	public void typedGettersFallBackToDefaults() throws IOException {
+		JsonPathSet pathSet = new JsonPathSet("flag", "count", "nothing", "text", "missing");
+		JsonPathSet.Values values = read(pathSet, "{\"flag\":true,\"count\":12,\"nothing\":null,\"text\":\"x\"}");
+		assertTrue(values.getValue("flag", false));
+		assertEquals("12", values.getValue("count", "0"));
+		assertFalse(values.hasValue("nothing"));
+		assertEquals("none", values.getValue("nothing", "none"));
+		assertTrue(values.hasValue("text"));
+		assertFalse(values.hasValue("missing"));
+		assertTrue(values.getValue("missing", true));
+	}
+
+	@Test
+	public void getValuesMatchesSingleLookups() {
+		JsonElement listing = JsonParser.parseString(LISTING);
+		JsonPathSet.Values values = JsonPath.getValues(listing, "total_count", "entries[2].sha1", "entries[5].id");
+		assertEquals(JsonPath.getValue(listing, "total_count"), values.getValue("total_count"));
+		assertEquals(JsonPath.getValue(listing, "entries[2].sha1"), values.getValue("entries[2].sha1"));
+		assertEquals(JsonPath.hasValue(listing, "entries[5].id"), values.hasValue("entries[5].id"));
+		List<JsonElement> ids = JsonPath.getValues(listing, "entries[*].id").getElements("entries[*].id");
+		assertEquals(3, ids.size());
+	}
+
+	private static JsonPathSet.Values read(JsonPathSet pathSet, String json) throws IOException {
+		return pathSet.read(new JsonReader(new StringReader(json)));
+	}
+}
@@ -0,0 +1,151 @@
+package com.storage.api.storage;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JsonPathTest {
+	private static final JsonElement ITEM = JsonParser.parseString(
+			"{\"id\":\"1\",\"name\":\"a\",\"size\":12,\"shared\":true,\"parent\":{\"id\":\"0\"},"
+					+ "\"entries\":[{\"id\":\"10\"},{\"id\":\"11\",\"tags\":[\"x\",\"y\"]}]}");
+
+	@Test
+	public void compileSplitsFieldsAndArrayIndexes() {
+		JsonPath.CompiledPath path = JsonPath.compile("entries[1].tags[0]");
+		assertEquals("entries[1].tags[0]", path.getPath());
+		assertEquals(2, path.segments.length);
+		assertEquals("entries", path.segments[0].name);
+		assertEquals(JsonPath.FieldType.Array, path.segments[0].type);
+		assertEquals(1, path.segments[0].index);
+		assertEquals("tags", path.segments[1].name);
+		assertEquals(0, path.segments[1].index);
+
+		JsonPath.CompiledPath field = JsonPath.compile("parent.id");
+		assertEquals(JsonPath.FieldType.Object, field.segments[0].type);
+		assertEquals(JsonPath.FieldType.Primitive, field.segments[1].type);
+		assertEquals(JsonPath.ANY_INDEX, JsonPath.compile("entries[*].id").segments[0].index);
+	}
+
+	@Test
+	public void compileCachesPaths() {
+		assertSame(JsonPath.compile("parent.id"), JsonPath.compile("parent.id"));
+		assertEquals(0, JsonPath.compile("").segments.length);
+		assertEquals(0, JsonPath.compile(null).segments.length);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void compileRejectsUnclosedIndex() {
+		JsonPath.compile("entries[0");
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void compileRejectsNonNumericIndex() {
+		JsonPath.compile("entries[first].id");
+	}
+
+	@Test
+	public void getValueFollowsPath() {
+		assertEquals("1", JsonPath.getValue(ITEM, "id"));
+		assertEquals("0", JsonPath.getValue(ITEM, "parent.id"));
+		assertEquals("11", JsonPath.getValue(ITEM, "entries[1].id"));
+		assertEquals("y", JsonPath.getValue(ITEM, "entries[1].tags[1]"));
+		assertEquals(12, JsonPath.getValue(ITEM, "size", 0));
+		assertEquals(12L, JsonPath.getValue(ITEM, "size", 0L));
+		assertTrue(JsonPath.getValue(ITEM, "shared", false));
+		assertTrue(JsonPath.hasValue(ITEM, "entries[0].id"));
+	}
+
+	@Test
+	public void outOfRangeIndexIsNotFound() {
+		assertNull(JsonPath.getValue(ITEM, "entries[2].id"));
+		assertNull(JsonPath.getValue(ITEM, "entries[-1].id"));
+		assertNull(JsonPath.getValue(ITEM, "entries[0].tags[0]"));
+		assertEquals("none", JsonPath.getValue(ITEM, "entries[5].id", "none"));
+		assertFalse(JsonPath.hasValue(ITEM, "entries[2]"));
+	}
+
+	@Test
+	public void typeMismatchIsNotFound() {
+		// An index on an object, a field on an array or a primitive, and a primitive read of a container.
+		assertNull(JsonPath.getValue(ITEM, "parent[0].id"));
+		assertNull(JsonPath.getValue(ITEM, "entries.id"));
+		assertNull(JsonPath.getValue(ITEM, "name.first"));
+		assertNull(JsonPath.getValue(ITEM, "parent"));
+		assertNull(JsonPath.findArray(ITEM, "parent"));
+		assertNull(JsonPath.findObject(ITEM, "entries"));
+		assertNull(JsonPath.getValue(new JsonArray(), "id"));
+		assertNull(JsonPath.getValue(null, "id"));
+		assertEquals(7, JsonPath.getValue(ITEM, "parent", 7));
+	}
+
+	@Test
+	public void setValueCreatesParents() {
+		JsonObject object = new JsonObject();
+		JsonPath.setValue(object, "parent.id", "0");
+		JsonPath.setValue(object, "shared_link.access", "open");
+		JsonPath.setValue(object, "shared_link.permissions.can_download", true);
+		assertEquals("{\"parent\":{\"id\":\"0\"},\"shared_link\":{\"access\":\"open\",\"permissions\":{\"can_download\":true}}}",
+				object.toString());
+
+		JsonPath.setValue(object, "parent.id", "1");
+		assertEquals("1", JsonPath.getValue(object, "parent.id"));
+	}
+
+	@Test
+	public void setValueGrowsArrays() {
+		JsonObject object = new JsonObject();
+		JsonPath.setValue(object, "entries[2].id", "12");
+		JsonArray entries = JsonPath.findArray(object, "entries");
+		assertEquals(3, entries.size());
+		assertEquals(new JsonObject(), entries.get(0));
+		assertEquals(new JsonObject(), entries.get(1));
+		assertEquals("12", JsonPath.getValue(object, "entries[2].id"));
+
+		JsonPath.setValue(object, "entries[0].id", "10");
+		assertEquals(3, entries.size());
+		assertEquals("10", JsonPath.getValue(object, "entries[0].id"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setValueRejectsNegativeIndex() {
+		JsonPath.setValue(new JsonObject(), "entries[-1].id", "x");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setValueRejectsIndexOnObject() {
+		JsonObject object = new JsonObject();
+		JsonPath.setValue(object, "parent.id", "0");
+		JsonPath.setValue(object, "parent[0].id", "1");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void setValueRejectsFieldOnPrimitive() {
+		JsonObject object = new JsonObject();
+		JsonPath.setValue(object, "name", "a");
+		JsonPath.setValue(object, "name.first", "b");
+	}
+
+	@Test
+	public void removeField() {
+		JsonObject object = ITEM.deepCopy().getAsJsonObject();
+		JsonPath.removeField(object, "parent.id");
+		JsonPath.removeField(object, "missing.id");
+		assertEquals(new JsonObject(), JsonPath.findObject(object, "parent"));
+	}
+
+	@Test
+	public void parentPathAndLastField() {
+		assertEquals("a.b", JsonPath.getParentPath("a.b.c"));
+		assertEquals("c", JsonPath.getLastField("a.b.c"));
+		assertEquals("c", JsonPath.getParentPath("c"));
+		assertEquals("c", JsonPath.getLastField("c"));
+	}
+}
@@ -0,0 +1,219 @@
+package com.storage.api.storage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class UploadLeaseStoreTest {
+	private static final long LEASE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+	private static final String KEY = "folder/file.txt";
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private Path directory;
+	private List<UploadLeaseStore> stores;
+
+	@Before
+	public void setUp() {
+		directory = temporaryFolder.getRoot().toPath();
+		stores = new ArrayList<>();
+	}
+
+	@After
+	public void tearDown() {
+		stores.forEach(UploadLeaseStore::close);
+	}
+
+	@Test
+	public void claimHoldAndComplete() throws IOException {
+		UploadLeaseStore first = store("first");
+		UploadLeaseStore second = store("second");
+
+		assertEquals(UploadLeaseStore.Claim.CLAIMED, first.claim(KEY));
+		assertEquals(UploadLeaseStore.Claim.HELD, second.claim(KEY));
+		assertTrue(first.complete(KEY));
+		assertEquals(UploadLeaseStore.Claim.DONE, second.claim(KEY));
+		assertEquals(UploadLeaseStore.Claim.DONE, first.claim(KEY));
+	}
+
+	@Test
+	public void releasedLeaseCanBeClaimed() throws IOException {
+		UploadLeaseStore first = store("first");
+		UploadLeaseStore second = store("second");
+
+		assertEquals(UploadLeaseStore.Claim.CLAIMED, first.claim(KEY));
+		first.release(KEY);
+		assertEquals(UploadLeaseStore.Claim.CLAIMED, second.claim(KEY));
+	}
+
+	@Test
+	public void expiredLeaseIsReclaimed() throws IOException {
+		UploadLeaseStore first = store("first");
+		UploadLeaseStore second = store("second");
+
+		assertEquals(UploadLeaseStore.Claim.CLAIMED, first.claim(KEY));
+		expire(leaseFile());
+		assertEquals(UploadLeaseStore.Claim.CLAIMED, second.claim(KEY));
+		assertEquals(UploadLeaseStore.Claim.HELD, first.claim(KEY));
+	}
+
+	@Test
+	public void onlyTheOwnerCompletesOrReleases() throws IOException {
+		UploadLeaseStore first = store("first");
+		UploadLeaseStore second = store("second");
+
+		assertEquals(UploadLeaseStore.Claim.CLAIMED, first.claim(KEY));
+		expire(leaseFile());
+		assertEquals(UploadLeaseStore.Claim.CLAIMED, second.claim(KEY));
+
+		// The first worker lost its lease, it must neither free the key nor mark it done.
+		first.release(KEY);
+		assertEquals(UploadLeaseStore.Claim.HELD, store("third").claim(KEY));
+		assertFalse(first.complete(KEY));
+		assertEquals(UploadLeaseStore.Claim.HELD, store("fourth").claim(KEY));
+
+		assertTrue(second.complete(KEY));
+		assertEquals(UploadLeaseStore.Claim.DONE, first.claim(KEY));
+	}
+
+	@Test
+	public void concurrentReclaimHasOneWinner() throws Exception {
+		UploadLeaseStore first = store("first");
+		assertEquals(UploadLeaseStore.Claim.CLAIMED, first.claim(KEY));
+		expire(leaseFile());
+
+		int workers = 8;
+		List<UploadLeaseStore> contenders = new ArrayList<>();
+		for (int i = 0; i < workers; i++) {
+			contenders.add(store("worker-" + i));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<UploadLeaseStore.Claim>> claims = new ArrayList<>();
+			for (UploadLeaseStore contender : contenders) {
+				Callable<UploadLeaseStore.Claim> claim = () -> {
+					start.await();
+					return contender.claim(KEY);
+				};
+				claims.add(executor.submit(claim));
+			}
+			start.countDown();
+
+			int claimed = 0;
+			for (Future<UploadLeaseStore.Claim> claim : claims) {
+				if (claim.get(10, TimeUnit.SECONDS) == UploadLeaseStore.Claim.CLAIMED) {
+					claimed++;
+				}
+			}
+			assertEquals(1, claimed);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void concurrentClaimsOfManyKeysHaveOneWinnerEach() throws Exception {
+		int workers = 4;
+		int keys = 200;
+		List<UploadLeaseStore> contenders = new ArrayList<>();
+		for (int i = 0; i < workers; i++) {
+			contenders.add(store("worker-" + i));
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			List<Future<Integer>> results = new ArrayList<>();
+			for (UploadLeaseStore contender : contenders) {
+				Callable<Integer> claimAll = () -> {
+					int claimed = 0;
+					for (int i = 0; i < keys; i++) {
+						if (contender.claim("file-" + i) == UploadLeaseStore.Claim.CLAIMED) {
+							claimed++;
+							assertTrue(contender.complete("file-" + i));
+						}
+					}
+					return claimed;
+				};
+				results.add(executor.submit(claimAll));
+			}
+			int claimed = 0;
+			for (Future<Integer> result : results) {
+				claimed += result.get(30, TimeUnit.SECONDS);
+			}
+			assertEquals(keys, claimed);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void heldLeaseIsRenewed() throws Exception {
+		UploadLeaseStore first = new UploadLeaseStore(directory, "first", 1, 0, 300);
+		stores.add(first);
+		assertEquals(UploadLeaseStore.Claim.CLAIMED, first.claim(KEY));
+		UploadLeaseStore second = new UploadLeaseStore(directory, "second", 1, 0, 300);
+		stores.add(second);
+		// Twice the lease duration, the renewer touches the lease every 100 ms meanwhile.
+		Thread.sleep(600);
+		assertEquals(UploadLeaseStore.Claim.HELD, second.claim(KEY));
+		first.close();
+		Thread.sleep(600);
+		assertEquals(UploadLeaseStore.Claim.CLAIMED, second.claim(KEY));
+	}
+
+	@Test
+	public void shardsCoverEveryWorker() throws IOException {
+		UploadLeaseStore store = new UploadLeaseStore(directory, "first", 3, 1, LEASE_MILLIS);
+		stores.add(store);
+		boolean[] seen = new boolean[3];
+		for (int i = 0; i < 100; i++) {
+			String key = "file-" + i;
+			int shard = store.shardOf(key);
+			seen[shard] = true;
+			assertEquals((shard - 1 + 3) % 3, store.shardDistance(key));
+		}
+		assertTrue(seen[0] && seen[1] && seen[2]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void workerIndexMustBeInRange() throws IOException {
+		new UploadLeaseStore(directory, "first", 2, 2, LEASE_MILLIS);
+	}
+
+	private UploadLeaseStore store(String workerId) throws IOException {
+		UploadLeaseStore store = new UploadLeaseStore(directory, workerId, 1, 0, LEASE_MILLIS);
+		stores.add(store);
+		return store;
+	}
+
+	private Path leaseFile() throws IOException {
+		try (DirectoryStream<Path> leases = Files.newDirectoryStream(directory, "*.lease")) {
+			return leases.iterator().next();
+		}
+	}
+
+	private static void expire(Path leaseFile) throws IOException {
+		Files.setLastModifiedTime(leaseFile, FileTime.fromMillis(System.currentTimeMillis() - 2 * LEASE_MILLIS));
+	}
+}
@@ -0,0 +1,129 @@
+package com.storage.api.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UploadMetricsTest {
+	@Test
+	public void countersAddUp() {
+		UploadMetrics metrics = new UploadMetrics();
+		metrics.fileDone(1000, TimeUnit.MILLISECONDS.toNanos(10));
+		metrics.fileDone(3000, TimeUnit.MILLISECONDS.toNanos(30));
+		metrics.fileDeduplicated(500, TimeUnit.MILLISECONDS.toNanos(5));
+		metrics.fileFailed(TimeUnit.MILLISECONDS.toNanos(50));
+		metrics.fileSkipped();
+		metrics.bytesSaved(200);
+
+		// A deduplicated file is done but sent nothing.
+		assertEquals(3, metrics.getFilesDone());
+		assertEquals(1, metrics.getFilesFailed());
+		assertEquals(1, metrics.getFilesSkipped());
+		assertEquals(4000, metrics.getBytesSent());
+		assertEquals(1, metrics.getFilesDeduplicated());
+		assertEquals(500, metrics.getBytesDeduplicated());
+		assertEquals(200, metrics.getBytesSaved());
+	}
+
+	@Test
+	public void snapshotHoldsLatenciesInMicroseconds() {
+		UploadMetrics metrics = new UploadMetrics();
+		for (int i = 1; i <= 100; i++) {
+			metrics.fileDone(10, TimeUnit.MILLISECONDS.toNanos(i));
+		}
+		metrics.stage(UploadMetrics.Stage.UPLOAD, TimeUnit.MILLISECONDS.toNanos(20));
+
+		JsonObject snapshot = metrics.snapshot();
+		assertEquals(100, snapshot.get("filesDone").getAsLong());
+		assertEquals(1000, snapshot.get("bytesSent").getAsLong());
+		JsonObject fileLatency = snapshot.getAsJsonObject("fileLatency");
+		assertEquals(100, fileLatency.get("count").getAsLong());
+		// Two significant digits, so within 1%.
+		assertEquals(50000, fileLatency.get("p50").getAsLong(), 500);
+		assertEquals(99000, fileLatency.get("p99").getAsLong(), 990);
+		assertEquals(100000, fileLatency.get("max").getAsLong(), 1000);
+
+		JsonObject stages = snapshot.getAsJsonObject("stages");
+		assertEquals(UploadMetrics.Stage.values().length, stages.size());
+		assertEquals(1, stages.getAsJsonObject("upload").get("count").getAsLong());
+		assertEquals(0, stages.getAsJsonObject("folder").get("count").getAsLong());
+		assertTrue(snapshot.get("filesPerSecond").getAsDouble() > 0);
+	}
+
+	@Test
+	public void outOfRangeLatenciesAreClamped() {
+		UploadMetrics metrics = new UploadMetrics();
+		metrics.fileDone(1, -5);
+		metrics.fileDone(1, TimeUnit.HOURS.toNanos(2));
+		JsonObject fileLatency = metrics.snapshot().getAsJsonObject("fileLatency");
+		assertEquals(2, fileLatency.get("count").getAsLong());
+		assertEquals(TimeUnit.MINUTES.toMicros(30), fileLatency.get("max").getAsLong(), TimeUnit.MINUTES.toMicros(30) / 100);
+	}
+
+	@Test
+	public void resetClearsEverything() {
+		UploadMetrics metrics = new UploadMetrics();
+		metrics.fileDone(1000, 1000);
+		metrics.fileFailed(1000);
+		metrics.stage(UploadMetrics.Stage.HASH, 1000);
+		metrics.reset();
+
+		JsonObject snapshot = metrics.snapshot();
+		assertEquals(0, snapshot.get("filesDone").getAsLong());
+		assertEquals(0, snapshot.get("filesFailed").getAsLong());
+		assertEquals(0, snapshot.get("bytesSent").getAsLong());
+		assertEquals(0, snapshot.getAsJsonObject("fileLatency").get("count").getAsLong());
+		assertEquals(0, snapshot.getAsJsonObject("stages").getAsJsonObject("hash").get("count").getAsLong());
+	}
+
+	@Test
+	public void concurrentRecordingLosesNothing() throws Exception {
+		UploadMetrics metrics = new UploadMetrics();
+		int threads = 8;
+		int files = 10000;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<?>> results = new ArrayList<>();
+			for (int t = 0; t < threads; t++) {
+				Callable<Void> work = () -> {
+					for (int i = 0; i < files; i++) {
+						metrics.fileDone(10, TimeUnit.MICROSECONDS.toNanos(i));
+						metrics.stage(UploadMetrics.Stage.READ, TimeUnit.MICROSECONDS.toNanos(i));
+					}
+					return null;
+				};
+				results.add(executor.submit(work));
+			}
+			for (Future<?> result : results) {
+				result.get(30, TimeUnit.SECONDS);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(threads * files, metrics.getFilesDone());
+		assertEquals(threads * files * 10L, metrics.getBytesSent());
+		JsonObject snapshot = metrics.snapshot();
+		assertEquals(threads * files, snapshot.getAsJsonObject("fileLatency").get("count").getAsLong());
+		assertEquals(threads * files, snapshot.getAsJsonObject("stages").getAsJsonObject("read").get("count").getAsLong());
+	}
+
+	@Test
+	public void progressLineSummarizesTheCounters() {
+		UploadMetrics metrics = new UploadMetrics();
+		metrics.fileDone(2048, TimeUnit.MILLISECONDS.toNanos(210));
+		metrics.fileSkipped();
+		String line = metrics.progressLine();
+		assertTrue(line, line.startsWith("Upload progress: files done=1 failed=0 skipped=1 deduplicated=0 bytes=2048 saved=0 ("));
+		assertTrue(line, line.matches(".*p50=2(09|10|11)ms.*"));
+	}
+}
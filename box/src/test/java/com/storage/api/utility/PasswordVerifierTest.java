@@ -0,0 +1,125 @@
+package com.storage.api.utility;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PasswordVerifierTest {
+	private static final String PASSWORD = "correct horse";
+
+	private final PasswordVerifier verifier = new PasswordVerifier(2, 10);
+
+	@After
+	public void tearDown() {
+		verifier.shutdown();
+	}
+
+	@Test
+	public void currentHashVerifiesWithoutRehash() throws Exception {
+		String hash = verifier.hash(PASSWORD).get(30, TimeUnit.SECONDS);
+		assertTrue(hash, hash.startsWith("2$310000$"));
+
+		PasswordVerifier.Result result = verifier.verify(PASSWORD, hash).get(30, TimeUnit.SECONDS);
+		assertTrue(result.matches());
+		assertNull(result.getRehash());
+		assertFalse(verifier.verifyNow("wrong horse", hash).matches());
+		// A new salt every time.
+		assertFalse(hash.equals(verifier.hash(PASSWORD).get(30, TimeUnit.SECONDS)));
+	}
+
+	@Test
+	public void version1HashIsRehashed() throws Exception {
+		String salt = PasswordUtils.getSalt(30);
+		String securedPassword = PasswordUtils.generateSecurePassword(PASSWORD, salt);
+
+		PasswordVerifier.Result result = verifier.verify(PASSWORD, securedPassword, salt).get(30, TimeUnit.SECONDS);
+		assertTrue(result.matches());
+		assertTrue(result.getRehash(), result.getRehash().startsWith("2$310000$"));
+		PasswordVerifier.Result rehashed = verifier.verifyNow(PASSWORD, result.getRehash());
+		assertTrue(rehashed.matches());
+		assertNull(rehashed.getRehash());
+
+		assertFalse(verifier.verify("wrong horse", securedPassword, salt).get(30, TimeUnit.SECONDS).matches());
+		assertNull(verifier.verify("wrong horse", securedPassword, salt).get(30, TimeUnit.SECONDS).getRehash());
+	}
+
+	@Test
+	public void olderParametersInTheVersionedFormatAreRehashed() {
+		String version1 = encode(1, PasswordUtils.ALGORITHM, PasswordUtils.ITERATIONS);
+		PasswordVerifier.Result result = verifier.verifyNow(PASSWORD, version1);
+		assertTrue(result.matches());
+		assertTrue(result.getRehash().startsWith("2$310000$"));
+
+		String fewerIterations = encode(2, "PBKDF2WithHmacSHA256", 1000);
+		result = verifier.verifyNow(PASSWORD, fewerIterations);
+		assertTrue(result.matches());
+		assertTrue(result.getRehash().startsWith("2$310000$"));
+		assertFalse(verifier.verifyNow("wrong horse", fewerIterations).matches());
+	}
+
+	@Test
+	public void malformedHashesDoNotMatch() {
+		String valid = encode(2, "PBKDF2WithHmacSHA256", 1000);
+		String[] parts = valid.split("\\$");
+		String[] malformed = {
+				null,
+				"",
+				"2$1000$" + parts[2],
+				valid + "$extra",
+				"x$1000$" + parts[2] + "$" + parts[3],
+				"2$many$" + parts[2] + "$" + parts[3],
+				"9$1000$" + parts[2] + "$" + parts[3],
+				"2$0$" + parts[2] + "$" + parts[3],
+				"2$-5$" + parts[2] + "$" + parts[3],
+				"2$1000$not base64!$" + parts[3],
+				"2$1000$" + parts[2] + "$%%%"};
+		for (String storedHash : malformed) {
+			PasswordVerifier.Result result = verifier.verifyNow(PASSWORD, storedHash);
+			assertFalse(storedHash, result.matches());
+			assertNull(storedHash, result.getRehash());
+		}
+		assertFalse(verifier.verifyNow(PASSWORD, "2$1000$" + parts[2] + "$" + Base64.getEncoder().encodeToString(new byte[32])).matches());
+	}
+
+	@Test
+	public void fullQueueRejectsRightAway() throws Exception {
+		PasswordVerifier busy = new PasswordVerifier(1, 1);
+		try {
+			// One hash runs, one waits in the queue and the third has no room.
+			CompletableFuture<String> running = busy.hash(PASSWORD);
+			CompletableFuture<String> queued = busy.hash(PASSWORD);
+			CompletableFuture<String> rejected = busy.hash(PASSWORD);
+			assertTrue(rejected.isCompletedExceptionally());
+			try {
+				rejected.get();
+				fail("a full queue must reject the hash");
+			} catch (ExecutionException ex) {
+				assertTrue(ex.getCause() instanceof RejectedExecutionException);
+			}
+			running.get(30, TimeUnit.SECONDS);
+			queued.get(30, TimeUnit.SECONDS);
+			// Room again once the queue drained.
+			assertTrue(busy.verifyNow(PASSWORD, busy.hash(PASSWORD).get(30, TimeUnit.SECONDS)).matches());
+		} finally {
+			busy.shutdown();
+		}
+	}
+
+	private static String encode(int version, String algorithm, int iterations) {
+		byte[] salt = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+		byte[] hash = PasswordUtils.hash(PASSWORD.toCharArray(), salt, algorithm, iterations, 256);
+		Base64.Encoder encoder = Base64.getEncoder();
+		return version + "$" + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+	}
+}